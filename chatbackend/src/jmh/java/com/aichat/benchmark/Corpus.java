@@ -0,0 +1,61 @@
+package com.aichat.benchmark;
+
+import com.aichat.service.ingest.DocumentSplitter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 基准测试用语料：中英文各一份产品手册（src/jmh/resources/corpus），按需重复到指定长度
+ */
+public final class Corpus {
+
+    public enum Language {
+        ZH, EN
+    }
+
+    private Corpus() {
+    }
+
+    static String load(Language language) {
+        String name = "/corpus/" + language.name().toLowerCase() + ".txt";
+        try (InputStream in = Corpus.class.getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IllegalStateException("语料不存在: " + name);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 重复语料直到不少于 length 个字符（按段落边界拼接）
+     */
+    static String load(Language language, int length) {
+        String text = load(language);
+        StringBuilder result = new StringBuilder(length + text.length());
+        while (result.length() < length) {
+            result.append(text).append("\n\n");
+        }
+        return result.toString();
+    }
+
+    /**
+     * 按入库默认参数切出的文本块，作为嵌入与元数据基准的输入
+     */
+    static List<String> chunks(Language language) {
+        return new DocumentSplitter().split(load(language), DocumentSplitter.SplitStrategy.PARAGRAPH_TOKEN_OVERLAP);
+    }
+
+    /**
+     * 最长的文本块，接近切分上限，代表单个文档块的嵌入开销
+     */
+    static String longestChunk(Language language) {
+        return chunks(language).stream().max(Comparator.comparingInt(String::length)).orElseThrow();
+    }
+}
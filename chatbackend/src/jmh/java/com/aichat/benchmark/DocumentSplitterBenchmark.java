@@ -0,0 +1,56 @@
+package com.aichat.benchmark;
+
+import com.aichat.service.ingest.DocumentSplitter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文档切分：每种策略在中英文语料上按入库默认参数（500字符，重叠50）切分
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DocumentSplitterBenchmark {
+
+    @Param({"TOKEN_OVERLAP", "PARAGRAPH", "SENTENCE", "PARAGRAPH_TOKEN_OVERLAP"})
+    private DocumentSplitter.SplitStrategy strategy;
+
+    @Param({"ZH", "EN"})
+    private Corpus.Language language;
+
+    /**
+     * 文档长度（字符），约对应一份几页与几十页的文档
+     */
+    @Param({"4000", "100000"})
+    private int length;
+
+    private DocumentSplitter splitter;
+    private String text;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        splitter = new DocumentSplitter();
+        text = Corpus.load(language, length);
+    }
+
+    @Benchmark
+    public List<String> split() {
+        return splitter.split(text, strategy, 500, 50);
+    }
+}
@@ -0,0 +1,64 @@
+package com.aichat.benchmark;
+
+import com.aichat.service.embedding.SimpleEmbeddingService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地哈希嵌入：单条查询向量（对话时每次检索一次）与入库时的整批文档向量
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmbeddingBenchmark {
+
+    @Param({"ZH", "EN"})
+    private Corpus.Language language;
+
+    @Param({"256", "1536"})
+    private int dimension;
+
+    private SimpleEmbeddingService embeddingService;
+    private List<String> chunks;
+    private String chunk;
+    private String query;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        embeddingService = new SimpleEmbeddingService();
+        chunks = Corpus.chunks(language);
+        chunk = Corpus.longestChunk(language);
+        query = language == Corpus.Language.ZH ? "上传的文档一直显示处理中怎么办？" : "How do I fix a document stuck in processing?";
+    }
+
+    @Benchmark
+    public float[] generateQueryEmbedding() {
+        return embeddingService.generateEmbedding(query, dimension);
+    }
+
+    @Benchmark
+    public float[] generateChunkEmbedding() {
+        return embeddingService.generateEmbedding(chunk, dimension);
+    }
+
+    @Benchmark
+    public List<float[]> generateEmbeddings() {
+        return embeddingService.generateEmbeddings(chunks, dimension);
+    }
+}
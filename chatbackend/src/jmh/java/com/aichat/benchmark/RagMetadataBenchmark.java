@@ -0,0 +1,71 @@
+package com.aichat.benchmark;
+
+import com.aichat.domain.dto.chat.ChatResponse;
+import com.aichat.domain.entity.VectorDocument;
+import com.aichat.service.RagMetadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RAG 引用元数据：保存助手消息时编码，加载历史消息时逐条解析
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RagMetadataBenchmark {
+
+    @Param({"ZH", "EN"})
+    private Corpus.Language language;
+
+    /**
+     * 引用文档数，对应检索返回的 topK
+     */
+    @Param({"5", "20"})
+    private int documents;
+
+    private List<VectorDocument> docs;
+    private String metadata;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<String> chunks = Corpus.chunks(language);
+        docs = new ArrayList<>(documents);
+        for (int i = 0; i < documents; i++) {
+            docs.add(VectorDocument.builder()
+                    .id(100000L + i)
+                    .knowledgeBaseId(1L)
+                    .content(chunks.get(i % chunks.size()))
+                    .metadata(Map.of("knowledgeBaseTitle", language == Corpus.Language.ZH ? "产品手册" : "Product Manual"))
+                    .build());
+        }
+        metadata = RagMetadata.build(docs);
+    }
+
+    @Benchmark
+    public String build() {
+        return RagMetadata.build(docs);
+    }
+
+    @Benchmark
+    public List<ChatResponse.RagDocumentInfo> parse() {
+        return RagMetadata.parse(metadata);
+    }
+}
@@ -0,0 +1,59 @@
+package com.aichat.benchmark;
+
+import com.aichat.service.deepseek.SseChunkParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 流式响应逐块解析：每个输出 token 都要解析一行 "data: {...}"
+ * 样本取自 DeepSeek 接口的实际响应格式
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SseChunkParserBenchmark {
+
+    private static final String CONTENT_LINE = "data: {\"id\":\"0f3c5a2e-8d1b-4c6e-9a57-2b1e4d7f9c30\","
+            + "\"object\":\"chat.completion.chunk\",\"created\":1718345013,\"model\":\"deepseek-chat\","
+            + "\"system_fingerprint\":\"fp_a49d71b8a1\",\"choices\":[{\"index\":0,"
+            + "\"delta\":{\"content\":\"检索\"},\"logprobs\":null,\"finish_reason\":null}]}";
+
+    private static final String FINISH_LINE = "data: {\"id\":\"0f3c5a2e-8d1b-4c6e-9a57-2b1e4d7f9c30\","
+            + "\"object\":\"chat.completion.chunk\",\"created\":1718345013,\"model\":\"deepseek-chat\","
+            + "\"system_fingerprint\":\"fp_a49d71b8a1\",\"choices\":[{\"index\":0,\"delta\":{},"
+            + "\"logprobs\":null,\"finish_reason\":\"stop\"}],"
+            + "\"usage\":{\"prompt_tokens\":1024,\"completion_tokens\":256,\"total_tokens\":1280}}";
+
+    private ObjectMapper objectMapper;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        objectMapper = new ObjectMapper();
+    }
+
+    @Benchmark
+    public String contentChunk() throws JsonProcessingException {
+        return SseChunkParser.deltaContent(objectMapper, SseChunkParser.payload(CONTENT_LINE));
+    }
+
+    @Benchmark
+    public String finishChunk() throws JsonProcessingException {
+        return SseChunkParser.deltaContent(objectMapper, SseChunkParser.payload(FINISH_LINE));
+    }
+}
@@ -0,0 +1,62 @@
+package com.aichat.benchmark;
+
+import com.aichat.service.embedding.SimpleEmbeddingService;
+import com.pgvector.PGvector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 向量参数的编解码：查询与写入的向量以 PGvector 绑定，驱动按文本或二进制形式发送；
+ * 向量存储命中时从文本解析
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VectorEncodingBenchmark {
+
+    @Param({"256", "1536"})
+    private int dimension;
+
+    private float[] embedding;
+    private String encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        embedding = new SimpleEmbeddingService().generateEmbedding(Corpus.longestChunk(Corpus.Language.ZH), dimension);
+        encoded = new PGvector(embedding).getValue();
+    }
+
+    @Benchmark
+    public String encode() {
+        return new PGvector(embedding).getValue();
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        PGvector vector = new PGvector(embedding);
+        byte[] bytes = new byte[vector.lengthInBytes()];
+        vector.toBytes(bytes, 0);
+        return bytes;
+    }
+
+    @Benchmark
+    public float[] decode() throws SQLException {
+        return new PGvector(encoded).toArray();
+    }
+}
@@ -0,0 +1,68 @@
+package com.aichat.config;
+
+import com.pgvector.PGvector;
+import org.postgresql.core.BaseConnection;
+import org.postgresql.core.QueryExecutor;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * pgvector 的 vector 类型以二进制格式传输
+ * 连接池中的每个物理连接在首次借出时注册 PGvector 类型，并为 vector 的 OID 开启二进制收发：
+ * PGvector 参数按 float4 数组字节发送，查询结果用 rs.getObject(..., PGvector.class) 直接读取字节，
+ * 不再经过十进制文本的格式化与解析（语句被服务端预编译后结果以二进制返回，见 prepareThreshold）
+ */
+@Configuration
+public class PgVectorConfig {
+
+    @Bean
+    public static BeanPostProcessor pgVectorDataSourcePostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                return bean instanceof DataSource dataSource && !(bean instanceof VectorTypeDataSource)
+                        ? new VectorTypeDataSource(dataSource) : bean;
+            }
+        };
+    }
+
+    static class VectorTypeDataSource extends DelegatingDataSource {
+
+        VectorTypeDataSource(DataSource target) {
+            super(target);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return registerVectorType(super.getConnection());
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return registerVectorType(super.getConnection(username, password));
+        }
+
+        private static Connection registerVectorType(Connection connection) throws SQLException {
+            if (!connection.isWrapperFor(BaseConnection.class)) {
+                return connection;
+            }
+            BaseConnection pgConnection = connection.unwrap(BaseConnection.class);
+            QueryExecutor queryExecutor = pgConnection.getQueryExecutor();
+            int oid = pgConnection.getTypeInfo().getPGType("vector");
+            // 未安装 vector 扩展时 OID 未知，保持默认的文本传输
+            if (oid <= 0 || queryExecutor.getBinaryReceiveOids().contains(oid)) {
+                return connection;
+            }
+            pgConnection.addDataType("vector", PGvector.class);
+            queryExecutor.addBinarySendOid(oid);
+            queryExecutor.addBinaryReceiveOid(oid);
+            return connection;
+        }
+    }
+}
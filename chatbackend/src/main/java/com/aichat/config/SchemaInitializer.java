@@ -0,0 +1,231 @@
+package com.aichat.config;
+
+import com.aichat.service.embedding.EmbeddingService;
+import com.aichat.service.vector.VectorDimensions;
+import com.aichat.service.vector.VectorPartitionRouter;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 数据库结构初始化（JPA 为 ddl-auto: none，应用自己维护的表与列都在这里创建）
+ * 启动时在其他组件访问数据库之前按顺序执行（JdbcTemplate 与 EntityManagerFactory 依赖本组件，见 SchemaInitializerDetector）：
+ * <ol>
+ *   <li>db/migration/V{版本}__{说明}.sql 按版本号依次执行，每个脚本一个事务，执行过的版本记录在 schema_migrations 中</li>
+ *   <li>取决于配置的部分（受支持维度的向量列、稀疏向量列、历史数据的模型标识）与分区表的列同步，每次启动检查</li>
+ * </ol>
+ * 多个节点同时启动时以 advisory lock 串行执行；任何一步失败都中止启动，不带着缺列的结构接收请求
+ */
+@Component
+@Slf4j
+public class SchemaInitializer {
+
+    private static final String MIGRATIONS = "classpath:db/migration/V*__*.sql";
+    private static final Pattern MIGRATION_NAME = Pattern.compile("V(\\d+)__(.+)\\.sql");
+    /**
+     * advisory lock 的键（任意固定值，只需在本应用内唯一）
+     */
+    private static final long LOCK_KEY = 0x61696368617473L;
+    private static final int BACKFILL_BATCH_SIZE = 5000;
+
+    private record Migration(int version, String description, Resource resource) {
+    }
+
+    private final DataSource dataSource;
+    private final VectorDimensions vectorDimensions;
+    private final boolean useSimpleEmbedding;
+    private final int embeddingVersion;
+    private final boolean sparseEnabled;
+    private final boolean sparseDenseCopy;
+
+    public SchemaInitializer(DataSource dataSource,
+                             VectorDimensions vectorDimensions,
+                             @Value("${app.vector.use-simple-embedding:true}") boolean useSimpleEmbedding,
+                             @Value("${app.vector.embedding-version:1}") int embeddingVersion,
+                             @Value("${app.vector.sparse.enabled:false}") boolean sparseEnabled,
+                             @Value("${app.vector.sparse.dense-copy:true}") boolean sparseDenseCopy) {
+        this.dataSource = dataSource;
+        this.vectorDimensions = vectorDimensions;
+        this.useSimpleEmbedding = useSimpleEmbedding;
+        this.embeddingVersion = embeddingVersion;
+        this.sparseEnabled = sparseEnabled;
+        this.sparseDenseCopy = sparseDenseCopy;
+    }
+
+    @PostConstruct
+    public void migrate() {
+        long start = System.currentTimeMillis();
+        try (Connection connection = dataSource.getConnection()) {
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+            jdbcTemplate.execute("SELECT pg_advisory_lock(" + LOCK_KEY + ")");
+            try {
+                int applied = applyMigrations(connection, jdbcTemplate);
+                ensureDimensionColumns(jdbcTemplate);
+                ensureSparseColumn(jdbcTemplate);
+                backfillEmbeddingModels(jdbcTemplate);
+                syncPartitionColumns(jdbcTemplate);
+                log.info("数据库结构初始化完成: applied={}, 耗时{}ms", applied, System.currentTimeMillis() - start);
+            } finally {
+                jdbcTemplate.execute("SELECT pg_advisory_unlock(" + LOCK_KEY + ")");
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("数据库结构初始化失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return 本次执行的脚本数
+     */
+    private int applyMigrations(Connection connection, JdbcTemplate jdbcTemplate) throws IOException, SQLException {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS schema_migrations (" +
+                "version INTEGER PRIMARY KEY, " +
+                "description VARCHAR(200) NOT NULL, " +
+                "applied_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+        Set<Integer> appliedVersions = new HashSet<>(
+                jdbcTemplate.queryForList("SELECT version FROM schema_migrations", Integer.class));
+        int applied = 0;
+        for (Migration migration : loadMigrations()) {
+            if (appliedVersions.contains(migration.version())) {
+                continue;
+            }
+            connection.setAutoCommit(false);
+            try {
+                ScriptUtils.executeSqlScript(connection, migration.resource());
+                jdbcTemplate.update("INSERT INTO schema_migrations (version, description) VALUES (?, ?)",
+                        migration.version(), migration.description());
+                connection.commit();
+            } catch (Exception e) {
+                connection.rollback();
+                throw new IllegalStateException("执行数据库脚本失败: V" + migration.version() + "__"
+                        + migration.description() + ", error=" + e.getMessage(), e);
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            applied++;
+            log.info("已执行数据库脚本: version={}, description={}", migration.version(), migration.description());
+        }
+        return applied;
+    }
+
+    private List<Migration> loadMigrations() throws IOException {
+        Resource[] resources = new PathMatchingResourcePatternResolver().getResources(MIGRATIONS);
+        List<Migration> migrations = Arrays.stream(resources)
+                .map(resource -> {
+                    Matcher matcher = MIGRATION_NAME.matcher(String.valueOf(resource.getFilename()));
+                    if (!matcher.matches()) {
+                        throw new IllegalStateException("数据库脚本命名不符合 V{版本}__{说明}.sql: " + resource.getFilename());
+                    }
+                    return new Migration(Integer.parseInt(matcher.group(1)), matcher.group(2), resource);
+                })
+                .sorted(Comparator.comparingInt(Migration::version))
+                .toList();
+        for (int i = 1; i < migrations.size(); i++) {
+            if (migrations.get(i).version() == migrations.get(i - 1).version()) {
+                throw new IllegalStateException("数据库脚本版本重复: V" + migrations.get(i).version());
+            }
+        }
+        return migrations;
+    }
+
+    /**
+     * 各受支持维度的向量列（ADD COLUMN 不带默认值，只修改元数据）；embedding 列固定为默认维度，
+     * 有其他维度的列时非默认维度的行不写 embedding 列
+     */
+    private void ensureDimensionColumns(JdbcTemplate jdbcTemplate) {
+        boolean hasExtraColumns = false;
+        for (int dimension : vectorDimensions.getSupportedDimensions()) {
+            if (dimension != VectorDimensions.BASE_DIMENSION) {
+                jdbcTemplate.execute("ALTER TABLE vector_documents ADD COLUMN IF NOT EXISTS "
+                        + VectorDimensions.columnFor(dimension) + " vector(" + dimension + ")");
+                hasExtraColumns = true;
+            }
+        }
+        if (hasExtraColumns) {
+            jdbcTemplate.execute("ALTER TABLE vector_documents ALTER COLUMN embedding DROP NOT NULL");
+        }
+    }
+
+    /**
+     * 稀疏向量列（需要 pgvector 0.7+），不限定维度：不同维度的知识库共用该列，且该列不建 ANN 索引
+     */
+    private void ensureSparseColumn(JdbcTemplate jdbcTemplate) {
+        if (!sparseEnabled) {
+            return;
+        }
+        jdbcTemplate.execute("ALTER TABLE vector_documents ADD COLUMN IF NOT EXISTS sparse_embedding sparsevec");
+        if (!sparseDenseCopy) {
+            jdbcTemplate.execute("ALTER TABLE vector_documents ALTER COLUMN embedding DROP NOT NULL");
+        }
+    }
+
+    /**
+     * 历史知识库按部署实际使用的模型记录（远程模型，或第一版本地哈希 EmbeddingService.LEGACY_SIMPLE_MODEL），
+     * 迁移完成前检索仍以该模型生成查询向量；历史文档按所属知识库记录的模型补齐，
+     * 之后每个文档都带有模型标识，"不属于目标模型"的判断无需再特殊处理空值
+     */
+    private void backfillEmbeddingModels(JdbcTemplate jdbcTemplate) {
+        String legacyModel = useSimpleEmbedding
+                ? EmbeddingService.LEGACY_SIMPLE_MODEL
+                : EmbeddingService.REMOTE_MODEL + "@" + embeddingVersion;
+        int updated = jdbcTemplate.update("UPDATE knowledge_base SET embedding_model = ? WHERE embedding_model IS NULL",
+                legacyModel);
+        if (updated > 0) {
+            log.info("历史知识库按部署使用的模型记录: model={}, count={}", legacyModel, updated);
+        }
+        List<String> tables = jdbcTemplate.queryForList(
+                "SELECT tablename FROM pg_tables WHERE schemaname = current_schema() " +
+                "AND (tablename = 'vector_documents' OR tablename LIKE 'vector\\_documents\\_kb\\_%')", String.class);
+        for (String table : tables) {
+            backfillDocumentModels(jdbcTemplate, table);
+        }
+    }
+
+    /**
+     * 分批把空模型标识的文档补齐为所属知识库记录的模型，避免单条 UPDATE 长时间锁住大表
+     */
+    private void backfillDocumentModels(JdbcTemplate jdbcTemplate, String table) {
+        String sql = String.format(
+                "UPDATE %1$s d SET embedding_model = k.embedding_model FROM knowledge_base k " +
+                "WHERE k.id = d.knowledge_base_id AND d.id IN (" +
+                "SELECT id FROM %1$s WHERE embedding_model IS NULL " +
+                "AND knowledge_base_id IN (SELECT id FROM knowledge_base) LIMIT ?)", table);
+        int total = 0;
+        int updated;
+        do {
+            updated = jdbcTemplate.update(sql, BACKFILL_BATCH_SIZE);
+            total += updated;
+        } while (updated == BACKFILL_BATCH_SIZE);
+        if (total > 0) {
+            log.info("历史文档按知识库记录的模型补齐: table={}, count={}", table, total);
+        }
+    }
+
+    /**
+     * 把共享表上新增的列补到已登记的分区表
+     */
+    private void syncPartitionColumns(JdbcTemplate jdbcTemplate) {
+        List<Long> partitions = jdbcTemplate.queryForList(
+                "SELECT knowledge_base_id FROM vector_document_partitions", Long.class);
+        for (Long knowledgeBaseId : partitions) {
+            VectorPartitionRouter.syncColumns(jdbcTemplate, VectorPartitionRouter.tableName(knowledgeBaseId));
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.aichat.config;
+
+import org.springframework.boot.sql.init.dependency.AbstractBeansOfTypeDatabaseInitializerDetector;
+
+import java.util.Set;
+
+/**
+ * 把 SchemaInitializer 登记为数据库初始化器（META-INF/spring.factories），
+ * Spring Boot 据此让 JdbcTemplate、EntityManagerFactory 等依赖它，其他组件初始化时结构已经就绪
+ */
+public class SchemaInitializerDetector extends AbstractBeansOfTypeDatabaseInitializerDetector {
+
+    @Override
+    protected Set<Class<?>> getDatabaseInitializerBeanTypes() {
+        return Set.of(SchemaInitializer.class);
+    }
+}
@@ -4,6 +4,7 @@ import com.aichat.domain.dto.chat.ChatRequest;
 import com.aichat.domain.dto.chat.ChatResponse;
 import com.aichat.domain.dto.chat.ConversationDTO;
 import com.aichat.domain.dto.common.ApiResponse;
+import com.aichat.domain.dto.common.PurgeStatus;
 import com.aichat.security.UserPrincipal;
 import com.aichat.service.ChatService;
 import com.aichat.service.ConversationService;
@@ -75,14 +76,24 @@ public class ChatController {
     }
     
     /**
-     * 删除会话
+     * 删除会话（后台分批删除消息，进度见 /conversations/{conversationId}/deletion）
      */
     @DeleteMapping("/conversations/{conversationId}")
-    public ApiResponse<Void> deleteConversation(
+    public ApiResponse<PurgeStatus> deleteConversation(
             @AuthenticationPrincipal UserPrincipal userPrincipal,
             @PathVariable Long conversationId) {
-        conversationService.deleteConversation(conversationId, userPrincipal.getId());
-        return ApiResponse.success("删除成功", null);
+        PurgeStatus status = conversationService.deleteConversation(conversationId, userPrincipal.getId());
+        return ApiResponse.success("删除成功", status);
+    }
+    
+    /**
+     * 查询会话删除进度
+     */
+    @GetMapping("/conversations/{conversationId}/deletion")
+    public ApiResponse<PurgeStatus> getDeletionStatus(
+            @AuthenticationPrincipal UserPrincipal userPrincipal,
+            @PathVariable Long conversationId) {
+        return ApiResponse.success(conversationService.getDeletionStatus(conversationId, userPrincipal.getId()));
     }
     
     /**
@@ -8,9 +8,11 @@ import com.aichat.repository.ConversationRepository;
 import com.aichat.repository.MessageRepository;
 import com.aichat.security.UserPrincipal;
 import com.aichat.service.ConversationService;
+import com.aichat.service.RagMetadata;
 import com.aichat.service.VectorService;
+import com.aichat.service.deepseek.SseChunkParser;
 import com.aichat.service.ingest.FileIngestionService;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.aichat.service.vector.RetrievalMode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -118,8 +120,9 @@ public class ChatStreamController {
         if (request.getKnowledgeBaseIds() != null && !request.getKnowledgeBaseIds().isEmpty()) {
             try {
                 Integer topK = request.getRagTopK() != null ? request.getRagTopK() : 3;
-                ragDocsLocal = vectorService.searchInMultipleKnowledgeBases(
-                        request.getKnowledgeBaseIds(), userId, request.getContent(), topK);
+                ragDocsLocal = vectorService.retrieveContext(
+                        request.getKnowledgeBaseIds(), userId, request.getContent(), topK,
+                        request.getRetrievalMode());
             } catch (Exception e) {
                 log.warn("RAG检索失败，继续普通对话: {}", e.getMessage());
             }
@@ -174,10 +177,10 @@ public class ChatStreamController {
                         .filter(err -> err instanceof WebClientRequestException)
                         .onRetryExhaustedThrow((spec, signal) -> signal.failure()))
                 .filter(line -> line != null && !line.isBlank())
-                .map(line -> line.startsWith("data: ") ? line.substring(6).trim() : line.trim())
+                .map(SseChunkParser::payload)
                 .subscribe(jsonData -> {
                     try {
-                        if ("[DONE]".equals(jsonData)) {
+                        if (SseChunkParser.DONE.equals(jsonData)) {
                             String content = fullContent.get().toString();
                             if (!content.isEmpty()) {
                                 Message assistantMessage = Message.builder()
@@ -185,7 +188,7 @@ public class ChatStreamController {
                                         .userId(userId)
                                         .role(Message.MessageRole.ASSISTANT)
                                         .content(content)
-                                        .metadata(ragDocs != null && !ragDocs.isEmpty() ? buildRagMetadata(ragDocs) : null)
+                                        .metadata(ragDocs != null && !ragDocs.isEmpty() ? RagMetadata.build(ragDocs) : null)
                                         .status(Message.MessageStatus.COMPLETED)
                                         .build();
                                 messageRepository.save(assistantMessage);
@@ -199,15 +202,10 @@ public class ChatStreamController {
                             return;
                         }
 
-                        JsonNode node = objectMapper.readTree(jsonData);
-                        JsonNode choices = node.get("choices");
-                        if (choices != null && choices.isArray() && !choices.isEmpty()) {
-                            JsonNode delta = choices.get(0).get("delta");
-                            if (delta != null && delta.has("content")) {
-                                String content = delta.get("content").asText();
-                                fullContent.get().append(content);
-                                emitter.send(SseEmitter.event().data(content));
-                            }
+                        String content = SseChunkParser.deltaContent(objectMapper, jsonData);
+                        if (content != null) {
+                            fullContent.get().append(content);
+                            emitter.send(SseEmitter.event().data(content));
                         }
                     } catch (Exception e) {
                         log.error("解析流式响应失败: {}", jsonData, e);
@@ -257,6 +255,7 @@ public class ChatStreamController {
             @RequestParam(value = "maxTokens", required = false) Integer maxTokens,
             @RequestParam(value = "knowledgeBaseIds", required = false) List<Long> knowledgeBaseIds,
             @RequestParam(value = "ragTopK", required = false) Integer ragTopK,
+            @RequestParam(value = "retrievalMode", required = false) RetrievalMode retrievalMode,
             @RequestParam("file") MultipartFile file,
             jakarta.servlet.http.HttpServletResponse response) {
         
@@ -320,7 +319,8 @@ public class ChatStreamController {
         if (knowledgeBaseIds != null && !knowledgeBaseIds.isEmpty()) {
             try {
                 Integer topK = ragTopK != null ? ragTopK : 3;
-                ragDocsLocal = vectorService.searchInMultipleKnowledgeBases(knowledgeBaseIds, userId, content, topK);
+                ragDocsLocal = vectorService.retrieveContext(
+                        knowledgeBaseIds, userId, content, topK, retrievalMode);
             } catch (Exception e) {
                 log.warn("RAG检索失败，继续普通对话: {}", e.getMessage());
             }
@@ -377,10 +377,10 @@ public class ChatStreamController {
                 .retrieve()
                 .bodyToFlux(String.class)
                 .filter(line -> line != null && !line.isBlank())
-                .map(line -> line.startsWith("data: ") ? line.substring(6).trim() : line.trim())
+                .map(SseChunkParser::payload)
                 .subscribe(jsonData -> {
                     try {
-                        if ("[DONE]".equals(jsonData)) {
+                        if (SseChunkParser.DONE.equals(jsonData)) {
                             String responseContent = fullContent.get().toString();
                             if (!responseContent.isEmpty()) {
                                 Message assistantMessage = Message.builder()
@@ -388,7 +388,7 @@ public class ChatStreamController {
                                         .userId(userId)
                                         .role(Message.MessageRole.ASSISTANT)
                                         .content(responseContent)
-                                        .metadata(ragDocs != null && !ragDocs.isEmpty() ? buildRagMetadata(ragDocs) : null)
+                                        .metadata(ragDocs != null && !ragDocs.isEmpty() ? RagMetadata.build(ragDocs) : null)
                                         .status(Message.MessageStatus.COMPLETED)
                                         .build();
                                 messageRepository.save(assistantMessage);
@@ -401,15 +401,10 @@ public class ChatStreamController {
                             return;
                         }
 
-                        JsonNode node = objectMapper.readTree(jsonData);
-                        JsonNode choices = node.get("choices");
-                        if (choices != null && choices.isArray() && !choices.isEmpty()) {
-                            JsonNode delta = choices.get(0).get("delta");
-                            if (delta != null && delta.has("content")) {
-                                String chunk = delta.get("content").asText();
-                                fullContent.get().append(chunk);
-                                emitter.send(SseEmitter.event().data(chunk));
-                            }
+                        String chunk = SseChunkParser.deltaContent(objectMapper, jsonData);
+                        if (chunk != null) {
+                            fullContent.get().append(chunk);
+                            emitter.send(SseEmitter.event().data(chunk));
                         }
                     } catch (Exception e) {
                         log.error("解析流式响应失败: {}", jsonData, e);
@@ -446,27 +441,6 @@ public class ChatStreamController {
         return emitter;
     }
 
-    private String buildRagMetadata(List<VectorDocument> docs) {
-        if (docs == null || docs.isEmpty()) return null;
-        StringBuilder json = new StringBuilder("{\"ragDocs\":[");
-        for (int i = 0; i < docs.size(); i++) {
-            if (i > 0) json.append(",");
-            VectorDocument doc = docs.get(i);
-            String content = doc.getContent().length() > 200 ? doc.getContent().substring(0, 200) + "..." : doc.getContent();
-            content = content.replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "");
-            String kbTitle = doc.getMetadata() != null && doc.getMetadata().containsKey("knowledgeBaseTitle")
-                    ? doc.getMetadata().get("knowledgeBaseTitle").toString() : "未知知识库";
-            kbTitle = kbTitle.replace("\"", "\\\"");
-            json.append("{")
-                .append("\"documentId\":").append(doc.getId()).append(",")
-                .append("\"content\":\"").append(content).append("\",")
-                .append("\"knowledgeBaseTitle\":\"").append(kbTitle).append("\"")
-                .append("}");
-        }
-        json.append("]}");
-        return json.toString();
-    }
-
     private String buildContextFromDocuments(List<VectorDocument> documents) {
         StringBuilder context = new StringBuilder();
         for (int i = 0; i < documents.size(); i++) {
@@ -0,0 +1,44 @@
+package com.aichat.controller;
+
+import com.aichat.domain.dto.common.ApiResponse;
+import com.aichat.domain.dto.knowledge.ReembeddingStatus;
+import com.aichat.service.embedding.ReembeddingService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * 切换嵌入模型后的知识库向量重建（仅管理员）
+ */
+@RestController
+@RequestMapping("/knowledge/reembedding")
+@RequiredArgsConstructor
+@PreAuthorize("hasAnyRole('ADMIN', 'SUPER_ADMIN')")
+public class ReembeddingController {
+    
+    private final ReembeddingService reembeddingService;
+    
+    /**
+     * 为模型与当前配置不一致的所有知识库启动重建
+     */
+    @PostMapping
+    public ApiResponse<Integer> startOutdated() {
+        return ApiResponse.success("向量重建已开始", reembeddingService.startOutdated());
+    }
+    
+    /**
+     * 启动（或继续）单个知识库的重建
+     */
+    @PostMapping("/{knowledgeBaseId}")
+    public ApiResponse<ReembeddingStatus> start(@PathVariable Long knowledgeBaseId) {
+        return ApiResponse.success(reembeddingService.start(knowledgeBaseId));
+    }
+    
+    /**
+     * 查询重建进度
+     */
+    @GetMapping("/{knowledgeBaseId}")
+    public ApiResponse<ReembeddingStatus> getStatus(@PathVariable Long knowledgeBaseId) {
+        return ApiResponse.success(reembeddingService.getStatus(knowledgeBaseId));
+    }
+}
@@ -2,10 +2,16 @@ package com.aichat.controller;
 
 import com.aichat.domain.dto.common.ApiResponse;
 import com.aichat.domain.entity.KnowledgeBase;
+import com.aichat.domain.dto.common.PurgeStatus;
+import com.aichat.domain.dto.knowledge.DocumentPage;
+import com.aichat.domain.dto.knowledge.DocumentView;
 import com.aichat.domain.entity.VectorDocument;
 import com.aichat.security.UserPrincipal;
 import com.aichat.service.VectorService;
 import com.aichat.service.ingest.DocumentSplitter;
+import com.aichat.service.vector.MetadataFilter;
+import com.aichat.service.vector.RecallProfile;
+import com.aichat.service.vector.RetrievalMode;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
@@ -41,7 +47,8 @@ public class VectorController {
                 request.getTitle(),
                 request.getDescription(),
                 request.getSourceType(),
-                request.getSourceUrl()
+                request.getSourceUrl(),
+                request.getDimension()
         );
         return ApiResponse.success("创建成功", kb);
     }
@@ -69,32 +76,44 @@ public class VectorController {
     }
     
     /**
-     * 删除知识库
+     * 删除知识库（后台分批删除文档，进度见 /bases/{id}/deletion）
      */
     @DeleteMapping("/bases/{id}")
-    public ApiResponse<Void> deleteKnowledgeBase(
+    public ApiResponse<PurgeStatus> deleteKnowledgeBase(
             @AuthenticationPrincipal UserPrincipal userPrincipal,
             @PathVariable Long id) {
-        vectorService.deleteKnowledgeBase(id, userPrincipal.getId());
-        return ApiResponse.success("删除成功", null);
+        PurgeStatus status = vectorService.deleteKnowledgeBase(id, userPrincipal.getId());
+        return ApiResponse.success("删除成功", status);
     }
     
     /**
-     * 获取知识库的文档列表
+     * 查询知识库删除进度
      */
-    @GetMapping("/bases/{id}/documents")
-    public ApiResponse<List<VectorDocument>> getDocuments(
+    @GetMapping("/bases/{id}/deletion")
+    public ApiResponse<PurgeStatus> getDeletionStatus(
             @AuthenticationPrincipal UserPrincipal userPrincipal,
             @PathVariable Long id) {
-        List<VectorDocument> documents = vectorService.getDocumentsByKnowledgeBase(id, userPrincipal.getId());
-        return ApiResponse.success(documents);
+        return ApiResponse.success(vectorService.getDeletionStatus(id, userPrincipal.getId()));
+    }
+    
+    /**
+     * 获取知识库的文档列表（游标分页：afterId 传上一页返回的 nextCursor）
+     */
+    @GetMapping("/bases/{id}/documents")
+    public ApiResponse<DocumentPage> getDocuments(
+            @AuthenticationPrincipal UserPrincipal userPrincipal,
+            @PathVariable Long id,
+            @RequestParam(required = false) Long afterId,
+            @RequestParam(required = false) Integer limit) {
+        DocumentPage page = vectorService.getDocumentPage(id, userPrincipal.getId(), afterId, limit);
+        return ApiResponse.success(page);
     }
     
     /**
      * 添加文档到知识库
      */
     @PostMapping("/bases/{id}/documents")
-    public ApiResponse<VectorDocument> addDocument(
+    public ApiResponse<DocumentView> addDocument(
             @AuthenticationPrincipal UserPrincipal userPrincipal,
             @PathVariable Long id,
             @Valid @RequestBody AddDocumentRequest request) {
@@ -104,7 +123,7 @@ public class VectorController {
                 request.getContent(),
                 request.getMetadata()
         );
-        return ApiResponse.success("添加成功", document);
+        return ApiResponse.success("添加成功", DocumentView.from(document));
     }
     
     /**
@@ -123,7 +142,7 @@ public class VectorController {
      * 在知识库中搜索相似文档
      */
     @PostMapping("/bases/{id}/search")
-    public ApiResponse<List<VectorDocument>> searchDocuments(
+    public ApiResponse<List<DocumentView>> searchDocuments(
             @AuthenticationPrincipal UserPrincipal userPrincipal,
             @PathVariable Long id,
             @Valid @RequestBody SearchRequest request) {
@@ -131,25 +150,31 @@ public class VectorController {
                 id,
                 userPrincipal.getId(),
                 request.getQuery(),
-                request.getTopK()
+                request.getTopK(),
+                request.getProfile(),
+                request.getMode(),
+                MetadataFilter.of(request.getFilter())
         );
-        return ApiResponse.success(results);
+        return ApiResponse.success(results.stream().map(DocumentView::from).toList());
     }
     
     /**
      * 在多个知识库中搜索
      */
     @PostMapping("/search")
-    public ApiResponse<List<VectorDocument>> searchInMultipleBases(
+    public ApiResponse<List<DocumentView>> searchInMultipleBases(
             @AuthenticationPrincipal UserPrincipal userPrincipal,
             @Valid @RequestBody MultiSearchRequest request) {
         List<VectorDocument> results = vectorService.searchInMultipleKnowledgeBases(
                 request.getKnowledgeBaseIds(),
                 userPrincipal.getId(),
                 request.getQuery(),
-                request.getTopK()
+                request.getTopK(),
+                request.getProfile(),
+                request.getMode(),
+                MetadataFilter.of(request.getFilter())
         );
-        return ApiResponse.success(results);
+        return ApiResponse.success(results.stream().map(DocumentView::from).toList());
     }
     
     /**
@@ -315,6 +340,11 @@ public class VectorController {
         private KnowledgeBase.SourceType sourceType;
         
         private String sourceUrl;
+        
+        /**
+         * 向量维度，为空使用 app.vector.dimension
+         */
+        private Integer dimension;
     }
     
     @Data
@@ -337,6 +367,15 @@ public class VectorController {
         private String query;
         
         private Integer topK;
+        
+        private RecallProfile profile;
+        
+        private RetrievalMode mode;
+        
+        /**
+         * 元数据过滤条件，如 {"filename": "manual.pdf", "chunkIndex": {"lt": 3}}（见 MetadataFilter）
+         */
+        private Map<String, Object> filter;
     }
     
     @Data
@@ -348,6 +387,12 @@ public class VectorController {
         private String query;
         
         private Integer topK;
+        
+        private RecallProfile profile;
+        
+        private RetrievalMode mode;
+        
+        private Map<String, Object> filter;
     }
     
     @Data
@@ -0,0 +1,37 @@
+package com.aichat.controller;
+
+import com.aichat.domain.dto.common.ApiResponse;
+import com.aichat.domain.dto.knowledge.VectorIndexStatus;
+import com.aichat.service.vector.VectorIndexService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * 向量索引管理（仅管理员）
+ */
+@RestController
+@RequestMapping("/knowledge/index")
+@RequiredArgsConstructor
+@PreAuthorize("hasAnyRole('ADMIN', 'SUPER_ADMIN')")
+public class VectorIndexController {
+    
+    private final VectorIndexService vectorIndexService;
+    
+    /**
+     * 查询向量索引状态与构建进度
+     */
+    @GetMapping("/status")
+    public ApiResponse<VectorIndexStatus> getIndexStatus() {
+        return ApiResponse.success(vectorIndexService.getIndexStatus());
+    }
+    
+    /**
+     * 异步重建向量索引
+     */
+    @PostMapping("/rebuild")
+    public ApiResponse<Void> rebuildIndex() {
+        vectorIndexService.rebuildIndex();
+        return ApiResponse.success("索引重建已开始", null);
+    }
+}
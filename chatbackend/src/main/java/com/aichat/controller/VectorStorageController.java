@@ -0,0 +1,38 @@
+package com.aichat.controller;
+
+import com.aichat.domain.dto.common.ApiResponse;
+import com.aichat.domain.dto.knowledge.VectorStorageStatus;
+import com.aichat.service.vector.VectorStorageService;
+import com.aichat.service.vector.VectorStorageTier;
+import lombok.RequiredArgsConstructor;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * 知识库向量索引存储精度档位（仅管理员）
+ */
+@RestController
+@RequestMapping("/knowledge/storage")
+@RequiredArgsConstructor
+@PreAuthorize("hasAnyRole('ADMIN', 'SUPER_ADMIN')")
+public class VectorStorageController {
+    
+    private final VectorStorageService vectorStorageService;
+    
+    /**
+     * 切换知识库的档位（后台执行：提升分区 → 建索引 → 校准重排倍数 → 切换）
+     */
+    @PutMapping("/{knowledgeBaseId}")
+    public ApiResponse<VectorStorageStatus> changeTier(@PathVariable Long knowledgeBaseId,
+                                                       @RequestParam VectorStorageTier tier) {
+        return ApiResponse.success("存储档位切换已开始", vectorStorageService.changeTier(knowledgeBaseId, tier));
+    }
+    
+    /**
+     * 查询档位与切换进度
+     */
+    @GetMapping("/{knowledgeBaseId}")
+    public ApiResponse<VectorStorageStatus> getStatus(@PathVariable Long knowledgeBaseId) {
+        return ApiResponse.success(vectorStorageService.getStatus(knowledgeBaseId));
+    }
+}
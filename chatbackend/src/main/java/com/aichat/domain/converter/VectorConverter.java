@@ -0,0 +1,35 @@
+package com.aichat.domain.converter;
+
+import com.pgvector.PGvector;
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+import java.sql.SQLException;
+
+/**
+ * pgvector 文本格式与 float[] 之间的转换器
+ * 仅用于 JPA 实体读写；批量写入与相似度搜索走 VectorDocumentRepositoryImpl 的 PGvector 二进制参数绑定（见 PgVectorConfig）
+ */
+@Converter
+public class VectorConverter implements AttributeConverter<float[], String> {
+    
+    @Override
+    public String convertToDatabaseColumn(float[] attribute) {
+        if (attribute == null || attribute.length == 0) {
+            return null;
+        }
+        return new PGvector(attribute).getValue();
+    }
+    
+    @Override
+    public float[] convertToEntityAttribute(String dbData) {
+        if (dbData == null || dbData.isEmpty()) {
+            return null;
+        }
+        try {
+            return new PGvector(dbData).toArray();
+        } catch (SQLException e) {
+            throw new IllegalArgumentException("无法解析向量: " + e.getMessage(), e);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.aichat.domain.dto.chat;
 
+import com.aichat.service.vector.RetrievalMode;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import lombok.Data;
@@ -32,8 +33,13 @@ public class ChatRequest {
     private List<Long> knowledgeBaseIds;
     
     /**
-     * RAG检索时返回的文档数量，默认为3
+     * RAG检索时返回的文档数量上限，默认为3（低相关度或超出 token 预算的文档会被裁掉）
      */
     private Integer ragTopK = 3;
+    
+    /**
+     * RAG检索方式（VECTOR / LEXICAL / HYBRID），为空时使用后端默认配置
+     */
+    private RetrievalMode retrievalMode;
 }
 
@@ -37,6 +37,7 @@ public class ChatResponse {
     @AllArgsConstructor
     public static class RagDocumentInfo {
         private Long documentId;
+        private Double similarity;
         private String content;
         private String knowledgeBaseTitle;
     }
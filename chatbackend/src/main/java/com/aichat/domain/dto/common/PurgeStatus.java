@@ -0,0 +1,47 @@
+package com.aichat.domain.dto.common;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 后台删除任务的进度
+ */
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class PurgeStatus {
+    
+    /**
+     * KNOWLEDGE_BASE / CONVERSATION
+     */
+    private String targetType;
+    
+    private Long targetId;
+    
+    @JsonIgnore
+    private Long userId;
+    
+    /**
+     * PENDING / RUNNING / COMPLETED / FAILED
+     */
+    private String state;
+    
+    /**
+     * 开始时待删除的子记录数（文档块或消息）
+     */
+    private Long totalRows;
+    
+    private long deletedRows;
+    
+    private LocalDateTime requestedAt;
+    
+    private LocalDateTime finishedAt;
+    
+    private String error;
+}
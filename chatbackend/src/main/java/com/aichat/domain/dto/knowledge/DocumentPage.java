@@ -0,0 +1,27 @@
+package com.aichat.domain.dto.knowledge;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 文档列表的一页（按 id 升序的游标分页）
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class DocumentPage {
+    
+    private List<DocumentView> items;
+    
+    /**
+     * 下一页的游标（本页最后一条的 id），作为下次请求的 afterId；没有更多数据时为 null
+     */
+    private Long nextCursor;
+    
+    private boolean hasMore;
+}
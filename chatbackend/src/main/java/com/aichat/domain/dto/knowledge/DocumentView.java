@@ -0,0 +1,55 @@
+package com.aichat.domain.dto.knowledge;
+
+import com.aichat.domain.entity.VectorDocument;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * 文档的接口返回视图：不含向量，检索结果带相似度
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class DocumentView {
+    
+    private Long id;
+    
+    private Long knowledgeBaseId;
+    
+    private String content;
+    
+    /**
+     * 生成向量的嵌入模型（模型名@版本）
+     */
+    private String embeddingModel;
+    
+    private Map<String, Object> metadata;
+    
+    private Integer tokenCount;
+    
+    private LocalDateTime createdAt;
+    
+    /**
+     * 与查询的余弦相似度，仅向量检索结果带有
+     */
+    private Double similarity;
+    
+    public static DocumentView from(VectorDocument document) {
+        return DocumentView.builder()
+                .id(document.getId())
+                .knowledgeBaseId(document.getKnowledgeBaseId())
+                .content(document.getContent())
+                .embeddingModel(document.getEmbeddingModel())
+                .metadata(document.getMetadata())
+                .tokenCount(document.getTokenCount())
+                .createdAt(document.getCreatedAt())
+                .similarity(document.getSimilarity())
+                .build();
+    }
+}
@@ -0,0 +1,53 @@
+package com.aichat.domain.dto.knowledge;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 知识库向量重建任务的进度
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReembeddingStatus {
+    
+    private Long knowledgeBaseId;
+    
+    /**
+     * 检索当前使用的模型，切换完成前仍为旧模型
+     */
+    private String currentModel;
+    
+    private String targetModel;
+    
+    /**
+     * RUNNING / COMPLETED / FAILED，没有任务时为 null
+     */
+    private String state;
+    
+    /**
+     * 已生成新向量的文档数
+     */
+    private long processed;
+    
+    /**
+     * 知识库当前的文档数
+     */
+    private long totalDocuments;
+    
+    /**
+     * 断点：已处理到的文档 id
+     */
+    private Long lastDocumentId;
+    
+    private LocalDateTime startedAt;
+    
+    private LocalDateTime updatedAt;
+    
+    private String error;
+}
@@ -0,0 +1,45 @@
+package com.aichat.domain.dto.knowledge;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class VectorIndexStatus {
+    
+    private String indexName;
+    
+    /**
+     * 配置的索引类型：HNSW / IVFFLAT / NONE
+     */
+    private String indexType;
+    
+    /**
+     * 索引在数据库中是否存在
+     */
+    private boolean exists;
+    
+    /**
+     * 索引是否可用（CONCURRENTLY 构建失败时为 false）
+     */
+    private boolean valid;
+    
+    private String definition;
+    
+    /**
+     * 正在构建时的阶段与进度（来自 pg_stat_progress_create_index）
+     */
+    private String buildPhase;
+    
+    private Double buildProgress;
+    
+    private LocalDateTime lastBuiltAt;
+    
+    private String lastError;
+}
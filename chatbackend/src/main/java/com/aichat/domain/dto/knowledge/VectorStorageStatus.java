@@ -0,0 +1,56 @@
+package com.aichat.domain.dto.knowledge;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 知识库向量索引的存储精度档位及切换任务的状态
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class VectorStorageStatus {
+    
+    private Long knowledgeBaseId;
+    
+    /**
+     * 检索当前使用的档位（FULL / HALFVEC / BINARY），切换完成前仍为旧档位
+     */
+    private String tier;
+    
+    /**
+     * 压缩档位取候选的倍数
+     */
+    private int rescoreMultiplier;
+    
+    /**
+     * 是否已提升到独立分区（只有分区可以单独设置档位，否则使用共享表的默认档位）
+     */
+    private boolean partitioned;
+    
+    /**
+     * 当前档位 ANN 索引的大小（字节），索引不存在时为 null
+     */
+    private Long indexBytes;
+    
+    private String targetTier;
+    
+    /**
+     * RUNNING / COMPLETED / FAILED，本节点没有切换任务时为 null
+     */
+    private String state;
+    
+    /**
+     * 校准得到的 recall@k（相对精确检索），知识库走精确扫描而未校准时为 null
+     */
+    private Double measuredRecall;
+    
+    private LocalDateTime updatedAt;
+    
+    private String error;
+}
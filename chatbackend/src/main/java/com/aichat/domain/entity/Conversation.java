@@ -6,6 +6,7 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.SQLRestriction;
 import org.hibernate.annotations.UpdateTimestamp;
 
 import java.time.LocalDateTime;
@@ -15,6 +16,7 @@ import java.time.LocalDateTime;
     @Index(name = "idx_user_id", columnList = "user_id"),
     @Index(name = "idx_created_at", columnList = "created_at")
 })
+@SQLRestriction("deleted_at IS NULL")
 @Data
 @Builder
 @NoArgsConstructor
@@ -48,5 +50,11 @@ public class Conversation {
     
     @Column
     private LocalDateTime lastMessageAt;
+    
+    /**
+     * 删除标记：非空表示正在后台删除（见 PurgeService），查询时自动排除
+     */
+    @Column
+    private LocalDateTime deletedAt;
 }
 
@@ -6,6 +6,7 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.SQLRestriction;
 import org.hibernate.annotations.UpdateTimestamp;
 
 import java.time.LocalDateTime;
@@ -15,6 +16,7 @@ import java.time.LocalDateTime;
     @Index(name = "idx_knowledge_user_id", columnList = "user_id"),
     @Index(name = "idx_knowledge_status", columnList = "status")
 })
+@SQLRestriction("deleted_at IS NULL")
 @Data
 @Builder
 @NoArgsConstructor
@@ -46,6 +48,18 @@ public class KnowledgeBase {
     @Builder.Default
     private Status status = Status.ACTIVE;
     
+    /**
+     * 向量维度，创建时确定；为空表示历史知识库（1536维）
+     */
+    @Column
+    private Integer embeddingDimension;
+    
+    /**
+     * 知识库向量所属的嵌入模型（模型名@版本），检索时按该模型生成查询向量；重建完成后切换
+     */
+    @Column(length = 100)
+    private String embeddingModel;
+    
     @CreationTimestamp
     @Column(nullable = false, updatable = false)
     private LocalDateTime createdAt;
@@ -54,6 +68,12 @@ public class KnowledgeBase {
     @Column(nullable = false)
     private LocalDateTime updatedAt;
     
+    /**
+     * 删除标记：非空表示正在后台删除（见 PurgeService），查询时自动排除
+     */
+    @Column
+    private LocalDateTime deletedAt;
+    
     public enum SourceType {
         FILE, URL, TEXT
     }
@@ -1,16 +1,18 @@
 package com.aichat.domain.entity;
 
+import com.aichat.domain.converter.VectorConverter;
+import com.aichat.service.embedding.SparseEmbedding;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.ColumnTransformer;
 import org.hibernate.annotations.CreationTimestamp;
 import org.hibernate.annotations.JdbcTypeCode;
 import org.hibernate.type.SqlTypes;
 
 import java.time.LocalDateTime;
-import java.util.List;
 import java.util.Map;
 
 @Entity
@@ -18,7 +20,7 @@ import java.util.Map;
     @Index(name = "idx_vector_documents_knowledge_id", columnList = "knowledge_base_id")
 })
 @Data
-@Builder
+@Builder(toBuilder = true)
 @NoArgsConstructor
 @AllArgsConstructor
 public class VectorDocument {
@@ -33,8 +35,26 @@ public class VectorDocument {
     @Column(nullable = false, columnDefinition = "TEXT")
     private String content;
     
+    /**
+     * 1536维知识库的向量；其他维度存放在 embedding_{维度} 列，由 VectorDocumentRepository 读写
+     */
     @Column(columnDefinition = "vector(1536)")
-    private String embedding;  // 存储为字符串，实际是向量
+    @Convert(converter = VectorConverter.class)
+    @ColumnTransformer(write = "CAST(? AS vector)")
+    private float[] embedding;
+    
+    /**
+     * 生成该向量的嵌入模型（模型名@版本），历史数据在启动时按知识库记录的模型补齐
+     */
+    @Column(length = 100)
+    private String embeddingModel;
+    
+    /**
+     * 本地哈希模型生成的稀疏向量（非持久化字段，仅写入时带有），
+     * 启用稀疏存储时由 VectorDocumentRepository 写入 sparse_embedding 列
+     */
+    @Transient
+    private SparseEmbedding sparseEmbedding;
     
     @JdbcTypeCode(SqlTypes.JSON)
     @Column(columnDefinition = "jsonb")
@@ -47,14 +67,9 @@ public class VectorDocument {
     @Column(nullable = false, updatable = false)
     private LocalDateTime createdAt;
     
-    // Helper methods for embedding conversion
-    public void setEmbeddingFromList(List<Double> embeddingList) {
-        if (embeddingList != null && !embeddingList.isEmpty()) {
-            this.embedding = "[" + String.join(",", 
-                embeddingList.stream()
-                    .map(String::valueOf)
-                    .toArray(String[]::new)) + "]";
-        }
-    }
+    /**
+     * 检索时与查询向量的余弦相似度（非持久化字段，仅检索结果带有）
+     */
+    @Transient
+    private Double similarity;
 }
-
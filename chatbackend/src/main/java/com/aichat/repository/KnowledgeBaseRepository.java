@@ -1,11 +1,17 @@
 package com.aichat.repository;
 
 import com.aichat.domain.entity.KnowledgeBase;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -15,6 +21,15 @@ public interface KnowledgeBaseRepository extends JpaRepository<KnowledgeBase, Lo
     
     Optional<KnowledgeBase> findByIdAndUserId(Long id, Long userId);
     
+    /**
+     * 读取并加共享锁（FOR SHARE），用于写入文档期间阻止知识库切换嵌入模型
+     */
+    @Lock(LockModeType.PESSIMISTIC_READ)
+    @Query("SELECT kb FROM KnowledgeBase kb WHERE kb.id = :id AND kb.userId = :userId")
+    Optional<KnowledgeBase> findForShareByIdAndUserId(@Param("id") Long id, @Param("userId") Long userId);
+    
+    List<KnowledgeBase> findByIdInAndUserId(Collection<Long> ids, Long userId);
+    
     void deleteByIdAndUserId(Long id, Long userId);
 }
 
@@ -0,0 +1,138 @@
+package com.aichat.repository;
+
+import com.aichat.domain.entity.VectorDocument;
+import com.aichat.service.vector.MetadataFilter;
+import com.aichat.service.vector.VectorStorageTier;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 向量文档的自定义仓库操作
+ * 通过 JDBC 直接绑定 PGvector 参数，避免向量在字符串与 vector 类型之间反复转换；
+ * 文档可能位于共享表或知识库的独立分区，读写都需经过这里以按知识库路由
+ */
+public interface VectorDocumentRepositoryCustom {
+    
+    /**
+     * 插入向量文档，返回带有生成主键的文档
+     */
+    VectorDocument insertVectorDocument(VectorDocument document);
+    
+    /**
+     * 按批次批量插入向量文档（JDBC batch，每批一次往返），生成的主键回填到文档
+     *
+     * @return 插入的行数
+     */
+    int batchInsertVectorDocuments(List<VectorDocument> documents, int batchSize);
+    
+    /**
+     * 向量相似度搜索（余弦相似度），结果不含向量，带 similarity
+     *
+     * @param exact 为 true 时绕过 ANN 索引做精确扫描
+     */
+    List<VectorDocument> findSimilarDocuments(Long knowledgeBaseId, float[] embedding, int limit, boolean exact);
+    
+    /**
+     * 在多个知识库中搜索相似文档
+     *
+     * @param exact 为 true 时绕过 ANN 索引做精确扫描
+     */
+    List<VectorDocument> findSimilarDocumentsInMultipleKBs(List<Long> knowledgeBaseIds, float[] embedding, int limit,
+                                                           boolean exact);
+    
+    /**
+     * 在多个知识库中搜索满足元数据过滤条件的相似文档
+     * 过滤条件与距离排序在同一查询中：精确模式下先按条件取出匹配行（预过滤），
+     * 否则在 ANN 索引扫描中逐个过滤（后过滤，需配合迭代扫描或放大 ef_search）
+     *
+     * @param filter 为 null 时不过滤
+     */
+    List<VectorDocument> findSimilarDocumentsInMultipleKBs(List<Long> knowledgeBaseIds, float[] embedding, int limit,
+                                                           boolean exact, MetadataFilter filter);
+    
+    /**
+     * 以指定的存储精度档位与重排倍数在知识库中做近似检索（不论知识库登记的档位），用于档位切换前的召回校准
+     * 对应档位的索引需已建在知识库所在的表上
+     */
+    List<VectorDocument> findSimilarDocumentsWithStorage(Long knowledgeBaseId, float[] embedding, int limit,
+                                                         VectorStorageTier tier, int rescoreMultiplier);
+    
+    /**
+     * 稀疏向量相似度搜索（sparse_embedding 列，精确计算；没有稀疏向量的文档按稠密列计算）
+     */
+    List<VectorDocument> findSimilarDocumentsSparse(List<Long> knowledgeBaseIds, float[] embedding, int limit);
+    
+    /**
+     * 稀疏向量相似度搜索，只计算满足元数据过滤条件的文档
+     */
+    List<VectorDocument> findSimilarDocumentsSparse(List<Long> knowledgeBaseIds, float[] embedding, int limit,
+                                                    MetadataFilter filter);
+    
+    /**
+     * 满足元数据过滤条件的文档数，最多数到 cap（用于判断过滤条件是否足够有选择性）
+     */
+    long countMatchingDocuments(List<Long> knowledgeBaseIds, MetadataFilter filter, long cap);
+    
+    /**
+     * 以最近写入的 sampleSize 个文档估算满足过滤条件的比例，没有文档时返回1
+     */
+    double estimateFilterSelectivity(List<Long> knowledgeBaseIds, MetadataFilter filter, int sampleSize);
+    
+    /**
+     * 读取知识库中指定维度向量列非空的全部文档（用于构建进程内索引）
+     */
+    List<VectorDocument> findDocumentsWithEmbedding(Long knowledgeBaseId, int dimension);
+    
+    /**
+     * 读取知识库中指定文档的向量（用于进程内索引增量追赶其他节点的写入）
+     */
+    List<VectorDocument> findDocumentsWithEmbedding(Long knowledgeBaseId, int dimension, Collection<Long> ids);
+    
+    /**
+     * 知识库全部文档 id
+     */
+    List<Long> findDocumentIds(Long knowledgeBaseId);
+    
+    /**
+     * 按 id 升序分页读取知识库文档（不含向量）
+     *
+     * @param afterId 只返回 id 大于该值的文档
+     */
+    List<VectorDocument> findDocumentPage(Long knowledgeBaseId, long afterId, int limit);
+    
+    /**
+     * 知识库的文档数（包括已提升到独立分区的文档）
+     */
+    long countDocuments(Long knowledgeBaseId);
+    
+    /**
+     * 全文检索，按 ts_rank_cd 降序返回
+     * 在事务内执行时包在保存点中，查询失败不会使外层事务进入 aborted 状态
+     *
+     * @param tsQuery to_tsquery('simple', ...) 的查询串，由 LexicalTokenizer 生成
+     */
+    List<VectorDocument> findLexicalMatches(List<Long> knowledgeBaseIds, String tsQuery, int limit);
+    
+    /**
+     * 全文检索，只返回满足元数据过滤条件的文档
+     */
+    List<VectorDocument> findLexicalMatches(List<Long> knowledgeBaseIds, String tsQuery, int limit,
+                                            MetadataFilter filter);
+    
+    /**
+     * 按 id 游标读取向量不属于指定模型、且尚未暂存新向量的文档（不含向量列），用于后台重建
+     */
+    List<VectorDocument> findDocumentsForReembedding(Long knowledgeBaseId, long afterId, String model, int limit);
+    
+    /**
+     * 知识库中是否还有向量不属于指定模型的文档
+     */
+    boolean hasDocumentsNotOnModel(Long knowledgeBaseId, String model);
+    
+    /**
+     * 用 reembedding_staging 中暂存的新向量覆盖知识库文档的向量列，返回更新行数
+     * 应在切换知识库模型的事务内调用
+     */
+    int applyStagedEmbeddings(Long knowledgeBaseId, int dimension);
+}
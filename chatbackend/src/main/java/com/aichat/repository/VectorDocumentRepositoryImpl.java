@@ -0,0 +1,620 @@
+package com.aichat.repository;
+
+import com.aichat.domain.entity.VectorDocument;
+import com.aichat.service.embedding.EmbeddingService;
+import com.aichat.service.embedding.SparseEmbedding;
+import com.aichat.service.vector.LexicalTokenizer;
+import com.aichat.service.vector.MetadataFilter;
+import com.aichat.service.vector.VectorDimensions;
+import com.aichat.service.vector.VectorPartitionRouter;
+import com.aichat.service.vector.VectorStorageTier;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pgvector.PGvector;
+import lombok.RequiredArgsConstructor;
+import org.postgresql.util.PGobject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * VectorDocumentRepositoryCustom 的 JDBC 实现
+ * 向量以 PGvector 对象绑定（驱动启用二进制传输时走二进制编码），不再拼接十进制字符串再 CAST。
+ * 知识库文档所在的表由 VectorPartitionRouter 决定：查询按表拆成子查询（各自使用该表的索引）后 UNION ALL 合并；
+ * 相似度子查询按各表的存储精度档位生成（压缩档位先取候选再按全精度距离重排）
+ */
+@RequiredArgsConstructor
+public class VectorDocumentRepositoryImpl implements VectorDocumentRepositoryCustom {
+    
+    /**
+     * %1$s 为表名（见 VectorPartitionRouter），%2$s 为向量列名（随知识库维度变化，见 VectorDimensions.columnFor）
+     */
+    private static final String INSERT_SQL =
+            "INSERT INTO %1$s (knowledge_base_id, content, %2$s, embedding_model, metadata, token_count, lexical, " +
+            "created_at) " +
+            "VALUES (:knowledgeBaseId, :content, :embedding, :embeddingModel, CAST(:metadata AS jsonb), :tokenCount, " +
+            "to_tsvector('simple', :lexical), CURRENT_TIMESTAMP)";
+    
+    private static final String SPARSE_INSERT_SQL =
+            "INSERT INTO %1$s (knowledge_base_id, content, %2$s, sparse_embedding, embedding_model, metadata, " +
+            "token_count, lexical, created_at) " +
+            "VALUES (:knowledgeBaseId, :content, :embedding, :sparseEmbedding, :embeddingModel, CAST(:metadata AS jsonb), " +
+            ":tokenCount, to_tsvector('simple', :lexical), CURRENT_TIMESTAMP)";
+    
+    /**
+     * 列表与检索结果只读取正文列，向量列只在构建进程内索引时读取（以 embedding 作为别名）
+     */
+    private static final String DOCUMENT_COLUMNS =
+            "id, knowledge_base_id, content, embedding_model, metadata, token_count, created_at";
+    
+    /**
+     * 以下子查询模板中 %1$s 为表名，%2$s 为该表上知识库 id 列表的参数名，%3$s（如有）为元数据过滤条件
+     * 稀疏向量检索：不走 ANN 索引（sparsevec 的 HNSW 索引限制 1000 个非零维），
+     * 按知识库过滤后精确计算，单行计算量与非零维数成正比；
+     * 只有本地哈希模型的文档存有稀疏向量，其余文档（远程模型）按稠密列计算，%4$s 为稠密列名
+     */
+    private static final String SPARSE_SIMILARITY_SUBQUERY =
+            "SELECT " + DOCUMENT_COLUMNS + ", " +
+            "COALESCE(sparse_embedding <=> :embedding, %4$s <=> :denseEmbedding) as distance " +
+            "FROM %1$s " +
+            "WHERE knowledge_base_id IN (:%2$s) AND (sparse_embedding IS NOT NULL OR %4$s IS NOT NULL)%3$s " +
+            "ORDER BY distance " +
+            "LIMIT :limit";
+    
+    /**
+     * %3$s 为向量列名
+     */
+    private static final String EMBEDDED_DOCUMENTS_SUBQUERY =
+            "SELECT " + DOCUMENT_COLUMNS + ", %3$s AS embedding FROM %1$s " +
+            "WHERE knowledge_base_id IN (:%2$s) AND %3$s IS NOT NULL";
+    
+    private static final String DOCUMENT_IDS_SUBQUERY =
+            "SELECT id FROM %1$s WHERE knowledge_base_id IN (:%2$s)";
+    
+    /**
+     * 按 id 游标分页，使用 (knowledge_base_id, id) 索引
+     */
+    private static final String DOCUMENT_PAGE_SUBQUERY =
+            "SELECT " + DOCUMENT_COLUMNS + " FROM %1$s " +
+            "WHERE knowledge_base_id IN (:%2$s) AND id > :afterId ORDER BY id LIMIT :limit";
+    
+    private static final String LEXICAL_SUBQUERY =
+            "SELECT d.id, d.knowledge_base_id, d.content, d.embedding_model, d.metadata, d.token_count, d.created_at, " +
+            "ts_rank_cd(d.lexical, q) AS lexical_rank " +
+            "FROM %1$s d, to_tsquery('simple', :query) q " +
+            "WHERE d.knowledge_base_id IN (:%2$s) AND d.lexical @@ q%3$s " +
+            "ORDER BY lexical_rank DESC, d.id " +
+            "LIMIT :limit";
+    
+    private static final String REEMBEDDING_SUBQUERY =
+            "SELECT " + DOCUMENT_COLUMNS + " FROM %1$s " +
+            "WHERE knowledge_base_id IN (:%2$s) AND id > :afterId AND embedding_model IS DISTINCT FROM :model " +
+            "AND NOT EXISTS (SELECT 1 FROM reembedding_staging s WHERE s.document_id = %1$s.id " +
+            "AND s.embedding_model = :model) " +
+            "ORDER BY id LIMIT :limit";
+    
+    private static final String NOT_ON_MODEL_SUBQUERY =
+            "SELECT id FROM %1$s WHERE knowledge_base_id IN (:%2$s) AND embedding_model IS DISTINCT FROM :model LIMIT 1";
+    
+    /**
+     * %1$s 为表名，%2$s 为 SET 子句中的向量列赋值
+     */
+    private static final String APPLY_STAGED_SQL =
+            "UPDATE %1$s d SET %2$s, embedding_model = s.embedding_model FROM reembedding_staging s " +
+            "WHERE s.document_id = d.id AND s.knowledge_base_id = :knowledgeBaseId AND d.knowledge_base_id = :knowledgeBaseId";
+    
+    private static final String COUNT_SUBQUERY =
+            "SELECT count(*) AS n FROM %1$s WHERE knowledge_base_id IN (:%2$s)";
+    
+    private static final String MATCHING_SUBQUERY =
+            "SELECT 1 FROM %1$s WHERE knowledge_base_id IN (:%2$s)%3$s LIMIT :cap";
+    
+    /**
+     * 最近写入的文档，使用 (knowledge_base_id, id) 索引
+     */
+    private static final String RECENT_METADATA_SUBQUERY =
+            "SELECT metadata FROM %1$s WHERE knowledge_base_id IN (:%2$s) ORDER BY id DESC LIMIT :sampleSize";
+    
+    private static final TypeReference<Map<String, Object>> METADATA_TYPE = new TypeReference<>() {};
+    
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final VectorPartitionRouter partitionRouter;
+    
+    private final RowMapper<VectorDocument> rowMapper = (rs, rowNum) -> mapRow(rs, false, false);
+    private final RowMapper<VectorDocument> embeddedRowMapper = (rs, rowNum) -> mapRow(rs, true, false);
+    private final RowMapper<VectorDocument> similarityRowMapper = (rs, rowNum) -> mapRow(rs, false, true);
+    
+    /**
+     * 开启后写入时同时保存稀疏向量（sparse_embedding），检索走稀疏路径
+     */
+    @Value("${app.vector.sparse.enabled:false}")
+    private boolean sparseEnabled;
+    
+    /**
+     * 稀疏模式下是否保留稠密向量列；关闭后 embedding 写入 NULL，存储只与非零维数相关
+     */
+    @Value("${app.vector.sparse.dense-copy:true}")
+    private boolean denseCopy;
+    
+    @Override
+    public VectorDocument insertVectorDocument(VectorDocument document) {
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.update(insertSql(document.getKnowledgeBaseId(), dimensionOf(document)), toInsertParams(document),
+                keyHolder,
+                new String[]{"id", "created_at"});
+        
+        Map<String, Object> keys = keyHolder.getKeys();
+        if (keys != null) {
+            document.setId(((Number) keys.get("id")).longValue());
+            Object createdAt = keys.get("created_at");
+            if (createdAt instanceof Timestamp ts) {
+                document.setCreatedAt(ts.toLocalDateTime());
+            }
+        }
+        return document;
+    }
+    
+    @Override
+    public int batchInsertVectorDocuments(List<VectorDocument> documents, int batchSize) {
+        if (documents == null || documents.isEmpty()) {
+            return 0;
+        }
+        int size = Math.max(1, batchSize);
+        int inserted = 0;
+        for (int from = 0; from < documents.size(); from += size) {
+            List<VectorDocument> batch = documents.subList(from, Math.min(from + size, documents.size()));
+            Long knowledgeBaseId = batch.get(0).getKnowledgeBaseId();
+            int dimension = dimensionOf(batch.get(0));
+            SqlParameterSource[] params = new SqlParameterSource[batch.size()];
+            for (int i = 0; i < batch.size(); i++) {
+                if (dimensionOf(batch.get(i)) != dimension
+                        || !knowledgeBaseId.equals(batch.get(i).getKnowledgeBaseId())) {
+                    throw new IllegalArgumentException("同一批次的文档必须属于同一知识库且向量维度一致");
+                }
+                params[i] = toInsertParams(batch.get(i));
+            }
+            KeyHolder keyHolder = new GeneratedKeyHolder();
+            String sql = insertSql(knowledgeBaseId, dimension);
+            for (int count : jdbcTemplate.batchUpdate(sql, params, keyHolder, new String[]{"id"})) {
+                // 驱动重写批量语句时返回 SUCCESS_NO_INFO(-2)，按1行计
+                inserted += count >= 0 ? count : 1;
+            }
+            List<Map<String, Object>> keys = keyHolder.getKeyList();
+            for (int i = 0; i < batch.size() && i < keys.size(); i++) {
+                batch.get(i).setId(((Number) keys.get(i).get("id")).longValue());
+            }
+        }
+        return inserted;
+    }
+    
+    @Override
+    public List<VectorDocument> findSimilarDocuments(Long knowledgeBaseId, float[] embedding, int limit, boolean exact) {
+        return findSimilarDocumentsInMultipleKBs(List.of(knowledgeBaseId), embedding, limit, exact);
+    }
+    
+    @Override
+    public List<VectorDocument> findSimilarDocumentsInMultipleKBs(List<Long> knowledgeBaseIds, float[] embedding, int limit,
+                                                                  boolean exact) {
+        return findSimilarDocumentsInMultipleKBs(knowledgeBaseIds, embedding, limit, exact, null);
+    }
+    
+    @Override
+    public List<VectorDocument> findSimilarDocumentsInMultipleKBs(List<Long> knowledgeBaseIds, float[] embedding, int limit,
+                                                                  boolean exact, MetadataFilter filter) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("embedding", toPGvector(embedding))
+                .addValue("limit", limit);
+        String filterSql = filterPredicate(filter, params);
+        String union = unionByTable(knowledgeBaseIds, params, table ->
+                similaritySubquery(embedding.length, exact, partitionRouter.storageOf(table), filterSql));
+        return jdbcTemplate.query("SELECT *, 1 - distance as similarity FROM (" + union + ") candidates " +
+                "ORDER BY distance LIMIT :limit", params, similarityRowMapper);
+    }
+    
+    @Override
+    public List<VectorDocument> findSimilarDocumentsWithStorage(Long knowledgeBaseId, float[] embedding, int limit,
+                                                                VectorStorageTier tier, int rescoreMultiplier) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("embedding", toPGvector(embedding))
+                .addValue("limit", limit);
+        VectorPartitionRouter.Storage storage = new VectorPartitionRouter.Storage(tier, rescoreMultiplier);
+        String union = unionByTable(List.of(knowledgeBaseId), params, table ->
+                similaritySubquery(embedding.length, false, storage, ""));
+        return jdbcTemplate.query("SELECT *, 1 - distance as similarity FROM (" + union + ") candidates " +
+                "ORDER BY distance LIMIT :limit", params, similarityRowMapper);
+    }
+    
+    @Override
+    public List<VectorDocument> findLexicalMatches(List<Long> knowledgeBaseIds, String tsQuery, int limit) {
+        return findLexicalMatches(knowledgeBaseIds, tsQuery, limit, null);
+    }
+    
+    @Override
+    public List<VectorDocument> findLexicalMatches(List<Long> knowledgeBaseIds, String tsQuery, int limit,
+                                                   MetadataFilter filter) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("query", tsQuery)
+                .addValue("limit", limit);
+        String union = unionByTable(knowledgeBaseIds, params,
+                LEXICAL_SUBQUERY.replace("%3$s", filterPredicate(filter, params)));
+        String sql = "SELECT * FROM (" + union + ") matches ORDER BY lexical_rank DESC, id LIMIT :limit";
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            return jdbcTemplate.query(sql, params, rowMapper);
+        }
+        // 事务内失败的语句会使整个事务进入 aborted 状态，用保存点隔离，调用方可忽略失败继续执行后续查询
+        jdbcTemplate.getJdbcTemplate().execute("SAVEPOINT lexical_search");
+        try {
+            List<VectorDocument> matches = jdbcTemplate.query(sql, params, rowMapper);
+            jdbcTemplate.getJdbcTemplate().execute("RELEASE SAVEPOINT lexical_search");
+            return matches;
+        } catch (DataAccessException e) {
+            jdbcTemplate.getJdbcTemplate().execute("ROLLBACK TO SAVEPOINT lexical_search");
+            throw e;
+        }
+    }
+    
+    @Override
+    public List<VectorDocument> findSimilarDocumentsSparse(List<Long> knowledgeBaseIds, float[] embedding, int limit) {
+        return findSimilarDocumentsSparse(knowledgeBaseIds, embedding, limit, null);
+    }
+    
+    @Override
+    public List<VectorDocument> findSimilarDocumentsSparse(List<Long> knowledgeBaseIds, float[] embedding, int limit,
+                                                           MetadataFilter filter) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("embedding", toSparsevec(embedding))
+                .addValue("denseEmbedding", toPGvector(embedding))
+                .addValue("limit", limit);
+        String union = unionByTable(knowledgeBaseIds, params,
+                SPARSE_SIMILARITY_SUBQUERY.replace("%3$s", filterPredicate(filter, params))
+                        .replace("%4$s", VectorDimensions.columnFor(embedding.length)));
+        return jdbcTemplate.query("SELECT *, 1 - distance as similarity FROM (" + union + ") candidates " +
+                "ORDER BY distance LIMIT :limit", params, similarityRowMapper);
+    }
+    
+    @Override
+    public List<VectorDocument> findDocumentsWithEmbedding(Long knowledgeBaseId, int dimension) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        String column = VectorDimensions.columnFor(dimension);
+        String union = unionByTable(List.of(knowledgeBaseId), params,
+                EMBEDDED_DOCUMENTS_SUBQUERY.replace("%3$s", column));
+        return jdbcTemplate.query("SELECT * FROM (" + union + ") documents ORDER BY id", params, embeddedRowMapper);
+    }
+    
+    @Override
+    public List<VectorDocument> findDocumentsWithEmbedding(Long knowledgeBaseId, int dimension, Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        MapSqlParameterSource params = new MapSqlParameterSource("ids", ids);
+        String column = VectorDimensions.columnFor(dimension);
+        String union = unionByTable(List.of(knowledgeBaseId), params,
+                EMBEDDED_DOCUMENTS_SUBQUERY.replace("%3$s", column) + " AND id IN (:ids)");
+        return jdbcTemplate.query("SELECT * FROM (" + union + ") documents ORDER BY id", params, embeddedRowMapper);
+    }
+    
+    @Override
+    public List<Long> findDocumentIds(Long knowledgeBaseId) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        String union = unionByTable(List.of(knowledgeBaseId), params, DOCUMENT_IDS_SUBQUERY);
+        return jdbcTemplate.queryForList("SELECT id FROM (" + union + ") documents", params, Long.class);
+    }
+    
+    @Override
+    public List<VectorDocument> findDocumentPage(Long knowledgeBaseId, long afterId, int limit) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("afterId", afterId)
+                .addValue("limit", limit);
+        String union = unionByTable(List.of(knowledgeBaseId), params, DOCUMENT_PAGE_SUBQUERY);
+        return jdbcTemplate.query("SELECT * FROM (" + union + ") documents ORDER BY id LIMIT :limit", params, rowMapper);
+    }
+    
+    @Override
+    public long countDocuments(Long knowledgeBaseId) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        String union = unionByTable(List.of(knowledgeBaseId), params, COUNT_SUBQUERY);
+        Long count = jdbcTemplate.queryForObject("SELECT coalesce(sum(n), 0) FROM (" + union + ") counts",
+                params, Long.class);
+        return count != null ? count : 0L;
+    }
+    
+    @Override
+    public long countMatchingDocuments(List<Long> knowledgeBaseIds, MetadataFilter filter, long cap) {
+        MapSqlParameterSource params = new MapSqlParameterSource("cap", cap);
+        String union = unionByTable(knowledgeBaseIds, params,
+                MATCHING_SUBQUERY.replace("%3$s", filterPredicate(filter, params)));
+        Long count = jdbcTemplate.queryForObject("SELECT count(*) FROM (" + union + ") matched", params, Long.class);
+        return Math.min(count != null ? count : 0L, cap);
+    }
+    
+    @Override
+    public double estimateFilterSelectivity(List<Long> knowledgeBaseIds, MetadataFilter filter, int sampleSize) {
+        MapSqlParameterSource params = new MapSqlParameterSource("sampleSize", sampleSize);
+        String union = unionByTable(knowledgeBaseIds, params, RECENT_METADATA_SUBQUERY);
+        Map<String, Object> row = jdbcTemplate.queryForMap("SELECT count(*) AS sampled, " +
+                "count(*) FILTER (WHERE TRUE" + filterPredicate(filter, params) + ") AS matched " +
+                "FROM (" + union + ") sample", params);
+        long sampled = ((Number) row.get("sampled")).longValue();
+        return sampled > 0 ? ((Number) row.get("matched")).doubleValue() / sampled : 1.0;
+    }
+    
+    @Override
+    public List<VectorDocument> findDocumentsForReembedding(Long knowledgeBaseId, long afterId, String model, int limit) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("afterId", afterId)
+                .addValue("model", model)
+                .addValue("limit", limit);
+        String union = unionByTable(List.of(knowledgeBaseId), params, REEMBEDDING_SUBQUERY);
+        return jdbcTemplate.query("SELECT * FROM (" + union + ") documents ORDER BY id LIMIT :limit", params, rowMapper);
+    }
+    
+    @Override
+    public boolean hasDocumentsNotOnModel(Long knowledgeBaseId, String model) {
+        MapSqlParameterSource params = new MapSqlParameterSource("model", model);
+        String union = unionByTable(List.of(knowledgeBaseId), params, NOT_ON_MODEL_SUBQUERY);
+        return !jdbcTemplate.queryForList(union, params, Long.class).isEmpty();
+    }
+    
+    /**
+     * 稠密列按知识库维度写入；启用稀疏存储时，本地哈希模型的新向量同时写入 sparse_embedding
+     * （暂存的稠密向量由稀疏向量展开而来，转换只保留非零维，无损），远程模型的文档清空稀疏列并始终保留稠密列
+     */
+    @Override
+    public int applyStagedEmbeddings(Long knowledgeBaseId, int dimension) {
+        List<String> assignments = new ArrayList<>();
+        String column = VectorDimensions.columnFor(dimension);
+        String simple = "s.embedding_model LIKE :simpleModel";
+        if (!sparseEnabled || denseCopy) {
+            assignments.add(column + " = s.embedding");
+        } else {
+            assignments.add(column + " = CASE WHEN " + simple + " THEN NULL ELSE s.embedding END");
+        }
+        if (sparseEnabled) {
+            assignments.add("sparse_embedding = CASE WHEN " + simple + " THEN CAST(s.embedding AS sparsevec) END");
+        }
+        MapSqlParameterSource params = new MapSqlParameterSource("knowledgeBaseId", knowledgeBaseId)
+                .addValue("simpleModel", EmbeddingService.SIMPLE_MODEL + "@%");
+        int updated = 0;
+        for (String table : partitionRouter.readTables(List.of(knowledgeBaseId)).keySet()) {
+            updated += jdbcTemplate.update(String.format(APPLY_STAGED_SQL, table, String.join(", ", assignments)), params);
+        }
+        return updated;
+    }
+    
+    /**
+     * 按知识库所在的表生成子查询并以 UNION ALL 合并；每个子查询各自排序截断，便于使用各表自己的索引
+     *
+     * @param subquery 子查询模板，%1$s 为表名，%2$s 为知识库 id 列表的参数名
+     */
+    private String unionByTable(Collection<Long> knowledgeBaseIds, MapSqlParameterSource params, String subquery) {
+        return unionByTable(knowledgeBaseIds, params, table -> subquery);
+    }
+    
+    /**
+     * @param subqueryForTable 按表名给出子查询模板（模板参数同上），用于各表 SQL 不同的情况
+     */
+    private String unionByTable(Collection<Long> knowledgeBaseIds, MapSqlParameterSource params,
+                                Function<String, String> subqueryForTable) {
+        StringBuilder union = new StringBuilder();
+        int index = 0;
+        for (Map.Entry<String, List<Long>> entry : partitionRouter.readTables(knowledgeBaseIds).entrySet()) {
+            String idsParam = "knowledgeBaseIds" + index++;
+            params.addValue(idsParam, entry.getValue());
+            if (union.length() > 0) {
+                union.append(" UNION ALL ");
+            }
+            String subquery = subqueryForTable.apply(entry.getKey());
+            union.append('(').append(String.format(subquery, entry.getKey(), idsParam)).append(')');
+        }
+        return union.toString();
+    }
+    
+    private String insertSql(Long knowledgeBaseId, int dimension) {
+        return String.format(sparseEnabled ? SPARSE_INSERT_SQL : INSERT_SQL,
+                partitionRouter.writeTable(knowledgeBaseId), VectorDimensions.columnFor(dimension));
+    }
+    
+    private static int dimensionOf(VectorDocument document) {
+        return document.getEmbedding() != null ? document.getEmbedding().length : VectorDimensions.BASE_DIMENSION;
+    }
+    
+    /**
+     * 构建相似度子查询模板
+     * 精确模式下按 (distance + 0) 排序，使规划器无法匹配 ANN 索引；
+     * 外层按距离重新排序，兼容迭代扫描 relaxed_order 返回的近似顺序。
+     * 压缩档位（非精确模式）先按量化表达式在压缩索引上取 limit * 重排倍数 个候选，再按全精度距离重排
+     */
+    private static String similaritySubquery(int dimension, boolean exact, VectorPartitionRouter.Storage storage,
+                                             String filterSql) {
+        String column = VectorDimensions.columnFor(dimension);
+        if (!exact && storage.tier().isCompressed()) {
+            return "SELECT " + DOCUMENT_COLUMNS + ", " + column + " <=> :embedding as distance FROM (" +
+                   "SELECT " + DOCUMENT_COLUMNS + ", " + column + " " +
+                   "FROM %1$s " +
+                   "WHERE knowledge_base_id IN (:%2$s)" + filterSql + " " +
+                   "ORDER BY " + storage.tier().candidateOrder(column, dimension, ":embedding") + " " +
+                   "LIMIT :limit * " + Math.max(1, storage.rescoreMultiplier()) + ") rescored " +
+                   "ORDER BY distance " +
+                   "LIMIT :limit";
+        }
+        String orderBy = exact ? "(" + column + " <=> :embedding) + 0" : column + " <=> :embedding";
+        return "SELECT " + DOCUMENT_COLUMNS + ", " + column + " <=> :embedding as distance " +
+               "FROM %1$s " +
+               "WHERE knowledge_base_id IN (:%2$s)" + filterSql + " " +
+               "ORDER BY " + orderBy + " " +
+               "LIMIT :limit";
+    }
+    
+    /**
+     * 元数据过滤条件的 SQL（以 " AND " 开头，无条件时为空串），取值全部以参数绑定
+     * 等于/其中之一转换为 metadata @> 包含查询（可用 GIN 索引）；数值范围只对数值类型的字段成立
+     */
+    private String filterPredicate(MetadataFilter filter, MapSqlParameterSource params) {
+        if (filter == null) {
+            return "";
+        }
+        StringBuilder sql = new StringBuilder();
+        List<MetadataFilter.Condition> conditions = filter.getConditions();
+        for (int i = 0; i < conditions.size(); i++) {
+            MetadataFilter.Condition condition = conditions.get(i);
+            String param = "filter" + i;
+            switch (condition.operator()) {
+                case EQ, IN -> {
+                    List<String> alternatives = new ArrayList<>();
+                    for (int j = 0; j < condition.values().size(); j++) {
+                        params.addValue(param + "_" + j,
+                                toJson(Map.of(condition.key(), condition.values().get(j))));
+                        alternatives.add("metadata @> CAST(:" + param + "_" + j + " AS jsonb)");
+                    }
+                    sql.append(" AND (").append(String.join(" OR ", alternatives)).append(')');
+                }
+                case RANGE -> {
+                    params.addValue(param + "_key", condition.key());
+                    String value = "CASE WHEN jsonb_typeof(metadata -> :" + param + "_key) = 'number' " +
+                            "THEN CAST(metadata ->> :" + param + "_key AS numeric) END";
+                    for (Map.Entry<String, Double> bound : condition.bounds().entrySet()) {
+                        String operator = switch (bound.getKey()) {
+                            case "gt" -> ">";
+                            case "gte" -> ">=";
+                            case "lt" -> "<";
+                            default -> "<=";
+                        };
+                        params.addValue(param + "_" + bound.getKey(), bound.getValue());
+                        sql.append(" AND ").append(value).append(' ').append(operator)
+                                .append(" :").append(param).append('_').append(bound.getKey());
+                    }
+                }
+            }
+        }
+        return sql.toString();
+    }
+    
+    private VectorDocument mapRow(ResultSet rs, boolean withEmbedding, boolean withSimilarity) throws SQLException {
+        Timestamp createdAt = rs.getTimestamp("created_at");
+        PGvector embedding = withEmbedding ? rs.getObject("embedding", PGvector.class) : null;
+        return VectorDocument.builder()
+                .id(rs.getLong("id"))
+                .knowledgeBaseId(rs.getLong("knowledge_base_id"))
+                .content(rs.getString("content"))
+                .embedding(embedding != null ? embedding.toArray() : null)
+                .embeddingModel(rs.getString("embedding_model"))
+                .metadata(fromJson(rs.getString("metadata")))
+                .tokenCount((Integer) rs.getObject("token_count"))
+                .createdAt(createdAt != null ? createdAt.toLocalDateTime() : null)
+                .similarity(withSimilarity ? rs.getDouble("similarity") : null)
+                .build();
+    }
+    
+    /**
+     * 没有稀疏向量的文档（远程模型）始终写入稠密列
+     */
+    private MapSqlParameterSource toInsertParams(VectorDocument document) {
+        boolean writeDense = !sparseEnabled || denseCopy || document.getSparseEmbedding() == null;
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("knowledgeBaseId", document.getKnowledgeBaseId())
+                .addValue("content", document.getContent())
+                .addValue("embedding", writeDense ? toPGvector(document.getEmbedding()) : null, Types.OTHER)
+                .addValue("embeddingModel", document.getEmbeddingModel())
+                .addValue("metadata", toJson(document.getMetadata()))
+                .addValue("tokenCount", document.getTokenCount())
+                .addValue("lexical", LexicalTokenizer.toSearchText(document.getContent()));
+        if (sparseEnabled) {
+            params.addValue("sparseEmbedding", toSparsevec(document.getSparseEmbedding()), Types.OTHER);
+        }
+        return params;
+    }
+    
+    private PGvector toPGvector(float[] embedding) {
+        return embedding != null ? new PGvector(embedding) : null;
+    }
+    
+    /**
+     * 稀疏向量转 sparsevec 文本格式：{下标:值,...}/维度，下标从1开始
+     */
+    private PGobject toSparsevec(SparseEmbedding embedding) {
+        if (embedding == null) {
+            return null;
+        }
+        StringBuilder value = new StringBuilder("{");
+        for (int i = 0; i < embedding.nonZeroCount(); i++) {
+            if (i > 0) {
+                value.append(',');
+            }
+            value.append(embedding.indices()[i] + 1).append(':').append(embedding.values()[i]);
+        }
+        value.append("}/").append(embedding.dimension());
+        return sparsevec(value.toString());
+    }
+    
+    /**
+     * 查询向量转 sparsevec（只保留非零维）
+     */
+    private PGobject toSparsevec(float[] embedding) {
+        if (embedding == null) {
+            return null;
+        }
+        StringBuilder value = new StringBuilder("{");
+        for (int i = 0; i < embedding.length; i++) {
+            if (embedding[i] != 0f) {
+                if (value.length() > 1) {
+                    value.append(',');
+                }
+                value.append(i + 1).append(':').append(embedding[i]);
+            }
+        }
+        value.append("}/").append(embedding.length);
+        return sparsevec(value.toString());
+    }
+    
+    private PGobject sparsevec(String value) {
+        try {
+            PGobject sparsevec = new PGobject();
+            sparsevec.setType("sparsevec");
+            sparsevec.setValue(value);
+            return sparsevec;
+        } catch (SQLException e) {
+            throw new IllegalArgumentException("稀疏向量编码失败: " + e.getMessage(), e);
+        }
+    }
+    
+    private String toJson(Map<String, Object> metadata) {
+        if (metadata == null || metadata.isEmpty()) {
+            return "{}";
+        }
+        try {
+            return objectMapper.writeValueAsString(metadata);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("元数据序列化失败: " + e.getMessage(), e);
+        }
+    }
+    
+    private Map<String, Object> fromJson(String json) {
+        if (json == null || json.isEmpty()) {
+            return new HashMap<>();
+        }
+        try {
+            return objectMapper.readValue(json, METADATA_TYPE);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("元数据解析失败: " + e.getMessage(), e);
+        }
+    }
+}
@@ -46,11 +46,12 @@ public class ChatService {
             if (request.getKnowledgeBaseIds() != null && !request.getKnowledgeBaseIds().isEmpty()) {
                 try {
                     Integer topK = request.getRagTopK() != null ? request.getRagTopK() : 3;
-                    ragDocs = vectorService.searchInMultipleKnowledgeBases(
+                    ragDocs = vectorService.retrieveContext(
                             request.getKnowledgeBaseIds(),
                             userId,
                             request.getContent(),
-                            topK
+                            topK,
+                            request.getRetrievalMode()
                     );
                     log.info("RAG检索成功: knowledgeBaseIds={}, foundDocs={}", 
                              request.getKnowledgeBaseIds(), ragDocs.size());
@@ -122,7 +123,7 @@ public class ChatService {
         
         // 如果有RAG文档，存储到metadata
         if (ragDocs != null && !ragDocs.isEmpty()) {
-            message.setMetadata(buildRagMetadata(ragDocs));
+            message.setMetadata(RagMetadata.build(ragDocs));
         }
         
         message = messageRepository.save(message);
@@ -139,38 +140,6 @@ public class ChatService {
         return message;
     }
     
-    /**
-     * 构建RAG元数据JSON字符串
-     */
-    private String buildRagMetadata(List<VectorDocument> docs) {
-        if (docs == null || docs.isEmpty()) {
-            return null;
-        }
-        
-        StringBuilder json = new StringBuilder("{\"ragDocs\":[");
-        for (int i = 0; i < docs.size(); i++) {
-            if (i > 0) json.append(",");
-            VectorDocument doc = docs.get(i);
-            String content = doc.getContent().length() > 200 
-                    ? doc.getContent().substring(0, 200) + "..." 
-                    : doc.getContent();
-            content = content.replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "");
-            
-            String kbTitle = doc.getMetadata() != null && doc.getMetadata().containsKey("knowledgeBaseTitle") 
-                    ? doc.getMetadata().get("knowledgeBaseTitle").toString() 
-                    : "未知知识库";
-            kbTitle = kbTitle.replace("\"", "\\\"");
-            
-            json.append("{")
-                .append("\"documentId\":").append(doc.getId()).append(",")
-                .append("\"content\":\"").append(content).append("\",")
-                .append("\"knowledgeBaseTitle\":\"").append(kbTitle).append("\"")
-                .append("}");
-        }
-        json.append("]}");
-        return json.toString();
-    }
-    
     private ChatCompletionRequest buildDeepSeekRequestWithRag(List<Message> historyMessages, 
                                                                ChatRequest request, Long userId, 
                                                                List<VectorDocument> ragDocs) {
@@ -312,7 +281,7 @@ public class ChatService {
         
         // 解析metadata中的ragDocs信息
         if (message.getMetadata() != null && !message.getMetadata().isEmpty()) {
-            List<ChatResponse.RagDocumentInfo> ragDocs = parseRagDocsFromMetadata(message.getMetadata());
+            List<ChatResponse.RagDocumentInfo> ragDocs = RagMetadata.parse(message.getMetadata());
             if (ragDocs != null && !ragDocs.isEmpty()) {
                 builder.ragDocs(ragDocs);
             }
@@ -320,100 +289,4 @@ public class ChatService {
         
         return builder.build();
     }
-    
-    /**
-     * 从metadata JSON字符串解析RAG文档信息
-     */
-    private List<ChatResponse.RagDocumentInfo> parseRagDocsFromMetadata(String metadata) {
-        try {
-            if (!metadata.contains("\"ragDocs\"")) {
-                return null;
-            }
-            
-            List<ChatResponse.RagDocumentInfo> ragDocs = new ArrayList<>();
-            
-            // 简单的JSON解析（避免引入Jackson依赖）
-            int ragDocsStart = metadata.indexOf("\"ragDocs\":[");
-            if (ragDocsStart == -1) return null;
-            
-            int arrayStart = metadata.indexOf('[', ragDocsStart);
-            int arrayEnd = metadata.indexOf(']', arrayStart);
-            if (arrayStart == -1 || arrayEnd == -1) return null;
-            
-            String docsArray = metadata.substring(arrayStart + 1, arrayEnd);
-            
-            // 分割各个文档对象
-            int depth = 0;
-            int start = 0;
-            for (int i = 0; i < docsArray.length(); i++) {
-                char c = docsArray.charAt(i);
-                if (c == '{') depth++;
-                else if (c == '}') {
-                    depth--;
-                    if (depth == 0) {
-                        String docJson = docsArray.substring(start, i + 1);
-                        ChatResponse.RagDocumentInfo doc = parseRagDocInfo(docJson);
-                        if (doc != null) {
-                            ragDocs.add(doc);
-                        }
-                        start = i + 2; // 跳过逗号
-                    }
-                }
-            }
-            
-            return ragDocs;
-        } catch (Exception e) {
-            log.warn("Failed to parse ragDocs from metadata: {}", e.getMessage());
-            return null;
-        }
-    }
-    
-    /**
-     * 解析单个RAG文档JSON对象
-     */
-    private ChatResponse.RagDocumentInfo parseRagDocInfo(String json) {
-        try {
-            Long docId = extractLongValue(json, "documentId");
-            String content = extractStringValue(json, "content");
-            String kbTitle = extractStringValue(json, "knowledgeBaseTitle");
-            
-            return ChatResponse.RagDocumentInfo.builder()
-                    .documentId(docId)
-                    .content(content)
-                    .knowledgeBaseTitle(kbTitle)
-                    .build();
-        } catch (Exception e) {
-            log.warn("Failed to parse rag doc info: {}", e.getMessage());
-            return null;
-        }
-    }
-    
-    private Long extractLongValue(String json, String key) {
-        String pattern = "\"" + key + "\":";
-        int start = json.indexOf(pattern);
-        if (start == -1) return null;
-        start += pattern.length();
-        int end = json.indexOf(',', start);
-        if (end == -1) end = json.indexOf('}', start);
-        String value = json.substring(start, end).trim();
-        return Long.parseLong(value);
-    }
-    
-    private String extractStringValue(String json, String key) {
-        String pattern = "\"" + key + "\":\"";
-        int start = json.indexOf(pattern);
-        if (start == -1) return null;
-        start += pattern.length();
-        int end = start;
-        while (end < json.length()) {
-            if (json.charAt(end) == '"' && (end == 0 || json.charAt(end - 1) != '\\')) {
-                break;
-            }
-            end++;
-        }
-        String value = json.substring(start, end);
-        // 反转义
-        return value.replace("\\\"", "\"").replace("\\n", "\n");
-    }
 }
-
@@ -1,10 +1,12 @@
 package com.aichat.service;
 
 import com.aichat.domain.dto.chat.ConversationDTO;
+import com.aichat.domain.dto.common.PurgeStatus;
 import com.aichat.domain.entity.Conversation;
 import com.aichat.exception.BusinessException;
 import com.aichat.repository.ConversationRepository;
 import com.aichat.repository.MessageRepository;
+import com.aichat.service.purge.PurgeService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
@@ -21,6 +23,7 @@ public class ConversationService {
     
     private final ConversationRepository conversationRepository;
     private final MessageRepository messageRepository;
+    private final PurgeService purgeService;
     
     @Transactional
     public ConversationDTO createConversation(Long userId, String title) {
@@ -72,15 +75,20 @@ public class ConversationService {
         });
     }
     
-    @Transactional
-    public void deleteConversation(Long conversationId, Long userId) {
-        Conversation conversation = conversationRepository.findByIdAndUserId(conversationId, userId)
-                .orElseThrow(() -> new BusinessException("会话不存在或无权访问"));
-        
-        // 删除会话及其所有消息（级联删除）
-        conversationRepository.delete(conversation);
-        
-        log.info("删除会话: conversationId={}, userId={}", conversationId, userId);
+    /**
+     * 删除会话：标记后立即返回，消息由后台分批删除
+     */
+    public PurgeStatus deleteConversation(Long conversationId, Long userId) {
+        PurgeStatus status = purgeService.requestPurge(PurgeService.Target.CONVERSATION, conversationId, userId);
+        log.info("删除会话: conversationId={}, userId={}, state={}", conversationId, userId, status.getState());
+        return status;
+    }
+    
+    /**
+     * 查询会话的删除进度
+     */
+    public PurgeStatus getDeletionStatus(Long conversationId, Long userId) {
+        return purgeService.getStatus(PurgeService.Target.CONVERSATION, conversationId, userId);
     }
     
     private ConversationDTO toDTO(Conversation conversation) {
@@ -0,0 +1,165 @@
+package com.aichat.service;
+
+import com.aichat.domain.dto.chat.ChatResponse;
+import com.aichat.domain.entity.VectorDocument;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 消息 metadata 中 RAG 引用文档的编码与解析
+ * 格式：{"ragDocs":[{"documentId":1,"similarity":0.8123,"content":"...","knowledgeBaseTitle":"..."}]}，
+ * 内容截取前200字符，similarity 仅在有向量相似度时写入。同步与流式对话共用，每条助手消息保存与读取历史时都会调用
+ */
+@Slf4j
+public final class RagMetadata {
+
+    private static final int CONTENT_PREVIEW_LENGTH = 200;
+
+    private RagMetadata() {
+    }
+
+    /**
+     * 构建RAG元数据JSON字符串
+     */
+    public static String build(List<VectorDocument> docs) {
+        if (docs == null || docs.isEmpty()) {
+            return null;
+        }
+
+        StringBuilder json = new StringBuilder("{\"ragDocs\":[");
+        for (int i = 0; i < docs.size(); i++) {
+            if (i > 0) json.append(",");
+            VectorDocument doc = docs.get(i);
+            String content = doc.getContent().length() > CONTENT_PREVIEW_LENGTH
+                    ? doc.getContent().substring(0, CONTENT_PREVIEW_LENGTH) + "..."
+                    : doc.getContent();
+            content = content.replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "");
+
+            String kbTitle = doc.getMetadata() != null && doc.getMetadata().containsKey("knowledgeBaseTitle")
+                    ? doc.getMetadata().get("knowledgeBaseTitle").toString()
+                    : "未知知识库";
+            kbTitle = kbTitle.replace("\"", "\\\"");
+
+            json.append("{")
+                .append("\"documentId\":").append(doc.getId()).append(",");
+            if (doc.getSimilarity() != null) {
+                json.append("\"similarity\":").append(String.format(Locale.ROOT, "%.4f", doc.getSimilarity())).append(",");
+            }
+            json.append("\"content\":\"").append(content).append("\",")
+                .append("\"knowledgeBaseTitle\":\"").append(kbTitle).append("\"")
+                .append("}");
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    /**
+     * 从metadata JSON字符串解析RAG文档信息，不含 ragDocs 或格式错误时返回 null
+     */
+    public static List<ChatResponse.RagDocumentInfo> parse(String metadata) {
+        try {
+            if (!metadata.contains("\"ragDocs\"")) {
+                return null;
+            }
+
+            List<ChatResponse.RagDocumentInfo> ragDocs = new ArrayList<>();
+
+            // 简单的JSON解析（避免引入Jackson依赖）
+            int ragDocsStart = metadata.indexOf("\"ragDocs\":[");
+            if (ragDocsStart == -1) return null;
+
+            int arrayStart = metadata.indexOf('[', ragDocsStart);
+            int arrayEnd = metadata.indexOf(']', arrayStart);
+            if (arrayStart == -1 || arrayEnd == -1) return null;
+
+            String docsArray = metadata.substring(arrayStart + 1, arrayEnd);
+
+            // 分割各个文档对象
+            int depth = 0;
+            int start = 0;
+            for (int i = 0; i < docsArray.length(); i++) {
+                char c = docsArray.charAt(i);
+                if (c == '{') depth++;
+                else if (c == '}') {
+                    depth--;
+                    if (depth == 0) {
+                        String docJson = docsArray.substring(start, i + 1);
+                        ChatResponse.RagDocumentInfo doc = parseDocInfo(docJson);
+                        if (doc != null) {
+                            ragDocs.add(doc);
+                        }
+                        start = i + 2; // 跳过逗号
+                    }
+                }
+            }
+
+            return ragDocs;
+        } catch (Exception e) {
+            log.warn("Failed to parse ragDocs from metadata: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 解析单个RAG文档JSON对象
+     */
+    private static ChatResponse.RagDocumentInfo parseDocInfo(String json) {
+        try {
+            Long docId = extractLongValue(json, "documentId");
+            Double similarity = extractDoubleValue(json, "similarity");
+            String content = extractStringValue(json, "content");
+            String kbTitle = extractStringValue(json, "knowledgeBaseTitle");
+
+            return ChatResponse.RagDocumentInfo.builder()
+                    .documentId(docId)
+                    .similarity(similarity)
+                    .content(content)
+                    .knowledgeBaseTitle(kbTitle)
+                    .build();
+        } catch (Exception e) {
+            log.warn("Failed to parse rag doc info: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static Long extractLongValue(String json, String key) {
+        String pattern = "\"" + key + "\":";
+        int start = json.indexOf(pattern);
+        if (start == -1) return null;
+        start += pattern.length();
+        int end = json.indexOf(',', start);
+        if (end == -1) end = json.indexOf('}', start);
+        String value = json.substring(start, end).trim();
+        return Long.parseLong(value);
+    }
+
+    private static Double extractDoubleValue(String json, String key) {
+        String pattern = "\"" + key + "\":";
+        int start = json.indexOf(pattern);
+        if (start == -1) return null;
+        start += pattern.length();
+        int end = json.indexOf(',', start);
+        if (end == -1) end = json.indexOf('}', start);
+        return Double.parseDouble(json.substring(start, end).trim());
+    }
+
+    private static String extractStringValue(String json, String key) {
+        String pattern = "\"" + key + "\":\"";
+        int start = json.indexOf(pattern);
+        if (start == -1) return null;
+        start += pattern.length();
+        int end = start;
+        while (end < json.length()) {
+            if (json.charAt(end) == '"' && (end == 0 || json.charAt(end - 1) != '\\')) {
+                break;
+            }
+            end++;
+        }
+        String value = json.substring(start, end);
+        // 反转义
+        return value.replace("\\\"", "\"").replace("\\n", "\n");
+    }
+}
@@ -1,29 +1,53 @@
 package com.aichat.service;
 
+import com.aichat.domain.dto.common.PurgeStatus;
+import com.aichat.domain.dto.knowledge.DocumentPage;
+import com.aichat.domain.dto.knowledge.DocumentView;
 import com.aichat.domain.entity.KnowledgeBase;
 import com.aichat.domain.entity.VectorDocument;
 import com.aichat.exception.BusinessException;
 import com.aichat.repository.KnowledgeBaseRepository;
 import com.aichat.repository.VectorDocumentRepository;
-import com.aichat.service.deepseek.DeepSeekService;
-import com.aichat.service.deepseek.dto.EmbeddingRequest;
-import com.aichat.service.deepseek.dto.EmbeddingResponse;
-import com.aichat.service.embedding.SimpleEmbeddingService;
+import com.aichat.service.embedding.EmbeddingService;
+import com.aichat.service.embedding.ReembeddingService;
 import com.aichat.service.ingest.DocumentSplitter;
 import com.aichat.service.ingest.FileIngestionService;
 import com.aichat.service.ingest.UrlIngestionService;
+import com.aichat.service.vector.KnowledgeBaseRouter;
+import com.aichat.service.vector.KnowledgeBaseVersions;
+import com.aichat.service.vector.ChunkDeduplicator;
+import com.aichat.service.vector.ContextSelector;
+import com.aichat.service.vector.LexicalTokenizer;
+import com.aichat.service.vector.MetadataFilter;
+import com.aichat.service.vector.RecallProfile;
+import com.aichat.service.purge.PurgeService;
+import com.aichat.service.vector.ParallelKnowledgeBaseSearch;
+import com.aichat.service.vector.ReciprocalRankFusion;
+import com.aichat.service.vector.RetrievalMode;
+import com.aichat.service.vector.RetrievalResultCache;
+import com.aichat.service.vector.VectorDimensions;
+import com.aichat.service.vector.VectorSearchEngine;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
 
 @Service
 @RequiredArgsConstructor
@@ -32,21 +56,75 @@ public class VectorService {
     
     private final KnowledgeBaseRepository knowledgeBaseRepository;
     private final VectorDocumentRepository vectorDocumentRepository;
-    private final DeepSeekService deepSeekService;
-    private final SimpleEmbeddingService simpleEmbeddingService;
+    private final EmbeddingService embeddingService;
     private final DocumentSplitter documentSplitter;
     private final FileIngestionService fileIngestionService;
     private final UrlIngestionService urlIngestionService;
+    private final VectorSearchEngine vectorSearchEngine;
+    private final RetrievalResultCache retrievalResultCache;
+    private final VectorDimensions vectorDimensions;
+    private final ParallelKnowledgeBaseSearch parallelKnowledgeBaseSearch;
+    private final PurgeService purgeService;
+    private final KnowledgeBaseRouter knowledgeBaseRouter;
+    private final ReembeddingService reembeddingService;
+    private final PlatformTransactionManager transactionManager;
+    private final KnowledgeBaseVersions knowledgeBaseVersions;
     
     @Value("${app.vector.top-k:5}")
     private int defaultTopK;
     
-    @Value("${app.vector.use-simple-embedding:true}")
-    private boolean useSimpleEmbedding;
+    @Value("${app.vector.insert-batch-size:500}")
+    private int insertBatchSize;
+    
+    @Value("${app.vector.search.mode:VECTOR}")
+    private RetrievalMode defaultRetrievalMode;
+    
+    @Value("${app.vector.document-page.default-size:50}")
+    private int defaultPageSize;
+    
+    @Value("${app.vector.document-page.max-size:500}")
+    private int maxPageSize;
+    
+    @Value("${app.vector.hybrid.rrf-k:60}")
+    private int rrfK;
+    
+    @Value("${app.vector.hybrid.candidate-multiplier:4}")
+    private int hybridCandidateMultiplier;
+    
+    @Value("${app.vector.context.min-similarity:0.2}")
+    private double contextMinSimilarity;
+    
+    @Value("${app.vector.context.relative-drop:0.3}")
+    private double contextRelativeDrop;
+    
+    @Value("${app.vector.context.token-budget:2000}")
+    private int contextTokenBudget;
+    
+    @Value("${app.vector.dedup.enabled:true}")
+    private boolean dedupEnabled;
+    
+    @Value("${app.vector.dedup.candidate-multiplier:2}")
+    private int dedupCandidateMultiplier;
+    
+    @Value("${app.vector.dedup.max-hamming-distance:3}")
+    private int dedupMaxHammingDistance;
+    
+    @Value("${app.vector.dedup.overlap-containment:0.6}")
+    private double dedupOverlapContainment;
     
     @Transactional
     public KnowledgeBase createKnowledgeBase(Long userId, String title, String description, 
                                               KnowledgeBase.SourceType sourceType, String sourceUrl) {
+        return createKnowledgeBase(userId, title, description, sourceType, sourceUrl, null);
+    }
+    
+    /**
+     * 创建知识库并指定向量维度（null 使用 app.vector.dimension），创建后不可修改
+     */
+    @Transactional
+    public KnowledgeBase createKnowledgeBase(Long userId, String title, String description, 
+                                              KnowledgeBase.SourceType sourceType, String sourceUrl,
+                                              Integer dimension) {
         KnowledgeBase knowledgeBase = KnowledgeBase.builder()
                 .userId(userId)
                 .title(title)
@@ -54,10 +132,14 @@ public class VectorService {
                 .sourceType(sourceType)
                 .sourceUrl(sourceUrl)
                 .status(KnowledgeBase.Status.ACTIVE)
+                .embeddingDimension(vectorDimensions.resolveForNewKnowledgeBase(dimension))
+                .embeddingModel(embeddingService.currentModel())
                 .build();
         
         knowledgeBase = knowledgeBaseRepository.save(knowledgeBase);
-        log.info("创建知识库: id={}, userId={}, title={}", knowledgeBase.getId(), userId, title);
+        log.info("创建知识库: id={}, userId={}, title={}, dimension={}, model={}", 
+                 knowledgeBase.getId(), userId, title, knowledgeBase.getEmbeddingDimension(),
+                 knowledgeBase.getEmbeddingModel());
         
         return knowledgeBase;
     }
@@ -73,77 +155,76 @@ public class VectorService {
                 .orElseThrow(() -> new BusinessException("知识库不存在或无权访问"));
     }
     
-    @Transactional
-    public void deleteKnowledgeBase(Long id, Long userId) {
-        KnowledgeBase kb = getKnowledgeBase(id, userId);
-        
-        // 删除所有相关文档
-        vectorDocumentRepository.deleteByKnowledgeBaseId(id);
-        
-        // 删除知识库
-        knowledgeBaseRepository.delete(kb);
-        
-        log.info("删除知识库: id={}, userId={}", id, userId);
+    /**
+     * 写入文档时读取知识库并加共享锁，直到写入事务提交：
+     * 重建任务切换知识库模型时需要更新该行，会等待进行中的写入完成，
+     * 切换之后开始的写入则读到新模型，保证写入的向量与知识库记录的模型一致
+     */
+    private KnowledgeBase getKnowledgeBaseForWrite(Long id, Long userId) {
+        return knowledgeBaseRepository.findForShareByIdAndUserId(id, userId)
+                .orElseThrow(() -> new BusinessException("知识库不存在或无权访问"));
     }
     
     /**
-     * 获取知识库的所有文档
+     * 删除知识库：标记后立即返回，文档由后台分批删除
+     */
+    public PurgeStatus deleteKnowledgeBase(Long id, Long userId) {
+        PurgeStatus status = purgeService.requestPurge(PurgeService.Target.KNOWLEDGE_BASE, id, userId);
+        log.info("删除知识库: id={}, userId={}, state={}", id, userId, status.getState());
+        return status;
+    }
+    
+    /**
+     * 查询知识库的删除进度
+     */
+    public PurgeStatus getDeletionStatus(Long id, Long userId) {
+        return purgeService.getStatus(PurgeService.Target.KNOWLEDGE_BASE, id, userId);
+    }
+    
+    /**
+     * 分页获取知识库的文档（按 id 游标分页，不读取向量列）
+     *
+     * @param afterId 上一页最后一条文档的 id，null 表示第一页
      */
     @Transactional(readOnly = true)
-    public List<VectorDocument> getDocumentsByKnowledgeBase(Long knowledgeBaseId, Long userId) {
+    public DocumentPage getDocumentPage(Long knowledgeBaseId, Long userId, Long afterId, Integer limit) {
         // 验证知识库所有权
         getKnowledgeBase(knowledgeBaseId, userId);
         
-        return vectorDocumentRepository.findByKnowledgeBaseId(knowledgeBaseId);
+        int pageSize = Math.min(Math.max(limit != null ? limit : defaultPageSize, 1), maxPageSize);
+        // 多取一条用于判断是否还有下一页
+        List<VectorDocument> documents = vectorDocumentRepository.findDocumentPage(
+                knowledgeBaseId, afterId != null ? afterId : 0L, pageSize + 1);
+        boolean hasMore = documents.size() > pageSize;
+        List<DocumentView> items = documents.stream()
+                .limit(pageSize)
+                .map(DocumentView::from)
+                .toList();
+        return DocumentPage.builder()
+                .items(items)
+                .hasMore(hasMore)
+                .nextCursor(hasMore ? items.get(items.size() - 1).getId() : null)
+                .build();
     }
     
-    @Transactional
     public VectorDocument addDocument(Long knowledgeBaseId, Long userId, String content, 
                                       Map<String, Object> metadata) {
         // 验证知识库所有权
-        getKnowledgeBase(knowledgeBaseId, userId);
-        
-        // 生成嵌入向量
-        List<Double> embedding = generateEmbedding(content);
-        
-        // 创建文档
-        VectorDocument document = VectorDocument.builder()
-                .knowledgeBaseId(knowledgeBaseId)
-                .content(content)
-                .metadata(metadata != null ? metadata : new HashMap<>())
-                .tokenCount(estimateTokens(content))
-                .build();
+        KnowledgeBase kb = getKnowledgeBase(knowledgeBaseId, userId);
         
-        document.setEmbeddingFromList(embedding);
-        document = vectorDocumentRepository.save(document);
+        VectorDocument document = insertDocuments(kb, List.of(content),
+                i -> metadata != null ? metadata : new HashMap<>()).get(0);
         
         log.info("添加文档到知识库: documentId={}, knowledgeBaseId={}", document.getId(), knowledgeBaseId);
         
         return document;
     }
     
-    @Transactional
     public void addDocuments(Long knowledgeBaseId, Long userId, List<String> contents) {
         // 验证知识库所有权
-        getKnowledgeBase(knowledgeBaseId, userId);
-        
-        // 批量生成嵌入向量
-        List<List<Double>> embeddings = generateEmbeddings(contents);
+        KnowledgeBase kb = getKnowledgeBase(knowledgeBaseId, userId);
         
-        for (int i = 0; i < contents.size(); i++) {
-            String content = contents.get(i);
-            List<Double> embedding = embeddings.get(i);
-            
-            VectorDocument document = VectorDocument.builder()
-                    .knowledgeBaseId(knowledgeBaseId)
-                    .content(content)
-                    .metadata(new HashMap<>())
-                    .tokenCount(estimateTokens(content))
-                    .build();
-            
-            document.setEmbeddingFromList(embedding);
-            vectorDocumentRepository.save(document);
-        }
+        insertDocuments(kb, contents, i -> new HashMap<>());
         
         log.info("批量添加文档到知识库: count={}, knowledgeBaseId={}", contents.size(), knowledgeBaseId);
     }
@@ -151,7 +232,6 @@ public class VectorService {
     /**
      * 从文件添加文档（支持切分）
      */
-    @Transactional
     public void addDocumentFromFile(Long knowledgeBaseId, Long userId, MultipartFile file, 
                                     DocumentSplitter.SplitStrategy splitStrategy, 
                                     Integer chunkSize, Integer overlapSize) {
@@ -172,7 +252,7 @@ public class VectorService {
         metadata.put("knowledgeBaseTitle", kb.getTitle());
         
         // 批量添加文档
-        addDocumentsWithMetadata(knowledgeBaseId, chunks, metadata);
+        addDocumentsWithMetadata(kb, chunks, metadata);
         
         log.info("从文件添加文档到知识库: filename={}, chunks={}, knowledgeBaseId={}", 
                  file.getOriginalFilename(), chunks.size(), knowledgeBaseId);
@@ -181,7 +261,6 @@ public class VectorService {
     /**
      * 从URL添加文档（支持切分）
      */
-    @Transactional
     public void addDocumentFromUrl(Long knowledgeBaseId, Long userId, String url, 
                                    DocumentSplitter.SplitStrategy splitStrategy, 
                                    Integer chunkSize, Integer overlapSize) {
@@ -202,7 +281,7 @@ public class VectorService {
         metadata.put("knowledgeBaseTitle", kb.getTitle());
         
         // 批量添加文档
-        addDocumentsWithMetadata(knowledgeBaseId, chunks, metadata);
+        addDocumentsWithMetadata(kb, chunks, metadata);
         
         log.info("从URL添加文档到知识库: url={}, chunks={}, knowledgeBaseId={}", 
                  url, chunks.size(), knowledgeBaseId);
@@ -211,7 +290,6 @@ public class VectorService {
     /**
      * 从文本添加文档（支持切分）
      */
-    @Transactional
     public void addDocumentFromText(Long knowledgeBaseId, Long userId, String text, 
                                     DocumentSplitter.SplitStrategy splitStrategy, 
                                     Integer chunkSize, Integer overlapSize) {
@@ -228,7 +306,7 @@ public class VectorService {
         metadata.put("knowledgeBaseTitle", kb.getTitle());
         
         // 批量添加文档
-        addDocumentsWithMetadata(knowledgeBaseId, chunks, metadata);
+        addDocumentsWithMetadata(kb, chunks, metadata);
         
         log.info("从文本添加文档到知识库: chunks={}, knowledgeBaseId={}", 
                  chunks.size(), knowledgeBaseId);
@@ -283,68 +361,71 @@ public class VectorService {
     /**
      * 批量添加文档（带元数据）
      */
-    private void addDocumentsWithMetadata(Long knowledgeBaseId, List<String> contents, 
+    private void addDocumentsWithMetadata(KnowledgeBase kb, List<String> contents, 
                                           Map<String, Object> baseMetadata) {
-        // 批量生成嵌入向量
-        List<List<Double>> embeddings = generateEmbeddings(contents);
-        
-        for (int i = 0; i < contents.size(); i++) {
-            String content = contents.get(i);
-            List<Double> embedding = embeddings.get(i);
-            
+        List<VectorDocument> documents = insertDocuments(kb, contents, i -> {
             // 为每个chunk添加索引
             Map<String, Object> metadata = new HashMap<>(baseMetadata);
             metadata.put("chunkIndex", i);
             metadata.put("totalChunks", contents.size());
-            
-            // 格式化embedding为字符串 [1.0,2.0,3.0,...]
-            String embeddingStr = "[" + String.join(",", 
-                embedding.stream()
-                    .map(String::valueOf)
-                    .toArray(String[]::new)) + "]";
-            
-            // 格式化metadata为JSON字符串
-            String metadataJson = convertMapToJson(metadata);
-            
-            // 使用原生SQL插入（支持vector类型转换）
-            vectorDocumentRepository.insertVectorDocument(
-                knowledgeBaseId,
-                content,
-                embeddingStr,
-                metadataJson,
-                estimateTokens(content)
-            );
-        }
+            return metadata;
+        });
+        log.debug("批量写入向量文档: knowledgeBaseId={}, inserted={}, batchSize={}", 
+                  kb.getId(), documents.size(), insertBatchSize);
     }
     
     /**
-     * 将Map转换为JSON字符串
+     * 生成向量并写入文档
+     * 向量在事务外生成（远程嵌入可能耗时数秒，不占用数据库连接与知识库行锁），
+     * 写入时再在短事务内对知识库加共享锁；期间重建任务切换了知识库模型时在锁内按新模型重新生成。
+     * 远程接口失败降级为本地模型的文档与知识库模型不一致，提交后为该知识库排队重建
      */
-    private String convertMapToJson(Map<String, Object> map) {
-        if (map == null || map.isEmpty()) {
-            return "{}";
-        }
-        
-        StringBuilder json = new StringBuilder("{");
-        boolean first = true;
-        for (Map.Entry<String, Object> entry : map.entrySet()) {
-            if (!first) {
-                json.append(",");
+    private List<VectorDocument> insertDocuments(KnowledgeBase kb, List<String> contents,
+                                                 IntFunction<Map<String, Object>> metadataOf) {
+        Long knowledgeBaseId = kb.getId();
+        int dimension = VectorDimensions.of(kb);
+        String model = embeddingService.modelOf(kb);
+        EmbeddingService.Embeddings embedded = embeddingService.embed(contents, dimension, model);
+        
+        return new TransactionTemplate(transactionManager).execute(status -> {
+            KnowledgeBase locked = getKnowledgeBaseForWrite(knowledgeBaseId, kb.getUserId());
+            String lockedModel = embeddingService.modelOf(locked);
+            EmbeddingService.Embeddings embeddings = lockedModel.equals(model)
+                    ? embedded
+                    : embeddingService.embed(contents, dimension, lockedModel);
+            
+            List<VectorDocument> documents = new ArrayList<>(contents.size());
+            for (int i = 0; i < contents.size(); i++) {
+                String content = contents.get(i);
+                documents.add(VectorDocument.builder()
+                        .knowledgeBaseId(knowledgeBaseId)
+                        .content(content)
+                        .embedding(embeddings.vectors().get(i))
+                        .sparseEmbedding(embeddings.sparseVectors() != null ? embeddings.sparseVectors().get(i) : null)
+                        .embeddingModel(embeddings.model())
+                        .metadata(metadataOf.apply(i))
+                        .tokenCount(estimateTokens(content))
+                        .build());
             }
-            json.append("\"").append(entry.getKey()).append("\":");
             
-            Object value = entry.getValue();
-            if (value instanceof String) {
-                json.append("\"").append(value.toString().replace("\"", "\\\"")).append("\"");
-            } else if (value instanceof Number || value instanceof Boolean) {
-                json.append(value);
-            } else {
-                json.append("\"").append(value).append("\"");
+            // 分批写入（JDBC batch），避免每个chunk一次INSERT往返
+            vectorDocumentRepository.batchInsertVectorDocuments(documents, insertBatchSize);
+            indexAfterCommit(documents);
+            knowledgeBaseRouter.onDocumentsAdded(knowledgeBaseId, lockedModel, documents);
+            retrievalResultCache.bumpVersion(knowledgeBaseId);
+            knowledgeBaseVersions.bump(knowledgeBaseId);
+            if (!embeddings.model().equals(lockedModel)) {
+                log.warn("嵌入降级为本地模型，提交后重建知识库向量: knowledgeBaseId={}, model={}, fallback={}",
+                        knowledgeBaseId, lockedModel, embeddings.model());
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCommit() {
+                        reembeddingService.start(knowledgeBaseId);
+                    }
+                });
             }
-            first = false;
-        }
-        json.append("}");
-        return json.toString();
+            return documents;
+        });
     }
     
     /**
@@ -353,115 +434,233 @@ public class VectorService {
     @Transactional(readOnly = true)
     public List<VectorDocument> searchSimilarDocuments(Long knowledgeBaseId, Long userId, 
                                                        String query, Integer topK) {
+        return searchSimilarDocuments(knowledgeBaseId, userId, query, topK, null);
+    }
+    
+    /**
+     * 在知识库中搜索相似文档（指定延迟/召回档位，null 使用 app.vector.search.profile）
+     */
+    @Transactional(readOnly = true)
+    public List<VectorDocument> searchSimilarDocuments(Long knowledgeBaseId, Long userId, 
+                                                       String query, Integer topK, RecallProfile profile) {
+        return searchSimilarDocuments(knowledgeBaseId, userId, query, topK, profile, null);
+    }
+    
+    /**
+     * 在知识库中搜索相似文档（指定召回档位与检索方式，null 使用配置默认值）
+     */
+    @Transactional(readOnly = true)
+    public List<VectorDocument> searchSimilarDocuments(Long knowledgeBaseId, Long userId, 
+                                                       String query, Integer topK, RecallProfile profile,
+                                                       RetrievalMode mode) {
+        return searchSimilarDocuments(knowledgeBaseId, userId, query, topK, profile, mode, null);
+    }
+    
+    /**
+     * 在知识库中搜索满足元数据过滤条件的相似文档（filter 为 null 时不过滤）
+     */
+    @Transactional(readOnly = true)
+    public List<VectorDocument> searchSimilarDocuments(Long knowledgeBaseId, Long userId, 
+                                                       String query, Integer topK, RecallProfile profile,
+                                                       RetrievalMode mode, MetadataFilter filter) {
         // 验证知识库所有权
-        getKnowledgeBase(knowledgeBaseId, userId);
-        
-        // 生成查询向量
-        List<Double> queryEmbedding = generateEmbedding(query);
-        String embeddingStr = formatEmbeddingForQuery(queryEmbedding);
+        KnowledgeBase kb = getKnowledgeBase(knowledgeBaseId, userId);
         
-        // 执行向量搜索
         int limit = topK != null ? topK : defaultTopK;
-        List<VectorDocument> results = vectorDocumentRepository.findSimilarDocuments(
-                knowledgeBaseId, embeddingStr, limit);
+        List<VectorDocument> results = retrieve(
+                Map.of(EmbeddingSpace.of(kb, embeddingService), List.of(knowledgeBaseId)), query, limit, profile, mode,
+                filter);
         
-        log.info("向量搜索: knowledgeBaseId={}, query={}, results={}", 
-                 knowledgeBaseId, query, results.size());
+        log.info("向量搜索: knowledgeBaseId={}, query={}, filter={}, results={}", 
+                 knowledgeBaseId, query, filter, results.size());
         
         return results;
     }
     
+    /**
+     * 检索对话的 RAG 上下文：topK 为上限，先多取候选折叠近重复分块并由后续不同分块补位，
+     * 再按相似度下限、相对最高分的断崖与 token 预算裁剪，与问题无关的文档不会放进提示词。
+     * 返回的文档带有相似度（全文检索命中的为 null）
+     */
+    public List<VectorDocument> retrieveContext(List<Long> knowledgeBaseIds, Long userId, String query,
+                                                Integer topK, RetrievalMode mode) {
+        int limit = topK != null ? topK : defaultTopK;
+        int candidateCount = dedupEnabled ? limit * Math.max(1, dedupCandidateMultiplier) : limit;
+        List<VectorDocument> candidates = searchInMultipleKnowledgeBases(
+                knowledgeBaseIds, userId, query, candidateCount, null, mode);
+        List<VectorDocument> distinct = dedupEnabled
+                ? ChunkDeduplicator.deduplicate(candidates, limit, dedupMaxHammingDistance, dedupOverlapContainment)
+                : candidates;
+        List<VectorDocument> selected = ContextSelector.select(
+                distinct, contextMinSimilarity, contextRelativeDrop, contextTokenBudget);
+        
+        log.info("RAG上下文选择: knowledgeBaseIds={}, candidates={}, distinct={}, selected={}", 
+                 knowledgeBaseIds, candidates.size(), distinct.size(), selected.size());
+        
+        return selected;
+    }
+    
     /**
      * 在多个知识库中搜索相似文档
+     * 不在外层开启事务：各知识库的检索在并行任务各自的只读事务中执行，避免请求线程占着连接等待
      */
-    @Transactional(readOnly = true)
     public List<VectorDocument> searchInMultipleKnowledgeBases(List<Long> knowledgeBaseIds, 
                                                                 Long userId, String query, Integer topK) {
-        // 验证所有知识库的所有权
-        for (Long kbId : knowledgeBaseIds) {
-            getKnowledgeBase(kbId, userId);
+        return searchInMultipleKnowledgeBases(knowledgeBaseIds, userId, query, topK, null);
+    }
+    
+    /**
+     * 在多个知识库中搜索相似文档（指定延迟/召回档位）
+     */
+    public List<VectorDocument> searchInMultipleKnowledgeBases(List<Long> knowledgeBaseIds, 
+                                                                Long userId, String query, Integer topK,
+                                                                RecallProfile profile) {
+        return searchInMultipleKnowledgeBases(knowledgeBaseIds, userId, query, topK, profile, null);
+    }
+    
+    /**
+     * 在多个知识库中搜索相似文档（指定召回档位与检索方式）
+     */
+    public List<VectorDocument> searchInMultipleKnowledgeBases(List<Long> knowledgeBaseIds, 
+                                                                Long userId, String query, Integer topK,
+                                                                RecallProfile profile, RetrievalMode mode) {
+        return searchInMultipleKnowledgeBases(knowledgeBaseIds, userId, query, topK, profile, mode, null);
+    }
+    
+    /**
+     * 在多个知识库中搜索满足元数据过滤条件的相似文档（filter 为 null 时不过滤）
+     */
+    public List<VectorDocument> searchInMultipleKnowledgeBases(List<Long> knowledgeBaseIds, 
+                                                                Long userId, String query, Integer topK,
+                                                                RecallProfile profile, RetrievalMode mode,
+                                                                MetadataFilter filter) {
+        // 一次查询验证所有知识库的所有权，并按向量维度与模型分组
+        List<Long> distinctIds = knowledgeBaseIds.stream().distinct().toList();
+        List<KnowledgeBase> knowledgeBases = knowledgeBaseRepository.findByIdInAndUserId(distinctIds, userId);
+        if (knowledgeBases.size() != distinctIds.size()) {
+            throw new BusinessException("知识库不存在或无权访问");
+        }
+        Map<EmbeddingSpace, List<Long>> knowledgeBasesBySpace = new LinkedHashMap<>();
+        for (KnowledgeBase kb : knowledgeBases) {
+            knowledgeBasesBySpace.computeIfAbsent(EmbeddingSpace.of(kb, embeddingService), s -> new ArrayList<>())
+                    .add(kb.getId());
         }
         
-        // 生成查询向量
-        List<Double> queryEmbedding = generateEmbedding(query);
-        String embeddingStr = formatEmbeddingForQuery(queryEmbedding);
-        
-        // 执行向量搜索
         int limit = topK != null ? topK : defaultTopK;
-        List<VectorDocument> results = vectorDocumentRepository.findSimilarDocumentsInMultipleKBs(
-                knowledgeBaseIds, embeddingStr, limit);
+        List<VectorDocument> results = retrieve(knowledgeBasesBySpace, query, limit, profile, mode, filter);
         
-        log.info("多知识库向量搜索: knowledgeBaseIds={}, query={}, results={}", 
-                 knowledgeBaseIds, query, results.size());
+        log.info("多知识库向量搜索: knowledgeBaseIds={}, query={}, filter={}, results={}", 
+                 knowledgeBaseIds, query, filter, results.size());
         
         return results;
     }
     
-    private List<Double> generateEmbedding(String text) {
-        // 优先使用简单嵌入服务（本地计算，不需要API）
-        if (useSimpleEmbedding) {
-            log.debug("Using simple embedding service for text");
-            return simpleEmbeddingService.generateEmbedding(text);
-        }
-        
-        // 尝试使用DeepSeek API（降级方案）
-        try {
-            EmbeddingRequest request = EmbeddingRequest.builder()
-                    .input(text)
-                    .build();
-            
-            EmbeddingResponse response = deepSeekService.createEmbedding(request).block();
-            
-            if (response == null || response.getData().isEmpty()) {
-                throw new BusinessException("生成嵌入向量失败");
+    /**
+     * 按检索方式执行检索（经过检索结果缓存）
+     * 向量检索时每个知识库单独检索、并行执行，按相似度堆合并；
+     * 全文/混合检索的得分不可跨知识库比较，仍按向量空间（维度与模型）分组各查一次，多组结果按排名融合。
+     * 有查询向量时先经 KnowledgeBaseRouter 按知识库草图筛掉与查询无关的知识库
+     */
+    private List<VectorDocument> retrieve(Map<EmbeddingSpace, List<Long>> knowledgeBasesBySpace, String query, int limit,
+                                          RecallProfile profile, RetrievalMode mode, MetadataFilter filter) {
+        RetrievalMode requested = mode != null ? mode : defaultRetrievalMode;
+        String tsQuery = requested != RetrievalMode.VECTOR ? LexicalTokenizer.toTsQuery(query) : null;
+        RetrievalMode effective = tsQuery != null ? requested : RetrievalMode.VECTOR;
+        
+        List<Supplier<List<VectorDocument>>> tasks = new ArrayList<>();
+        knowledgeBasesBySpace.forEach((space, spaceKnowledgeBaseIds) -> {
+            float[] queryEmbedding = effective != RetrievalMode.LEXICAL
+                    ? embeddingService.embedQuery(query, space.dimension(), space.model())
+                    : null;
+            List<Long> knowledgeBaseIds = knowledgeBaseRouter.route(spaceKnowledgeBaseIds, queryEmbedding, space.model());
+            if (effective == RetrievalMode.VECTOR) {
+                for (Long knowledgeBaseId : knowledgeBaseIds) {
+                    tasks.add(() -> retrieveGroup(List.of(knowledgeBaseId), queryEmbedding, tsQuery, limit, profile,
+                            effective, filter));
+                }
+            } else {
+                tasks.add(() -> retrieveGroup(knowledgeBaseIds, queryEmbedding, tsQuery, limit, profile, effective,
+                        filter));
             }
-            
-            return response.getData().get(0).getEmbedding();
-        } catch (Exception e) {
-            log.warn("DeepSeek embedding API failed, falling back to simple embedding: {}", e.getMessage());
-            return simpleEmbeddingService.generateEmbedding(text);
+        });
+        List<List<VectorDocument>> groups = parallelKnowledgeBaseSearch.searchEach(tasks);
+        if (groups.size() == 1) {
+            return groups.get(0);
+        }
+        if (effective != RetrievalMode.VECTOR) {
+            return ReciprocalRankFusion.fuse(groups, rrfK, limit);
         }
+        return ParallelKnowledgeBaseSearch.mergeBySimilarity(groups, limit);
     }
     
-    private List<List<Double>> generateEmbeddings(List<String> texts) {
-        // 优先使用简单嵌入服务
-        if (useSimpleEmbedding) {
-            log.debug("Using simple embedding service for {} texts", texts.size());
-            return simpleEmbeddingService.generateEmbeddings(texts);
-        }
-        
-        // 尝试使用DeepSeek API（降级方案）
+    private List<VectorDocument> retrieveGroup(List<Long> knowledgeBaseIds, float[] queryEmbedding, String tsQuery,
+                                               int limit, RecallProfile profile, RetrievalMode mode,
+                                               MetadataFilter filter) {
+        String options = mode + "|" + (profile != null ? profile.name() : "DEFAULT")
+                + (tsQuery != null ? "|" + tsQuery : "")
+                + (filter != null ? "|filter:" + filter.cacheKey() : "");
+        
+        return retrievalResultCache.get(knowledgeBaseIds, queryEmbedding, limit, options, () -> switch (mode) {
+            case VECTOR -> vectorSearchEngine.search(knowledgeBaseIds, queryEmbedding, limit, profile, filter);
+            case LEXICAL -> lexicalSearch(knowledgeBaseIds, tsQuery, limit, filter);
+            case HYBRID -> hybridSearch(knowledgeBaseIds, queryEmbedding, tsQuery, limit, profile, filter);
+        });
+    }
+    
+    /**
+     * 混合检索：两路各取 limit * candidate-multiplier 个候选，RRF 融合后截取 limit
+     * 两路查询在同一只读事务内依次执行（召回档位参数只对当前事务生效）
+     */
+    private List<VectorDocument> hybridSearch(List<Long> knowledgeBaseIds, float[] queryEmbedding, String tsQuery,
+                                              int limit, RecallProfile profile, MetadataFilter filter) {
+        int candidates = limit * Math.max(1, hybridCandidateMultiplier);
+        List<VectorDocument> vectorResults = vectorSearchEngine.search(
+                knowledgeBaseIds, queryEmbedding, candidates, profile, filter);
+        List<VectorDocument> lexicalResults = lexicalSearch(knowledgeBaseIds, tsQuery, candidates, filter);
+        return ReciprocalRankFusion.fuse(List.of(vectorResults, lexicalResults), rrfK, limit);
+    }
+    
+    private List<VectorDocument> lexicalSearch(List<Long> knowledgeBaseIds, String tsQuery, int limit,
+                                               MetadataFilter filter) {
         try {
-            log.info("Creating embeddings for {} texts", texts.size());
-            EmbeddingRequest request = EmbeddingRequest.builder()
-                    .input(texts)
-                    .build();
-            
-            EmbeddingResponse response = deepSeekService.createEmbeddings(request).block();
-            
-            if (response == null || response.getData().isEmpty()) {
-                throw new BusinessException("批量生成嵌入向量失败");
-            }
-            
-            return response.getData().stream()
-                    .map(EmbeddingResponse.EmbeddingData::getEmbedding)
-                    .toList();
-        } catch (Exception e) {
-            log.warn("DeepSeek embedding API failed, falling back to simple embedding: {}", e.getMessage());
-            return simpleEmbeddingService.generateEmbeddings(texts);
+            return vectorDocumentRepository.findLexicalMatches(knowledgeBaseIds, tsQuery, limit, filter);
+        } catch (DataAccessException e) {
+            log.warn("全文检索失败，忽略全文检索结果: {}", e.getMessage());
+            return List.of();
         }
     }
     
-    private String formatEmbeddingForQuery(List<Double> embedding) {
-        return "[" + String.join(",", 
-                embedding.stream()
-                    .map(String::valueOf)
-                    .toArray(String[]::new)) + "]";
+    /**
+     * 事务提交后再写入检索引擎：进程内索引不随事务回滚，提交前写入会留下已回滚的文档，
+     * 并让其他线程检索到未提交的行
+     */
+    private void indexAfterCommit(List<VectorDocument> documents) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    vectorSearchEngine.index(documents);
+                }
+            });
+        } else {
+            vectorSearchEngine.index(documents);
+        }
     }
     
     private int estimateTokens(String text) {
         // 简单估算：中文约1.5字符/token，英文约4字符/token
         return (int) (text.length() / 2.5);
     }
+    
+    /**
+     * 向量空间：同一维度、同一模型的向量才可比较，查询向量按空间各生成一次
+     * 重建期间知识库仍使用旧模型，直到切换完成
+     */
+    private record EmbeddingSpace(int dimension, String model) {
+        
+        static EmbeddingSpace of(KnowledgeBase kb, EmbeddingService embeddingService) {
+            return new EmbeddingSpace(VectorDimensions.of(kb), embeddingService.modelOf(kb));
+        }
+    }
 }
 
@@ -0,0 +1,39 @@
+package com.aichat.service.deepseek;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * OpenAI 兼容接口（DeepSeek、通义千问）流式响应的逐块解析
+ * 每个 token 对应一行 "data: {...}"，以 "data: [DONE]" 结束
+ */
+public final class SseChunkParser {
+
+    public static final String DONE = "[DONE]";
+
+    private SseChunkParser() {
+    }
+
+    /**
+     * 去掉 SSE 行的 "data: " 前缀
+     */
+    public static String payload(String line) {
+        return line.startsWith("data: ") ? line.substring(6).trim() : line.trim();
+    }
+
+    /**
+     * 取出块中第一个候选的增量文本，没有增量文本（如角色块、结束块）时返回 null
+     */
+    public static String deltaContent(ObjectMapper objectMapper, String jsonData) throws JsonProcessingException {
+        JsonNode node = objectMapper.readTree(jsonData);
+        JsonNode choices = node.get("choices");
+        if (choices != null && choices.isArray() && !choices.isEmpty()) {
+            JsonNode delta = choices.get(0).get("delta");
+            if (delta != null && delta.has("content")) {
+                return delta.get("content").asText();
+            }
+        }
+        return null;
+    }
+}
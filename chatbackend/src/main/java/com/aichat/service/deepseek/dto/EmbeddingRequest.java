@@ -11,9 +11,11 @@ import lombok.NoArgsConstructor;
 @AllArgsConstructor
 public class EmbeddingRequest {
     
+    public static final String DEFAULT_MODEL = "text-embedding-ada-002";
+    
     // 使用text-embedding-ada-002或其他兼容的embedding模型
     @Builder.Default
-    private String model = "text-embedding-ada-002";
+    private String model = DEFAULT_MODEL;
     
     private Object input; // Can be String or List<String>
 }
@@ -19,7 +19,8 @@ public class EmbeddingResponse {
     @Data
     public static class EmbeddingData {
         private String object;
-        private List<Double> embedding;
+        // 直接反序列化为原始float数组，避免List<Double>装箱
+        private float[] embedding;
         private Integer index;
     }
     
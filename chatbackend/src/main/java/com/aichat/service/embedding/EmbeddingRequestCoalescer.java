@@ -0,0 +1,142 @@
+package com.aichat.service.embedding;
+
+import com.aichat.service.deepseek.DeepSeekService;
+import com.aichat.service.deepseek.dto.EmbeddingRequest;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单条嵌入请求合并器
+ * 高并发下每轮对话各自为一条短查询请求嵌入，会产生大量小请求。
+ * 这里把单条请求收集一个很短的时间窗口（或凑满最大条数）后合并成一次批量调用，
+ * 再按顺序把各自的向量交还给调用方。
+ * 批量调用并发数达到上限时 bufferTimeout 按下游请求量攒批（公平背压），不会因下游来不及而报溢出；
+ * 管道意外终止时立即让未完成的请求失败并重新订阅，后续请求不受影响
+ */
+@Component
+@Slf4j
+public class EmbeddingRequestCoalescer {
+
+    private final DeepSeekService deepSeekService;
+    private final boolean enabled;
+    private final Duration timeout;
+    private final Duration window;
+    private final int maxBatchSize;
+    private final int concurrency;
+    private final DistributionSummary batchSizes;
+    private final Set<PendingEmbedding> inFlight = ConcurrentHashMap.newKeySet();
+    private volatile Sinks.Many<PendingEmbedding> sink;
+    private volatile Disposable subscription;
+    private volatile boolean shutdown;
+
+    public EmbeddingRequestCoalescer(DeepSeekService deepSeekService,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${app.vector.remote-embedding.coalesce.enabled:true}") boolean enabled,
+                                     @Value("${app.vector.remote-embedding.coalesce.window:5ms}") Duration window,
+                                     @Value("${app.vector.remote-embedding.coalesce.max-batch-size:32}") int maxBatchSize,
+                                     @Value("${app.vector.remote-embedding.concurrency:4}") int concurrency,
+                                     @Value("${deepseek.api.timeout:60000}") long timeoutMillis) {
+        this.deepSeekService = deepSeekService;
+        this.enabled = enabled;
+        this.timeout = Duration.ofMillis(timeoutMillis);
+        this.window = window;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.concurrency = Math.max(1, concurrency);
+        this.batchSizes = DistributionSummary.builder("vector.embedding.coalesced.batch.size")
+                .description("合并后每次嵌入请求包含的文本条数")
+                .publishPercentiles(0.5, 0.95)
+                .register(meterRegistry);
+        start();
+    }
+
+    /**
+     * 提交单条文本，返回该文本的向量
+     */
+    public CompletableFuture<float[]> submit(String text) {
+        if (!enabled) {
+            return deepSeekService.createEmbedding(EmbeddingRequest.builder().input(text).build())
+                    .map(response -> RemoteEmbeddingBatcher.toEmbeddings(response, 1).get(0))
+                    .toFuture();
+        }
+        CompletableFuture<float[]> future = new CompletableFuture<>();
+        PendingEmbedding pending = new PendingEmbedding(text, future);
+        inFlight.add(pending);
+        future.whenComplete((embedding, error) -> inFlight.remove(pending));
+        // 多线程并发提交：加锁串行发射（发射本身很快，自旋重试在高并发下可能超时）；
+        // 管道已终止时直接失败，不等到超时
+        Sinks.EmitResult result;
+        synchronized (this) {
+            result = sink.tryEmitNext(pending);
+        }
+        if (result.isFailure()) {
+            future.completeExceptionally(new Sinks.EmissionException(result, "提交嵌入请求失败"));
+        }
+        return future.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void start() {
+        Sinks.Many<PendingEmbedding> next = Sinks.many().unicast().onBackpressureBuffer();
+        sink = next;
+        subscription = next.asFlux()
+                .bufferTimeout(maxBatchSize, window, true)
+                .flatMap(this::flush, concurrency)
+                .subscribe(null, error -> restart(next, error));
+    }
+
+    /**
+     * 管道异常终止：已进入旧管道的请求无法再被处理，立即失败；随后换一个新的 sink 重新订阅
+     */
+    private synchronized void restart(Sinks.Many<PendingEmbedding> failed, Throwable error) {
+        if (shutdown || sink != failed) {
+            return;
+        }
+        log.error("嵌入请求合并管道异常终止，重新订阅: {}", error.toString());
+        List<PendingEmbedding> lost = new ArrayList<>(inFlight);
+        start();
+        lost.forEach(pending -> pending.future().completeExceptionally(error));
+    }
+
+    private Mono<Void> flush(List<PendingEmbedding> batch) {
+        batchSizes.record(batch.size());
+        EmbeddingRequest request = EmbeddingRequest.builder()
+                .input(batch.stream().map(PendingEmbedding::text).toList())
+                .build();
+        return deepSeekService.createEmbeddings(request)
+                .map(response -> RemoteEmbeddingBatcher.toEmbeddings(response, batch.size()))
+                .doOnNext(embeddings -> {
+                    for (int i = 0; i < batch.size(); i++) {
+                        batch.get(i).future().complete(embeddings.get(i));
+                    }
+                })
+                .doOnError(error -> batch.forEach(pending -> pending.future().completeExceptionally(error)))
+                .onErrorResume(error -> Mono.empty())
+                .then();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            sink.tryEmitComplete();
+        }
+        subscription.dispose();
+    }
+
+    private record PendingEmbedding(String text, CompletableFuture<float[]> future) {
+    }
+}
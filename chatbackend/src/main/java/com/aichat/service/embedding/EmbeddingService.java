@@ -0,0 +1,209 @@
+package com.aichat.service.embedding;
+
+import com.aichat.domain.entity.KnowledgeBase;
+import com.aichat.exception.BusinessException;
+import com.aichat.service.deepseek.dto.EmbeddingRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 嵌入模型选择与向量生成
+ * 模型标识为 "模型名@版本"（如 simple-hash-v2@1），记录在知识库与每个文档上；
+ * 版本号（app.vector.embedding-version）用于模型名不变而输出发生变化时强制重建。
+ * 同一知识库的向量必须来自同一模型才可比较：写入与检索都使用知识库记录的模型，
+ * 配置切换模型后由 ReembeddingService 在后台把知识库迁移到当前模型
+ */
+@Service
+@Slf4j
+public class EmbeddingService {
+
+    public static final String SIMPLE_MODEL = "simple-hash-v2";
+    public static final String REMOTE_MODEL = "deepseek:" + EmbeddingRequest.DEFAULT_MODEL;
+    /**
+     * 记录模型标识之前、以本地哈希嵌入写入的向量（第一版算法，见 LegacyHashEmbeddingService）
+     */
+    public static final String LEGACY_SIMPLE_MODEL = LegacyHashEmbeddingService.MODEL + "@1";
+
+    /**
+     * 一批向量及实际生成它们的模型（远程接口失败降级时为本地模型）；
+     * 启用稀疏存储且为本地模型时附带稀疏形式（sparseVectors），否则为 null
+     */
+    public record Embeddings(String model, List<float[]> vectors, List<SparseEmbedding> sparseVectors) {
+
+        public Embeddings(String model, List<float[]> vectors) {
+            this(model, vectors, null);
+        }
+    }
+
+    private final SimpleEmbeddingService simpleEmbeddingService;
+    private final LegacyHashEmbeddingService legacyHashEmbeddingService;
+    private final RemoteEmbeddingBatcher remoteEmbeddingBatcher;
+    private final EmbeddingRequestCoalescer embeddingRequestCoalescer;
+    private final QueryEmbeddingCache queryEmbeddingCache;
+    private final EmbeddingStore embeddingStore;
+    private final boolean useSimpleEmbedding;
+    private final int version;
+    private final boolean sparseEnabled;
+
+    public EmbeddingService(SimpleEmbeddingService simpleEmbeddingService,
+                            LegacyHashEmbeddingService legacyHashEmbeddingService,
+                            RemoteEmbeddingBatcher remoteEmbeddingBatcher,
+                            EmbeddingRequestCoalescer embeddingRequestCoalescer,
+                            QueryEmbeddingCache queryEmbeddingCache,
+                            EmbeddingStore embeddingStore,
+                            @Value("${app.vector.use-simple-embedding:true}") boolean useSimpleEmbedding,
+                            @Value("${app.vector.embedding-version:1}") int version,
+                            @Value("${app.vector.sparse.enabled:false}") boolean sparseEnabled) {
+        this.simpleEmbeddingService = simpleEmbeddingService;
+        this.legacyHashEmbeddingService = legacyHashEmbeddingService;
+        this.remoteEmbeddingBatcher = remoteEmbeddingBatcher;
+        this.embeddingRequestCoalescer = embeddingRequestCoalescer;
+        this.queryEmbeddingCache = queryEmbeddingCache;
+        this.embeddingStore = embeddingStore;
+        this.useSimpleEmbedding = useSimpleEmbedding;
+        this.version = version;
+        this.sparseEnabled = sparseEnabled;
+    }
+
+    /**
+     * 当前配置的模型，新知识库与重建任务都以它为目标
+     */
+    public String currentModel() {
+        return (useSimpleEmbedding ? SIMPLE_MODEL : REMOTE_MODEL) + "@" + version;
+    }
+
+    /**
+     * 旧版本的本地哈希算法（如 simple-hash-v1）：仍可检索，但应迁移到当前算法
+     */
+    public boolean isObsolete(String model) {
+        return model != null && model.startsWith("simple-hash-") && !model.startsWith(SIMPLE_MODEL + "@");
+    }
+
+    /**
+     * 知识库的向量所属的模型
+     */
+    public String modelOf(KnowledgeBase knowledgeBase) {
+        return knowledgeBase.getEmbeddingModel() != null ? knowledgeBase.getEmbeddingModel() : currentModel();
+    }
+
+    /**
+     * 以指定模型生成文档向量（先查内容寻址存储，只为未命中的文本生成）；
+     * 远程接口失败时整批降级为本地模型，返回结果中记录实际使用的模型
+     */
+    public Embeddings embed(List<String> texts, int dimension, String model) {
+        try {
+            return isSimple(model) ? embedSimple(texts, dimension, model)
+                    : new Embeddings(model, embedStrict(texts, dimension, model));
+        } catch (Exception e) {
+            log.warn("DeepSeek embedding API failed, falling back to simple embedding: {}", e.getMessage());
+            return embedSimple(texts, dimension, SIMPLE_MODEL + "@" + version);
+        }
+    }
+
+    /**
+     * 本地模型向量；启用稀疏存储时直接生成稀疏形式，稠密向量由其展开，两者完全一致
+     */
+    private Embeddings embedSimple(List<String> texts, int dimension, String model) {
+        if (!sparseEnabled || isLegacySimple(model)) {
+            return new Embeddings(model, embedStrict(texts, dimension, model));
+        }
+        List<SparseEmbedding> sparse = simpleEmbeddingService.generateSparseEmbeddings(texts, dimension);
+        return new Embeddings(model, sparse.stream().map(SparseEmbedding::toDense).toList(), sparse);
+    }
+
+    /**
+     * 以指定模型生成文档向量，不降级，失败时抛出异常（用于后台重建）
+     */
+    public List<float[]> embedStrict(List<String> texts, int dimension, String model) {
+        if (isSimple(model)) {
+            log.debug("Using simple embedding service for {} texts", texts.size());
+            return embeddingStore.getOrEmbed(texts, dimension, model, false, misses -> isLegacySimple(model)
+                    ? legacyHashEmbeddingService.generateEmbeddings(misses, dimension)
+                    : simpleEmbeddingService.generateEmbeddings(misses, dimension));
+        }
+        return embeddingStore.getOrEmbed(texts, dimension, model, true, misses -> embedRemote(misses, dimension));
+    }
+
+    /**
+     * 以指定模型生成查询向量，优先读取查询向量缓存
+     * 远程接口失败时的降级向量不写入缓存，避免以远程模型标识缓存本地向量；
+     * 远程向量按完整维度缓存，不同维度的知识库共用一次远程调用
+     */
+    public float[] embedQuery(String query, int dimension, String model) {
+        if (isLegacySimple(model)) {
+            return queryEmbeddingCache.get(LegacyHashEmbeddingService.MODEL_ID, query,
+                    () -> legacyHashEmbeddingService.generateEmbedding(query, dimension));
+        }
+        if (isSimple(model)) {
+            return queryEmbeddingCache.get(SimpleEmbeddingService.modelId(dimension), query,
+                    () -> simpleEmbeddingService.generateEmbedding(query, dimension));
+        }
+        float[] embedding = queryEmbeddingCache.get(model, query, () -> createRemoteEmbedding(query));
+        return embedding != null
+                ? truncateEmbedding(embedding, dimension)
+                : simpleEmbeddingService.generateEmbedding(query, dimension);
+    }
+
+    private List<float[]> embedRemote(List<String> texts, int dimension) {
+        if (texts.size() == 1) {
+            // 单条文本与并发的其他单条请求合并发送
+            return List.of(truncateEmbedding(embeddingRequestCoalescer.submit(texts.get(0)).join(), dimension));
+        }
+        log.info("Creating embeddings for {} texts", texts.size());
+        return remoteEmbeddingBatcher.embed(texts).stream()
+                .map(embedding -> truncateEmbedding(embedding, dimension))
+                .toList();
+    }
+
+    /**
+     * 调用DeepSeek API生成单条向量（与并发的其他单条请求合并发送），失败返回 null
+     */
+    private float[] createRemoteEmbedding(String text) {
+        try {
+            return embeddingRequestCoalescer.submit(text).join();
+        } catch (Exception e) {
+            log.warn("DeepSeek embedding API failed, falling back to simple embedding: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 未知或缺失的模型标识按本地模型处理
+     */
+    private static boolean isSimple(String model) {
+        return model == null || !model.startsWith(REMOTE_MODEL + "@");
+    }
+
+    private static boolean isLegacySimple(String model) {
+        return model != null && model.startsWith(LegacyHashEmbeddingService.MODEL + "@");
+    }
+
+    /**
+     * Matryoshka 式截断：保留前 dimension 维并重新归一化
+     * 适用于按 Matryoshka 方式训练的嵌入模型（前若干维即为完整的低维表示）
+     */
+    private static float[] truncateEmbedding(float[] embedding, int dimension) {
+        if (embedding.length == dimension) {
+            return embedding;
+        }
+        if (embedding.length < dimension) {
+            throw new BusinessException("嵌入模型输出维度(" + embedding.length + ")小于知识库维度(" + dimension + ")");
+        }
+        float[] truncated = Arrays.copyOf(embedding, dimension);
+        double sumSquares = 0.0;
+        for (float value : truncated) {
+            sumSquares += (double) value * value;
+        }
+        if (sumSquares > 0.0) {
+            float invNorm = (float) (1.0 / Math.sqrt(sumSquares));
+            for (int i = 0; i < dimension; i++) {
+                truncated[i] *= invNorm;
+            }
+        }
+        return truncated;
+    }
+}
@@ -0,0 +1,170 @@
+package com.aichat.service.embedding;
+
+import com.pgvector.PGvector;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 按内容寻址的文档向量存储
+ * 同一份手册常被上传到多个知识库，不同文件之间也有大量重复的段落。
+ * 以 (模型, 维度, SHA-256(规范化文本)) 为键保存已生成的向量，写入文档时批量查找，
+ * 只为未命中的文本调用嵌入模型，批次内重复的文本也只生成一次。
+ * 默认只用于远程模型：本地哈希嵌入的计算开销低于一次数据库查找
+ */
+@Component
+@Slf4j
+public class EmbeddingStore {
+
+    /**
+     * 单条查找语句的最大键数，避免 IN 列表过长
+     */
+    private static final int LOOKUP_CHUNK_SIZE = 1000;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate saveTransaction;
+    private final boolean enabled;
+    private final boolean remoteOnly;
+    private final Counter hits;
+    private final Counter misses;
+
+    public EmbeddingStore(NamedParameterJdbcTemplate jdbcTemplate,
+                          PlatformTransactionManager transactionManager,
+                          MeterRegistry meterRegistry,
+                          @Value("${app.vector.embedding-store.enabled:true}") boolean enabled,
+                          @Value("${app.vector.embedding-store.remote-only:true}") boolean remoteOnly) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.saveTransaction = new TransactionTemplate(transactionManager);
+        this.saveTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.enabled = enabled;
+        this.remoteOnly = remoteOnly;
+        this.hits = Counter.builder("vector.embedding.store.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("vector.embedding.store.requests").tag("result", "miss").register(meterRegistry);
+    }
+
+    /**
+     * 返回与 texts 顺序一致的向量：命中的直接读取，其余去重后交给 embedder 生成并写回
+     *
+     * @param embedder 为未命中的文本生成向量，返回顺序与入参一致
+     */
+    public List<float[]> getOrEmbed(List<String> texts, int dimension, String model, boolean remote,
+                                    Function<List<String>, List<float[]>> embedder) {
+        if (!enabled || (remoteOnly && !remote) || texts.isEmpty()) {
+            return embedder.apply(texts);
+        }
+        List<String> hashes = texts.stream().map(EmbeddingStore::contentHash).toList();
+        Map<String, float[]> found = lookup(hashes, dimension, model);
+
+        // 未命中的文本按哈希去重，保留首次出现的原文
+        Map<String, String> missing = new LinkedHashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            if (!found.containsKey(hashes.get(i))) {
+                missing.putIfAbsent(hashes.get(i), texts.get(i));
+            }
+        }
+        hits.increment(texts.size() - missing.size());
+        misses.increment(missing.size());
+        if (!missing.isEmpty()) {
+            List<String> missingHashes = new ArrayList<>(missing.keySet());
+            List<float[]> embedded = embedder.apply(new ArrayList<>(missing.values()));
+            for (int i = 0; i < missingHashes.size(); i++) {
+                found.put(missingHashes.get(i), embedded.get(i));
+            }
+            save(missingHashes, embedded, dimension, model);
+        }
+        log.debug("向量存储查找: texts={}, embedded={}, model={}", texts.size(), missing.size(), model);
+        return hashes.stream().map(found::get).toList();
+    }
+
+    /**
+     * 删除已没有知识库使用的模型的向量（重建切换模型后旧模型的向量不再需要）
+     */
+    @Scheduled(cron = "${app.vector.embedding-store.cleanup-cron:0 30 3 * * *}")
+    public void removeUnusedModels() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            int deleted = jdbcTemplate.getJdbcTemplate().update("DELETE FROM embedding_store s WHERE NOT EXISTS (" +
+                    "SELECT 1 FROM knowledge_base k WHERE k.embedding_model = s.embedding_model) " +
+                    "AND NOT EXISTS (SELECT 1 FROM reembedding_jobs j WHERE j.target_model = s.embedding_model " +
+                    "AND j.state <> 'COMPLETED')");
+            if (deleted > 0) {
+                log.info("清理未使用模型的存储向量: rows={}", deleted);
+            }
+        } catch (Exception e) {
+            log.warn("清理存储向量失败: {}", e.getMessage());
+        }
+    }
+
+    private Map<String, float[]> lookup(List<String> hashes, int dimension, String model) {
+        Map<String, float[]> found = new HashMap<>();
+        List<String> distinct = hashes.stream().distinct().toList();
+        for (int from = 0; from < distinct.size(); from += LOOKUP_CHUNK_SIZE) {
+            MapSqlParameterSource params = new MapSqlParameterSource()
+                    .addValue("model", model)
+                    .addValue("dimension", dimension)
+                    .addValue("hashes", distinct.subList(from, Math.min(from + LOOKUP_CHUNK_SIZE, distinct.size())));
+            jdbcTemplate.query("SELECT content_hash, embedding FROM embedding_store " +
+                    "WHERE embedding_model = :model AND dimension = :dimension AND content_hash IN (:hashes)",
+                    params, rs -> {
+                        found.put(rs.getString("content_hash"), rs.getObject("embedding", PGvector.class).toArray());
+                    });
+        }
+        return found;
+    }
+
+    /**
+     * 在独立事务中写回：写回失败不会使调用方（写入文档）的事务中止，只是下次仍需生成；
+     * 调用方事务回滚时已生成的向量也保留下来
+     */
+    private void save(List<String> hashes, List<float[]> embeddings, int dimension, String model) {
+        MapSqlParameterSource[] batch = new MapSqlParameterSource[hashes.size()];
+        for (int i = 0; i < hashes.size(); i++) {
+            batch[i] = new MapSqlParameterSource()
+                    .addValue("model", model)
+                    .addValue("dimension", dimension)
+                    .addValue("hash", hashes.get(i))
+                    .addValue("embedding", new PGvector(embeddings.get(i)));
+        }
+        try {
+            saveTransaction.executeWithoutResult(status -> jdbcTemplate.batchUpdate(
+                    "INSERT INTO embedding_store (embedding_model, dimension, content_hash, embedding) " +
+                    "VALUES (:model, :dimension, :hash, :embedding) ON CONFLICT DO NOTHING", batch));
+        } catch (Exception e) {
+            log.warn("写入向量存储失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 规范化规则与查询向量缓存一致（NFKC、去首尾空白、合并连续空白）
+     */
+    static String contentHash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(
+                    digest.digest(QueryEmbeddingCache.normalize(text).getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+}
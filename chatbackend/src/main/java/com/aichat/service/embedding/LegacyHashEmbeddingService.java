@@ -0,0 +1,69 @@
+package com.aichat.service.embedding;
+
+import com.aichat.exception.BusinessException;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 第一版本地哈希嵌入（simple-hash-v1）：按空白切词、词频经 String.hashCode 映射到3个维度
+ * 新知识库不再使用，仅为仍保存 v1 向量的知识库生成同一空间的查询与写入向量，
+ * 直到重建任务把它们迁移到当前模型（见 EmbeddingService、ReembeddingService）
+ */
+@Service
+public class LegacyHashEmbeddingService {
+
+    public static final String MODEL = "simple-hash-v1";
+    /**
+     * v1 只有固定维度
+     */
+    public static final int DIMENSION = 1536;
+    /**
+     * 查询向量缓存的模型标识
+     */
+    public static final String MODEL_ID = MODEL + "-" + DIMENSION;
+
+    public float[] generateEmbedding(String text, int dimension) {
+        if (dimension != DIMENSION) {
+            throw new BusinessException("旧版哈希嵌入只支持" + DIMENSION + "维，请先重建知识库向量");
+        }
+        float[] embedding = new float[DIMENSION];
+        if (text == null || text.trim().isEmpty()) {
+            return embedding;
+        }
+        Map<String, Integer> wordFreq = new HashMap<>();
+        for (String word : text.toLowerCase().split("\\s+")) {
+            if (!word.isEmpty()) {
+                wordFreq.merge(word, 1, Integer::sum);
+            }
+        }
+        for (Map.Entry<String, Integer> entry : wordFreq.entrySet()) {
+            int baseHash = entry.getKey().hashCode();
+            for (int i = 0; i < 3; i++) {
+                embedding[Math.abs((baseHash + i * 31) % DIMENSION)] += entry.getValue();
+            }
+        }
+        double sumSquares = 0.0;
+        for (float value : embedding) {
+            sumSquares += (double) value * value;
+        }
+        if (sumSquares > 0.0) {
+            float invNorm = (float) (1.0 / Math.sqrt(sumSquares));
+            for (int i = 0; i < embedding.length; i++) {
+                embedding[i] *= invNorm;
+            }
+        }
+        return embedding;
+    }
+
+    public List<float[]> generateEmbeddings(List<String> texts, int dimension) {
+        List<float[]> embeddings = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            embeddings.add(generateEmbedding(text, dimension));
+        }
+        return embeddings;
+    }
+}
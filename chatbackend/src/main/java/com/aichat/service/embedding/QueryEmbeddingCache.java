@@ -0,0 +1,176 @@
+package com.aichat.service.embedding;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * 查询向量缓存
+ * 一级为进程内 Caffeine 缓存，按向量实际占用字节数限制容量；
+ * 二级为可选的 Redis 缓存，多节点共享。缓存键由规范化后的查询文本与嵌入模型标识组成，
+ * 切换模型不会读到旧模型的向量
+ */
+@Component
+@Slf4j
+public class QueryEmbeddingCache {
+
+    private static final String REDIS_KEY_PREFIX = "embedding:query:";
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    /**
+     * 单个缓存项除向量和文本外的固定开销估算（对象头、引用、Caffeine 节点）
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final StringRedisTemplate redisTemplate;
+    private final boolean enabled;
+    private final boolean redisEnabled;
+    private final Duration ttl;
+    private final Cache<String, float[]> localCache;
+
+    private final Counter localHits;
+    private final Counter redisHits;
+    private final Counter misses;
+
+    public QueryEmbeddingCache(StringRedisTemplate redisTemplate,
+                               MeterRegistry meterRegistry,
+                               @Value("${app.vector.query-cache.enabled:true}") boolean enabled,
+                               @Value("${app.vector.query-cache.max-bytes:67108864}") long maxBytes,
+                               @Value("${app.vector.query-cache.ttl:24h}") Duration ttl,
+                               @Value("${app.vector.query-cache.redis-enabled:false}") boolean redisEnabled) {
+        this.redisTemplate = redisTemplate;
+        this.enabled = enabled;
+        this.redisEnabled = redisEnabled;
+        this.ttl = ttl;
+        this.localCache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String key, float[] value) -> ENTRY_OVERHEAD_BYTES + key.length() * 2 + value.length * Float.BYTES)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, localCache, "queryEmbedding");
+        this.localHits = counter(meterRegistry, "hit", "local");
+        this.redisHits = counter(meterRegistry, "hit", "redis");
+        this.misses = counter(meterRegistry, "miss", "none");
+    }
+
+    /**
+     * 读取查询向量，未命中时调用 loader 计算并回填两级缓存
+     * loader 返回 null 表示本次结果不可缓存（例如远程模型失败后的降级向量）
+     */
+    public float[] get(String modelId, String text, Supplier<float[]> loader) {
+        if (!enabled || text == null) {
+            return loader.get();
+        }
+
+        String key = modelId + '\u0000' + normalize(text);
+        float[] cached = localCache.getIfPresent(key);
+        if (cached != null) {
+            localHits.increment();
+            return cached.clone();
+        }
+
+        String redisKey = redisEnabled ? redisKey(key) : null;
+        if (redisKey != null) {
+            cached = readRedis(redisKey);
+            if (cached != null) {
+                redisHits.increment();
+                localCache.put(key, cached);
+                return cached.clone();
+            }
+        }
+
+        misses.increment();
+        float[] embedding = loader.get();
+        if (embedding == null) {
+            return null;
+        }
+        float[] stored = embedding.clone();
+        localCache.put(key, stored);
+        if (redisKey != null) {
+            writeRedis(redisKey, stored);
+        }
+        return embedding;
+    }
+
+    /**
+     * 清空进程内缓存（Redis 中的条目依赖 TTL 过期）
+     */
+    public void invalidateAll() {
+        localCache.invalidateAll();
+    }
+
+    /**
+     * 规范化查询文本：Unicode NFKC（全角转半角等）、去除首尾空白、合并连续空白
+     */
+    static String normalize(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC).strip();
+        return WHITESPACE.matcher(normalized).replaceAll(" ");
+    }
+
+    private float[] readRedis(String redisKey) {
+        try {
+            String value = redisTemplate.opsForValue().get(redisKey);
+            return value != null ? decode(value) : null;
+        } catch (Exception e) {
+            log.debug("读取Redis查询向量缓存失败: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeRedis(String redisKey, float[] embedding) {
+        try {
+            redisTemplate.opsForValue().set(redisKey, encode(embedding), ttl);
+        } catch (Exception e) {
+            log.debug("写入Redis查询向量缓存失败: {}", e.getMessage());
+        }
+    }
+
+    private static String redisKey(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return REDIS_KEY_PREFIX + HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String encode(float[] embedding) {
+        ByteBuffer buffer = ByteBuffer.allocate(embedding.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(embedding);
+        return Base64.getEncoder().encodeToString(buffer.array());
+    }
+
+    private static float[] decode(String value) {
+        ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(value)).order(ByteOrder.LITTLE_ENDIAN);
+        float[] embedding = new float[buffer.remaining() / Float.BYTES];
+        buffer.asFloatBuffer().get(embedding);
+        return embedding;
+    }
+
+    private static Counter counter(MeterRegistry registry, String result, String tier) {
+        return Counter.builder("vector.query.embedding.cache")
+                .description("查询向量缓存访问次数")
+                .tag("result", result)
+                .tag("tier", tier)
+                .register(registry);
+    }
+}
@@ -0,0 +1,396 @@
+package com.aichat.service.embedding;
+
+import com.aichat.domain.dto.knowledge.ReembeddingStatus;
+import com.aichat.domain.entity.VectorDocument;
+import com.aichat.exception.BusinessException;
+import com.aichat.repository.VectorDocumentRepository;
+import com.aichat.service.vector.KnowledgeBaseVersions;
+import com.aichat.service.vector.RetrievalResultCache;
+import com.aichat.service.vector.VectorDimensions;
+import com.aichat.service.vector.VectorSearchEngine;
+import com.pgvector.PGvector;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 知识库向量后台重建
+ * 切换嵌入模型（或模型版本）后，已有向量与新模型生成的查询向量不可比较。
+ * 重建任务按文档 id 游标分批用目标模型生成新向量，先写入暂存表 reembedding_staging，
+ * 每批提交后在 reembedding_jobs 中记录断点，批次之间暂停以限制对嵌入接口与数据库的压力；
+ * 期间检索仍读取旧向量并用旧模型生成查询向量。
+ * 全部文档处理完后在一个事务内用暂存向量覆盖向量列并更新知识库的模型标识，检索随之整体切换。
+ * 任务状态持久化在数据库中，重启后从断点继续；暂存写入按文档 id 覆盖，重复执行同一批次无副作用。
+ * 多节点部署时各节点以 FOR UPDATE SKIP LOCKED 认领任务并持有租约，每批记录断点时续租，
+ * 同一知识库同一时刻只由一个节点重建；节点宕机后租约过期的任务由其他节点从断点接手
+ */
+@Service
+@Slf4j
+public class ReembeddingService {
+
+    public enum State {
+        RUNNING, COMPLETED, FAILED
+    }
+
+    /**
+     * 可认领：运行中且没有有效租约（新启动的任务、持有节点宕机或停机释放的任务）
+     */
+    private static final String CLAIM_SQL = "UPDATE reembedding_jobs SET owner = ?, " +
+            "lease_until = CURRENT_TIMESTAMP + make_interval(secs => ?) " +
+            "WHERE knowledge_base_id = (SELECT knowledge_base_id FROM reembedding_jobs " +
+            "WHERE state = 'RUNNING' AND (lease_until IS NULL OR lease_until < CURRENT_TIMESTAMP) " +
+            "ORDER BY updated_at LIMIT 1 FOR UPDATE SKIP LOCKED) " +
+            "RETURNING knowledge_base_id";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final EmbeddingService embeddingService;
+    private final VectorDocumentRepository vectorDocumentRepository;
+    private final VectorSearchEngine vectorSearchEngine;
+    private final RetrievalResultCache retrievalResultCache;
+    private final KnowledgeBaseVersions knowledgeBaseVersions;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean autoStart;
+    private final boolean migrateObsoleteHash;
+    private final int batchSize;
+    private final Duration batchPause;
+    private final Duration lease;
+
+    /**
+     * 本节点的租约持有者标识
+     */
+    private final String owner = UUID.randomUUID().toString();
+    /**
+     * 单线程串行执行，同一时刻只重建一个知识库
+     */
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "reembedding-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ReembeddingService(JdbcTemplate jdbcTemplate,
+                              EmbeddingService embeddingService,
+                              VectorDocumentRepository vectorDocumentRepository,
+                              VectorSearchEngine vectorSearchEngine,
+                              RetrievalResultCache retrievalResultCache,
+                              KnowledgeBaseVersions knowledgeBaseVersions,
+                              PlatformTransactionManager transactionManager,
+                              @Value("${app.vector.reembedding.auto-start:false}") boolean autoStart,
+                              @Value("${app.vector.reembedding.migrate-obsolete-hash:false}") boolean migrateObsoleteHash,
+                              @Value("${app.vector.reembedding.batch-size:100}") int batchSize,
+                              @Value("${app.vector.reembedding.batch-pause:200ms}") Duration batchPause,
+                              @Value("${app.vector.reembedding.lease:5m}") Duration lease) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.embeddingService = embeddingService;
+        this.vectorDocumentRepository = vectorDocumentRepository;
+        this.vectorSearchEngine = vectorSearchEngine;
+        this.retrievalResultCache = retrievalResultCache;
+        this.knowledgeBaseVersions = knowledgeBaseVersions;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.autoStart = autoStart;
+        this.migrateObsoleteHash = migrateObsoleteHash;
+        this.batchSize = Math.max(1, batchSize);
+        this.batchPause = batchPause;
+        this.lease = lease;
+    }
+
+    /**
+     * 启动知识库的重建任务，目标为当前配置的模型
+     * 目标相同的未完成任务从断点继续；目标模型变化时清空暂存向量并从头开始
+     */
+    public ReembeddingStatus start(Long knowledgeBaseId) {
+        String target = embeddingService.currentModel();
+        List<String> models = jdbcTemplate.queryForList(
+                "SELECT embedding_model FROM knowledge_base WHERE id = ? AND deleted_at IS NULL",
+                String.class, knowledgeBaseId);
+        if (models.isEmpty()) {
+            throw new BusinessException("知识库不存在");
+        }
+        List<String> targets = jdbcTemplate.queryForList(
+                "SELECT target_model FROM reembedding_jobs WHERE knowledge_base_id = ?", String.class, knowledgeBaseId);
+        if (targets.isEmpty() || !target.equals(targets.get(0))) {
+            jdbcTemplate.update("DELETE FROM reembedding_staging WHERE knowledge_base_id = ?", knowledgeBaseId);
+        }
+        if (target.equals(models.get(0)) && !vectorDocumentRepository.hasDocumentsNotOnModel(knowledgeBaseId, target)) {
+            log.info("知识库向量已是当前模型，无需重建: knowledgeBaseId={}, model={}", knowledgeBaseId, target);
+            return getStatus(knowledgeBaseId);
+        }
+        // 未完成的同目标任务（运行中或失败）从断点继续，其余情况从头开始；
+        // 从头开始时清除租约，仍在按旧目标执行的节点续租失败后停止
+        String resumable = "reembedding_jobs.target_model = EXCLUDED.target_model AND reembedding_jobs.state <> '"
+                + State.COMPLETED.name() + "'";
+        jdbcTemplate.update("INSERT INTO reembedding_jobs (knowledge_base_id, target_model, state) VALUES (?, ?, ?) " +
+                "ON CONFLICT (knowledge_base_id) DO UPDATE SET " +
+                "last_document_id = CASE WHEN " + resumable + " THEN reembedding_jobs.last_document_id ELSE 0 END, " +
+                "processed = CASE WHEN " + resumable + " THEN reembedding_jobs.processed ELSE 0 END, " +
+                "started_at = CASE WHEN " + resumable + " THEN reembedding_jobs.started_at ELSE CURRENT_TIMESTAMP END, " +
+                "owner = CASE WHEN " + resumable + " THEN reembedding_jobs.owner END, " +
+                "lease_until = CASE WHEN " + resumable + " THEN reembedding_jobs.lease_until END, " +
+                "target_model = EXCLUDED.target_model, state = EXCLUDED.state, error = NULL, " +
+                "updated_at = CURRENT_TIMESTAMP",
+                knowledgeBaseId, target, State.RUNNING.name());
+        wakeUp();
+        log.info("向量重建已开始: knowledgeBaseId={}, from={}, to={}", knowledgeBaseId, models.get(0), target);
+        return getStatus(knowledgeBaseId);
+    }
+
+    /**
+     * 为向量仍是旧版本地哈希（EmbeddingService.isObsolete）的知识库启动重建，返回启动的任务数
+     * 这类知识库迁移前仍可检索；目标为远程模型时重建会调用计费接口，因此由 migrate-obsolete-hash 单独控制。
+     * 同一目标已失败的任务不自动重试，避免每次扫描反复失败
+     */
+    public int startObsolete() {
+        String target = embeddingService.currentModel();
+        List<Long> obsolete = jdbcTemplate.queryForList(
+                "SELECT id, embedding_model FROM knowledge_base WHERE deleted_at IS NULL " +
+                "AND id NOT IN (SELECT knowledge_base_id FROM reembedding_jobs WHERE target_model = ? AND state <> ?)",
+                target, State.COMPLETED.name()).stream()
+                .filter(row -> embeddingService.isObsolete((String) row.get("embedding_model")))
+                .map(row -> ((Number) row.get("id")).longValue())
+                .toList();
+        obsolete.forEach(this::start);
+        return obsolete.size();
+    }
+
+    /**
+     * 为模型与当前配置不一致的所有知识库启动重建，返回启动的任务数
+     */
+    public int startOutdated() {
+        List<Long> outdated = jdbcTemplate.queryForList(
+                "SELECT id FROM knowledge_base WHERE deleted_at IS NULL AND embedding_model IS DISTINCT FROM ? " +
+                "AND id NOT IN (SELECT knowledge_base_id FROM reembedding_jobs WHERE state = ? AND target_model = ?)",
+                Long.class, embeddingService.currentModel(), State.RUNNING.name(), embeddingService.currentModel());
+        outdated.forEach(this::start);
+        return outdated.size();
+    }
+
+    public ReembeddingStatus getStatus(Long knowledgeBaseId) {
+        List<String> models = jdbcTemplate.queryForList(
+                "SELECT embedding_model FROM knowledge_base WHERE id = ? AND deleted_at IS NULL",
+                String.class, knowledgeBaseId);
+        if (models.isEmpty()) {
+            throw new BusinessException("知识库不存在");
+        }
+        ReembeddingStatus.ReembeddingStatusBuilder builder = ReembeddingStatus.builder()
+                .knowledgeBaseId(knowledgeBaseId)
+                .currentModel(models.get(0))
+                .totalDocuments(vectorDocumentRepository.countDocuments(knowledgeBaseId));
+        List<Map<String, Object>> jobs = jdbcTemplate.queryForList(
+                "SELECT * FROM reembedding_jobs WHERE knowledge_base_id = ?", knowledgeBaseId);
+        if (!jobs.isEmpty()) {
+            Map<String, Object> job = jobs.get(0);
+            builder.targetModel((String) job.get("target_model"))
+                    .state((String) job.get("state"))
+                    .processed(((Number) job.get("processed")).longValue())
+                    .lastDocumentId(((Number) job.get("last_document_id")).longValue())
+                    .startedAt(((Timestamp) job.get("started_at")).toLocalDateTime())
+                    .updatedAt(((Timestamp) job.get("updated_at")).toLocalDateTime())
+                    .error((String) job.get("error"));
+        }
+        return builder.build();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        resumePending();
+    }
+
+    /**
+     * 认领未完成的任务；开启 migrate-obsolete-hash 时为旧版哈希向量的知识库启动任务，
+     * 开启自动重建时同时为模型过期的知识库启动任务
+     */
+    @Scheduled(fixedDelayString = "${app.vector.reembedding.scan-interval-ms:60000}",
+            initialDelayString = "${app.vector.reembedding.scan-interval-ms:60000}")
+    public void resumePending() {
+        try {
+            if (migrateObsoleteHash) {
+                int migrated = startObsolete();
+                if (migrated > 0) {
+                    log.info("迁移旧版哈希向量: count={}, model={}", migrated, embeddingService.currentModel());
+                }
+            }
+            if (autoStart) {
+                int started = startOutdated();
+                if (started > 0) {
+                    log.info("自动启动向量重建: count={}, model={}", started, embeddingService.currentModel());
+                }
+            }
+        } catch (Exception e) {
+            log.warn("扫描向量重建任务失败: {}", e.getMessage());
+        }
+        wakeUp();
+    }
+
+    private void wakeUp() {
+        executor.execute(this::drain);
+    }
+
+    /**
+     * 依次认领并执行任务，直到没有可认领的任务
+     */
+    private void drain() {
+        while (!Thread.currentThread().isInterrupted()) {
+            List<Long> claimed;
+            try {
+                claimed = jdbcTemplate.queryForList(CLAIM_SQL, Long.class, owner, (double) lease.toSeconds());
+            } catch (Exception e) {
+                log.warn("认领向量重建任务失败: {}", e.getMessage());
+                return;
+            }
+            if (claimed.isEmpty()) {
+                return;
+            }
+            run(claimed.get(0));
+        }
+    }
+
+    private void run(Long knowledgeBaseId) {
+        List<Map<String, Object>> jobs = jdbcTemplate.queryForList(
+                "SELECT j.target_model, j.last_document_id, j.processed, k.embedding_dimension " +
+                "FROM reembedding_jobs j JOIN knowledge_base k ON k.id = j.knowledge_base_id " +
+                "WHERE j.knowledge_base_id = ? AND j.state = ? AND j.owner = ? AND k.deleted_at IS NULL",
+                knowledgeBaseId, State.RUNNING.name(), owner);
+        if (jobs.isEmpty()) {
+            // 任务已结束，或知识库已被删除
+            jdbcTemplate.update("DELETE FROM reembedding_staging WHERE knowledge_base_id = ? " +
+                    "AND NOT EXISTS (SELECT 1 FROM reembedding_jobs WHERE knowledge_base_id = ? AND state = ?)",
+                    knowledgeBaseId, knowledgeBaseId, State.RUNNING.name());
+            return;
+        }
+        Map<String, Object> job = jobs.get(0);
+        String target = (String) job.get("target_model");
+        long lastId = ((Number) job.get("last_document_id")).longValue();
+        long processed = ((Number) job.get("processed")).longValue();
+        Number dimensionValue = (Number) job.get("embedding_dimension");
+        int dimension = dimensionValue != null ? dimensionValue.intValue() : VectorDimensions.BASE_DIMENSION;
+
+        long start = System.currentTimeMillis();
+        try {
+            while (true) {
+                List<VectorDocument> batch = vectorDocumentRepository.findDocumentsForReembedding(
+                        knowledgeBaseId, lastId, target, batchSize);
+                if (batch.isEmpty()) {
+                    if (cutover(knowledgeBaseId, dimension, target)) {
+                        break;
+                    }
+                    // 扫描期间有按旧模型写入（或被分区迁移错过）的文档，从头扫描未暂存的文档
+                    lastId = 0;
+                    if (!batchPause.isZero()) {
+                        Thread.sleep(batchPause.toMillis());
+                    }
+                    continue;
+                }
+                List<float[]> embeddings = embeddingService.embedStrict(
+                        batch.stream().map(VectorDocument::getContent).toList(), dimension, target);
+                stage(knowledgeBaseId, target, batch, embeddings);
+                lastId = batch.get(batch.size() - 1).getId();
+                processed += batch.size();
+                int renewed = jdbcTemplate.update("UPDATE reembedding_jobs SET last_document_id = ?, processed = ?, " +
+                        "lease_until = CURRENT_TIMESTAMP + make_interval(secs => ?), updated_at = CURRENT_TIMESTAMP " +
+                        "WHERE knowledge_base_id = ? AND target_model = ? AND state = ? AND owner = ?",
+                        lastId, processed, (double) lease.toSeconds(), knowledgeBaseId, target,
+                        State.RUNNING.name(), owner);
+                if (renewed == 0) {
+                    throw new LeaseLostException();
+                }
+                if (!batchPause.isZero()) {
+                    Thread.sleep(batchPause.toMillis());
+                }
+            }
+            log.info("向量重建完成: knowledgeBaseId={}, model={}, processed={}, 耗时{}ms",
+                    knowledgeBaseId, target, processed, System.currentTimeMillis() - start);
+        } catch (InterruptedException e) {
+            // 断点已记录，释放租约由下次启动或其他节点继续
+            Thread.currentThread().interrupt();
+            try {
+                jdbcTemplate.update("UPDATE reembedding_jobs SET owner = NULL, lease_until = NULL " +
+                        "WHERE knowledge_base_id = ? AND owner = ?", knowledgeBaseId, owner);
+            } catch (Exception ignored) {
+                // 租约到期后由其他节点接手
+            }
+        } catch (LeaseLostException e) {
+            log.warn("向量重建任务已被重新启动或由其他节点接手，停止执行: knowledgeBaseId={}, model={}",
+                    knowledgeBaseId, target);
+        } catch (Exception e) {
+            jdbcTemplate.update("UPDATE reembedding_jobs SET state = ?, error = ?, owner = NULL, lease_until = NULL, " +
+                    "updated_at = CURRENT_TIMESTAMP WHERE knowledge_base_id = ? AND owner = ?",
+                    State.FAILED.name(), e.getMessage(), knowledgeBaseId, owner);
+            log.error("向量重建失败: knowledgeBaseId={}, model={}, error={}", knowledgeBaseId, target, e.getMessage());
+        }
+    }
+
+    private void stage(Long knowledgeBaseId, String model, List<VectorDocument> batch, List<float[]> embeddings) {
+        List<Object[]> args = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            args.add(new Object[]{batch.get(i).getId(), knowledgeBaseId, model, new PGvector(embeddings.get(i))});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO reembedding_staging (document_id, knowledge_base_id, embedding_model, embedding) " +
+                "VALUES (?, ?, ?, ?) ON CONFLICT (document_id) DO UPDATE SET " +
+                "embedding_model = EXCLUDED.embedding_model, embedding = EXCLUDED.embedding", args);
+    }
+
+    /**
+     * 在一个事务内切换：先锁定任务行确认仍持有租约（锁持有到提交，期间其他节点无法认领），
+     * 再更新知识库行（等待持有共享锁的写入提交，此后的写入使用新模型），
+     * 然后用暂存向量覆盖向量列；若仍有文档不属于目标模型（扫描期间写入的），回滚并继续扫描
+     */
+    private boolean cutover(Long knowledgeBaseId, int dimension, String target) {
+        Boolean switched = transactionTemplate.execute(status -> {
+            int held = jdbcTemplate.update("UPDATE reembedding_jobs SET lease_until = CURRENT_TIMESTAMP + " +
+                    "make_interval(secs => ?) WHERE knowledge_base_id = ? AND target_model = ? AND state = ? AND owner = ?",
+                    (double) lease.toSeconds(), knowledgeBaseId, target, State.RUNNING.name(), owner);
+            if (held == 0) {
+                throw new LeaseLostException();
+            }
+            jdbcTemplate.update("UPDATE knowledge_base SET embedding_model = ? WHERE id = ?", target, knowledgeBaseId);
+            int updated = vectorDocumentRepository.applyStagedEmbeddings(knowledgeBaseId, dimension);
+            if (vectorDocumentRepository.hasDocumentsNotOnModel(knowledgeBaseId, target)) {
+                status.setRollbackOnly();
+                return false;
+            }
+            jdbcTemplate.update("DELETE FROM reembedding_staging WHERE knowledge_base_id = ?", knowledgeBaseId);
+            jdbcTemplate.update("UPDATE reembedding_jobs SET state = ?, error = NULL, owner = NULL, lease_until = NULL, " +
+                    "updated_at = CURRENT_TIMESTAMP WHERE knowledge_base_id = ?", State.COMPLETED.name(), knowledgeBaseId);
+            knowledgeBaseVersions.bump(knowledgeBaseId);
+            log.info("知识库已切换到新模型: knowledgeBaseId={}, model={}, documents={}", knowledgeBaseId, target, updated);
+            return true;
+        });
+        if (!Boolean.TRUE.equals(switched)) {
+            return false;
+        }
+        // 进程内索引与检索结果缓存持有旧向量（其他节点的进程内索引按知识库版本发现模型变化后重建）
+        vectorSearchEngine.deleteKnowledgeBase(knowledgeBaseId);
+        retrievalResultCache.bumpVersion(knowledgeBaseId);
+        return true;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 任务已不属于本节点（租约过期被接手，或被重新启动为其他目标）
+     */
+    private static final class LeaseLostException extends RuntimeException {
+        LeaseLostException() {
+            super("向量重建任务租约已失效");
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.aichat.service.embedding;
+
+import com.aichat.exception.BusinessException;
+import com.aichat.service.deepseek.DeepSeekService;
+import com.aichat.service.deepseek.dto.EmbeddingRequest;
+import com.aichat.service.deepseek.dto.EmbeddingResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 远程嵌入分批器
+ * 按条数与字符数把文本切成符合接口限制的批次，在共享 WebClient 上以有限并发发送；
+ * 每个批次独立按指数退避重试，结果按输入顺序拼接
+ */
+@Component
+@Slf4j
+public class RemoteEmbeddingBatcher {
+
+    private final DeepSeekService deepSeekService;
+    private final int batchSize;
+    private final int maxBatchChars;
+    private final int concurrency;
+    private final int maxRetries;
+    private final Duration retryBackoff;
+
+    public RemoteEmbeddingBatcher(DeepSeekService deepSeekService,
+                                  @Value("${app.vector.remote-embedding.batch-size:64}") int batchSize,
+                                  @Value("${app.vector.remote-embedding.max-batch-chars:60000}") int maxBatchChars,
+                                  @Value("${app.vector.remote-embedding.concurrency:4}") int concurrency,
+                                  @Value("${app.vector.remote-embedding.max-retries:3}") int maxRetries,
+                                  @Value("${app.vector.remote-embedding.retry-backoff:1s}") Duration retryBackoff) {
+        this.deepSeekService = deepSeekService;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxBatchChars = Math.max(1, maxBatchChars);
+        this.concurrency = Math.max(1, concurrency);
+        this.maxRetries = Math.max(0, maxRetries);
+        this.retryBackoff = retryBackoff;
+    }
+
+    /**
+     * 批量生成嵌入向量，返回顺序与 texts 一致
+     * 任一批次重试耗尽后整体失败，避免同一知识库混入不同模型的向量
+     */
+    public List<float[]> embed(List<String> texts) {
+        if (texts.isEmpty()) {
+            return List.of();
+        }
+        List<List<String>> batches = partition(texts);
+        long start = System.currentTimeMillis();
+        List<float[]> embeddings = Flux.fromIterable(batches)
+                .flatMapSequential(this::embedBatch, concurrency)
+                .flatMapIterable(batch -> batch)
+                .collectList()
+                .block();
+        log.info("远程嵌入完成: texts={}, batches={}, concurrency={}, 耗时{}ms",
+                texts.size(), batches.size(), concurrency, System.currentTimeMillis() - start);
+        return embeddings;
+    }
+
+    private Mono<List<float[]>> embedBatch(List<String> batch) {
+        EmbeddingRequest request = EmbeddingRequest.builder()
+                .input(batch)
+                .build();
+        return Mono.defer(() -> deepSeekService.createEmbeddings(request))
+                .map(response -> toEmbeddings(response, batch.size()))
+                .retryWhen(Retry.backoff(maxRetries, retryBackoff)
+                        .filter(RemoteEmbeddingBatcher::isRetryable)
+                        .doBeforeRetry(signal -> log.warn("嵌入批次失败，第{}次重试: size={}, error={}",
+                                signal.totalRetries() + 1, batch.size(), signal.failure().getMessage()))
+                        .onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+    }
+
+    /**
+     * 接口返回的 data 可能不按输入顺序排列，按 index 还原
+     */
+    static List<float[]> toEmbeddings(EmbeddingResponse response, int expected) {
+        if (response == null || response.getData() == null || response.getData().size() != expected) {
+            throw new BusinessException("批量生成嵌入向量失败：返回数量与请求不一致");
+        }
+        List<EmbeddingResponse.EmbeddingData> data = new ArrayList<>(response.getData());
+        if (data.stream().allMatch(item -> item.getIndex() != null)) {
+            data.sort(Comparator.comparing(EmbeddingResponse.EmbeddingData::getIndex));
+        }
+        return data.stream().map(EmbeddingResponse.EmbeddingData::getEmbedding).toList();
+    }
+
+    /**
+     * 网络错误、限流与服务端错误可重试；其余 4xx 与返回数据错误重试无意义
+     */
+    private static boolean isRetryable(Throwable error) {
+        if (error instanceof WebClientRequestException) {
+            return true;
+        }
+        if (error instanceof WebClientResponseException responseException) {
+            int status = responseException.getStatusCode().value();
+            return status == 429 || status >= 500;
+        }
+        return false;
+    }
+
+    /**
+     * 按条数与字符数切分批次；单条超过字符上限的文本独占一个批次
+     */
+    List<List<String>> partition(List<String> texts) {
+        List<List<String>> batches = new ArrayList<>();
+        List<String> current = new ArrayList<>();
+        int chars = 0;
+        for (String text : texts) {
+            int length = text.length();
+            if (!current.isEmpty() && (current.size() >= batchSize || chars + length > maxBatchChars)) {
+                batches.add(current);
+                current = new ArrayList<>();
+                chars = 0;
+            }
+            current.add(text);
+            chars += length;
+        }
+        batches.add(current);
+        return batches;
+    }
+}
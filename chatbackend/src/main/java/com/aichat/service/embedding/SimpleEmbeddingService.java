@@ -1,124 +1,308 @@
 package com.aichat.service.embedding;
 
+import com.aichat.service.vector.LexicalTokenizer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 /**
  * 简单的文本嵌入服务
- * 使用TF-IDF和词频向量作为降级方案
+ * 流式特征哈希向量化：逐个码点扫描文本，不切分字符串、不建词频表，
+ * 特征直接累加到线程内复用的 float[] 中。
+ * <ul>
+ *   <li>拉丁字母/数字：整词特征 + 词内字符三元组（子词）特征，兼顾精确匹配与词形变化</li>
+ *   <li>中日韩文字：相邻二元组特征 + 单字特征，不依赖空格分词</li>
+ * </ul>
+ * 每个特征经非加密哈希映射到一个维度并带 ±1 符号（signed feature hashing），
+ * 哈希冲突在期望上相互抵消，不会系统性抬高无关文本的相似度。
+ * 维度可按知识库指定，较小的维度冲突更多但存储与计算成本更低
  */
 @Service
 @Slf4j
 public class SimpleEmbeddingService {
-    
+
     private static final int EMBEDDING_DIM = 1536; // 保持与DeepSeek相同的维度
-    
+    private static final int MAX_DIMENSION = 2000;
+
     /**
-     * 生成文本的嵌入向量
-     * 使用简单的词频向量 + 哈希映射到固定维度
+     * 模型标识前缀，算法变化时需要修改，用于区分缓存的向量；
+     * 同时需修改 EmbeddingService.SIMPLE_MODEL，已存储的旧算法向量由重建任务迁移（v1 -> v2 即如此）
      */
-    public List<Double> generateEmbedding(String text) {
-        if (text == null || text.trim().isEmpty()) {
-            return getZeroVector();
-        }
-        
-        text = text.toLowerCase();
-        
-        // 计算词频
-        Map<String, Integer> wordFreq = new HashMap<>();
-        String[] words = text.split("\\s+");
-        
-        for (String word : words) {
-            if (word.length() > 0) {
-                wordFreq.put(word, wordFreq.getOrDefault(word, 0) + 1);
-            }
+    private static final String MODEL_ID_PREFIX = "simple-hash-v2-";
+
+    private static final float WORD_WEIGHT = 1.0f;
+    private static final float SUBWORD_WEIGHT = 0.5f;
+    private static final float CJK_BIGRAM_WEIGHT = 1.0f;
+    private static final float CJK_UNIGRAM_WEIGHT = 0.5f;
+
+    // 不同类型特征使用不同种子，避免同一字符序列在不同特征类型间冲突
+    private static final int SEED_WORD = 0x9747b28c;
+    private static final int SEED_SUBWORD = 0x5bd1e995;
+    private static final int SEED_CJK_UNIGRAM = 0x1b873593;
+    private static final int SEED_CJK_BIGRAM = 0xcc9e2d51;
+
+    private static final int FNV_PRIME = 0x01000193;
+    private static final int WORD_BOUNDARY = 0x2;
+
+    private final ThreadLocal<Accumulator> accumulators = ThreadLocal.withInitial(() -> new Accumulator(MAX_DIMENSION));
+
+    /**
+     * 模型标识（包含维度），用于区分缓存的向量
+     */
+    public static String modelId(int dimension) {
+        return MODEL_ID_PREFIX + dimension;
+    }
+
+    /**
+     * 生成文本的嵌入向量（默认1536维，L2 归一化）
+     */
+    public float[] generateEmbedding(String text) {
+        return generateEmbedding(text, EMBEDDING_DIM);
+    }
+
+    /**
+     * 生成指定维度的嵌入向量（L2 归一化）
+     */
+    public float[] generateEmbedding(String text, int dimension) {
+        checkDimension(dimension);
+        if (text == null || text.isBlank()) {
+            return new float[dimension];
         }
-        
-        // 生成固定维度的向量
-        List<Double> embedding = new ArrayList<>(EMBEDDING_DIM);
-        for (int i = 0; i < EMBEDDING_DIM; i++) {
-            embedding.add(0.0);
-        }
-        
-        // 将词频映射到向量的不同位置
-        for (Map.Entry<String, Integer> entry : wordFreq.entrySet()) {
-            String word = entry.getKey();
-            int freq = entry.getValue();
-            
-            // 使用哈希将单词映射到多个维度
-            int[] indices = hashToIndices(word, 3);
-            for (int idx : indices) {
-                double currentValue = embedding.get(idx);
-                embedding.set(idx, currentValue + freq);
-            }
+        Accumulator accumulator = accumulators.get();
+        try {
+            accumulator.begin(dimension);
+            vectorize(text, accumulator);
+            return accumulator.toDense();
+        } finally {
+            accumulator.reset();
+        }
+    }
+
+    /**
+     * 生成稀疏形式的嵌入向量（与 generateEmbedding 结果相同，仅保留非零维度）
+     */
+    public SparseEmbedding generateSparseEmbedding(String text, int dimension) {
+        checkDimension(dimension);
+        if (text == null || text.isBlank()) {
+            return new SparseEmbedding(dimension, new int[0], new float[0]);
+        }
+        Accumulator accumulator = accumulators.get();
+        try {
+            accumulator.begin(dimension);
+            vectorize(text, accumulator);
+            return accumulator.toSparse();
+        } finally {
+            accumulator.reset();
         }
-        
-        // 归一化向量
-        return normalizeVector(embedding);
     }
-    
+
+    /**
+     * 批量生成稀疏形式的嵌入向量
+     */
+    public List<SparseEmbedding> generateSparseEmbeddings(List<String> texts, int dimension) {
+        List<SparseEmbedding> embeddings = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            embeddings.add(generateSparseEmbedding(text, dimension));
+        }
+        return embeddings;
+    }
+
     /**
      * 批量生成嵌入向量
      */
-    public List<List<Double>> generateEmbeddings(List<String> texts) {
-        List<List<Double>> embeddings = new ArrayList<>();
+    public List<float[]> generateEmbeddings(List<String> texts) {
+        return generateEmbeddings(texts, EMBEDDING_DIM);
+    }
+
+    /**
+     * 批量生成指定维度的嵌入向量
+     */
+    public List<float[]> generateEmbeddings(List<String> texts, int dimension) {
+        List<float[]> embeddings = new ArrayList<>(texts.size());
         for (String text : texts) {
-            embeddings.add(generateEmbedding(text));
+            embeddings.add(generateEmbedding(text, dimension));
         }
         return embeddings;
     }
-    
+
+    private static void checkDimension(int dimension) {
+        if (dimension <= 0 || dimension > MAX_DIMENSION) {
+            throw new IllegalArgumentException("不支持的向量维度: " + dimension);
+        }
+    }
+
+    /**
+     * 单次扫描文本，把所有特征累加到 accumulator
+     */
+    private void vectorize(String text, Accumulator accumulator) {
+        boolean inWord = false;
+        int wordHash = 0;
+        int prev2 = -1;
+        int prev1 = -1;
+        int prevCjk = -1;
+
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            codePoint = fold(codePoint);
+
+            if (LexicalTokenizer.isCjk(codePoint)) {
+                if (inWord) {
+                    endWord(accumulator, wordHash, prev2, prev1);
+                    inWord = false;
+                }
+                accumulator.add(mix(hash(SEED_CJK_UNIGRAM, codePoint)), CJK_UNIGRAM_WEIGHT);
+                if (prevCjk >= 0) {
+                    accumulator.add(mix(hash(hash(SEED_CJK_BIGRAM, prevCjk), codePoint)), CJK_BIGRAM_WEIGHT);
+                }
+                prevCjk = codePoint;
+                continue;
+            }
+            prevCjk = -1;
+
+            if (Character.isLetterOrDigit(codePoint)) {
+                if (!inWord) {
+                    inWord = true;
+                    wordHash = SEED_WORD;
+                    prev2 = -1;
+                    prev1 = WORD_BOUNDARY;
+                }
+                wordHash = hash(wordHash, codePoint);
+                if (prev2 >= 0) {
+                    accumulator.add(mix(hash(hash(hash(SEED_SUBWORD, prev2), prev1), codePoint)), SUBWORD_WEIGHT);
+                }
+                prev2 = prev1;
+                prev1 = codePoint;
+            } else if (inWord) {
+                endWord(accumulator, wordHash, prev2, prev1);
+                inWord = false;
+            }
+        }
+        if (inWord) {
+            endWord(accumulator, wordHash, prev2, prev1);
+        }
+    }
+
     /**
-     * 将字符串哈希到多个索引位置
+     * 词结束：写入整词特征与以词尾边界结尾的三元组
      */
-    private int[] hashToIndices(String word, int count) {
-        int[] indices = new int[count];
-        int baseHash = word.hashCode();
-        
-        for (int i = 0; i < count; i++) {
-            int hash = baseHash + i * 31;
-            indices[i] = Math.abs(hash % EMBEDDING_DIM);
-        }
-        
-        return indices;
+    private void endWord(Accumulator accumulator, int wordHash, int prev2, int prev1) {
+        accumulator.add(mix(wordHash), WORD_WEIGHT);
+        if (prev2 >= 0) {
+            accumulator.add(mix(hash(hash(hash(SEED_SUBWORD, prev2), prev1), WORD_BOUNDARY)), SUBWORD_WEIGHT);
+        }
     }
-    
+
+    /**
+     * 大小写折叠与全角 ASCII 转半角
+     */
+    private static int fold(int codePoint) {
+        if (codePoint >= 0xFF01 && codePoint <= 0xFF5E) {
+            codePoint -= 0xFEE0;
+        }
+        return Character.toLowerCase(codePoint);
+    }
+
+    /**
+     * FNV-1a 增量哈希
+     */
+    private static int hash(int state, int codePoint) {
+        return (state ^ codePoint) * FNV_PRIME;
+    }
+
     /**
-     * 向量归一化（L2范数）
+     * MurmurHash3 finalizer，使各比特充分雪崩
      */
-    private List<Double> normalizeVector(List<Double> vector) {
-        double sumSquares = 0.0;
-        for (Double val : vector) {
-            sumSquares += val * val;
-        }
-        
-        if (sumSquares == 0.0) {
-            return vector;
-        }
-        
-        double norm = Math.sqrt(sumSquares);
-        List<Double> normalized = new ArrayList<>();
-        for (Double val : vector) {
-            normalized.add(val / norm);
-        }
-        
-        return normalized;
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
     }
-    
+
     /**
-     * 获取零向量
+     * 线程内复用的累加缓冲区（按最大维度分配），记录被写过的维度，结束时只清理这些维度
      */
-    private List<Double> getZeroVector() {
-        List<Double> zero = new ArrayList<>(EMBEDDING_DIM);
-        for (int i = 0; i < EMBEDDING_DIM; i++) {
-            zero.add(0.0);
+    private static final class Accumulator {
+        private final float[] buffer;
+        private final boolean[] touched;
+        private int[] touchedIndices = new int[256];
+        private int touchedCount;
+        private int dimension;
+
+        private Accumulator(int capacity) {
+            this.buffer = new float[capacity];
+            this.touched = new boolean[capacity];
+        }
+
+        private void begin(int dimension) {
+            this.dimension = dimension;
+        }
+
+        /**
+         * 高位决定维度（乘法取模，避免取模偏差），最低位决定符号
+         */
+        private void add(int featureHash, float weight) {
+            int index = (int) (((featureHash >>> 1) * (long) dimension) >>> 31);
+            buffer[index] += (featureHash & 1) == 0 ? weight : -weight;
+            if (!touched[index]) {
+                touched[index] = true;
+                if (touchedCount == touchedIndices.length) {
+                    touchedIndices = Arrays.copyOf(touchedIndices, touchedCount * 2);
+                }
+                touchedIndices[touchedCount++] = index;
+            }
+        }
+
+        private float inverseNorm() {
+            double sumSquares = 0.0;
+            for (int i = 0; i < touchedCount; i++) {
+                float value = buffer[touchedIndices[i]];
+                sumSquares += (double) value * value;
+            }
+            return sumSquares == 0.0 ? 0f : (float) (1.0 / Math.sqrt(sumSquares));
+        }
+
+        private float[] toDense() {
+            float invNorm = inverseNorm();
+            float[] embedding = new float[dimension];
+            for (int i = 0; i < touchedCount; i++) {
+                int index = touchedIndices[i];
+                embedding[index] = buffer[index] * invNorm;
+            }
+            return embedding;
+        }
+
+        private SparseEmbedding toSparse() {
+            float invNorm = inverseNorm();
+            int[] sorted = Arrays.copyOf(touchedIndices, touchedCount);
+            Arrays.sort(sorted);
+            int nonZero = 0;
+            for (int index : sorted) {
+                if (buffer[index] != 0f) {
+                    sorted[nonZero++] = index;
+                }
+            }
+            int[] indices = Arrays.copyOf(sorted, nonZero);
+            float[] values = new float[nonZero];
+            for (int i = 0; i < nonZero; i++) {
+                values[i] = buffer[indices[i]] * invNorm;
+            }
+            return new SparseEmbedding(dimension, indices, values);
+        }
+
+        private void reset() {
+            for (int i = 0; i < touchedCount; i++) {
+                int index = touchedIndices[i];
+                buffer[index] = 0f;
+                touched[index] = false;
+            }
+            touchedCount = 0;
         }
-        return zero;
     }
 }
-
@@ -0,0 +1,26 @@
+package com.aichat.service.embedding;
+
+/**
+ * 稀疏向量：按维度升序排列的非零下标与对应取值
+ *
+ * @param dimension 向量总维度
+ * @param indices   非零维度下标（升序，从0开始）
+ * @param values    与 indices 一一对应的取值
+ */
+public record SparseEmbedding(int dimension, int[] indices, float[] values) {
+
+    public int nonZeroCount() {
+        return indices.length;
+    }
+
+    /**
+     * 展开为稠密向量
+     */
+    public float[] toDense() {
+        float[] dense = new float[dimension];
+        for (int i = 0; i < indices.length; i++) {
+            dense[indices[i]] = values[i];
+        }
+        return dense;
+    }
+}
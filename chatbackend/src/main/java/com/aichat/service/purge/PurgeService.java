@@ -0,0 +1,367 @@
+package com.aichat.service.purge;
+
+import com.aichat.domain.dto.common.PurgeStatus;
+import com.aichat.exception.BusinessException;
+import com.aichat.service.vector.KnowledgeBaseRouter;
+import com.aichat.service.vector.RetrievalResultCache;
+import com.aichat.service.vector.VectorPartitionRouter;
+import com.aichat.service.vector.VectorSearchEngine;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 后台分批删除
+ * 删除知识库/会话时只在父记录上标记 deleted_at 并立即返回（实体上的 @SQLRestriction 使其对查询不可见），
+ * 子记录（文档块/消息）由单线程后台任务按批次删除，每批一个短事务，批次之间可暂停，
+ * 避免一次性长事务占用请求线程并集中产生大量 WAL。
+ * 任务状态与进度保存在 purge_jobs 表中，任何节点都能查询；各节点以 FOR UPDATE SKIP LOCKED 认领任务并持有租约，
+ * 执行中按批续租，节点宕机后租约过期的任务由其他节点接手，同一任务不会被多个节点同时执行。
+ * 已提升到独立分区的知识库直接删除分区表，只有共享表中的残留行需要分批删除
+ */
+@Service
+@Slf4j
+public class PurgeService {
+
+    public enum Target {
+        KNOWLEDGE_BASE("knowledge_base", "vector_documents", "knowledge_base_id", "知识库不存在或无权访问"),
+        CONVERSATION("conversations", "messages", "conversation_id", "会话不存在或无权访问");
+
+        private final String table;
+        private final String childTable;
+        private final String foreignKey;
+        private final String notFoundMessage;
+
+        Target(String table, String childTable, String foreignKey, String notFoundMessage) {
+            this.table = table;
+            this.childTable = childTable;
+            this.foreignKey = foreignKey;
+            this.notFoundMessage = notFoundMessage;
+        }
+    }
+
+    public enum State {
+        PENDING, RUNNING, COMPLETED, FAILED
+    }
+
+    /**
+     * 可认领：未完成且没有有效租约（待执行、租约过期的执行中、重试等待期已过的失败任务）
+     */
+    private static final String CLAIM_SQL = "UPDATE purge_jobs SET state = 'RUNNING', owner = ?, error = NULL, " +
+            "lease_until = CURRENT_TIMESTAMP + make_interval(secs => ?), updated_at = CURRENT_TIMESTAMP " +
+            "WHERE (target_type, target_id) = (SELECT target_type, target_id FROM purge_jobs " +
+            "WHERE state <> 'COMPLETED' AND (lease_until IS NULL OR lease_until < CURRENT_TIMESTAMP) " +
+            "ORDER BY requested_at LIMIT 1 FOR UPDATE SKIP LOCKED) " +
+            "RETURNING *";
+
+    private static final RowMapper<PurgeStatus> STATUS_MAPPER = (rs, rowNum) -> {
+        long totalRows = rs.getLong("total_rows");
+        return PurgeStatus.builder()
+                .targetType(rs.getString("target_type"))
+                .targetId(rs.getLong("target_id"))
+                .userId(rs.getLong("user_id"))
+                .state(rs.getString("state"))
+                .totalRows(rs.wasNull() ? null : totalRows)
+                .deletedRows(rs.getLong("deleted_rows"))
+                .requestedAt(toLocalDateTime(rs.getTimestamp("requested_at")))
+                .finishedAt(toLocalDateTime(rs.getTimestamp("finished_at")))
+                .error(rs.getString("error"))
+                .build();
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+    private final VectorSearchEngine vectorSearchEngine;
+    private final RetrievalResultCache retrievalResultCache;
+    private final VectorPartitionRouter partitionRouter;
+    private final KnowledgeBaseRouter knowledgeBaseRouter;
+    private final int batchSize;
+    private final Duration batchPause;
+    private final Duration statusRetention;
+    private final Duration lease;
+    private final Duration retryDelay;
+
+    /**
+     * 本节点的租约持有者标识
+     */
+    private final String owner = UUID.randomUUID().toString();
+    /**
+     * 单线程串行执行，同一时刻只有一个删除任务写 WAL
+     */
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "purge-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public PurgeService(JdbcTemplate jdbcTemplate,
+                        VectorSearchEngine vectorSearchEngine,
+                        RetrievalResultCache retrievalResultCache,
+                        VectorPartitionRouter partitionRouter,
+                        KnowledgeBaseRouter knowledgeBaseRouter,
+                        @Value("${app.purge.batch-size:1000}") int batchSize,
+                        @Value("${app.purge.batch-pause:50ms}") Duration batchPause,
+                        @Value("${app.purge.status-retention:1h}") Duration statusRetention,
+                        @Value("${app.purge.lease:2m}") Duration lease,
+                        @Value("${app.purge.scan-interval-ms:60000}") long scanIntervalMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.vectorSearchEngine = vectorSearchEngine;
+        this.retrievalResultCache = retrievalResultCache;
+        this.partitionRouter = partitionRouter;
+        this.knowledgeBaseRouter = knowledgeBaseRouter;
+        this.batchSize = Math.max(1, batchSize);
+        this.batchPause = batchPause;
+        this.statusRetention = statusRetention;
+        this.lease = lease;
+        this.retryDelay = Duration.ofMillis(scanIntervalMs);
+    }
+
+    /**
+     * 标记删除并登记后台任务；已在删除中的记录直接返回当前进度
+     * 在调用方事务内执行时，标记与任务随事务一起提交，提交后才开始执行
+     */
+    public PurgeStatus requestPurge(Target target, Long id, Long userId) {
+        if (!mark(target, id, userId)) {
+            return getStatus(target, id, userId);
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    wakeUp();
+                }
+            });
+        } else {
+            wakeUp();
+        }
+        return PurgeStatus.builder()
+                .targetType(target.name())
+                .targetId(id)
+                .userId(userId)
+                .state(State.PENDING.name())
+                .requestedAt(LocalDateTime.now())
+                .build();
+    }
+
+    /**
+     * 标记删除并在调用线程中执行（不经过后台队列），返回结束时的进度
+     * 用于离线任务在退出前清理自己创建的数据；任务已被其他节点认领时不等待，直接返回当前进度
+     */
+    public PurgeStatus purgeNow(Target target, Long id, Long userId) {
+        mark(target, id, userId);
+        List<PurgeStatus> claimed = jdbcTemplate.query("UPDATE purge_jobs SET state = 'RUNNING', owner = ?, error = NULL, " +
+                "lease_until = CURRENT_TIMESTAMP + make_interval(secs => ?), updated_at = CURRENT_TIMESTAMP " +
+                "WHERE target_type = ? AND target_id = ? AND user_id = ? AND state <> 'COMPLETED' " +
+                "AND (lease_until IS NULL OR lease_until < CURRENT_TIMESTAMP) RETURNING *",
+                STATUS_MAPPER, owner, (double) lease.toSeconds(), target.name(), id, userId);
+        if (!claimed.isEmpty()) {
+            purge(target, id, claimed.get(0).getDeletedRows());
+        }
+        return getStatus(target, id, userId);
+    }
+
+    /**
+     * 在父记录上标记删除并登记任务，记录不存在或已标记时返回 false
+     */
+    private boolean mark(Target target, Long id, Long userId) {
+        int marked = jdbcTemplate.update("UPDATE " + target.table + " SET deleted_at = CURRENT_TIMESTAMP " +
+                "WHERE id = ? AND user_id = ? AND deleted_at IS NULL", id, userId);
+        if (marked == 0) {
+            return false;
+        }
+        jdbcTemplate.update("INSERT INTO purge_jobs (target_type, target_id, user_id, state) VALUES (?, ?, ?, ?) " +
+                "ON CONFLICT (target_type, target_id) DO NOTHING", target.name(), id, userId, State.PENDING.name());
+        log.info("已标记删除: target={}, id={}, userId={}", target, id, userId);
+        return true;
+    }
+
+    /**
+     * 查询删除进度（任何节点均可查询）；记录已被完全删除且任务记录已过保留期时视为不存在
+     */
+    public PurgeStatus getStatus(Target target, Long id, Long userId) {
+        List<PurgeStatus> jobs = jdbcTemplate.query("SELECT * FROM purge_jobs " +
+                "WHERE target_type = ? AND target_id = ? AND user_id = ?", STATUS_MAPPER, target.name(), id, userId);
+        if (!jobs.isEmpty()) {
+            return jobs.get(0);
+        }
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                "SELECT deleted_at FROM " + target.table + " WHERE id = ? AND user_id = ?", id, userId);
+        if (rows.isEmpty() || rows.get(0).get("deleted_at") == null) {
+            throw new BusinessException(target.notFoundMessage);
+        }
+        // 已标记但尚未登记任务（标记早于任务表），下次扫描时登记
+        return PurgeStatus.builder()
+                .targetType(target.name())
+                .targetId(id)
+                .userId(userId)
+                .state(State.PENDING.name())
+                .build();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        resumePending();
+    }
+
+    /**
+     * 为已标记但没有任务的记录登记任务、清理过期的任务记录，并认领可执行的任务
+     */
+    @Scheduled(fixedDelayString = "${app.purge.scan-interval-ms:60000}", initialDelayString = "${app.purge.scan-interval-ms:60000}")
+    public void resumePending() {
+        try {
+            jdbcTemplate.update("DELETE FROM purge_jobs WHERE state = ? AND finished_at < CURRENT_TIMESTAMP - make_interval(secs => ?)",
+                    State.COMPLETED.name(), (double) statusRetention.toSeconds());
+            for (Target target : Target.values()) {
+                jdbcTemplate.update("INSERT INTO purge_jobs (target_type, target_id, user_id, state) " +
+                        "SELECT ?, id, user_id, ? FROM " + target.table + " WHERE deleted_at IS NOT NULL " +
+                        "ON CONFLICT (target_type, target_id) DO NOTHING", target.name(), State.PENDING.name());
+            }
+        } catch (Exception e) {
+            log.warn("扫描待删除记录失败: error={}", e.getMessage());
+        }
+        wakeUp();
+    }
+
+    private void wakeUp() {
+        executor.execute(this::drain);
+    }
+
+    /**
+     * 依次认领并执行任务，直到没有可认领的任务
+     */
+    private void drain() {
+        while (!Thread.currentThread().isInterrupted()) {
+            List<PurgeStatus> claimed;
+            try {
+                claimed = jdbcTemplate.query(CLAIM_SQL, STATUS_MAPPER, owner, (double) lease.toSeconds());
+            } catch (Exception e) {
+                log.warn("认领删除任务失败: error={}", e.getMessage());
+                return;
+            }
+            if (claimed.isEmpty()) {
+                return;
+            }
+            PurgeStatus job = claimed.get(0);
+            purge(Target.valueOf(job.getTargetType()), job.getTargetId(), job.getDeletedRows());
+        }
+    }
+
+    private void purge(Target target, Long id, long deletedRows) {
+        long start = System.currentTimeMillis();
+        long deletedTotal = deletedRows;
+        try {
+            if (target == Target.KNOWLEDGE_BASE && partitionRouter.stateOf(id).isPresent()) {
+                deletedTotal += dropPartition(id);
+            }
+            Long remaining = jdbcTemplate.queryForObject(
+                    "SELECT count(*) FROM " + target.childTable + " WHERE " + target.foreignKey + " = ?", Long.class, id);
+            jdbcTemplate.update("UPDATE purge_jobs SET total_rows = ?, deleted_rows = ? " +
+                    "WHERE target_type = ? AND target_id = ? AND owner = ?",
+                    deletedTotal + (remaining != null ? remaining : 0L), deletedTotal, target.name(), id, owner);
+
+            String deleteBatch = "DELETE FROM " + target.childTable + " WHERE id IN (SELECT id FROM " +
+                    target.childTable + " WHERE " + target.foreignKey + " = ? LIMIT ?)";
+            int deleted;
+            do {
+                // 无外层事务，每批自动提交
+                deleted = jdbcTemplate.update(deleteBatch, id, batchSize);
+                deletedTotal += deleted;
+                if (!renewLease(target, id, deletedTotal)) {
+                    log.warn("删除任务租约已失效，停止执行: target={}, id={}", target, id);
+                    return;
+                }
+                if (deleted > 0 && !batchPause.isZero()) {
+                    Thread.sleep(batchPause.toMillis());
+                }
+            } while (deleted > 0);
+
+            if (target == Target.KNOWLEDGE_BASE) {
+                jdbcTemplate.update("DELETE FROM reembedding_staging WHERE knowledge_base_id = ?", id);
+                jdbcTemplate.update("DELETE FROM reembedding_jobs WHERE knowledge_base_id = ?", id);
+                knowledgeBaseRouter.deleteKnowledgeBase(id);
+                vectorSearchEngine.deleteKnowledgeBase(id);
+                retrievalResultCache.bumpVersion(id);
+            }
+            jdbcTemplate.update("DELETE FROM " + target.table + " WHERE id = ? AND deleted_at IS NOT NULL", id);
+            jdbcTemplate.update("UPDATE purge_jobs SET state = ?, owner = NULL, lease_until = NULL, " +
+                    "updated_at = CURRENT_TIMESTAMP, finished_at = CURRENT_TIMESTAMP " +
+                    "WHERE target_type = ? AND target_id = ? AND owner = ?", State.COMPLETED.name(), target.name(), id, owner);
+            log.info("后台删除完成: target={}, id={}, rows={}, 耗时{}ms",
+                    target, id, deletedTotal, System.currentTimeMillis() - start);
+        } catch (InterruptedException e) {
+            // 停机：释放租约，由下次启动或其他节点继续
+            Thread.currentThread().interrupt();
+            release(target, id, State.PENDING, null, 0);
+        } catch (Exception e) {
+            // 标记仍在数据库中，重试等待期过后再次认领
+            release(target, id, State.FAILED, e.getMessage(), retryDelay.toSeconds());
+            log.error("后台删除失败: target={}, id={}, error={}", target, id, e.getMessage());
+        }
+    }
+
+    /**
+     * 记录进度并续租；返回 false 表示租约已被其他节点接手
+     */
+    private boolean renewLease(Target target, Long id, long deletedRows) {
+        return jdbcTemplate.update("UPDATE purge_jobs SET deleted_rows = ?, " +
+                "lease_until = CURRENT_TIMESTAMP + make_interval(secs => ?), updated_at = CURRENT_TIMESTAMP " +
+                "WHERE target_type = ? AND target_id = ? AND owner = ?",
+                deletedRows, (double) lease.toSeconds(), target.name(), id, owner) > 0;
+    }
+
+    private void release(Target target, Long id, State state, String error, long delaySeconds) {
+        try {
+            jdbcTemplate.update("UPDATE purge_jobs SET state = ?, error = ?, owner = NULL, " +
+                    "lease_until = CASE WHEN ? > 0 THEN CURRENT_TIMESTAMP + make_interval(secs => ?) END, " +
+                    "updated_at = CURRENT_TIMESTAMP, finished_at = CASE WHEN ? THEN CURRENT_TIMESTAMP END " +
+                    "WHERE target_type = ? AND target_id = ? AND owner = ?",
+                    state.name(), error, delaySeconds, (double) delaySeconds, state == State.FAILED,
+                    target.name(), id, owner);
+        } catch (Exception e) {
+            // 租约到期后由其他节点接手
+            log.warn("释放删除任务失败: target={}, id={}, error={}", target, id, e.getMessage());
+        }
+    }
+
+    /**
+     * 删除知识库的独立分区：DROP TABLE 只需删除文件，不逐行产生 WAL
+     *
+     * @return 分区中的行数
+     */
+    private long dropPartition(Long knowledgeBaseId) {
+        String table = VectorPartitionRouter.tableName(knowledgeBaseId);
+        Boolean exists = jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, table);
+        Long rows = Boolean.TRUE.equals(exists)
+                ? jdbcTemplate.queryForObject("SELECT count(*) FROM " + table, Long.class)
+                : Long.valueOf(0L);
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + table);
+        partitionRouter.unregister(knowledgeBaseId);
+        log.info("已删除知识库分区: knowledgeBaseId={}, table={}, rows={}", knowledgeBaseId, table, rows);
+        return rows != null ? rows : 0L;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static LocalDateTime toLocalDateTime(Timestamp timestamp) {
+        return timestamp != null ? timestamp.toLocalDateTime() : null;
+    }
+}
@@ -3,6 +3,7 @@ package com.aichat.service.tool.impl;
 import com.aichat.domain.entity.VectorDocument;
 import com.aichat.service.VectorService;
 import com.aichat.service.tool.ToolExecutor;
+import com.aichat.service.vector.MetadataFilter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
@@ -24,6 +25,8 @@ public class KnowledgeSearchTool implements ToolExecutor {
         Long knowledgeBaseId = ((Number) params.get("knowledge_base_id")).longValue();
         Long userId = params.containsKey("user_id") ? ((Number) params.get("user_id")).longValue() : null;
         Integer topK = params.containsKey("top_k") ? ((Number) params.get("top_k")).intValue() : 5;
+        @SuppressWarnings("unchecked")
+        Map<String, Object> filter = params.get("filter") instanceof Map<?, ?> map ? (Map<String, Object>) map : null;
         
         if (query == null || query.trim().isEmpty()) {
             throw new IllegalArgumentException("搜索查询不能为空");
@@ -35,7 +38,7 @@ public class KnowledgeSearchTool implements ToolExecutor {
         
         try {
             List<VectorDocument> results = vectorService.searchSimilarDocuments(
-                knowledgeBaseId, userId, query, topK
+                knowledgeBaseId, userId, query, topK, null, null, MetadataFilter.of(filter)
             );
             
             List<Map<String, Object>> documents = results.stream()
@@ -0,0 +1,144 @@
+package com.aichat.service.vector;
+
+import com.aichat.domain.entity.VectorDocument;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 检索结果的近重复折叠
+ * 按排名依次保留文档，与已保留文档重复的跳过，由后面的不同文档补位，最多保留 limit 个：
+ * <ul>
+ *   <li>近似重复：字符 3-gram 的 64 位 SimHash 汉明距离不超过 maxHammingDistance（跨知识库重复上传的同一内容）</li>
+ *   <li>重叠片段：同一来源、chunkIndex 相邻的已保留分块已覆盖其 overlapContainment 以上的 3-gram
+ *       （TOKEN_OVERLAP 的重叠区、PARAGRAPH_TOKEN_OVERLAP 的桥接分块）</li>
+ * </ul>
+ */
+public final class ChunkDeduplicator {
+
+    private static final int SHINGLE_SIZE = 3;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private ChunkDeduplicator() {
+    }
+
+    public static List<VectorDocument> deduplicate(List<VectorDocument> ranked, int limit,
+                                                   int maxHammingDistance, double overlapContainment) {
+        List<Fingerprint> kept = new ArrayList<>();
+        List<VectorDocument> result = new ArrayList<>(Math.min(limit, ranked.size()));
+        for (VectorDocument document : ranked) {
+            if (result.size() >= limit) {
+                break;
+            }
+            Fingerprint candidate = Fingerprint.of(document);
+            if (isDuplicate(candidate, kept, maxHammingDistance, overlapContainment)) {
+                continue;
+            }
+            kept.add(candidate);
+            result.add(document);
+        }
+        return result;
+    }
+
+    private static boolean isDuplicate(Fingerprint candidate, List<Fingerprint> kept,
+                                       int maxHammingDistance, double overlapContainment) {
+        if (candidate.shingles().isEmpty()) {
+            return false;
+        }
+        Set<Long> neighbours = new HashSet<>();
+        for (Fingerprint other : kept) {
+            if (Long.bitCount(candidate.simHash() ^ other.simHash()) <= maxHammingDistance) {
+                return true;
+            }
+            if (candidate.isAdjacentTo(other)) {
+                neighbours.addAll(other.shingles());
+            }
+        }
+        if (neighbours.isEmpty()) {
+            return false;
+        }
+        long covered = candidate.shingles().stream().filter(neighbours::contains).count();
+        return covered >= overlapContainment * candidate.shingles().size();
+    }
+
+    private record Fingerprint(String source, Integer chunkIndex, long simHash, Set<Long> shingles) {
+
+        static Fingerprint of(VectorDocument document) {
+            Set<Long> shingles = ChunkDeduplicator.shingles(document.getContent());
+            return new Fingerprint(sourceOf(document), chunkIndexOf(document.getMetadata()),
+                    ChunkDeduplicator.simHash(shingles), shingles);
+        }
+
+        boolean isAdjacentTo(Fingerprint other) {
+            return chunkIndex != null && other.chunkIndex != null
+                    && Objects.equals(source, other.source)
+                    && Math.abs(chunkIndex - other.chunkIndex) <= 1;
+        }
+    }
+
+    /**
+     * 分块来源：同一知识库内同一文件 / URL 的分块才按 chunkIndex 判断相邻
+     */
+    private static String sourceOf(VectorDocument document) {
+        Map<String, Object> metadata = document.getMetadata();
+        Object origin = metadata == null ? null
+                : metadata.getOrDefault("filename", metadata.getOrDefault("url", metadata.get("source")));
+        return document.getKnowledgeBaseId() + "|" + origin;
+    }
+
+    private static Integer chunkIndexOf(Map<String, Object> metadata) {
+        return metadata != null && metadata.get("chunkIndex") instanceof Number index ? index.intValue() : null;
+    }
+
+    private static Set<Long> shingles(String content) {
+        String text = content == null ? "" : content.toLowerCase().replaceAll("\\s+", " ").trim();
+        Set<Long> shingles = new HashSet<>();
+        if (text.isEmpty()) {
+            return shingles;
+        }
+        if (text.length() <= SHINGLE_SIZE) {
+            shingles.add(hash(text, 0, text.length()));
+            return shingles;
+        }
+        for (int i = 0; i + SHINGLE_SIZE <= text.length(); i++) {
+            shingles.add(hash(text, i, i + SHINGLE_SIZE));
+        }
+        return shingles;
+    }
+
+    private static long simHash(Set<Long> shingles) {
+        int[] weights = new int[Long.SIZE];
+        for (long shingle : shingles) {
+            for (int bit = 0; bit < Long.SIZE; bit++) {
+                weights[bit] += ((shingle >>> bit) & 1L) != 0 ? 1 : -1;
+            }
+        }
+        long simHash = 0L;
+        for (int bit = 0; bit < Long.SIZE; bit++) {
+            if (weights[bit] > 0) {
+                simHash |= 1L << bit;
+            }
+        }
+        return simHash;
+    }
+
+    /**
+     * FNV-1a 64 位哈希
+     */
+    private static long hash(String text, int from, int to) {
+        long hash = FNV_OFFSET;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            hash ^= c & 0xff;
+            hash *= FNV_PRIME;
+            hash ^= c >>> 8;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,58 @@
+package com.aichat.service.vector;
+
+import com.aichat.domain.entity.VectorDocument;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * RAG 上下文的自适应 top-k 选择
+ * 检索结果按排名依次判断，topK 只是上限：
+ * <ul>
+ *   <li>相似度低于 minSimilarity 的丢弃</li>
+ *   <li>相似度低于最高相似度 * (1 - relativeDrop) 的丢弃（得分断崖之后的尾部）</li>
+ *   <li>累计 token 超过 tokenBudget 的跳过</li>
+ * </ul>
+ * 没有向量相似度的文档（全文检索命中）不参与得分判断，只计入 token 预算
+ */
+public final class ContextSelector {
+
+    private ContextSelector() {
+    }
+
+    public static List<VectorDocument> select(List<VectorDocument> ranked, double minSimilarity,
+                                              double relativeDrop, int tokenBudget) {
+        double best = ranked.stream()
+                .map(VectorDocument::getSimilarity)
+                .filter(Objects::nonNull)
+                .mapToDouble(Double::doubleValue)
+                .max()
+                .orElse(Double.NaN);
+        double floor = Double.isNaN(best) ? minSimilarity : Math.max(minSimilarity, best * (1 - relativeDrop));
+
+        List<VectorDocument> selected = new ArrayList<>();
+        int tokens = 0;
+        for (VectorDocument document : ranked) {
+            Double similarity = document.getSimilarity();
+            if (similarity != null && similarity < floor) {
+                continue;
+            }
+            int cost = tokensOf(document);
+            if (tokenBudget > 0 && tokens + cost > tokenBudget) {
+                continue;
+            }
+            tokens += cost;
+            selected.add(document);
+        }
+        return selected;
+    }
+
+    private static int tokensOf(VectorDocument document) {
+        if (document.getTokenCount() != null) {
+            return document.getTokenCount();
+        }
+        // 与写入时相同的估算：中文约1.5字符/token，英文约4字符/token
+        return document.getContent() != null ? (int) (document.getContent().length() / 2.5) : 0;
+    }
+}
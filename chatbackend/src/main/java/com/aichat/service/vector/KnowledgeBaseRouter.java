@@ -0,0 +1,397 @@
+package com.aichat.service.vector;
+
+import com.aichat.domain.entity.VectorDocument;
+import com.aichat.service.embedding.EmbeddingService;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.pgvector.PGvector;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 多知识库检索前的知识库路由
+ * 每个知识库维护一个小型 k-means 草图（最多 sketch-size 个簇，每簇保存向量和与文档数，表 knowledge_base_sketches）：
+ * 写入文档时把新向量归入最近的簇并累加（簇数未满且与已有簇都不相近时开新簇），
+ * 草图缺失或与知识库当前模型不一致时（存量数据、模型重建后）由定时任务抽样重新聚类。
+ * 检索时以查询向量与各簇中心的最大余弦相似度为知识库打分，只检索前 top-m 个知识库；
+ * 与第 top-m 名分差在 ambiguity-margin 内的知识库一并检索，分数接近时自然退化为全部检索。
+ * 没有可用草图的知识库总是参与检索
+ */
+@Service
+@Slf4j
+public class KnowledgeBaseRouter {
+
+    private static final int KMEANS_ITERATIONS = 10;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final VectorPartitionRouter partitionRouter;
+    private final EmbeddingService embeddingService;
+    private final TransactionTemplate transactionTemplate;
+    /**
+     * 文档属于知识库模型的条件；尚未补齐模型标识的历史文档视为知识库记录的模型，
+     * 否则会被抽样与计数漏掉，草图只覆盖部分文档且每个重建周期都被重新扫描
+     */
+    private static final String ON_MODEL = "(embedding_model = ? OR embedding_model IS NULL)";
+
+    private final boolean enabled;
+    private final int minKnowledgeBases;
+    private final int topM;
+    private final double ambiguityMargin;
+    private final int sketchSize;
+    private final double seedSimilarity;
+    private final int rebuildSampleSize;
+
+    /**
+     * 草图的进程内缓存，本节点写入后立即失效，其他节点写入的变化在过期后可见
+     */
+    private final Cache<Long, Sketch> sketches;
+
+    public KnowledgeBaseRouter(JdbcTemplate jdbcTemplate,
+                               VectorPartitionRouter partitionRouter,
+                               EmbeddingService embeddingService,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${app.vector.routing.enabled:false}") boolean enabled,
+                               @Value("${app.vector.routing.min-knowledge-bases:4}") int minKnowledgeBases,
+                               @Value("${app.vector.routing.top-m:3}") int topM,
+                               @Value("${app.vector.routing.ambiguity-margin:0.05}") double ambiguityMargin,
+                               @Value("${app.vector.routing.sketch-size:4}") int sketchSize,
+                               @Value("${app.vector.routing.seed-similarity:0.8}") double seedSimilarity,
+                               @Value("${app.vector.routing.rebuild-sample-size:2000}") int rebuildSampleSize,
+                               @Value("${app.vector.routing.cache-ttl:60s}") Duration cacheTtl) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.partitionRouter = partitionRouter;
+        this.embeddingService = embeddingService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.minKnowledgeBases = Math.max(2, minKnowledgeBases);
+        this.topM = Math.max(1, topM);
+        this.ambiguityMargin = Math.max(0.0, ambiguityMargin);
+        this.sketchSize = Math.max(1, sketchSize);
+        this.seedSimilarity = seedSimilarity;
+        this.rebuildSampleSize = Math.max(this.sketchSize, rebuildSampleSize);
+        this.sketches = Caffeine.newBuilder()
+                .maximumSize(10_000)
+                .expireAfterWrite(cacheTtl)
+                .build();
+    }
+
+    /**
+     * 选出需要检索的知识库（保持传入顺序）；未启用路由或知识库数不超过 min-knowledge-bases 时原样返回
+     *
+     * @param model 查询向量所用的模型，只有草图模型一致的知识库才参与打分
+     */
+    public List<Long> route(List<Long> knowledgeBaseIds, float[] queryEmbedding, String model) {
+        if (!enabled || queryEmbedding == null || knowledgeBaseIds.size() <= Math.max(minKnowledgeBases, topM)) {
+            return knowledgeBaseIds;
+        }
+        Map<Long, Sketch> loaded = sketches.getAll(knowledgeBaseIds, this::load);
+        Map<Long, Double> scores = new HashMap<>();
+        for (Long knowledgeBaseId : knowledgeBaseIds) {
+            Sketch sketch = loaded.get(knowledgeBaseId);
+            if (sketch != null && !sketch.isEmpty() && sketch.model().equals(model)) {
+                scores.put(knowledgeBaseId, sketch.score(queryEmbedding));
+            }
+        }
+        if (scores.size() <= topM) {
+            return knowledgeBaseIds;
+        }
+        List<Double> ranked = scores.values().stream().sorted(Comparator.reverseOrder()).toList();
+        double cutoff = ranked.get(topM - 1) - ambiguityMargin;
+        List<Long> selected = knowledgeBaseIds.stream()
+                .filter(knowledgeBaseId -> !scores.containsKey(knowledgeBaseId) || scores.get(knowledgeBaseId) >= cutoff)
+                .toList();
+        log.debug("知识库路由: candidates={}, selected={}, topScore={}, cutoff={}",
+                knowledgeBaseIds.size(), selected, ranked.get(0), cutoff);
+        return selected;
+    }
+
+    /**
+     * 新文档写入后更新草图，应在写入所在的事务内调用
+     * 知识库还没有草图且已有其他文档时不做增量（草图只覆盖部分文档会误导路由），交给定时重建
+     */
+    public void onDocumentsAdded(Long knowledgeBaseId, String model, List<VectorDocument> documents) {
+        List<float[]> vectors = documents.stream()
+                .filter(document -> document.getEmbedding() != null && model.equals(document.getEmbeddingModel()))
+                .map(VectorDocument::getEmbedding)
+                .toList();
+        if (vectors.isEmpty()) {
+            return;
+        }
+        Sketch sketch = load(List.of(knowledgeBaseId)).get(knowledgeBaseId);
+        if (sketch.isEmpty()) {
+            if (countDocuments(knowledgeBaseId, model) > vectors.size()) {
+                return;
+            }
+        } else if (!sketch.model().equals(model)) {
+            return;
+        }
+
+        List<float[]> centroids = new ArrayList<>(sketch.centroids());
+        Map<Integer, double[]> sums = new LinkedHashMap<>();
+        Map<Integer, Long> counts = new HashMap<>();
+        for (float[] vector : vectors) {
+            int nearest = -1;
+            double best = Double.NEGATIVE_INFINITY;
+            for (int c = 0; c < centroids.size(); c++) {
+                double similarity = cosine(vector, centroids.get(c));
+                if (similarity > best) {
+                    best = similarity;
+                    nearest = c;
+                }
+            }
+            if (nearest < 0 || (centroids.size() < sketchSize && best < seedSimilarity)) {
+                nearest = centroids.size();
+                centroids.add(vector);
+            }
+            add(sums.computeIfAbsent(nearest, c -> new double[vector.length]), vector, 1.0);
+            counts.merge(nearest, 1L, Long::sum);
+        }
+        List<Object[]> args = new ArrayList<>();
+        sums.forEach((cluster, sum) -> args.add(new Object[]{knowledgeBaseId, cluster, model, toPGvector(sum),
+                counts.get(cluster)}));
+        jdbcTemplate.batchUpdate("INSERT INTO knowledge_base_sketches (knowledge_base_id, cluster, embedding_model, " +
+                "vector_sum, doc_count) VALUES (?, ?, ?, ?, ?) ON CONFLICT (knowledge_base_id, cluster) DO UPDATE SET " +
+                "vector_sum = knowledge_base_sketches.vector_sum + EXCLUDED.vector_sum, " +
+                "doc_count = knowledge_base_sketches.doc_count + EXCLUDED.doc_count, updated_at = CURRENT_TIMESTAMP " +
+                "WHERE knowledge_base_sketches.embedding_model = EXCLUDED.embedding_model", args);
+        sketches.invalidate(knowledgeBaseId);
+    }
+
+    public void deleteKnowledgeBase(Long knowledgeBaseId) {
+        jdbcTemplate.update("DELETE FROM knowledge_base_sketches WHERE knowledge_base_id = ?", knowledgeBaseId);
+        sketches.invalidate(knowledgeBaseId);
+    }
+
+    /**
+     * 为没有草图或草图模型与知识库当前模型不一致的知识库重建草图
+     */
+    @Scheduled(fixedDelayString = "${app.vector.routing.rebuild-interval-ms:300000}",
+            initialDelayString = "${app.vector.routing.rebuild-initial-delay-ms:60000}")
+    public void rebuildStale() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            List<Map<String, Object>> stale = jdbcTemplate.queryForList(
+                    "SELECT k.id, coalesce(k.embedding_model, ?) AS model, coalesce(k.embedding_dimension, ?) AS dimension " +
+                    "FROM knowledge_base k WHERE k.deleted_at IS NULL AND NOT EXISTS (" +
+                    "SELECT 1 FROM knowledge_base_sketches s WHERE s.knowledge_base_id = k.id " +
+                    "AND s.embedding_model = coalesce(k.embedding_model, ?))",
+                    embeddingService.currentModel(), VectorDimensions.BASE_DIMENSION, embeddingService.currentModel());
+            for (Map<String, Object> row : stale) {
+                rebuild(((Number) row.get("id")).longValue(), (String) row.get("model"),
+                        ((Number) row.get("dimension")).intValue());
+            }
+        } catch (Exception e) {
+            log.warn("重建知识库路由草图失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 抽样知识库文档向量做 k-means，按抽样比例放大各簇文档数后整体替换草图
+     */
+    public void rebuild(Long knowledgeBaseId, String model, int dimension) {
+        String column = VectorDimensions.columnFor(dimension);
+        List<float[]> sample = new ArrayList<>();
+        for (String table : partitionRouter.readTables(List.of(knowledgeBaseId)).keySet()) {
+            sample.addAll(jdbcTemplate.query("SELECT " + column + " AS embedding FROM " + table +
+                    " WHERE knowledge_base_id = ? AND " + ON_MODEL + " AND " + column + " IS NOT NULL " +
+                    "ORDER BY random() LIMIT ?",
+                    (rs, rowNum) -> rs.getObject("embedding", PGvector.class).toArray(),
+                    knowledgeBaseId, model, rebuildSampleSize));
+        }
+        if (sample.isEmpty()) {
+            return;
+        }
+        long total = countDocuments(knowledgeBaseId, model);
+        double scale = (double) Math.max(total, sample.size()) / sample.size();
+        List<Cluster> clusters = kMeans(sample, Math.min(sketchSize, sample.size()), knowledgeBaseId);
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.update("DELETE FROM knowledge_base_sketches WHERE knowledge_base_id = ?", knowledgeBaseId);
+            List<Object[]> args = new ArrayList<>();
+            for (int c = 0; c < clusters.size(); c++) {
+                double[] sum = clusters.get(c).sum();
+                for (int i = 0; i < sum.length; i++) {
+                    sum[i] *= scale;
+                }
+                args.add(new Object[]{knowledgeBaseId, c, model, toPGvector(sum),
+                        Math.round(clusters.get(c).count() * scale)});
+            }
+            jdbcTemplate.batchUpdate("INSERT INTO knowledge_base_sketches (knowledge_base_id, cluster, " +
+                    "embedding_model, vector_sum, doc_count) VALUES (?, ?, ?, ?, ?)", args);
+        });
+        sketches.invalidate(knowledgeBaseId);
+        log.info("知识库路由草图已重建: knowledgeBaseId={}, model={}, sample={}, clusters={}",
+                knowledgeBaseId, model, sample.size(), clusters.size());
+    }
+
+    private Map<Long, Sketch> load(Collection<? extends Long> knowledgeBaseIds) {
+        Map<Long, String> models = new HashMap<>();
+        Map<Long, List<float[]>> centroids = new HashMap<>();
+        namedParameterJdbcTemplate.query("SELECT knowledge_base_id, embedding_model, vector_sum " +
+                "FROM knowledge_base_sketches WHERE knowledge_base_id IN (:ids) AND doc_count > 0 ORDER BY cluster",
+                new MapSqlParameterSource("ids", knowledgeBaseIds), rs -> {
+                    long knowledgeBaseId = rs.getLong("knowledge_base_id");
+                    models.put(knowledgeBaseId, rs.getString("embedding_model"));
+                    // 余弦相似度与长度无关，向量和即可作为簇中心
+                    centroids.computeIfAbsent(knowledgeBaseId, id -> new ArrayList<>())
+                            .add(rs.getObject("vector_sum", PGvector.class).toArray());
+                });
+        Map<Long, Sketch> loaded = new HashMap<>();
+        for (Long knowledgeBaseId : knowledgeBaseIds) {
+            loaded.put(knowledgeBaseId, models.containsKey(knowledgeBaseId)
+                    ? new Sketch(models.get(knowledgeBaseId), List.copyOf(centroids.get(knowledgeBaseId)))
+                    : Sketch.EMPTY);
+        }
+        return loaded;
+    }
+
+    private long countDocuments(Long knowledgeBaseId, String model) {
+        long total = 0;
+        for (String table : partitionRouter.readTables(List.of(knowledgeBaseId)).keySet()) {
+            Long count = jdbcTemplate.queryForObject("SELECT count(*) FROM " + table +
+                    " WHERE knowledge_base_id = ? AND " + ON_MODEL, Long.class, knowledgeBaseId, model);
+            total += count != null ? count : 0L;
+        }
+        return total;
+    }
+
+    /**
+     * 球面 k-means（按余弦相似度分配），初始中心按 k-means++ 选取
+     */
+    private static List<Cluster> kMeans(List<float[]> vectors, int k, long seed) {
+        Random random = new Random(seed);
+        List<float[]> centers = new ArrayList<>();
+        centers.add(vectors.get(random.nextInt(vectors.size())));
+        double[] distances = new double[vectors.size()];
+        while (centers.size() < k) {
+            double total = 0.0;
+            for (int i = 0; i < vectors.size(); i++) {
+                double nearest = Double.MAX_VALUE;
+                for (float[] center : centers) {
+                    nearest = Math.min(nearest, 1.0 - cosine(vectors.get(i), center));
+                }
+                distances[i] = Math.max(0.0, nearest) * Math.max(0.0, nearest);
+                total += distances[i];
+            }
+            if (total <= 0.0) {
+                break;
+            }
+            double target = random.nextDouble() * total;
+            int chosen = 0;
+            for (double cumulative = distances[0]; cumulative < target && chosen < vectors.size() - 1; ) {
+                cumulative += distances[++chosen];
+            }
+            centers.add(vectors.get(chosen));
+        }
+
+        int dimension = vectors.get(0).length;
+        List<Cluster> clusters = List.of();
+        for (int iteration = 0; iteration < KMEANS_ITERATIONS; iteration++) {
+            List<Cluster> next = new ArrayList<>();
+            for (int c = 0; c < centers.size(); c++) {
+                next.add(new Cluster(new double[dimension], new long[1]));
+            }
+            for (float[] vector : vectors) {
+                int nearest = 0;
+                double best = Double.NEGATIVE_INFINITY;
+                for (int c = 0; c < centers.size(); c++) {
+                    double similarity = cosine(vector, centers.get(c));
+                    if (similarity > best) {
+                        best = similarity;
+                        nearest = c;
+                    }
+                }
+                add(next.get(nearest).sum(), vector, 1.0);
+                next.get(nearest).counter()[0]++;
+            }
+            List<float[]> moved = new ArrayList<>();
+            for (int c = 0; c < next.size(); c++) {
+                moved.add(next.get(c).count() > 0 ? toFloats(next.get(c).sum()) : centers.get(c));
+            }
+            centers = moved;
+            clusters = next;
+        }
+        return clusters.stream().filter(cluster -> cluster.count() > 0).toList();
+    }
+
+    private static void add(double[] sum, float[] vector, double weight) {
+        for (int i = 0; i < Math.min(sum.length, vector.length); i++) {
+            sum[i] += weight * vector[i];
+        }
+    }
+
+    private static float[] toFloats(double[] values) {
+        float[] floats = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            floats[i] = (float) values[i];
+        }
+        return floats;
+    }
+
+    private static PGvector toPGvector(double[] values) {
+        return new PGvector(toFloats(values));
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        if (a.length != b.length) {
+            return -1.0;
+        }
+        double dot = 0.0;
+        double normA = 0.0;
+        double normB = 0.0;
+        for (int i = 0; i < a.length; i++) {
+            dot += (double) a[i] * b[i];
+            normA += (double) a[i] * a[i];
+            normB += (double) b[i] * b[i];
+        }
+        double denominator = Math.sqrt(normA) * Math.sqrt(normB);
+        return denominator > 0.0 ? dot / denominator : 0.0;
+    }
+
+    private record Cluster(double[] sum, long[] counter) {
+
+        long count() {
+            return counter[0];
+        }
+    }
+
+    /**
+     * 知识库的草图：各簇中心（向量和），没有草图时为 EMPTY
+     */
+    private record Sketch(String model, List<float[]> centroids) {
+
+        static final Sketch EMPTY = new Sketch(null, List.of());
+
+        boolean isEmpty() {
+            return centroids.isEmpty();
+        }
+
+        double score(float[] query) {
+            double best = -1.0;
+            for (float[] centroid : centroids) {
+                best = Math.max(best, cosine(query, centroid));
+            }
+            return best;
+        }
+    }
+}
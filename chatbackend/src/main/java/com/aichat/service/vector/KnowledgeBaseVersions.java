@@ -0,0 +1,58 @@
+package com.aichat.service.vector;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 知识库内容版本（数据库中按知识库递增的计数器）
+ * 写入文档、切换模型的事务内递增，与数据变更同时提交；进程内索引（HnswVectorSearchEngine）
+ * 以 (模型, 版本) 判断自己的图与快照是否落后于数据库，其他节点的写入也能被感知。
+ * 计数器放在独立的表中：写入事务对 knowledge_base 行持有共享锁，在同一行上递增会与并发写入互相死锁
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class KnowledgeBaseVersions {
+
+    /**
+     * 知识库当前的嵌入模型与内容版本
+     */
+    public record Version(String model, long version) {
+    }
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * 递增知识库的内容版本，应在修改文档的事务内、尽量靠后调用（计数器行锁持有到事务提交）
+     */
+    public void bump(Long knowledgeBaseId) {
+        jdbcTemplate.update("INSERT INTO knowledge_base_versions (knowledge_base_id, version) VALUES (:id, 1) " +
+                "ON CONFLICT (knowledge_base_id) DO UPDATE SET version = knowledge_base_versions.version + 1",
+                new MapSqlParameterSource("id", knowledgeBaseId));
+    }
+
+    /**
+     * 读取知识库的模型与版本；已删除的知识库不在结果中
+     */
+    public Map<Long, Version> read(Collection<Long> knowledgeBaseIds) {
+        Map<Long, Version> versions = new HashMap<>();
+        if (knowledgeBaseIds.isEmpty()) {
+            return versions;
+        }
+        jdbcTemplate.query("SELECT k.id, k.embedding_model, coalesce(v.version, 0) AS version FROM knowledge_base k " +
+                "LEFT JOIN knowledge_base_versions v ON v.knowledge_base_id = k.id " +
+                "WHERE k.id IN (:ids) AND k.deleted_at IS NULL",
+                new MapSqlParameterSource("ids", knowledgeBaseIds),
+                rs -> {
+                    versions.put(rs.getLong("id"), new Version(rs.getString("embedding_model"), rs.getLong("version")));
+                });
+        return versions;
+    }
+}
@@ -0,0 +1,76 @@
+package com.aichat.service.vector;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 全文检索列与索引管理
+ * vector_documents.lexical 为 tsvector 列，由写入方按 LexicalTokenizer 的规则生成，
+ * 列由 SchemaInitializer 创建，这里在启动后异步创建 GIN 索引并回填历史数据
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class LexicalIndexService {
+
+    private static final String INDEX_NAME = "idx_vector_documents_lexical";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${app.vector.lexical.backfill-batch-size:500}")
+    private int backfillBatchSize;
+
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        try {
+            Integer count = jdbcTemplate.queryForObject(
+                    "SELECT count(*) FROM pg_indexes WHERE tablename = 'vector_documents' AND indexname = ?",
+                    Integer.class, INDEX_NAME);
+            if (count == null || count == 0) {
+                long start = System.currentTimeMillis();
+                jdbcTemplate.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS " + INDEX_NAME +
+                        " ON vector_documents USING gin (lexical)");
+                log.info("全文检索索引构建完成: {}, 耗时{}ms", INDEX_NAME, System.currentTimeMillis() - start);
+            }
+            backfill();
+        } catch (Exception e) {
+            log.warn("全文检索索引初始化失败，混合检索将只返回向量结果: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 为 lexical 为空的历史数据分批生成全文检索向量
+     */
+    public void backfill() {
+        int batchSize = Math.max(1, backfillBatchSize);
+        long total = 0;
+        while (true) {
+            List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                    "SELECT id, content FROM vector_documents WHERE lexical IS NULL ORDER BY id LIMIT ?", batchSize);
+            if (rows.isEmpty()) {
+                break;
+            }
+            List<Object[]> args = new ArrayList<>(rows.size());
+            for (Map<String, Object> row : rows) {
+                args.add(new Object[]{LexicalTokenizer.toSearchText((String) row.get("content")), row.get("id")});
+            }
+            jdbcTemplate.batchUpdate(
+                    "UPDATE vector_documents SET lexical = to_tsvector('simple', ?) WHERE id = ?", args);
+            total += rows.size();
+        }
+        if (total > 0) {
+            log.info("全文检索数据回填完成: rows={}", total);
+        }
+    }
+}
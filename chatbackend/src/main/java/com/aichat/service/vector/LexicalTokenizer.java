@@ -0,0 +1,119 @@
+package com.aichat.service.vector;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 全文检索分词
+ * 拉丁字母与数字按连续字母数字切词并转小写（保留产品编号、标识符等完整词），
+ * 中日韩文字按相邻二元组（bigram）切分，无需词典即可匹配任意中文词语。
+ * 写入时生成 tsvector 的输入文本，检索时生成 tsquery，两端使用同一套规则
+ */
+public final class LexicalTokenizer {
+
+    private static final int MAX_TOKEN_LENGTH = 64;
+
+    private LexicalTokenizer() {
+    }
+
+    /**
+     * 切分文本为检索词（按出现顺序，可重复）
+     */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        StringBuilder word = new StringBuilder();
+        int previousCjk = -1;
+        int cjkRunLength = 0;
+
+        for (int i = 0; i < normalized.length(); ) {
+            int codePoint = normalized.codePointAt(i);
+            i += Character.charCount(codePoint);
+
+            if (isCjk(codePoint)) {
+                flushWord(word, tokens);
+                if (previousCjk >= 0) {
+                    tokens.add(new StringBuilder().appendCodePoint(previousCjk).appendCodePoint(codePoint).toString());
+                }
+                previousCjk = codePoint;
+                cjkRunLength++;
+                continue;
+            }
+            flushCjk(previousCjk, cjkRunLength, tokens);
+            previousCjk = -1;
+            cjkRunLength = 0;
+
+            if (Character.isLetterOrDigit(codePoint)) {
+                if (word.length() < MAX_TOKEN_LENGTH) {
+                    word.appendCodePoint(codePoint);
+                }
+            } else {
+                flushWord(word, tokens);
+            }
+        }
+        flushCjk(previousCjk, cjkRunLength, tokens);
+        flushWord(word, tokens);
+        return tokens;
+    }
+
+    /**
+     * 生成写入 to_tsvector('simple', ...) 的文本
+     */
+    public static String toSearchText(String text) {
+        return String.join(" ", tokenize(text));
+    }
+
+    /**
+     * 生成 to_tsquery('simple', ...) 的查询串，各词以 OR 连接；无可用词时返回 null
+     * 词只包含字母与数字，可以安全地作为带引号的词位
+     */
+    public static String toTsQuery(String text) {
+        Set<String> terms = new LinkedHashSet<>(tokenize(text));
+        if (terms.isEmpty()) {
+            return null;
+        }
+        StringBuilder query = new StringBuilder();
+        for (String term : terms) {
+            if (query.length() > 0) {
+                query.append(" | ");
+            }
+            query.append('\'').append(term).append('\'');
+        }
+        return query.toString();
+    }
+
+    public static boolean isCjk(int codePoint) {
+        // 韩文字母（U+1100）以下没有中日韩文字，跳过脚本查表
+        if (codePoint < 0x1100) {
+            return false;
+        }
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+
+    /**
+     * 单个汉字构成的片段没有二元组，保留为单字词
+     */
+    private static void flushCjk(int previousCjk, int runLength, List<String> tokens) {
+        if (runLength == 1) {
+            tokens.add(new StringBuilder().appendCodePoint(previousCjk).toString());
+        }
+    }
+
+    private static void flushWord(StringBuilder word, List<String> tokens) {
+        if (word.length() > 0) {
+            tokens.add(word.toString());
+            word.setLength(0);
+        }
+    }
+}
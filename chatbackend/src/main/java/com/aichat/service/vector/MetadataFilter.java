@@ -0,0 +1,171 @@
+package com.aichat.service.vector;
+
+import com.aichat.exception.BusinessException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * 检索时的文档元数据过滤条件（各条件之间为 AND）
+ * 请求中以 JSON 对象给出，键为元数据字段名（如 filename、source、url、splitStrategy、chunkIndex）：
+ * <ul>
+ *   <li>标量：等于，如 {"source": "FILE"}</li>
+ *   <li>数组：等于其中之一，如 {"filename": ["a.pdf", "b.pdf"]}</li>
+ *   <li>对象：{"eq": v}、{"in": [...]} 或数值范围 {"gte": 0, "lt": 3}（gt / gte / lt / lte）</li>
+ * </ul>
+ * 等于与其中之一在数据库中转换为 metadata @> 包含查询，可使用 metadata 上的 GIN 索引
+ */
+public final class MetadataFilter {
+
+    private static final Pattern KEY_PATTERN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]{0,63}");
+    private static final Set<String> RANGE_OPERATORS = Set.of("gt", "gte", "lt", "lte");
+    private static final int MAX_CONDITIONS = 8;
+    private static final int MAX_VALUES = 100;
+
+    public enum Operator {
+        EQ, IN, RANGE
+    }
+
+    /**
+     * @param values EQ 为单个值，IN 为候选值列表，RANGE 为空
+     * @param bounds RANGE 的边界（gt / gte / lt / lte → 数值），其他为空
+     */
+    public record Condition(String key, Operator operator, List<Object> values, Map<String, Double> bounds) {
+    }
+
+    private final List<Condition> conditions;
+
+    private MetadataFilter(List<Condition> conditions) {
+        this.conditions = List.copyOf(conditions);
+    }
+
+    /**
+     * 解析请求中的过滤条件，为空时返回 null
+     */
+    public static MetadataFilter of(Map<String, Object> raw) {
+        if (raw == null || raw.isEmpty()) {
+            return null;
+        }
+        if (raw.size() > MAX_CONDITIONS) {
+            throw new BusinessException("过滤条件不能超过" + MAX_CONDITIONS + "个");
+        }
+        List<Condition> conditions = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : raw.entrySet()) {
+            String key = entry.getKey();
+            if (key == null || !KEY_PATTERN.matcher(key).matches()) {
+                throw new BusinessException("过滤字段名不合法: " + key);
+            }
+            conditions.add(parseCondition(key, entry.getValue()));
+        }
+        conditions.sort(Comparator.comparing(Condition::key));
+        return new MetadataFilter(conditions);
+    }
+
+    public List<Condition> getConditions() {
+        return conditions;
+    }
+
+    /**
+     * 在内存中判断文档元数据是否满足条件（进程内检索引擎使用），语义与数据库查询一致
+     */
+    public boolean matches(Map<String, Object> metadata) {
+        for (Condition condition : conditions) {
+            Object value = metadata != null ? metadata.get(condition.key()) : null;
+            boolean matched = switch (condition.operator()) {
+                case EQ, IN -> value != null && condition.values().stream().anyMatch(v -> sameValue(v, value));
+                case RANGE -> value instanceof Number number && inRange(number.doubleValue(), condition.bounds());
+            };
+            if (!matched) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 规范化的条件描述，用作检索结果缓存键的一部分
+     */
+    public String cacheKey() {
+        return conditions.stream()
+                .map(condition -> condition.key() + ":" + condition.operator()
+                        + (condition.operator() == Operator.RANGE ? condition.bounds() : condition.values()))
+                .collect(Collectors.joining(";"));
+    }
+
+    @Override
+    public String toString() {
+        return cacheKey();
+    }
+
+    private static Condition parseCondition(String key, Object value) {
+        if (value instanceof List<?> list) {
+            return new Condition(key, Operator.IN, scalars(key, list), Map.of());
+        }
+        if (value instanceof Map<?, ?> map) {
+            if (map.size() == 1 && map.containsKey("eq")) {
+                return new Condition(key, Operator.EQ, List.of(scalar(key, map.get("eq"))), Map.of());
+            }
+            if (map.size() == 1 && map.containsKey("in") && map.get("in") instanceof List<?> list) {
+                return new Condition(key, Operator.IN, scalars(key, list), Map.of());
+            }
+            Map<String, Double> bounds = new TreeMap<>();
+            for (Map.Entry<?, ?> bound : map.entrySet()) {
+                if (!RANGE_OPERATORS.contains(String.valueOf(bound.getKey()))
+                        || !(bound.getValue() instanceof Number number)) {
+                    throw new BusinessException("过滤条件不合法: " + key);
+                }
+                bounds.put(String.valueOf(bound.getKey()), number.doubleValue());
+            }
+            if (bounds.isEmpty()) {
+                throw new BusinessException("过滤条件不合法: " + key);
+            }
+            return new Condition(key, Operator.RANGE, List.of(), Collections.unmodifiableMap(bounds));
+        }
+        return new Condition(key, Operator.EQ, List.of(scalar(key, value)), Map.of());
+    }
+
+    private static List<Object> scalars(String key, List<?> list) {
+        if (list.isEmpty() || list.size() > MAX_VALUES) {
+            throw new BusinessException("过滤条件的候选值数量应在1到" + MAX_VALUES + "之间: " + key);
+        }
+        return list.stream().map(value -> scalar(key, value)).toList();
+    }
+
+    private static Object scalar(String key, Object value) {
+        if (value instanceof String || value instanceof Number || value instanceof Boolean) {
+            return value;
+        }
+        throw new BusinessException("过滤条件的值只能是字符串、数值或布尔值: " + key);
+    }
+
+    private static boolean sameValue(Object expected, Object actual) {
+        if (expected instanceof Number a && actual instanceof Number b) {
+            return Double.compare(a.doubleValue(), b.doubleValue()) == 0;
+        }
+        return Objects.equals(expected, actual);
+    }
+
+    private static boolean inRange(double value, Map<String, Double> bounds) {
+        for (Map.Entry<String, Double> bound : bounds.entrySet()) {
+            double limit = bound.getValue();
+            boolean ok = switch (bound.getKey()) {
+                case "gt" -> value > limit;
+                case "gte" -> value >= limit;
+                case "lt" -> value < limit;
+                default -> value <= limit;
+            };
+            if (!ok) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
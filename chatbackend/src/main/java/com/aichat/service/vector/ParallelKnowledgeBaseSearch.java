@@ -0,0 +1,135 @@
+package com.aichat.service.vector;
+
+import com.aichat.domain.entity.VectorDocument;
+import com.aichat.exception.BusinessException;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * 多知识库并行检索
+ * 每个知识库单独检索（可命中该知识库自己的索引/分区，且结果缓存按知识库失效），
+ * 在有界线程池上并发执行，最后按相似度做 k 路堆合并。
+ * 每个任务在独立的只读事务中执行，召回档位参数（set_config(..., true)）只作用于该事务
+ */
+@Component
+@Slf4j
+public class ParallelKnowledgeBaseSearch {
+
+    private static final Comparator<VectorDocument> BY_SIMILARITY = Comparator.comparing(
+            VectorDocument::getSimilarity, Comparator.nullsLast(Comparator.reverseOrder()));
+
+    private final TransactionTemplate readOnlyTransaction;
+    private final ThreadPoolTaskExecutor executor;
+    private final Duration timeout;
+
+    public ParallelKnowledgeBaseSearch(PlatformTransactionManager transactionManager,
+                                       @Value("${app.vector.search.parallelism:8}") int parallelism,
+                                       @Value("${app.vector.search.timeout:10s}") Duration timeout) {
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.timeout = timeout;
+
+        this.executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(Math.max(1, parallelism));
+        executor.setMaxPoolSize(Math.max(1, parallelism));
+        executor.setQueueCapacity(Math.max(1, parallelism) * 16);
+        executor.setThreadNamePrefix("vector-search-");
+        // 队列满时由调用线程执行，相当于退化为串行检索而不是拒绝请求
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+    }
+
+    /**
+     * 并发执行各知识库的检索任务，结果顺序与 tasks 一致
+     */
+    public List<List<VectorDocument>> searchEach(List<Supplier<List<VectorDocument>>> tasks) {
+        if (tasks.size() == 1) {
+            List<VectorDocument> results = readOnlyTransaction.execute(status -> tasks.get(0).get());
+            return List.of(results);
+        }
+        List<CompletableFuture<List<VectorDocument>>> futures = new ArrayList<>(tasks.size());
+        for (Supplier<List<VectorDocument>> task : tasks) {
+            futures.add(CompletableFuture.supplyAsync(
+                    () -> readOnlyTransaction.execute(status -> task.get()), executor));
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                    .get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw new BusinessException("知识库检索超时");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BusinessException("知识库检索被中断");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new BusinessException("知识库检索失败: " + cause.getMessage());
+        }
+        return futures.stream().map(CompletableFuture::join).toList();
+    }
+
+    /**
+     * k 路堆合并：各路结果已按相似度降序，堆中只保留每路的当前头部元素，
+     * 取满 limit 条即停止，复杂度 O(limit * log k)
+     */
+    public static List<VectorDocument> mergeBySimilarity(List<List<VectorDocument>> rankings, int limit) {
+        PriorityQueue<Cursor> heap = new PriorityQueue<>(Math.max(1, rankings.size()),
+                (a, b) -> BY_SIMILARITY.compare(a.head(), b.head()));
+        for (List<VectorDocument> ranking : rankings) {
+            if (!ranking.isEmpty()) {
+                heap.add(new Cursor(ranking));
+            }
+        }
+        List<VectorDocument> merged = new ArrayList<>(limit);
+        while (merged.size() < limit && !heap.isEmpty()) {
+            Cursor cursor = heap.poll();
+            merged.add(cursor.head());
+            if (cursor.advance()) {
+                heap.add(cursor);
+            }
+        }
+        return merged;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static final class Cursor {
+        private final List<VectorDocument> ranking;
+        private int position;
+
+        private Cursor(List<VectorDocument> ranking) {
+            this.ranking = ranking;
+        }
+
+        private VectorDocument head() {
+            return ranking.get(position);
+        }
+
+        private boolean advance() {
+            return ++position < ranking.size();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.aichat.service.vector;
+
+import com.aichat.domain.entity.VectorDocument;
+import com.aichat.repository.VectorDocumentRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 基于 pgvector 的检索引擎（默认）
+ * 数据写入由 VectorDocumentRepository 完成，索引由 VectorIndexService 管理；
+ * 开启 app.vector.sparse.enabled 时改为在 sparse_embedding 列上做稀疏向量检索
+ */
+@Component
+@ConditionalOnProperty(name = "app.vector.engine", havingValue = "pgvector", matchIfMissing = true)
+@RequiredArgsConstructor
+public class PgVectorSearchEngine implements VectorSearchEngine {
+    
+    private final VectorDocumentRepository vectorDocumentRepository;
+    private final VectorIndexService vectorIndexService;
+    
+    @Value("${app.vector.sparse.enabled:false}")
+    private boolean sparseEnabled;
+    
+    @Override
+    public String getName() {
+        return "pgvector";
+    }
+    
+    @Override
+    public void index(List<VectorDocument> documents) {
+        // 行已写入 vector_documents，ANN 索引由数据库维护；这里只刷新文档数估算
+        documents.stream()
+                .map(VectorDocument::getKnowledgeBaseId)
+                .distinct()
+                .forEach(vectorIndexService::invalidateDocumentCount);
+    }
+    
+    @Override
+    public void deleteKnowledgeBase(Long knowledgeBaseId) {
+        vectorIndexService.invalidateDocumentCount(knowledgeBaseId);
+    }
+    
+    @Override
+    public List<VectorDocument> search(Collection<Long> knowledgeBaseIds, float[] queryEmbedding, int limit,
+                                       RecallProfile profile, MetadataFilter filter) {
+        if (sparseEnabled) {
+            return vectorDocumentRepository.findSimilarDocumentsSparse(
+                    new ArrayList<>(knowledgeBaseIds), queryEmbedding, limit, filter);
+        }
+        // 需在调用方事务内执行，检索参数通过 set_config(..., true) 仅作用于当前事务
+        if (filter != null) {
+            boolean exact = vectorIndexService.applyFilteredSearchTuning(
+                    knowledgeBaseIds, queryEmbedding.length, limit, profile, filter);
+            return vectorDocumentRepository.findSimilarDocumentsInMultipleKBs(
+                    new ArrayList<>(knowledgeBaseIds), queryEmbedding, limit, exact, filter);
+        }
+        boolean exact = vectorIndexService.applySearchTuning(knowledgeBaseIds, queryEmbedding.length, limit, profile);
+        if (knowledgeBaseIds.size() == 1) {
+            return vectorDocumentRepository.findSimilarDocuments(
+                    knowledgeBaseIds.iterator().next(), queryEmbedding, limit, exact);
+        }
+        return vectorDocumentRepository.findSimilarDocumentsInMultipleKBs(
+                new ArrayList<>(knowledgeBaseIds), queryEmbedding, limit, exact);
+    }
+}
@@ -0,0 +1,40 @@
+package com.aichat.service.vector;
+
+/**
+ * 向量检索的延迟/召回档位
+ * 档位决定 ANN 索引的搜索宽度：hnsw.ef_search 与 ivfflat.probes
+ */
+public enum RecallProfile {
+    /**
+     * 低延迟，召回略低
+     */
+    FAST(40, 1),
+    /**
+     * 延迟与召回折中（默认）
+     */
+    BALANCED(100, 10),
+    /**
+     * 高召回，延迟更高
+     */
+    ACCURATE(400, 40),
+    /**
+     * 不走 ANN 索引，精确扫描
+     */
+    EXACT(0, 0);
+    
+    private final int efSearch;
+    private final int probes;
+    
+    RecallProfile(int efSearch, int probes) {
+        this.efSearch = efSearch;
+        this.probes = probes;
+    }
+    
+    public int getEfSearch() {
+        return efSearch;
+    }
+    
+    public int getProbes() {
+        return probes;
+    }
+}
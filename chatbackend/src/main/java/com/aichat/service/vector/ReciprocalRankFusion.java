@@ -0,0 +1,49 @@
+package com.aichat.service.vector;
+
+import com.aichat.domain.entity.VectorDocument;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 倒数排名融合（Reciprocal Rank Fusion）
+ * 文档得分为其在各路结果中 1 / (k + rank) 之和，只依赖排名，
+ * 不需要把余弦相似度与 ts_rank 归一化到同一尺度
+ */
+public final class ReciprocalRankFusion {
+
+    private ReciprocalRankFusion() {
+    }
+
+    public static List<VectorDocument> fuse(List<List<VectorDocument>> rankings, int k, int limit) {
+        Map<Long, Candidate> candidates = new LinkedHashMap<>();
+        for (List<VectorDocument> ranking : rankings) {
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                VectorDocument document = ranking.get(rank);
+                double score = 1.0 / (k + rank + 1);
+                candidates.computeIfAbsent(document.getId(), id -> new Candidate(document)).score += score;
+            }
+        }
+        List<Candidate> sorted = new ArrayList<>(candidates.values());
+        // 稳定排序：同分时保持先出现（向量结果在前）的顺序
+        sorted.sort(Comparator.comparingDouble((Candidate c) -> c.score).reversed());
+
+        List<VectorDocument> fused = new ArrayList<>(Math.min(limit, sorted.size()));
+        for (int i = 0; i < sorted.size() && i < limit; i++) {
+            fused.add(sorted.get(i).document);
+        }
+        return fused;
+    }
+
+    private static final class Candidate {
+        private final VectorDocument document;
+        private double score;
+
+        private Candidate(VectorDocument document) {
+            this.document = document;
+        }
+    }
+}
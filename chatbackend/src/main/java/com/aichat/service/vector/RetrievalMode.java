@@ -0,0 +1,19 @@
+package com.aichat.service.vector;
+
+/**
+ * 检索方式
+ */
+public enum RetrievalMode {
+    /**
+     * 仅向量检索
+     */
+    VECTOR,
+    /**
+     * 仅全文检索（tsvector + GIN）
+     */
+    LEXICAL,
+    /**
+     * 全文检索与向量检索并行，按倒数排名融合（RRF）
+     */
+    HYBRID
+}
@@ -0,0 +1,194 @@
+package com.aichat.service.vector;
+
+import com.aichat.domain.entity.VectorDocument;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 检索结果缓存
+ * 缓存键包含检索涉及的每个知识库的当前版本号、查询向量摘要、topK 以及检索选项（召回档位、检索方式等）。
+ * 知识库写入或删除时只需递增该知识库的版本号，旧结果因键不再匹配而不会被读到，
+ * 随后由容量与 TTL 自然淘汰，无需扫描或清空整个缓存
+ */
+@Component
+@Slf4j
+public class RetrievalResultCache {
+
+    private static final String REDIS_VERSION_PREFIX = "vector:kb-version:";
+    private static final int DOCUMENT_OVERHEAD_BYTES = 128;
+
+    private final StringRedisTemplate redisTemplate;
+    private final boolean enabled;
+    private final boolean sharedVersions;
+    private final Cache<String, List<VectorDocument>> results;
+    private final Map<Long, AtomicLong> localVersions = new ConcurrentHashMap<>();
+
+    public RetrievalResultCache(StringRedisTemplate redisTemplate,
+                                MeterRegistry meterRegistry,
+                                @Value("${app.vector.result-cache.enabled:true}") boolean enabled,
+                                @Value("${app.vector.result-cache.max-bytes:33554432}") long maxBytes,
+                                @Value("${app.vector.result-cache.ttl:10m}") Duration ttl,
+                                @Value("${app.vector.result-cache.shared-versions:false}") boolean sharedVersions) {
+        this.redisTemplate = redisTemplate;
+        this.enabled = enabled;
+        this.sharedVersions = sharedVersions;
+        this.results = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String key, List<VectorDocument> value) -> weigh(key, value))
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, results, "retrievalResult");
+    }
+
+    /**
+     * 读取检索结果，未命中时执行 loader 并缓存
+     *
+     * @param queryEmbedding 查询向量，纯全文检索时可为 null
+     * @param options        影响结果的其他检索选项，需能唯一表示这些选项
+     */
+    public List<VectorDocument> get(Collection<Long> knowledgeBaseIds, float[] queryEmbedding, int limit,
+                                    String options, Supplier<List<VectorDocument>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        String key = buildKey(knowledgeBaseIds, queryEmbedding, limit, options);
+        if (key == null) {
+            return loader.get();
+        }
+        List<VectorDocument> cached = results.getIfPresent(key);
+        if (cached != null) {
+            return copyOf(cached);
+        }
+        List<VectorDocument> loaded = loader.get();
+        results.put(key, copyOf(loaded));
+        return loaded;
+    }
+
+    /**
+     * 知识库内容变化后递增版本号
+     * 处于事务中时在提交后递增，避免并发检索在提交前读到旧数据却以新版本号写入缓存
+     */
+    public void bumpVersion(Long knowledgeBaseId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    incrementVersion(knowledgeBaseId);
+                }
+            });
+        } else {
+            incrementVersion(knowledgeBaseId);
+        }
+    }
+
+    private void incrementVersion(Long knowledgeBaseId) {
+        localVersions.computeIfAbsent(knowledgeBaseId, id -> new AtomicLong()).incrementAndGet();
+        if (sharedVersions) {
+            try {
+                redisTemplate.opsForValue().increment(REDIS_VERSION_PREFIX + knowledgeBaseId);
+            } catch (Exception e) {
+                // 共享版本号写失败时其他节点可能读到旧结果，依赖 TTL 兜底
+                log.warn("递增知识库版本号失败: knowledgeBaseId={}, error={}", knowledgeBaseId, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 构建缓存键，共享版本号读取失败时返回 null（本次不走缓存）
+     */
+    private String buildKey(Collection<Long> knowledgeBaseIds, float[] queryEmbedding, int limit, String options) {
+        List<Long> ids = new ArrayList<>(new TreeSet<>(knowledgeBaseIds));
+        List<String> versions = readVersions(ids);
+        if (versions == null) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < ids.size(); i++) {
+            key.append(ids.get(i)).append('@').append(versions.get(i)).append(',');
+        }
+        return key.append('|').append(digest(queryEmbedding))
+                .append('|').append(limit)
+                .append('|').append(options)
+                .toString();
+    }
+
+    private List<String> readVersions(List<Long> ids) {
+        List<String> versions = new ArrayList<>(ids.size());
+        if (sharedVersions) {
+            try {
+                List<String> shared = redisTemplate.opsForValue()
+                        .multiGet(ids.stream().map(id -> REDIS_VERSION_PREFIX + id).toList());
+                if (shared == null) {
+                    return null;
+                }
+                for (String version : shared) {
+                    versions.add(version != null ? version : "0");
+                }
+                return versions;
+            } catch (Exception e) {
+                log.debug("读取知识库版本号失败，跳过结果缓存: {}", e.getMessage());
+                return null;
+            }
+        }
+        for (Long id : ids) {
+            AtomicLong version = localVersions.get(id);
+            versions.add(String.valueOf(version != null ? version.get() : 0L));
+        }
+        return versions;
+    }
+
+    private static String digest(float[] embedding) {
+        if (embedding == null) {
+            return "-";
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(embedding.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(embedding);
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(buffer.array()));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static List<VectorDocument> copyOf(List<VectorDocument> documents) {
+        List<VectorDocument> copies = new ArrayList<>(documents.size());
+        for (VectorDocument document : documents) {
+            copies.add(document.toBuilder().build());
+        }
+        return copies;
+    }
+
+    private static int weigh(String key, List<VectorDocument> documents) {
+        long bytes = key.length() * 2L;
+        for (VectorDocument document : documents) {
+            bytes += DOCUMENT_OVERHEAD_BYTES;
+            bytes += document.getContent() != null ? document.getContent().length() * 2L : 0;
+            bytes += document.getEmbedding() != null ? (long) document.getEmbedding().length * Float.BYTES : 0;
+        }
+        return (int) Math.min(bytes, Integer.MAX_VALUE);
+    }
+}
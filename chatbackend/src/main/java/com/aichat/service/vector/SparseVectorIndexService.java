@@ -0,0 +1,79 @@
+package com.aichat.service.vector;
+
+import com.aichat.service.embedding.EmbeddingService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * 稀疏向量列管理（pgvector 0.7+ 的 sparsevec 类型）
+ * 哈希嵌入每个词只命中少数维度，稠密 vector(1536) 几乎全是零；
+ * 开启 app.vector.sparse.enabled 后，SchemaInitializer 补齐 sparse_embedding 列，这里把历史数据由稠密向量转换回填。
+ * 只有本地哈希模型的向量是稀疏的，远程模型的向量不转换，检索时按稠密列计算
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SparseVectorIndexService {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final VectorDimensions vectorDimensions;
+
+    @Value("${app.vector.sparse.enabled:false}")
+    private boolean sparseEnabled;
+
+    @Value("${app.vector.sparse.dense-copy:true}")
+    private boolean denseCopy;
+
+    @Value("${app.vector.sparse.backfill-batch-size:1000}")
+    private int backfillBatchSize;
+
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!sparseEnabled) {
+            return;
+        }
+        try {
+            backfill();
+        } catch (Exception e) {
+            log.warn("稀疏向量回填失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 分批把本地哈希模型的稠密向量转换为稀疏向量；关闭 dense-copy 时同时清空这些文档的稠密列
+     */
+    public void backfill() {
+        List<String> columns = vectorDimensions.getSupportedDimensions().stream()
+                .map(VectorDimensions::columnFor)
+                .toList();
+        String dense = columns.size() == 1 ? columns.get(0) : "COALESCE(" + String.join(", ", columns) + ")";
+        StringBuilder sql = new StringBuilder("UPDATE vector_documents SET sparse_embedding = CAST(")
+                .append(dense).append(" AS sparsevec)");
+        if (!denseCopy) {
+            for (String column : columns) {
+                sql.append(", ").append(column).append(" = NULL");
+            }
+        }
+        sql.append(" WHERE id IN (SELECT id FROM vector_documents WHERE sparse_embedding IS NULL AND ")
+                .append(dense).append(" IS NOT NULL AND embedding_model LIKE ? LIMIT ?)");
+        int batchSize = Math.max(1, backfillBatchSize);
+        long total = 0;
+        int updated;
+        do {
+            updated = jdbcTemplate.update(sql.toString(), EmbeddingService.SIMPLE_MODEL + "@%", batchSize);
+            total += updated;
+        } while (updated > 0);
+        if (total > 0) {
+            log.info("稀疏向量回填完成: rows={}", total);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.aichat.service.vector;
+
+import com.aichat.domain.entity.KnowledgeBase;
+import com.aichat.exception.BusinessException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * 向量维度管理
+ * 每个知识库在创建时确定向量维度并记录在 knowledge_base.embedding_dimension。
+ * 原有的 embedding 列固定为 vector(1536)；其他受支持的维度各自使用一列 embedding_{维度}，
+ * 每列有独立的 ANN 索引（pgvector 索引要求列维度固定），检索按知识库维度选择对应的列。
+ * 各维度的列在启动时由 SchemaInitializer 补齐
+ */
+@Component
+@Slf4j
+public class VectorDimensions {
+
+    /**
+     * embedding 列的维度，未记录维度的历史知识库均按此维度处理
+     */
+    public static final int BASE_DIMENSION = 1536;
+
+    /**
+     * pgvector HNSW / IVFFlat 索引支持的最大维度
+     */
+    public static final int MAX_DIMENSION = 2000;
+
+    private final int defaultDimension;
+    private final List<Integer> supportedDimensions;
+
+    public VectorDimensions(@Value("${app.vector.dimension:1536}") int defaultDimension,
+                            @Value("${app.vector.supported-dimensions:256,512,768,1024,1536}") List<Integer> supportedDimensions) {
+        TreeSet<Integer> dimensions = new TreeSet<>(supportedDimensions);
+        dimensions.add(BASE_DIMENSION);
+        dimensions.add(defaultDimension);
+        for (int dimension : dimensions) {
+            if (dimension <= 0 || dimension > MAX_DIMENSION) {
+                throw new IllegalArgumentException("不支持的向量维度: " + dimension);
+            }
+        }
+        this.defaultDimension = defaultDimension;
+        this.supportedDimensions = List.copyOf(dimensions);
+    }
+
+    public int getDefaultDimension() {
+        return defaultDimension;
+    }
+
+    public List<Integer> getSupportedDimensions() {
+        return Collections.unmodifiableList(supportedDimensions);
+    }
+
+    /**
+     * 校验并返回新知识库的维度，null 使用 app.vector.dimension
+     */
+    public int resolveForNewKnowledgeBase(Integer requested) {
+        int dimension = requested != null ? requested : defaultDimension;
+        if (!supportedDimensions.contains(dimension)) {
+            throw new BusinessException("不支持的向量维度: " + dimension + "，可选: " + supportedDimensions);
+        }
+        return dimension;
+    }
+
+    /**
+     * 知识库的向量维度（历史数据未记录时为 BASE_DIMENSION）
+     */
+    public static int of(KnowledgeBase knowledgeBase) {
+        Integer dimension = knowledgeBase.getEmbeddingDimension();
+        return dimension != null ? dimension : BASE_DIMENSION;
+    }
+
+    /**
+     * 维度对应的向量列名，只由整数生成，可直接拼入 SQL
+     */
+    public static String columnFor(int dimension) {
+        return dimension == BASE_DIMENSION ? "embedding" : "embedding_" + dimension;
+    }
+}
@@ -0,0 +1,492 @@
+package com.aichat.service.vector;
+
+import com.aichat.domain.dto.knowledge.VectorIndexStatus;
+import com.aichat.repository.VectorDocumentRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * pgvector ANN 索引管理
+ * 负责 vector_documents 各维度向量列（见 VectorDimensions）上 HNSW / IVFFlat 索引的创建、状态跟踪与重建，
+ * 并在每次检索前按延迟/召回档位设置 hnsw.ef_search / ivfflat.probes。
+ * 提升到独立分区的知识库索引由 VectorPartitionService 在分区表上创建（DDL 由本类生成）。
+ * 索引按表的存储精度档位（见 VectorStorageTier）建在向量列或其量化表达式上，共享表使用 app.vector.storage.default-tier
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class VectorIndexService {
+
+    private static final String TABLE_NAME = "vector_documents";
+    private static final String LISTING_INDEX_NAME = "idx_vector_documents_kb_id_id";
+    private static final String METADATA_INDEX_NAME = "idx_vector_documents_metadata";
+    private static final long COUNT_CACHE_TTL_MS = 60_000L;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final VectorDimensions vectorDimensions;
+    private final VectorDocumentRepository vectorDocumentRepository;
+    private final VectorPartitionRouter partitionRouter;
+
+    @Value("${app.vector.index.type:HNSW}")
+    private IndexType indexType;
+
+    @Value("${app.vector.index.auto-create:true}")
+    private boolean autoCreate;
+
+    @Value("${app.vector.index.hnsw-m:16}")
+    private int hnswM;
+
+    @Value("${app.vector.index.hnsw-ef-construction:64}")
+    private int hnswEfConstruction;
+
+    @Value("${app.vector.index.ivfflat-lists:100}")
+    private int ivfflatLists;
+
+    @Value("${app.vector.search.profile:BALANCED}")
+    private RecallProfile defaultProfile;
+
+    /**
+     * 小于该文档数的检索直接精确扫描，ANN 索引对小集合收益有限且可能丢结果
+     */
+    @Value("${app.vector.search.exact-threshold:5000}")
+    private long exactThreshold;
+
+    /**
+     * pgvector 0.8+ 的迭代扫描模式（off / relaxed_order / strict_order），
+     * 避免 knowledge_base_id 过滤后结果不足；旧版本 pgvector 需设为 off
+     */
+    @Value("${app.vector.search.iterative-scan:relaxed_order}")
+    private String iterativeScan;
+
+    /**
+     * 元数据过滤后剩余文档不超过该值时预过滤（按条件取出匹配行后精确计算距离）
+     */
+    @Value("${app.vector.filter.prefilter-max-rows:2000}")
+    private long prefilterMaxRows;
+
+    /**
+     * 后过滤时 ef_search 的最大放大倍数
+     */
+    @Value("${app.vector.filter.max-overfetch:20}")
+    private int maxOverfetch;
+
+    /**
+     * 估算过滤条件选择率时抽样的最近文档数
+     */
+    @Value("${app.vector.filter.selectivity-sample-size:1000}")
+    private int selectivitySampleSize;
+
+    private final AtomicBoolean building = new AtomicBoolean(false);
+    private final Map<Long, CachedCount> documentCounts = new ConcurrentHashMap<>();
+    private final Cache<String, FilterEstimate> filterEstimates = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(Duration.ofMillis(COUNT_CACHE_TTL_MS))
+            .build();
+
+    private final Set<Integer> readyDimensions = ConcurrentHashMap.newKeySet();
+    private volatile LocalDateTime lastBuiltAt;
+    private volatile String lastError;
+
+    public enum IndexType {
+        HNSW, IVFFLAT, NONE
+    }
+
+    /**
+     * 启动后检查索引状态，按配置异步补建缺失的索引
+     */
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        ensureListingIndex();
+        ensureMetadataIndexes();
+        try {
+            if (autoCreate && indexType != IndexType.NONE) {
+                ensureIndex();
+            } else {
+                refreshReadiness();
+            }
+        } catch (Exception e) {
+            lastError = e.getMessage();
+            log.warn("向量索引检查失败，检索将使用精确扫描: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 确保配置类型的 ANN 索引存在且可用；切换类型时删除另一种托管索引
+     */
+    public void ensureIndex() {
+        if (indexType == IndexType.NONE) {
+            refreshReadiness();
+            return;
+        }
+        if (!building.compareAndSet(false, true)) {
+            log.info("向量索引正在构建中，跳过重复请求");
+            return;
+        }
+        try {
+            for (int dimension : vectorDimensions.getSupportedDimensions()) {
+                ensureIndex(dimension);
+            }
+            lastError = null;
+        } catch (Exception e) {
+            lastError = e.getMessage();
+            log.error("构建向量索引失败: {}", e.getMessage());
+        } finally {
+            building.set(false);
+            refreshReadiness();
+        }
+    }
+
+    private void ensureIndex(int dimension) {
+        VectorStorageTier tier = sharedTier();
+        for (IndexType otherType : IndexType.values()) {
+            for (VectorStorageTier otherTier : VectorStorageTier.values()) {
+                if ((otherType == indexType && otherTier == tier) || otherType == IndexType.NONE) {
+                    continue;
+                }
+                String other = indexName(otherType, otherTier, dimension);
+                if (indexExists(other)) {
+                    log.info("删除旧类型向量索引: {}", other);
+                    jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS " + other);
+                }
+            }
+        }
+        String name = indexName(indexType, tier, dimension);
+        if (indexExists(name) && !isIndexValid(name)) {
+            // CONCURRENTLY 构建中断会留下无效索引，需要先删除
+            log.warn("发现无效的向量索引，删除后重建: {}", name);
+            jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS " + name);
+        }
+        if (!indexExists(name)) {
+            long start = System.currentTimeMillis();
+            log.info("开始构建向量索引: {}", name);
+            jdbcTemplate.execute(buildCreateIndexSql(TABLE_NAME, name, dimension, tier));
+            lastBuiltAt = LocalDateTime.now();
+            log.info("向量索引构建完成: {}, 耗时{}ms", name, System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * 文档列表按 (knowledge_base_id, id) 游标分页，需要复合索引才能直接从游标位置开始读取
+     */
+    private void ensureListingIndex() {
+        try {
+            if (!indexExists(LISTING_INDEX_NAME)) {
+                jdbcTemplate.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS " + LISTING_INDEX_NAME
+                        + " ON " + TABLE_NAME + " (knowledge_base_id, id)");
+                log.info("文档列表索引构建完成: {}", LISTING_INDEX_NAME);
+            }
+        } catch (Exception e) {
+            log.warn("文档列表索引创建失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 元数据过滤的 GIN 索引（jsonb_path_ops，支持 @> 包含查询），共享表与已激活的分区各一个
+     */
+    private void ensureMetadataIndexes() {
+        Map<String, String> indexes = new LinkedHashMap<>();
+        indexes.put(TABLE_NAME, METADATA_INDEX_NAME);
+        partitionRouter.getPartitions().forEach((kbId, state) -> {
+            if (state == VectorPartitionRouter.State.ACTIVE) {
+                String table = VectorPartitionRouter.tableName(kbId);
+                indexes.put(table, table + "_metadata_idx");
+            }
+        });
+        indexes.forEach((table, name) -> {
+            try {
+                jdbcTemplate.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS " + name + " ON " + table
+                        + " USING gin (metadata jsonb_path_ops)");
+            } catch (Exception e) {
+                log.warn("元数据索引创建失败: table={}, error={}", table, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 重建向量索引（IVFFlat 在大量写入后需要重建以重新训练聚类中心）
+     */
+    @Async
+    public void rebuildIndex() {
+        if (indexType == IndexType.NONE) {
+            ensureIndex();
+            return;
+        }
+        for (int dimension : vectorDimensions.getSupportedDimensions()) {
+            String name = indexName(indexType, sharedTier(), dimension);
+            if (!indexExists(name) || !isIndexValid(name)) {
+                ensureIndex();
+                return;
+            }
+        }
+        if (!building.compareAndSet(false, true)) {
+            log.info("向量索引正在构建中，跳过重建请求");
+            return;
+        }
+        try {
+            for (int dimension : vectorDimensions.getSupportedDimensions()) {
+                String name = indexName(indexType, sharedTier(), dimension);
+                long start = System.currentTimeMillis();
+                log.info("开始重建向量索引: {}", name);
+                jdbcTemplate.execute("REINDEX INDEX CONCURRENTLY " + name);
+                log.info("向量索引重建完成: {}, 耗时{}ms", name, System.currentTimeMillis() - start);
+            }
+            lastBuiltAt = LocalDateTime.now();
+            lastError = null;
+        } catch (Exception e) {
+            lastError = e.getMessage();
+            log.error("重建向量索引失败: {}", e.getMessage());
+        } finally {
+            building.set(false);
+            refreshReadiness();
+        }
+    }
+
+    /**
+     * 查询索引状态及构建进度（默认维度列上的索引）
+     */
+    public VectorIndexStatus getIndexStatus() {
+        String name = indexName(indexType, sharedTier(), vectorDimensions.getDefaultDimension());
+        boolean exists = indexType != IndexType.NONE && indexExists(name);
+        VectorIndexStatus.VectorIndexStatusBuilder builder = VectorIndexStatus.builder()
+                .indexName(indexType != IndexType.NONE ? name : null)
+                .indexType(indexType.name())
+                .exists(exists)
+                .valid(exists && isIndexValid(name))
+                .lastBuiltAt(lastBuiltAt)
+                .lastError(lastError);
+
+        if (exists) {
+            List<String> definitions = jdbcTemplate.queryForList(
+                    "SELECT indexdef FROM pg_indexes WHERE tablename = ? AND indexname = ?",
+                    String.class, TABLE_NAME, name);
+            builder.definition(definitions.isEmpty() ? null : definitions.get(0));
+        }
+
+        if (building.get()) {
+            List<Map<String, Object>> progress = jdbcTemplate.queryForList(
+                    "SELECT phase, blocks_done, blocks_total FROM pg_stat_progress_create_index " +
+                    "WHERE relid = CAST(? AS regclass)", TABLE_NAME);
+            if (!progress.isEmpty()) {
+                Map<String, Object> row = progress.get(0);
+                long done = ((Number) row.get("blocks_done")).longValue();
+                long total = ((Number) row.get("blocks_total")).longValue();
+                builder.buildPhase((String) row.get("phase"))
+                        .buildProgress(total > 0 ? (double) done / total : null);
+            } else {
+                builder.buildPhase("pending");
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * 为当前事务设置检索参数，返回本次检索是否应走精确扫描
+     * 必须在检索所在的事务内调用（使用 set_config(..., true) 仅对当前事务生效）。
+     * 压缩档位的表在索引上取 limit * 重排倍数 个候选，ef_search 按其中最大的候选数设置
+     */
+    public boolean applySearchTuning(Collection<Long> knowledgeBaseIds, int dimension, int limit, RecallProfile profile) {
+        int multiplier = partitionRouter.readTables(knowledgeBaseIds).keySet().stream()
+                .mapToInt(table -> partitionRouter.storageOf(table).rescoreMultiplier())
+                .max()
+                .orElse(1);
+        return applySearchTuning(knowledgeBaseIds, dimension, limit, multiplier, profile);
+    }
+
+    /**
+     * 按指定的重排倍数设置检索参数（档位校准时使用）
+     */
+    public boolean applySearchTuning(Collection<Long> knowledgeBaseIds, int dimension, int limit, int rescoreMultiplier,
+                                     RecallProfile profile) {
+        RecallProfile effective = profile != null ? profile : defaultProfile;
+        boolean indexed = readyDimensions.contains(dimension) || allPartitioned(knowledgeBaseIds);
+        if (effective == RecallProfile.EXACT || !indexed || indexType == IndexType.NONE) {
+            return true;
+        }
+        if (estimateDocumentCount(knowledgeBaseIds) < exactThreshold) {
+            return true;
+        }
+
+        boolean iterative = iterativeScan != null && !iterativeScan.isBlank()
+                && !"off".equalsIgnoreCase(iterativeScan);
+        if (indexType == IndexType.HNSW) {
+            int candidates = limit * Math.max(1, rescoreMultiplier);
+            setLocal("hnsw.ef_search", String.valueOf(Math.max(effective.getEfSearch(), candidates)));
+            if (iterative) {
+                setLocal("hnsw.iterative_scan", iterativeScan);
+            }
+        } else {
+            setLocal("ivfflat.probes", String.valueOf(Math.min(effective.getProbes(), ivfflatLists)));
+            if (iterative) {
+                setLocal("ivfflat.iterative_scan", iterativeScan);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 带元数据过滤的检索参数设置，返回本次检索是否应走精确扫描（调用约束同 applySearchTuning）
+     * 过滤后剩余文档不超过 prefilter-max-rows 时预过滤：按条件（GIN 索引）取出匹配行后精确计算距离；
+     * 否则走 ANN 索引，在索引扫描中后过滤，ef_search 按估算选择率的倒数放大（over-fetch），
+     * 迭代扫描开启时由 pgvector 继续扫描补足结果。匹配数与选择率按知识库与条件缓存一分钟
+     */
+    public boolean applyFilteredSearchTuning(Collection<Long> knowledgeBaseIds, int dimension, int limit,
+                                             RecallProfile profile, MetadataFilter filter) {
+        if (filter == null) {
+            return applySearchTuning(knowledgeBaseIds, dimension, limit, profile);
+        }
+        List<Long> ids = List.copyOf(knowledgeBaseIds);
+        String key = new TreeSet<>(ids) + "|" + filter.cacheKey();
+        FilterEstimate estimate = filterEstimates.get(key, k -> estimateFilter(ids, filter));
+        if (estimate.matched() <= prefilterMaxRows) {
+            return true;
+        }
+        int overfetch = estimate.selectivity() > 0.0
+                ? (int) Math.min(maxOverfetch, Math.ceil(1.0 / estimate.selectivity()))
+                : maxOverfetch;
+        return applySearchTuning(knowledgeBaseIds, dimension, limit * Math.max(1, overfetch), profile);
+    }
+
+    /**
+     * 知识库写入或删除后使文档数缓存失效
+     */
+    public void invalidateDocumentCount(Long knowledgeBaseId) {
+        documentCounts.remove(knowledgeBaseId);
+    }
+
+    private FilterEstimate estimateFilter(List<Long> knowledgeBaseIds, MetadataFilter filter) {
+        long matched = vectorDocumentRepository.countMatchingDocuments(knowledgeBaseIds, filter, prefilterMaxRows + 1);
+        double selectivity = matched <= prefilterMaxRows ? 0.0
+                : vectorDocumentRepository.estimateFilterSelectivity(knowledgeBaseIds, filter, selectivitySampleSize);
+        log.debug("元数据过滤估算: knowledgeBaseIds={}, filter={}, matched={}, selectivity={}",
+                knowledgeBaseIds, filter, matched, selectivity);
+        return new FilterEstimate(matched, selectivity);
+    }
+
+    /**
+     * 分区只在自身 ANN 索引建好后才进入 ACTIVE 状态
+     */
+    private boolean allPartitioned(Collection<Long> knowledgeBaseIds) {
+        return !knowledgeBaseIds.isEmpty() && knowledgeBaseIds.stream().allMatch(kbId ->
+                partitionRouter.stateOf(kbId).orElse(null) == VectorPartitionRouter.State.ACTIVE);
+    }
+    
+    private long estimateDocumentCount(Collection<Long> knowledgeBaseIds) {
+        long now = System.currentTimeMillis();
+        long total = 0;
+        for (Long kbId : knowledgeBaseIds) {
+            CachedCount cached = documentCounts.get(kbId);
+            if (cached == null || cached.expiresAt < now) {
+                cached = new CachedCount(vectorDocumentRepository.countDocuments(kbId), now + COUNT_CACHE_TTL_MS);
+                documentCounts.put(kbId, cached);
+            }
+            total += cached.count;
+        }
+        return total;
+    }
+
+    private void setLocal(String name, String value) {
+        jdbcTemplate.queryForObject("SELECT set_config(?, ?, true)", String.class, name, value);
+    }
+
+    private void refreshReadiness() {
+        for (int dimension : vectorDimensions.getSupportedDimensions()) {
+            String name = indexName(indexType, sharedTier(), dimension);
+            if (indexType != IndexType.NONE && indexExists(name) && isIndexValid(name)) {
+                readyDimensions.add(dimension);
+            } else {
+                readyDimensions.remove(dimension);
+            }
+        }
+        log.info("向量索引状态: type={}, readyDimensions={}", indexType, readyDimensions);
+    }
+
+    private boolean indexExists(String name) {
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM pg_indexes WHERE tablename = ? AND indexname = ?",
+                Integer.class, TABLE_NAME, name);
+        return count != null && count > 0;
+    }
+
+    private boolean isIndexValid(String name) {
+        List<Boolean> valid = jdbcTemplate.queryForList(
+                "SELECT i.indisvalid FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid WHERE c.relname = ?",
+                Boolean.class, name);
+        return !valid.isEmpty() && Boolean.TRUE.equals(valid.get(0));
+    }
+
+    /**
+     * 按当前配置的索引类型生成指定表上的 ANN 索引 DDL，索引类型为 NONE 时返回 null
+     *
+     * @param tier 存储精度档位，压缩档位建表达式索引
+     */
+    public String buildCreateIndexSql(String table, String name, int dimension, VectorStorageTier tier) {
+        String expression = tier.indexExpression(VectorDimensions.columnFor(dimension), dimension);
+        if (indexType == IndexType.NONE) {
+            return null;
+        }
+        if (indexType == IndexType.IVFFLAT) {
+            return String.format("CREATE INDEX CONCURRENTLY IF NOT EXISTS %s ON %s " +
+                    "USING ivfflat (%s %s) WITH (lists = %d)", name, table, expression, tier.getOperatorClass(),
+                    ivfflatLists);
+        }
+        return String.format("CREATE INDEX CONCURRENTLY IF NOT EXISTS %s ON %s " +
+                "USING hnsw (%s %s) WITH (m = %d, ef_construction = %d)",
+                name, table, expression, tier.getOperatorClass(), hnswM, hnswEfConstruction);
+    }
+
+    /**
+     * 分区表上指定档位的 ANN 索引名，全精度沿用原索引名
+     */
+    public static String partitionIndexName(String table, VectorStorageTier tier) {
+        return tier.isCompressed() ? table + "_embedding_" + tier.getSuffix() + "_idx" : table + "_embedding_idx";
+    }
+
+    public IndexType getIndexType() {
+        return indexType;
+    }
+
+    private VectorStorageTier sharedTier() {
+        return partitionRouter.getSharedStorage().tier();
+    }
+
+    /**
+     * 1536维列沿用原索引名，其他维度追加维度后缀；压缩档位在类型后追加档位后缀
+     */
+    private static String indexName(IndexType type, VectorStorageTier tier, int dimension) {
+        String name = "idx_vector_documents_embedding_" + type.name().toLowerCase();
+        if (tier.isCompressed()) {
+            name += "_" + tier.getSuffix();
+        }
+        return dimension == VectorDimensions.BASE_DIMENSION ? name : name + "_" + dimension;
+    }
+
+    private record CachedCount(long count, long expiresAt) {
+    }
+
+    /**
+     * @param matched     匹配的文档数（最多数到 prefilter-max-rows + 1）
+     * @param selectivity 预过滤时不需要，为0
+     */
+    private record FilterEstimate(long matched, double selectivity) {
+    }
+}
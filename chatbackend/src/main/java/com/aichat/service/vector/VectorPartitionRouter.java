@@ -0,0 +1,218 @@
+package com.aichat.service.vector;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 向量文档分区路由
+ * 默认所有知识库共用 vector_documents；文档数较多的知识库会被提升到独立的表
+ * vector_documents_kb_{id}（见 VectorPartitionService），拥有自己的 ANN 索引。
+ * 分区登记在 vector_document_partitions 表中，本类缓存登记信息并为读写选择表：
+ * <ul>
+ *   <li>MIGRATING：数据迁移中，写入分区，读取时合并分区与共享表</li>
+ *   <li>ACTIVE：迁移完成，读写都只访问分区</li>
+ * </ul>
+ * 每张表还记录 ANN 索引的存储精度档位与重排倍数（见 VectorStorageTier）：共享表使用配置的默认档位，
+ * 分区使用登记的档位，由 VectorStorageService 按知识库切换。
+ * 表名只由知识库 id 生成，可直接拼入 SQL
+ */
+@Component
+@Slf4j
+public class VectorPartitionRouter {
+
+    public static final String SHARED_TABLE = "vector_documents";
+
+    public enum State {
+        MIGRATING, ACTIVE
+    }
+
+    /**
+     * 表上 ANN 索引的精度档位，rescoreMultiplier 为压缩档位取候选的倍数（全精度为1）
+     */
+    public record Storage(VectorStorageTier tier, int rescoreMultiplier) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Storage sharedStorage;
+    private final int halfvecMultiplier;
+    private final int binaryMultiplier;
+    private volatile Map<Long, State> partitions = Map.of();
+    private volatile Map<String, Storage> storages = Map.of();
+
+    public VectorPartitionRouter(JdbcTemplate jdbcTemplate,
+                                 @Value("${app.vector.storage.default-tier:FULL}") VectorStorageTier defaultTier,
+                                 @Value("${app.vector.storage.halfvec-rescore-multiplier:2}") int halfvecMultiplier,
+                                 @Value("${app.vector.storage.binary-rescore-multiplier:8}") int binaryMultiplier) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.halfvecMultiplier = Math.max(1, halfvecMultiplier);
+        this.binaryMultiplier = Math.max(1, binaryMultiplier);
+        this.sharedStorage = new Storage(defaultTier, defaultMultiplier(defaultTier));
+    }
+
+    /**
+     * 加载登记信息（登记表与分区表的列由 SchemaInitializer 在此之前准备好）
+     */
+    @PostConstruct
+    public void init() {
+        refresh();
+    }
+
+    /**
+     * 重新加载登记信息（其他节点提升的分区通过定时刷新感知）
+     */
+    @Scheduled(fixedDelayString = "${app.vector.partition.refresh-interval-ms:30000}")
+    public void refresh() {
+        Map<Long, State> loaded = new HashMap<>();
+        Map<String, Storage> loadedStorages = new HashMap<>();
+        loadedStorages.put(SHARED_TABLE, sharedStorage);
+        jdbcTemplate.query("SELECT knowledge_base_id, state, storage_tier, rescore_multiplier " +
+                "FROM vector_document_partitions", rs -> {
+            long knowledgeBaseId = rs.getLong("knowledge_base_id");
+            loaded.put(knowledgeBaseId, State.valueOf(rs.getString("state")));
+            // 档位列新增前登记的分区按全精度处理（其索引为全精度索引）
+            String tier = rs.getString("storage_tier");
+            Integer multiplier = (Integer) rs.getObject("rescore_multiplier");
+            VectorStorageTier storageTier = tier != null ? VectorStorageTier.valueOf(tier) : VectorStorageTier.FULL;
+            loadedStorages.put(tableName(knowledgeBaseId), new Storage(storageTier,
+                    multiplier != null ? multiplier : defaultMultiplier(storageTier)));
+        });
+        partitions = Map.copyOf(loaded);
+        storages = Map.copyOf(loadedStorages);
+    }
+
+    public static String tableName(Long knowledgeBaseId) {
+        return "vector_documents_kb_" + knowledgeBaseId;
+    }
+
+    /**
+     * 写入知识库文档的表
+     */
+    public String writeTable(Long knowledgeBaseId) {
+        return partitions.containsKey(knowledgeBaseId) ? tableName(knowledgeBaseId) : SHARED_TABLE;
+    }
+
+    /**
+     * 读取知识库文档需要访问的表及每张表上的知识库，迁移中的知识库同时出现在分区与共享表下
+     */
+    public Map<String, List<Long>> readTables(Collection<Long> knowledgeBaseIds) {
+        Map<String, List<Long>> tables = new LinkedHashMap<>();
+        for (Long knowledgeBaseId : knowledgeBaseIds) {
+            State state = partitions.get(knowledgeBaseId);
+            if (state != null) {
+                tables.computeIfAbsent(tableName(knowledgeBaseId), t -> new ArrayList<>()).add(knowledgeBaseId);
+            }
+            if (state != State.ACTIVE) {
+                tables.computeIfAbsent(SHARED_TABLE, t -> new ArrayList<>()).add(knowledgeBaseId);
+            }
+        }
+        return tables;
+    }
+
+    public Optional<State> stateOf(Long knowledgeBaseId) {
+        return Optional.ofNullable(partitions.get(knowledgeBaseId));
+    }
+
+    public Map<Long, State> getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * 表上 ANN 索引的精度档位
+     */
+    public Storage storageOf(String table) {
+        return storages.getOrDefault(table, sharedStorage);
+    }
+
+    public Storage getSharedStorage() {
+        return sharedStorage;
+    }
+
+    /**
+     * 档位未经校准时的重排倍数
+     */
+    public int defaultMultiplier(VectorStorageTier tier) {
+        return switch (tier) {
+            case FULL -> 1;
+            case HALFVEC -> halfvecMultiplier;
+            case BINARY -> binaryMultiplier;
+        };
+    }
+
+    /**
+     * 登记分区状态；新登记的分区沿用共享表的档位
+     */
+    public void register(Long knowledgeBaseId, State state) {
+        jdbcTemplate.update("INSERT INTO vector_document_partitions (knowledge_base_id, state, storage_tier, " +
+                "rescore_multiplier) VALUES (?, ?, ?, ?) " +
+                "ON CONFLICT (knowledge_base_id) DO UPDATE SET state = EXCLUDED.state, updated_at = CURRENT_TIMESTAMP",
+                knowledgeBaseId, state.name(), sharedStorage.tier().name(), sharedStorage.rescoreMultiplier());
+        refresh();
+    }
+
+    /**
+     * 切换分区的档位（对应档位的索引需已建好）
+     */
+    public void updateStorage(Long knowledgeBaseId, Storage storage) {
+        jdbcTemplate.update("UPDATE vector_document_partitions SET storage_tier = ?, rescore_multiplier = ?, " +
+                "updated_at = CURRENT_TIMESTAMP WHERE knowledge_base_id = ?",
+                storage.tier().name(), storage.rescoreMultiplier(), knowledgeBaseId);
+        refresh();
+    }
+
+    public void unregister(Long knowledgeBaseId) {
+        jdbcTemplate.update("DELETE FROM vector_document_partitions WHERE knowledge_base_id = ?", knowledgeBaseId);
+        refresh();
+    }
+
+    /**
+     * 把共享表上存在而分区表缺少的列补到分区，并同步列的可空性
+     */
+    public void syncColumns(String table) {
+        syncColumns(jdbcTemplate, table);
+    }
+
+    /**
+     * 同 {@link #syncColumns(String)}，供启动时的结构初始化使用（此时本组件尚未创建）
+     */
+    public static void syncColumns(JdbcTemplate jdbcTemplate, String table) {
+        List<Map<String, Object>> missing = jdbcTemplate.queryForList(
+                "SELECT a.attname AS name, format_type(a.atttypid, a.atttypmod) AS type FROM pg_attribute a " +
+                "WHERE a.attrelid = CAST(? AS regclass) AND a.attnum > 0 AND NOT a.attisdropped " +
+                "AND a.attname NOT IN (SELECT attname FROM pg_attribute " +
+                "WHERE attrelid = CAST(? AS regclass) AND attnum > 0 AND NOT attisdropped) " +
+                "ORDER BY a.attnum", SHARED_TABLE, table);
+        for (Map<String, Object> column : missing) {
+            jdbcTemplate.execute("ALTER TABLE " + table + " ADD COLUMN IF NOT EXISTS "
+                    + column.get("name") + " " + column.get("type"));
+        }
+        List<String> nullable = jdbcTemplate.queryForList(
+                "SELECT p.attname FROM pg_attribute p JOIN pg_attribute s " +
+                "ON s.attrelid = CAST(? AS regclass) AND s.attname = p.attname " +
+                "WHERE p.attrelid = CAST(? AS regclass) AND p.attnum > 0 AND p.attnotnull AND NOT s.attnotnull",
+                String.class, SHARED_TABLE, table);
+        for (String column : nullable) {
+            jdbcTemplate.execute("ALTER TABLE " + table + " ALTER COLUMN " + column + " DROP NOT NULL");
+        }
+    }
+
+    /**
+     * 共享表的列名（按定义顺序），用于在表之间搬移数据
+     */
+    public List<String> sharedColumns() {
+        return jdbcTemplate.queryForList(
+                "SELECT attname FROM pg_attribute WHERE attrelid = CAST(? AS regclass) " +
+                "AND attnum > 0 AND NOT attisdropped ORDER BY attnum", String.class, SHARED_TABLE);
+    }
+}
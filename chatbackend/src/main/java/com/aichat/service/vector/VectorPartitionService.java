@@ -0,0 +1,240 @@
+package com.aichat.service.vector;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 大知识库分区提升
+ * 共享表上的 ANN 索引覆盖所有知识库，按 knowledge_base_id 过滤后大知识库与小知识库互相挤占候选；
+ * 文档数超过阈值的知识库被提升到独立表 vector_documents_kb_{id}，在该知识库自己的维度列上单独建 ANN 索引。
+ * 提升过程：建表并登记 MIGRATING（新写入进入分区，读取合并两张表）→ 分批搬移存量行 →
+ * 建索引 → 标记 ACTIVE（只读分区）。每一步都可重入，中断后由下一轮定时任务继续。
+ * 其他节点按 partition.refresh-interval-ms 周期刷新登记信息，刷新之前仍会写入共享表；
+ * 因此登记 MIGRATING 后至少等待两个刷新周期（所有节点都已改写分区）再做最后一次搬移并标记 ACTIVE
+ */
+@Service
+@Slf4j
+public class VectorPartitionService {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final VectorPartitionRouter partitionRouter;
+    private final VectorIndexService vectorIndexService;
+    private final RetrievalResultCache retrievalResultCache;
+    private final boolean enabled;
+    private final long promoteThreshold;
+    private final int batchSize;
+    private final long activationDelayMs;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "vector-partition-activation");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public VectorPartitionService(JdbcTemplate jdbcTemplate,
+                                  VectorPartitionRouter partitionRouter,
+                                  VectorIndexService vectorIndexService,
+                                  RetrievalResultCache retrievalResultCache,
+                                  @Value("${app.vector.partition.enabled:false}") boolean enabled,
+                                  @Value("${app.vector.partition.promote-threshold:50000}") long promoteThreshold,
+                                  @Value("${app.vector.partition.migrate-batch-size:2000}") int batchSize,
+                                  @Value("${app.vector.partition.refresh-interval-ms:30000}") long refreshIntervalMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.partitionRouter = partitionRouter;
+        this.vectorIndexService = vectorIndexService;
+        this.retrievalResultCache = retrievalResultCache;
+        this.enabled = enabled;
+        this.promoteThreshold = Math.max(1, promoteThreshold);
+        this.batchSize = Math.max(1, batchSize);
+        this.activationDelayMs = 2 * Math.max(0L, refreshIntervalMs);
+    }
+
+    /**
+     * 继续未完成的迁移、清理写入共享表的残留行，并提升新达到阈值的知识库
+     */
+    @Scheduled(fixedDelayString = "${app.vector.partition.check-interval-ms:300000}",
+            initialDelayString = "${app.vector.partition.check-interval-ms:300000}")
+    public void checkPartitions() {
+        if (!enabled || !running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            partitionRouter.refresh();
+            for (Map.Entry<Long, VectorPartitionRouter.State> entry : partitionRouter.getPartitions().entrySet()) {
+                // ACTIVE 分区也检查一遍：路由刷新前其他节点可能仍写入了共享表
+                promote(entry.getKey());
+            }
+            List<Long> candidates = jdbcTemplate.queryForList(
+                    "SELECT knowledge_base_id FROM vector_documents GROUP BY knowledge_base_id " +
+                    "HAVING count(*) >= ?", Long.class, promoteThreshold);
+            for (Long knowledgeBaseId : candidates) {
+                if (partitionRouter.stateOf(knowledgeBaseId).isEmpty()) {
+                    promote(knowledgeBaseId);
+                }
+            }
+        } catch (Exception e) {
+            log.error("检查向量分区失败: {}", e.getMessage());
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * 把知识库提升到独立分区，可重复调用
+     */
+    public void promote(Long knowledgeBaseId) {
+        String table = VectorPartitionRouter.tableName(knowledgeBaseId);
+        long start = System.currentTimeMillis();
+        try {
+            boolean activate = partitionRouter.stateOf(knowledgeBaseId).isEmpty();
+            if (activate) {
+                createTable(knowledgeBaseId, table);
+                partitionRouter.register(knowledgeBaseId, VectorPartitionRouter.State.MIGRATING);
+                log.info("开始提升知识库到独立分区: knowledgeBaseId={}, table={}", knowledgeBaseId, table);
+            }
+            long moved = moveRows(knowledgeBaseId, table);
+            if (partitionRouter.stateOf(knowledgeBaseId).orElse(null) != VectorPartitionRouter.State.ACTIVE) {
+                createIndexes(knowledgeBaseId, table);
+                long remaining = activationRemainingMs(knowledgeBaseId);
+                if (remaining > 0) {
+                    // 仍有节点可能未刷新路由而写入共享表，保持 MIGRATING（读取合并两张表）
+                    scheduleActivation(knowledgeBaseId, remaining);
+                    activate = false;
+                } else {
+                    // 所有节点都已改写分区，最后一次搬移之后共享表中不再有该知识库的新行
+                    moved += moveRows(knowledgeBaseId, table);
+                    partitionRouter.register(knowledgeBaseId, VectorPartitionRouter.State.ACTIVE);
+                    activate = true;
+                }
+            }
+            if (activate || moved > 0) {
+                retrievalResultCache.bumpVersion(knowledgeBaseId);
+                vectorIndexService.invalidateDocumentCount(knowledgeBaseId);
+                log.info("知识库分区已更新: knowledgeBaseId={}, state={}, moved={}, 耗时{}ms", knowledgeBaseId,
+                        partitionRouter.stateOf(knowledgeBaseId).orElse(null), moved, System.currentTimeMillis() - start);
+            }
+        } catch (Exception e) {
+            log.error("提升知识库分区失败: knowledgeBaseId={}, error={}", knowledgeBaseId, e.getMessage());
+        }
+    }
+
+    /**
+     * 登记 MIGRATING 后距离可以标记 ACTIVE 还需等待的毫秒数（按数据库时间计算，不受节点时钟偏差影响）
+     */
+    private long activationRemainingMs(Long knowledgeBaseId) {
+        List<Long> remaining = jdbcTemplate.queryForList(
+                "SELECT CAST(ceil(? - extract(epoch FROM CURRENT_TIMESTAMP - updated_at) * 1000) AS BIGINT) " +
+                "FROM vector_document_partitions WHERE knowledge_base_id = ? AND state = ?",
+                Long.class, activationDelayMs, knowledgeBaseId, VectorPartitionRouter.State.MIGRATING.name());
+        return remaining.isEmpty() || remaining.get(0) == null ? 0L : remaining.get(0);
+    }
+
+    /**
+     * 等待期满后再次提升；定时检查正在运行时由其下一轮继续
+     */
+    private void scheduleActivation(Long knowledgeBaseId, long delayMs) {
+        executor.schedule(() -> {
+            if (running.compareAndSet(false, true)) {
+                try {
+                    partitionRouter.refresh();
+                    promote(knowledgeBaseId);
+                } finally {
+                    running.set(false);
+                }
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 分区表沿用共享表的 id 序列，行搬移前后 id 不变（HNSW 快照、结果缓存等按 id 引用文档）
+     */
+    private void createTable(Long knowledgeBaseId, String table) {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + table + " (LIKE " + VectorPartitionRouter.SHARED_TABLE
+                + " INCLUDING DEFAULTS INCLUDING CONSTRAINTS INCLUDING STORAGE)");
+        String sequence = jdbcTemplate.queryForObject("SELECT pg_get_serial_sequence(?, 'id')", String.class,
+                VectorPartitionRouter.SHARED_TABLE);
+        if (sequence != null) {
+            jdbcTemplate.execute("ALTER TABLE " + table + " ALTER COLUMN id SET DEFAULT nextval('" + sequence + "')");
+        }
+        Integer constraints = jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM pg_constraint WHERE conrelid = CAST(? AS regclass) AND contype = 'p'",
+                Integer.class, table);
+        if (constraints == null || constraints == 0) {
+            jdbcTemplate.execute("ALTER TABLE " + table + " ADD PRIMARY KEY (id)");
+            jdbcTemplate.execute("ALTER TABLE " + table + " ADD CONSTRAINT " + table + "_kb_check CHECK "
+                    + "(knowledge_base_id = " + knowledgeBaseId + ")");
+        }
+        partitionRouter.syncColumns(table);
+    }
+
+    /**
+     * 分批把共享表中的行搬到分区，每批一条语句（删除与插入在同一事务内）
+     */
+    private long moveRows(Long knowledgeBaseId, String table) {
+        String columns = String.join(", ", partitionRouter.sharedColumns());
+        String sql = "WITH moved AS (DELETE FROM " + VectorPartitionRouter.SHARED_TABLE + " WHERE id IN (" +
+                "SELECT id FROM " + VectorPartitionRouter.SHARED_TABLE + " WHERE knowledge_base_id = ? LIMIT ?) " +
+                "RETURNING " + columns + ") " +
+                "INSERT INTO " + table + " (" + columns + ") SELECT " + columns + " FROM moved";
+        long total = 0;
+        int moved;
+        do {
+            moved = jdbcTemplate.update(sql, knowledgeBaseId, batchSize);
+            total += moved;
+        } while (moved > 0);
+        return total;
+    }
+
+    /**
+     * 按分区登记的存储精度档位建 ANN 索引
+     */
+    private void createIndexes(Long knowledgeBaseId, String table) {
+        Integer dimension = jdbcTemplate.queryForObject(
+                "SELECT coalesce(embedding_dimension, ?) FROM knowledge_base WHERE id = ?",
+                Integer.class, VectorDimensions.BASE_DIMENSION, knowledgeBaseId);
+        dropInvalidIndexes(table);
+        VectorStorageTier tier = partitionRouter.storageOf(table).tier();
+        String annSql = vectorIndexService.buildCreateIndexSql(table,
+                VectorIndexService.partitionIndexName(table, tier), dimension, tier);
+        if (annSql != null) {
+            long start = System.currentTimeMillis();
+            jdbcTemplate.execute(annSql);
+            log.info("分区向量索引构建完成: table={}, dimension={}, tier={}, 耗时{}ms",
+                    table, dimension, tier, System.currentTimeMillis() - start);
+        }
+        jdbcTemplate.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS " + table + "_lexical_idx ON "
+                + table + " USING gin (lexical)");
+        jdbcTemplate.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS " + table + "_metadata_idx ON "
+                + table + " USING gin (metadata jsonb_path_ops)");
+    }
+
+    /**
+     * CONCURRENTLY 构建中断会留下无效索引，IF NOT EXISTS 会跳过它，需要先删除
+     */
+    void dropInvalidIndexes(String table) {
+        List<String> invalid = jdbcTemplate.queryForList(
+                "SELECT c.relname FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid " +
+                "WHERE i.indrelid = CAST(? AS regclass) AND NOT i.indisvalid", String.class, table);
+        for (String index : invalid) {
+            log.warn("发现无效的分区索引，删除后重建: {}", index);
+            jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS " + index);
+        }
+    }
+}
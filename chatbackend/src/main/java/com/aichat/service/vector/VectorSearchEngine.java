@@ -0,0 +1,47 @@
+package com.aichat.service.vector;
+
+import com.aichat.domain.entity.VectorDocument;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 向量检索引擎 SPI
+ * vector_documents 表始终是数据的权威来源；引擎负责在其之上回答 top-k 检索，
+ * 通过 app.vector.engine 选择实现（pgvector / hnsw）
+ */
+public interface VectorSearchEngine {
+    
+    /**
+     * 引擎名称，对应 app.vector.engine 的取值
+     */
+    String getName();
+    
+    /**
+     * 文档已写入 vector_documents 后通知引擎建立索引（文档需带有ID与向量）
+     */
+    void index(List<VectorDocument> documents);
+    
+    /**
+     * 知识库删除后清理引擎中的索引数据
+     */
+    void deleteKnowledgeBase(Long knowledgeBaseId);
+    
+    /**
+     * 在给定知识库范围内检索与查询向量最相似的文档，按相似度降序返回
+     *
+     * @param profile 延迟/召回档位，null 表示使用默认档位
+     */
+    default List<VectorDocument> search(Collection<Long> knowledgeBaseIds, float[] queryEmbedding, int limit,
+                                        RecallProfile profile) {
+        return search(knowledgeBaseIds, queryEmbedding, limit, profile, null);
+    }
+    
+    /**
+     * 只在满足元数据过滤条件的文档中检索
+     *
+     * @param filter 为 null 时不过滤
+     */
+    List<VectorDocument> search(Collection<Long> knowledgeBaseIds, float[] queryEmbedding, int limit,
+                                RecallProfile profile, MetadataFilter filter);
+}
@@ -0,0 +1,312 @@
+package com.aichat.service.vector;
+
+import com.aichat.domain.dto.knowledge.VectorStorageStatus;
+import com.aichat.domain.entity.VectorDocument;
+import com.aichat.exception.BusinessException;
+import com.aichat.repository.VectorDocumentRepository;
+import com.pgvector.PGvector;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按知识库切换向量索引的存储精度档位（见 VectorStorageTier）
+ * 档位记录在知识库的独立分区上，切换流程：提升到分区 → 在分区上建目标档位的索引 →
+ * 抽样文档向量作为查询，与精确检索对比校准重排倍数（从1起倍增，直到 recall@k 不低于 1 - recall-tolerance）→
+ * 登记档位并使检索结果缓存失效 → 延迟删除旧档位的索引。
+ * 其他节点按 partition.refresh-interval-ms 周期刷新登记信息，刷新之前仍按旧档位检索，
+ * 因此旧索引保留两个刷新周期后再删除。
+ * 校准达不到要求时删除新建的索引，检索继续使用原档位。任务状态只保存在本节点内存中
+ */
+@Service
+@Slf4j
+public class VectorStorageService {
+
+    public enum State {
+        RUNNING, COMPLETED, FAILED
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final VectorPartitionRouter partitionRouter;
+    private final VectorPartitionService partitionService;
+    private final VectorIndexService vectorIndexService;
+    private final VectorDocumentRepository vectorDocumentRepository;
+    private final RetrievalResultCache retrievalResultCache;
+    private final TransactionTemplate searchTransaction;
+    private final double recallTolerance;
+    private final int maxRescoreMultiplier;
+    private final int calibrationQueries;
+    private final int calibrationK;
+    private final long retireDelayMs;
+
+    private final Map<Long, Job> jobs = new ConcurrentHashMap<>();
+    /**
+     * 单线程串行执行，建索引、校准与删除旧索引同一时刻只占用一份数据库资源
+     */
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "vector-storage-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public VectorStorageService(JdbcTemplate jdbcTemplate,
+                                VectorPartitionRouter partitionRouter,
+                                VectorPartitionService partitionService,
+                                VectorIndexService vectorIndexService,
+                                VectorDocumentRepository vectorDocumentRepository,
+                                RetrievalResultCache retrievalResultCache,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${app.vector.storage.recall-tolerance:0.02}") double recallTolerance,
+                                @Value("${app.vector.storage.max-rescore-multiplier:32}") int maxRescoreMultiplier,
+                                @Value("${app.vector.storage.calibration-queries:50}") int calibrationQueries,
+                                @Value("${app.vector.storage.calibration-k:10}") int calibrationK,
+                                @Value("${app.vector.partition.refresh-interval-ms:30000}") long refreshIntervalMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.partitionRouter = partitionRouter;
+        this.partitionService = partitionService;
+        this.vectorIndexService = vectorIndexService;
+        this.vectorDocumentRepository = vectorDocumentRepository;
+        this.retrievalResultCache = retrievalResultCache;
+        this.searchTransaction = new TransactionTemplate(transactionManager);
+        this.searchTransaction.setReadOnly(true);
+        this.recallTolerance = Math.max(0.0, recallTolerance);
+        this.maxRescoreMultiplier = Math.max(1, maxRescoreMultiplier);
+        this.calibrationQueries = Math.max(1, calibrationQueries);
+        this.calibrationK = Math.max(1, calibrationK);
+        this.retireDelayMs = 2 * Math.max(0L, refreshIntervalMs);
+    }
+
+    /**
+     * 在后台把知识库切换到指定档位，重复切换到当前档位会重新校准重排倍数
+     */
+    public VectorStorageStatus changeTier(Long knowledgeBaseId, VectorStorageTier tier) {
+        dimensionOf(knowledgeBaseId);
+        if (tier.isCompressed() && vectorIndexService.getIndexType() == VectorIndexService.IndexType.NONE) {
+            throw new BusinessException("未启用 ANN 索引，无法使用压缩档位");
+        }
+        Job started = new Job(tier, State.RUNNING, null, null);
+        Job current = jobs.compute(knowledgeBaseId,
+                (id, job) -> job != null && job.state() == State.RUNNING ? job : started);
+        if (current != started) {
+            throw new BusinessException("该知识库的存储档位切换正在进行");
+        }
+        executor.execute(() -> run(knowledgeBaseId, tier));
+        log.info("存储档位切换已开始: knowledgeBaseId={}, tier={}", knowledgeBaseId, tier);
+        return getStatus(knowledgeBaseId);
+    }
+
+    public VectorStorageStatus getStatus(Long knowledgeBaseId) {
+        dimensionOf(knowledgeBaseId);
+        String table = VectorPartitionRouter.tableName(knowledgeBaseId);
+        boolean partitioned = partitionRouter.stateOf(knowledgeBaseId).orElse(null) == VectorPartitionRouter.State.ACTIVE;
+        VectorPartitionRouter.Storage storage = partitioned
+                ? partitionRouter.storageOf(table) : partitionRouter.getSharedStorage();
+        VectorStorageStatus.VectorStorageStatusBuilder builder = VectorStorageStatus.builder()
+                .knowledgeBaseId(knowledgeBaseId)
+                .tier(storage.tier().name())
+                .rescoreMultiplier(storage.rescoreMultiplier())
+                .partitioned(partitioned);
+        if (partitioned) {
+            builder.indexBytes(jdbcTemplate.queryForObject("SELECT pg_relation_size(to_regclass(?))", Long.class,
+                    VectorIndexService.partitionIndexName(table, storage.tier())));
+        }
+        Job job = jobs.get(knowledgeBaseId);
+        if (job != null) {
+            builder.targetTier(job.targetTier().name())
+                    .state(job.state().name())
+                    .measuredRecall(job.measuredRecall())
+                    .updatedAt(job.updatedAt())
+                    .error(job.error());
+        }
+        return builder.build();
+    }
+
+    private void run(Long knowledgeBaseId, VectorStorageTier tier) {
+        long start = System.currentTimeMillis();
+        try {
+            Double recall = applyTier(knowledgeBaseId, tier);
+            jobs.put(knowledgeBaseId, new Job(tier, State.COMPLETED, recall, null));
+            log.info("存储档位切换完成: knowledgeBaseId={}, tier={}, recall={}, 耗时{}ms",
+                    knowledgeBaseId, tier, recall, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            jobs.put(knowledgeBaseId, new Job(tier, State.FAILED, null, e.getMessage()));
+            log.error("存储档位切换失败: knowledgeBaseId={}, tier={}, error={}", knowledgeBaseId, tier, e.getMessage());
+        }
+    }
+
+    /**
+     * 执行切换，返回校准得到的召回率（未校准时为 null）
+     */
+    private Double applyTier(Long knowledgeBaseId, VectorStorageTier tier) {
+        int dimension = dimensionOf(knowledgeBaseId);
+        if (partitionRouter.stateOf(knowledgeBaseId).orElse(null) != VectorPartitionRouter.State.ACTIVE) {
+            partitionService.promote(knowledgeBaseId);
+            if (partitionRouter.stateOf(knowledgeBaseId).orElse(null) != VectorPartitionRouter.State.ACTIVE) {
+                throw new BusinessException("知识库提升到独立分区失败");
+            }
+        }
+        String table = VectorPartitionRouter.tableName(knowledgeBaseId);
+        VectorStorageTier previous = partitionRouter.storageOf(table).tier();
+        String index = VectorIndexService.partitionIndexName(table, tier);
+
+        partitionService.dropInvalidIndexes(table);
+        String indexSql = vectorIndexService.buildCreateIndexSql(table, index, dimension, tier);
+        if (indexSql != null) {
+            long start = System.currentTimeMillis();
+            jdbcTemplate.execute(indexSql);
+            log.info("分区向量索引构建完成: table={}, tier={}, 耗时{}ms", table, tier, System.currentTimeMillis() - start);
+        }
+
+        Double recall = null;
+        int multiplier = partitionRouter.defaultMultiplier(tier);
+        if (tier.isCompressed()) {
+            Calibration calibration = calibrate(knowledgeBaseId, table, dimension, tier);
+            if (calibration != null && calibration.multiplier() < 0) {
+                if (tier != previous) {
+                    jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS " + index);
+                }
+                throw new BusinessException(String.format("重排倍数为%d时召回率仅为%.3f，未达到要求",
+                        maxRescoreMultiplier, calibration.recall()));
+            }
+            if (calibration != null) {
+                multiplier = calibration.multiplier();
+                recall = calibration.recall();
+            }
+        }
+
+        partitionRouter.updateStorage(knowledgeBaseId, new VectorPartitionRouter.Storage(tier, multiplier));
+        retrievalResultCache.bumpVersion(knowledgeBaseId);
+        executor.schedule(() -> dropRetiredIndexes(knowledgeBaseId, tier), retireDelayMs, TimeUnit.MILLISECONDS);
+        return recall;
+    }
+
+    /**
+     * 删除其他档位的索引；期间又发起了切换（任务进行中或登记的档位已变化）时跳过，由那次切换负责
+     */
+    private void dropRetiredIndexes(Long knowledgeBaseId, VectorStorageTier tier) {
+        try {
+            Job job = jobs.get(knowledgeBaseId);
+            String table = VectorPartitionRouter.tableName(knowledgeBaseId);
+            partitionRouter.refresh();
+            if ((job != null && job.state() == State.RUNNING) || partitionRouter.storageOf(table).tier() != tier) {
+                return;
+            }
+            for (VectorStorageTier other : VectorStorageTier.values()) {
+                if (other != tier) {
+                    jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS "
+                            + VectorIndexService.partitionIndexName(table, other));
+                }
+            }
+            log.info("旧档位索引已删除: knowledgeBaseId={}, tier={}", knowledgeBaseId, tier);
+        } catch (Exception e) {
+            log.warn("删除旧档位索引失败: knowledgeBaseId={}, error={}", knowledgeBaseId, e.getMessage());
+        }
+    }
+
+    /**
+     * 从1起倍增重排倍数，返回第一个满足召回要求的倍数；都不满足时倍数为 -1（召回为最大倍数下的值）。
+     * 知识库文档数低于精确扫描阈值等情况下检索不走索引，无需校准，返回 null
+     */
+    private Calibration calibrate(Long knowledgeBaseId, String table, int dimension, VectorStorageTier tier) {
+        List<Long> knowledgeBaseIds = List.of(knowledgeBaseId);
+        String column = VectorDimensions.columnFor(dimension);
+        List<Sample> samples = jdbcTemplate.query("SELECT id, " + column + " AS embedding FROM " + table
+                + " WHERE " + column + " IS NOT NULL ORDER BY random() LIMIT ?",
+                (rs, rowNum) -> new Sample(rs.getLong("id"), rs.getObject("embedding", PGvector.class).toArray()),
+                calibrationQueries);
+        if (samples.isEmpty()) {
+            return null;
+        }
+        // 查询向量取自文档本身，对比时排除该文档
+        int limit = calibrationK + 1;
+        List<Set<Long>> truths = new ArrayList<>();
+        for (Sample sample : samples) {
+            truths.add(topK(vectorDocumentRepository.findSimilarDocuments(knowledgeBaseId, sample.embedding(), limit,
+                    true), sample.id()));
+        }
+
+        double recall = 0.0;
+        for (int multiplier = 1; multiplier <= maxRescoreMultiplier; multiplier *= 2) {
+            int candidates = multiplier;
+            double hits = 0.0;
+            for (int i = 0; i < samples.size(); i++) {
+                Sample sample = samples.get(i);
+                List<VectorDocument> results = searchTransaction.execute(status -> {
+                    if (vectorIndexService.applySearchTuning(knowledgeBaseIds, dimension, limit, candidates, null)) {
+                        return null;
+                    }
+                    return vectorDocumentRepository.findSimilarDocumentsWithStorage(knowledgeBaseId, sample.embedding(), limit,
+                            tier, candidates);
+                });
+                if (results == null) {
+                    return null;
+                }
+                Set<Long> truth = truths.get(i);
+                Set<Long> returned = topK(results, sample.id());
+                returned.retainAll(truth);
+                hits += truth.isEmpty() ? 1.0 : (double) returned.size() / truth.size();
+            }
+            recall = hits / samples.size();
+            log.info("存储档位校准: knowledgeBaseId={}, tier={}, multiplier={}, recall@{}={}",
+                    knowledgeBaseId, tier, multiplier, calibrationK, recall);
+            if (recall >= 1.0 - recallTolerance) {
+                return new Calibration(multiplier, recall);
+            }
+        }
+        return new Calibration(-1, recall);
+    }
+
+    private Set<Long> topK(List<VectorDocument> documents, Long excludedId) {
+        Set<Long> ids = new HashSet<>();
+        for (VectorDocument document : documents) {
+            if (!document.getId().equals(excludedId) && ids.size() < calibrationK) {
+                ids.add(document.getId());
+            }
+        }
+        return ids;
+    }
+
+    private int dimensionOf(Long knowledgeBaseId) {
+        List<Integer> dimensions = jdbcTemplate.queryForList(
+                "SELECT coalesce(embedding_dimension, ?) FROM knowledge_base WHERE id = ? AND deleted_at IS NULL",
+                Integer.class, VectorDimensions.BASE_DIMENSION, knowledgeBaseId);
+        if (dimensions.isEmpty()) {
+            throw new BusinessException("知识库不存在");
+        }
+        return dimensions.get(0);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private record Sample(long id, float[] embedding) {
+    }
+
+    private record Calibration(int multiplier, double recall) {
+    }
+
+    private record Job(VectorStorageTier targetTier, State state, Double measuredRecall, String error,
+                       LocalDateTime updatedAt) {
+
+        Job(VectorStorageTier targetTier, State state, Double measuredRecall, String error) {
+            this(targetTier, state, measuredRecall, error, LocalDateTime.now());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.aichat.service.vector;
+
+/**
+ * 向量索引的存储精度档位（pgvector 0.7+）
+ * 全精度向量列始终保留，压缩档位只改变 ANN 索引：索引建在向量列的量化表达式上，
+ * 检索时先在压缩索引上取 limit * 重排倍数 个候选，再按全精度距离重排截取 limit。
+ * 索引体积（即检索时需要常驻缓冲区的部分）约为全精度的 1/2（HALFVEC）与 1/32（BINARY）
+ */
+public enum VectorStorageTier {
+    /**
+     * 全精度 vector 索引，不重排
+     */
+    FULL("", "vector_cosine_ops", "<=>"),
+    /**
+     * 半精度 halfvec 索引
+     */
+    HALFVEC("half", "halfvec_cosine_ops", "<=>"),
+    /**
+     * 二值量化 bit 索引（按汉明距离取候选）
+     */
+    BINARY("bin", "bit_hamming_ops", "<~>");
+
+    private final String suffix;
+    private final String operatorClass;
+    private final String operator;
+
+    VectorStorageTier(String suffix, String operatorClass, String operator) {
+        this.suffix = suffix;
+        this.operatorClass = operatorClass;
+        this.operator = operator;
+    }
+
+    /**
+     * 索引名后缀，全精度为空（沿用原索引名）
+     */
+    public String getSuffix() {
+        return suffix;
+    }
+
+    public String getOperatorClass() {
+        return operatorClass;
+    }
+
+    /**
+     * 索引所建的表达式，与检索时 ORDER BY 的左侧一致才能使用索引
+     */
+    public String indexExpression(String column, int dimension) {
+        return switch (this) {
+            case FULL -> column;
+            case HALFVEC -> "(" + column + "::halfvec(" + dimension + "))";
+            case BINARY -> "(binary_quantize(" + column + ")::bit(" + dimension + "))";
+        };
+    }
+
+    /**
+     * 取候选时的排序表达式，param 为查询向量参数（如 :embedding）
+     */
+    public String candidateOrder(String column, int dimension, String param) {
+        return switch (this) {
+            case FULL -> column + " <=> " + param;
+            case HALFVEC -> indexExpression(column, dimension) + " " + operator
+                    + " CAST(" + param + " AS halfvec(" + dimension + "))";
+            case BINARY -> indexExpression(column, dimension) + " " + operator
+                    + " binary_quantize(CAST(" + param + " AS vector(" + dimension + ")))::bit(" + dimension + ")";
+        };
+    }
+
+    public boolean isCompressed() {
+        return this != FULL;
+    }
+}
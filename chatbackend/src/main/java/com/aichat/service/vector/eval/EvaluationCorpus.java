@@ -0,0 +1,148 @@
+package com.aichat.service.vector.eval;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * 检索评估语料：带向量的文档与查询
+ * 两种来源：
+ * <ul>
+ *   <li>合成语料：若干高斯簇上的随机单位向量，查询从同样的簇中采样，用于调 ANN 参数</li>
+ *   <li>固定语料（JSON）：文本由当前嵌入模型生成向量，查询可标注相关文档，用于比较嵌入模型</li>
+ * </ul>
+ * 固定语料格式：{"documents":[{"id":1,"content":"..."}],"queries":[{"query":"...","relevant":[1]}]}
+ */
+public final class EvaluationCorpus {
+
+    /**
+     * 文档，id 为语料内的编号（与写入数据库后的 id 无关）
+     */
+    public record Document(long id, String content, float[] embedding) {
+    }
+
+    /**
+     * 查询，relevant 为标注的相关文档编号（未标注时为空）
+     */
+    public record Query(String text, float[] embedding, Set<Long> relevant) {
+    }
+
+    private final String name;
+    private final int dimension;
+    private final List<Document> documents;
+    private final List<Query> queries;
+
+    private EvaluationCorpus(String name, int dimension, List<Document> documents, List<Query> queries) {
+        this.name = name;
+        this.dimension = dimension;
+        this.documents = documents;
+        this.queries = queries;
+    }
+
+    /**
+     * 生成合成语料，同一 seed 生成的语料相同
+     *
+     * @param clusters 簇数，簇越少近邻越密集，ANN 越难区分
+     */
+    public static EvaluationCorpus synthetic(int documentCount, int queryCount, int dimension, int clusters, long seed) {
+        Random random = new Random(seed);
+        float[][] centers = new float[Math.max(1, clusters)][];
+        for (int i = 0; i < centers.length; i++) {
+            centers[i] = gaussian(random, dimension, 1.0);
+        }
+        List<Document> documents = new ArrayList<>(documentCount);
+        for (int i = 0; i < documentCount; i++) {
+            float[] center = centers[random.nextInt(centers.length)];
+            documents.add(new Document(i + 1, "synthetic-" + (i + 1), around(random, center, 0.3)));
+        }
+        List<Query> queries = new ArrayList<>(queryCount);
+        for (int i = 0; i < queryCount; i++) {
+            float[] center = centers[random.nextInt(centers.length)];
+            queries.add(new Query("synthetic-query-" + (i + 1), around(random, center, 0.3), Set.of()));
+        }
+        return new EvaluationCorpus("synthetic(n=" + documentCount + ",clusters=" + centers.length + ",seed=" + seed + ")",
+                dimension, documents, queries);
+    }
+
+    /**
+     * 读取固定语料，文档与查询文本分别交给对应的嵌入函数生成向量
+     */
+    public static EvaluationCorpus fromFixture(String name, InputStream in, ObjectMapper objectMapper, int dimension,
+                                               Function<List<String>, List<float[]>> documentEmbedder,
+                                               Function<String, float[]> queryEmbedder) throws IOException {
+        JsonNode root = objectMapper.readTree(in);
+        List<Long> ids = new ArrayList<>();
+        List<String> contents = new ArrayList<>();
+        for (JsonNode node : root.path("documents")) {
+            ids.add(node.path("id").asLong(ids.size() + 1L));
+            contents.add(node.path("content").asText());
+        }
+        List<float[]> embeddings = contents.isEmpty() ? List.of() : documentEmbedder.apply(contents);
+        List<Document> documents = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            documents.add(new Document(ids.get(i), contents.get(i), embeddings.get(i)));
+        }
+        List<Query> queries = new ArrayList<>();
+        for (JsonNode node : root.path("queries")) {
+            String text = node.path("query").asText();
+            Set<Long> relevant = new HashSet<>();
+            node.path("relevant").forEach(id -> relevant.add(id.asLong()));
+            queries.add(new Query(text, queryEmbedder.apply(text), Set.copyOf(relevant)));
+        }
+        return new EvaluationCorpus(name, dimension, documents, queries);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public List<Document> getDocuments() {
+        return documents;
+    }
+
+    public List<Query> getQueries() {
+        return queries;
+    }
+
+    private static float[] around(Random random, float[] center, double sigma) {
+        float[] noise = gaussian(random, center.length, sigma);
+        for (int i = 0; i < noise.length; i++) {
+            noise[i] += center[i];
+        }
+        return normalize(noise);
+    }
+
+    private static float[] gaussian(Random random, int dimension, double sigma) {
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = (float) (random.nextGaussian() * sigma);
+        }
+        return vector;
+    }
+
+    private static float[] normalize(float[] vector) {
+        double sumSquares = 0.0;
+        for (float value : vector) {
+            sumSquares += (double) value * value;
+        }
+        if (sumSquares > 0.0) {
+            float invNorm = (float) (1.0 / Math.sqrt(sumSquares));
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] *= invNorm;
+            }
+        }
+        return vector;
+    }
+}
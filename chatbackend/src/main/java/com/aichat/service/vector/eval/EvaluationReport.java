@@ -0,0 +1,88 @@
+package com.aichat.service.vector.eval;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * 一次检索评估的结果（以 JSON 输出）
+ * 召回与 MRR 以精确（暴力）检索的结果为基准；语料标注了相关文档时另外给出按标注计算的指标
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class EvaluationReport {
+
+    /**
+     * 检索引擎（pgvector / hnsw）
+     */
+    private String engine;
+
+    /**
+     * 召回档位，DEFAULT 表示使用配置的默认档位
+     */
+    private String profile;
+
+    private String corpus;
+
+    private int documents;
+
+    private int queries;
+
+    private int dimension;
+
+    private int k;
+
+    /**
+     * recall@n：前 n 个结果中属于精确前 n 的比例，n 取 1、5、10 及 k 中不超过 k 的值
+     */
+    private Map<Integer, Double> recall;
+
+    /**
+     * 精确最近邻在结果中的排名倒数的平均值（未返回记为0）
+     */
+    private double mrr;
+
+    /**
+     * 有标注的查询数，为0时下面两项为 null
+     */
+    private int labelledQueries;
+
+    /**
+     * 前 k 个结果覆盖的标注相关文档比例
+     */
+    private Double labelRecall;
+
+    /**
+     * 第一个标注相关文档排名倒数的平均值
+     */
+    private Double labelMrr;
+
+    private Latency latencyMs;
+
+    private String generatedAt;
+
+    /**
+     * 单次检索耗时分布（毫秒，不含预热）
+     */
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Latency {
+
+        private double mean;
+
+        private double p50;
+
+        private double p95;
+
+        private double p99;
+
+        private double max;
+    }
+}
@@ -0,0 +1,24 @@
+package com.aichat.service.vector.eval;
+
+import com.aichat.AiChatApplication;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * 检索评估的启动入口：以评估模式启动应用，RetrievalEvaluationRunner 运行结束后关闭上下文并以评估结果作为退出码。
+ * 与线上实例共用配置，HTTP 端口随机分配以免冲突，例如：
+ * <pre>
+ * java -cp app.jar -Dloader.main=com.aichat.service.vector.eval.RetrievalEvaluationApplication \
+ *     org.springframework.boot.loader.launch.PropertiesLauncher --app.vector.engine=hnsw
+ * </pre>
+ */
+public class RetrievalEvaluationApplication {
+
+    public static void main(String[] args) {
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(AiChatApplication.class)
+                .properties("app.vector.eval.enabled=true", "server.port=0")
+                .run(args);
+        System.exit(SpringApplication.exit(context));
+    }
+}
@@ -0,0 +1,273 @@
+package com.aichat.service.vector.eval;
+
+import com.aichat.domain.dto.common.PurgeStatus;
+import com.aichat.domain.entity.KnowledgeBase;
+import com.aichat.domain.entity.User;
+import com.aichat.domain.entity.VectorDocument;
+import com.aichat.repository.UserRepository;
+import com.aichat.repository.VectorDocumentRepository;
+import com.aichat.service.VectorService;
+import com.aichat.service.embedding.EmbeddingService;
+import com.aichat.service.purge.PurgeService;
+import com.aichat.service.vector.RecallProfile;
+import com.aichat.service.vector.VectorDimensions;
+import com.aichat.service.vector.VectorSearchEngine;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.ExitCodeGenerator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 启动后运行一次检索评估（app.vector.eval.enabled=true 时启用，通常经 RetrievalEvaluationApplication 启动）
+ * 在本地数据库中创建临时知识库、写入评估语料，经配置的检索引擎（pgvector / hnsw）逐条检索，
+ * 按每个召回档位输出一份报告到 app.vector.eval.report-file，结束后在当前线程中同步删除临时知识库。
+ * 临时知识库默认属于专用的评估用户（app.vector.eval.username，不存在时创建且不可登录），不写入真实用户的数据；
+ * 评估结果作为退出码（ExitCodeGenerator）交给启动器。
+ * 直接调用检索引擎（不经过检索结果缓存）；pgvector 下每次检索在独立的只读事务中执行，与线上检索一致。
+ * 注意：检索范围内文档数低于 app.vector.search.exact-threshold 时 pgvector 会精确扫描，评估 ANN 需调低该阈值
+ */
+@Component
+@ConditionalOnProperty(name = "app.vector.eval.enabled", havingValue = "true")
+@Slf4j
+public class RetrievalEvaluationRunner implements ApplicationRunner, ExitCodeGenerator {
+
+    private final VectorService vectorService;
+    private final VectorDocumentRepository vectorDocumentRepository;
+    private final VectorSearchEngine vectorSearchEngine;
+    private final EmbeddingService embeddingService;
+    private final PurgeService purgeService;
+    private final UserRepository userRepository;
+    private final PasswordEncoder passwordEncoder;
+    private final ObjectMapper objectMapper;
+    private final ResourceLoader resourceLoader;
+    private final TransactionTemplate writeTransaction;
+    private final TransactionTemplate searchTransaction;
+
+    private volatile int exitCode;
+
+    /**
+     * 指定时临时知识库写入该用户名下，否则使用专用的评估用户
+     */
+    @Value("${app.vector.eval.user-id:#{null}}")
+    private Long configuredUserId;
+
+    @Value("${app.vector.eval.username:retrieval-eval}")
+    private String username;
+
+    @Value("${app.vector.eval.fixture:}")
+    private String fixture;
+
+    @Value("${app.vector.eval.documents:20000}")
+    private int documentCount;
+
+    @Value("${app.vector.eval.queries:200}")
+    private int queryCount;
+
+    @Value("${app.vector.eval.clusters:50}")
+    private int clusters;
+
+    @Value("${app.vector.eval.seed:42}")
+    private long seed;
+
+    @Value("${app.vector.eval.dimension:#{null}}")
+    private Integer dimension;
+
+    @Value("${app.vector.eval.k:10}")
+    private int k;
+
+    @Value("${app.vector.eval.warmup:50}")
+    private int warmup;
+
+    @Value("${app.vector.eval.profiles:}")
+    private List<String> profiles;
+
+    @Value("${app.vector.eval.report-file:target/retrieval-eval.json}")
+    private String reportFile;
+
+    @Value("${app.vector.eval.keep-knowledge-base:false}")
+    private boolean keepKnowledgeBase;
+
+    @Value("${app.vector.insert-batch-size:500}")
+    private int insertBatchSize;
+
+    public RetrievalEvaluationRunner(VectorService vectorService,
+                                     VectorDocumentRepository vectorDocumentRepository,
+                                     VectorSearchEngine vectorSearchEngine,
+                                     EmbeddingService embeddingService,
+                                     PurgeService purgeService,
+                                     UserRepository userRepository,
+                                     PasswordEncoder passwordEncoder,
+                                     ObjectMapper objectMapper,
+                                     ResourceLoader resourceLoader,
+                                     PlatformTransactionManager transactionManager) {
+        this.vectorService = vectorService;
+        this.vectorDocumentRepository = vectorDocumentRepository;
+        this.vectorSearchEngine = vectorSearchEngine;
+        this.embeddingService = embeddingService;
+        this.purgeService = purgeService;
+        this.userRepository = userRepository;
+        this.passwordEncoder = passwordEncoder;
+        this.objectMapper = objectMapper;
+        this.resourceLoader = resourceLoader;
+        this.writeTransaction = new TransactionTemplate(transactionManager);
+        this.searchTransaction = new TransactionTemplate(transactionManager);
+        this.searchTransaction.setReadOnly(true);
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        KnowledgeBase kb = null;
+        Long userId = null;
+        try {
+            userId = configuredUserId != null ? configuredUserId : evaluationUserId();
+            kb = vectorService.createKnowledgeBase(userId, "检索评估-" + LocalDateTime.now(), "离线检索评估临时知识库",
+                    KnowledgeBase.SourceType.TEXT, null, dimension);
+            EvaluationCorpus corpus = loadCorpus(kb);
+            Map<Long, Long> corpusIds = insert(kb, corpus);
+            log.info("评估语料已写入: knowledgeBaseId={}, corpus={}, documents={}, queries={}, engine={}",
+                    kb.getId(), corpus.getName(), corpusIds.size(), corpus.getQueries().size(),
+                    vectorSearchEngine.getName());
+
+            List<EvaluationReport> reports = new ArrayList<>();
+            for (RecallProfile profile : resolveProfiles()) {
+                EvaluationReport report = evaluate(kb.getId(), corpus, corpusIds, profile);
+                log.info("检索评估完成: profile={}, recall={}, mrr={}, p50={}ms, p95={}ms, p99={}ms",
+                        report.getProfile(), report.getRecall(), report.getMrr(), report.getLatencyMs().getP50(),
+                        report.getLatencyMs().getP95(), report.getLatencyMs().getP99());
+                reports.add(report);
+            }
+            RetrievalEvaluator.writeReport(objectMapper, reports, Paths.get(reportFile));
+            log.info("检索评估报告已写入: {}", Paths.get(reportFile).toAbsolutePath());
+        } catch (Exception e) {
+            exitCode = 1;
+            log.error("检索评估失败: {}", e.getMessage(), e);
+        } finally {
+            if (kb != null && !keepKnowledgeBase) {
+                cleanUp(kb.getId(), userId);
+            }
+        }
+    }
+
+    @Override
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    /**
+     * 在当前线程中删除临时知识库，退出前不留下待删除的数据
+     */
+    private void cleanUp(Long knowledgeBaseId, Long userId) {
+        try {
+            PurgeStatus status = purgeService.purgeNow(PurgeService.Target.KNOWLEDGE_BASE, knowledgeBaseId, userId);
+            if (PurgeService.State.COMPLETED.name().equals(status.getState())) {
+                log.info("临时知识库已删除: knowledgeBaseId={}, rows={}", knowledgeBaseId, status.getDeletedRows());
+            } else {
+                log.warn("临时知识库未能删除完，由后台删除任务继续: knowledgeBaseId={}, state={}, error={}",
+                        knowledgeBaseId, status.getState(), status.getError());
+            }
+        } catch (Exception e) {
+            log.error("删除临时知识库失败: knowledgeBaseId={}, error={}", knowledgeBaseId, e.getMessage());
+        }
+    }
+
+    /**
+     * 专用的评估用户，不存在时创建；密码随机生成且不保存（无法登录），状态标记为 INACTIVE
+     */
+    private Long evaluationUserId() {
+        return userRepository.findByUsername(username)
+                .orElseGet(() -> userRepository.save(User.builder()
+                        .username(username)
+                        .email(username + "@localhost")
+                        .password(passwordEncoder.encode(UUID.randomUUID().toString()))
+                        .nickname("检索评估")
+                        .role(User.UserRole.USER)
+                        .status(User.UserStatus.INACTIVE)
+                        .build()))
+                .getId();
+    }
+
+    private EvaluationCorpus loadCorpus(KnowledgeBase kb) throws IOException {
+        int kbDimension = VectorDimensions.of(kb);
+        if (fixture == null || fixture.isBlank()) {
+            return EvaluationCorpus.synthetic(documentCount, queryCount, kbDimension, clusters, seed);
+        }
+        String model = embeddingService.modelOf(kb);
+        try (InputStream in = resourceLoader.getResource(fixture).getInputStream()) {
+            return EvaluationCorpus.fromFixture(fixture, in, objectMapper, kbDimension,
+                    texts -> embeddingService.embedStrict(texts, kbDimension, model),
+                    query -> embeddingService.embedQuery(query, kbDimension, model));
+        }
+    }
+
+    /**
+     * 分批写入语料并通知检索引擎，返回 数据库id → 语料编号
+     */
+    private Map<Long, Long> insert(KnowledgeBase kb, EvaluationCorpus corpus) {
+        String model = embeddingService.modelOf(kb);
+        List<VectorDocument> documents = new ArrayList<>(corpus.getDocuments().size());
+        for (EvaluationCorpus.Document document : corpus.getDocuments()) {
+            documents.add(VectorDocument.builder()
+                    .knowledgeBaseId(kb.getId())
+                    .content(document.content())
+                    .embedding(document.embedding())
+                    .embeddingModel(model)
+                    .metadata(new HashMap<>(Map.of("evalId", document.id())))
+                    .tokenCount(0)
+                    .build());
+        }
+        writeTransaction.executeWithoutResult(status ->
+                vectorDocumentRepository.batchInsertVectorDocuments(documents, insertBatchSize));
+        vectorSearchEngine.index(documents);
+
+        Map<Long, Long> corpusIds = new HashMap<>();
+        for (int i = 0; i < documents.size(); i++) {
+            corpusIds.put(documents.get(i).getId(), corpus.getDocuments().get(i).id());
+        }
+        return corpusIds;
+    }
+
+    private EvaluationReport evaluate(Long knowledgeBaseId, EvaluationCorpus corpus, Map<Long, Long> corpusIds,
+                                      RecallProfile profile) {
+        return RetrievalEvaluator.evaluate(vectorSearchEngine.getName(), profile != null ? profile.name() : "DEFAULT",
+                corpus, k, warmup, (queryEmbedding, limit) -> searchTransaction.execute(status ->
+                        vectorSearchEngine.search(List.of(knowledgeBaseId), queryEmbedding, limit, profile).stream()
+                                .map(document -> corpusIds.getOrDefault(document.getId(), -1L))
+                                .toList()));
+    }
+
+    /**
+     * 未配置档位时只评估配置的默认档位（null）
+     */
+    private List<RecallProfile> resolveProfiles() {
+        List<RecallProfile> resolved = new ArrayList<>();
+        if (profiles != null) {
+            profiles.stream()
+                    .map(String::trim)
+                    .filter(name -> !name.isEmpty())
+                    .map(RecallProfile::valueOf)
+                    .forEach(resolved::add);
+        }
+        if (resolved.isEmpty()) {
+            resolved.add(null);
+        }
+        return resolved;
+    }
+}
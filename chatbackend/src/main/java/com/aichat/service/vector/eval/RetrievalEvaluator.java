@@ -0,0 +1,209 @@
+package com.aichat.service.vector.eval;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * 离线检索评估：对语料做精确（暴力）检索作为基准，逐条执行被测检索并统计召回、MRR 与耗时分位数
+ * 被测检索以 {@link Searcher} 传入，与具体引擎及其事务、缓存等外围逻辑无关
+ */
+public final class RetrievalEvaluator {
+
+    private static final int[] RECALL_CUTOFFS = {1, 5, 10};
+
+    /**
+     * 被测检索：返回按相似度降序排列的语料文档编号
+     */
+    @FunctionalInterface
+    public interface Searcher {
+        List<Long> search(float[] queryEmbedding, int k);
+    }
+
+    private RetrievalEvaluator() {
+    }
+
+    /**
+     * @param warmup 正式计时前先执行的查询数（按语料查询循环取），用于预热 JIT、缓冲区与连接
+     */
+    public static EvaluationReport evaluate(String engine, String profile, EvaluationCorpus corpus, int k, int warmup,
+                                            Searcher searcher) {
+        List<EvaluationCorpus.Query> queries = corpus.getQueries();
+        if (queries.isEmpty()) {
+            throw new IllegalArgumentException("评估语料没有查询");
+        }
+        for (int i = 0; i < warmup; i++) {
+            searcher.search(queries.get(i % queries.size()).embedding(), k);
+        }
+
+        List<Integer> cutoffs = new ArrayList<>();
+        for (int cutoff : RECALL_CUTOFFS) {
+            if (cutoff < k) {
+                cutoffs.add(cutoff);
+            }
+        }
+        cutoffs.add(k);
+        double[] recallSums = new double[cutoffs.size()];
+        double reciprocalRankSum = 0.0;
+        int labelled = 0;
+        double labelRecallSum = 0.0;
+        double labelReciprocalRankSum = 0.0;
+        double[] latencies = new double[queries.size()];
+
+        for (int q = 0; q < queries.size(); q++) {
+            EvaluationCorpus.Query query = queries.get(q);
+            List<Long> truth = exactSearch(corpus.getDocuments(), query.embedding(), k);
+
+            long start = System.nanoTime();
+            List<Long> results = searcher.search(query.embedding(), k);
+            latencies[q] = (System.nanoTime() - start) / 1_000_000.0;
+
+            for (int c = 0; c < cutoffs.size(); c++) {
+                recallSums[c] += recall(results, truth, cutoffs.get(c));
+            }
+            if (!truth.isEmpty()) {
+                reciprocalRankSum += reciprocalRank(results, Set.of(truth.get(0)));
+            }
+            if (!query.relevant().isEmpty()) {
+                labelled++;
+                Set<Long> returned = new HashSet<>(results.subList(0, Math.min(k, results.size())));
+                returned.retainAll(query.relevant());
+                labelRecallSum += (double) returned.size() / query.relevant().size();
+                labelReciprocalRankSum += reciprocalRank(results, query.relevant());
+            }
+        }
+
+        Map<Integer, Double> recall = new TreeMap<>();
+        for (int c = 0; c < cutoffs.size(); c++) {
+            recall.put(cutoffs.get(c), recallSums[c] / queries.size());
+        }
+        return EvaluationReport.builder()
+                .engine(engine)
+                .profile(profile)
+                .corpus(corpus.getName())
+                .documents(corpus.getDocuments().size())
+                .queries(queries.size())
+                .dimension(corpus.getDimension())
+                .k(k)
+                .recall(recall)
+                .mrr(reciprocalRankSum / queries.size())
+                .labelledQueries(labelled)
+                .labelRecall(labelled > 0 ? labelRecallSum / labelled : null)
+                .labelMrr(labelled > 0 ? labelReciprocalRankSum / labelled : null)
+                .latencyMs(latency(latencies))
+                .generatedAt(Instant.now().toString())
+                .build();
+    }
+
+    /**
+     * 以 JSON 写出一组评估结果（覆盖已有文件）
+     */
+    public static void writeReport(ObjectMapper objectMapper, List<EvaluationReport> reports, Path file)
+            throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(file.toFile(), reports);
+    }
+
+    /**
+     * 余弦相似度的精确前 k（小顶堆），相似度相同时编号小的在前
+     */
+    static List<Long> exactSearch(List<EvaluationCorpus.Document> documents, float[] query, int k) {
+        Comparator<Scored> order = Comparator.comparingDouble(Scored::similarity)
+                .thenComparing(Comparator.comparingLong(Scored::id).reversed());
+        PriorityQueue<Scored> heap = new PriorityQueue<>(k + 1, order);
+        double queryNorm = norm(query);
+        for (EvaluationCorpus.Document document : documents) {
+            heap.add(new Scored(document.id(), cosine(query, queryNorm, document.embedding())));
+            if (heap.size() > k) {
+                heap.poll();
+            }
+        }
+        List<Scored> top = new ArrayList<>(heap);
+        top.sort(order.reversed());
+        return top.stream().map(Scored::id).toList();
+    }
+
+    /**
+     * 前 n 个结果中属于精确前 n 的比例（语料不足 n 条时按实际条数计）
+     */
+    private static double recall(List<Long> results, List<Long> truth, int n) {
+        int expected = Math.min(n, truth.size());
+        if (expected == 0) {
+            return 1.0;
+        }
+        Set<Long> truthTop = new HashSet<>(truth.subList(0, expected));
+        int hits = 0;
+        for (int i = 0; i < Math.min(n, results.size()); i++) {
+            if (truthTop.contains(results.get(i))) {
+                hits++;
+            }
+        }
+        return (double) hits / expected;
+    }
+
+    private static double reciprocalRank(List<Long> results, Set<Long> relevant) {
+        for (int i = 0; i < results.size(); i++) {
+            if (relevant.contains(results.get(i))) {
+                return 1.0 / (i + 1);
+            }
+        }
+        return 0.0;
+    }
+
+    private static EvaluationReport.Latency latency(double[] latencies) {
+        double[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        return EvaluationReport.Latency.builder()
+                .mean(Arrays.stream(sorted).average().orElse(0.0))
+                .p50(percentile(sorted, 50))
+                .p95(percentile(sorted, 95))
+                .p99(percentile(sorted, 99))
+                .max(sorted[sorted.length - 1])
+                .build();
+    }
+
+    /**
+     * 最近秩法分位数
+     */
+    private static double percentile(double[] sorted, int percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    private static double cosine(float[] query, double queryNorm, float[] embedding) {
+        if (embedding == null || embedding.length != query.length) {
+            return -1.0;
+        }
+        double dot = 0.0;
+        for (int i = 0; i < query.length; i++) {
+            dot += (double) query[i] * embedding[i];
+        }
+        double denominator = queryNorm * norm(embedding);
+        return denominator > 0.0 ? dot / denominator : 0.0;
+    }
+
+    private static double norm(float[] vector) {
+        double sumSquares = 0.0;
+        for (float value : vector) {
+            sumSquares += (double) value * value;
+        }
+        return Math.sqrt(sumSquares);
+    }
+
+    private record Scored(long id, double similarity) {
+    }
+}
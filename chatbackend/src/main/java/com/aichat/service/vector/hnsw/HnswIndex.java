@@ -0,0 +1,547 @@
+package com.aichat.service.vector.hnsw;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 进程内 HNSW 图索引（余弦距离）
+ * 向量写入前做 L2 归一化，距离按 1 - 点积计算；向量本身存放在 OffHeapVectorStore 中。
+ * 写入持有写锁，检索持有读锁，检索之间可并发。图只增不删：
+ * 文档删除以知识库为单位整体丢弃图（知识库删除或模型变更时重建）
+ */
+public class HnswIndex {
+
+    private static final int SNAPSHOT_MAGIC = 0x484E5357; // "HNSW"
+    private static final int SNAPSHOT_VERSION = 2;
+
+    private final int dimension;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+
+    private final OffHeapVectorStore vectors;
+    private final Map<Long, Integer> idToNode = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private long[] ids = new long[64];
+    private int[][][] links = new int[64][][];
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    public HnswIndex(int dimension, int m, int efConstruction) {
+        if (dimension <= 0 || m < 2 || efConstruction <= 0) {
+            throw new IllegalArgumentException("非法的HNSW参数: dimension=" + dimension + ", m=" + m
+                    + ", efConstruction=" + efConstruction);
+        }
+        this.dimension = dimension;
+        this.m = m;
+        this.maxM0 = m * 2;
+        this.efConstruction = efConstruction;
+        this.levelMultiplier = 1.0 / Math.log(m);
+        this.vectors = new OffHeapVectorStore(dimension);
+    }
+
+    /**
+     * 检索结果：文档ID与余弦距离
+     */
+    public record SearchResult(long id, float distance) {
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    /**
+     * 已索引的向量数
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return idToNode.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 插入向量；ID已存在时不做任何修改
+     *
+     * @return 是否插入
+     */
+    public boolean add(long id, float[] vector) {
+        if (vector == null || vector.length != dimension) {
+            throw new IllegalArgumentException("向量维度不匹配: expected=" + dimension
+                    + ", actual=" + (vector == null ? 0 : vector.length));
+        }
+        float[] normalized = normalize(vector);
+
+        lock.writeLock().lock();
+        try {
+            if (idToNode.containsKey(id)) {
+                return false;
+            }
+
+            int level = randomLevel();
+            int node = vectors.add(normalized);
+            ensureCapacity(node + 1);
+            ids[node] = id;
+            links[node] = new int[level + 1][];
+            for (int layer = 0; layer <= level; layer++) {
+                links[node][layer] = new int[(layer == 0 ? maxM0 : m) + 1];
+            }
+            idToNode.put(id, node);
+
+            if (entryPoint < 0) {
+                entryPoint = node;
+                maxLevel = level;
+                return true;
+            }
+
+            int current = entryPoint;
+            for (int layer = maxLevel; layer > level; layer--) {
+                current = greedySearch(normalized, current, layer);
+            }
+
+            BitSet visited = new BitSet(vectors.size());
+            NodeQueue entryPoints = new NodeQueue(1);
+            entryPoints.push(current, distance(current, normalized));
+            for (int layer = Math.min(level, maxLevel); layer >= 0; layer--) {
+                visited.clear();
+                NodeQueue candidates = searchLayer(normalized, entryPoints, efConstruction, layer, visited);
+                int maxConnections = layer == 0 ? maxM0 : m;
+                int[] selected = selectNeighbors(candidates.sortedNodes(), normalized, m);
+                for (int neighbor : selected) {
+                    connect(node, neighbor, layer, maxConnections);
+                    connect(neighbor, node, layer, maxConnections);
+                }
+                entryPoints = candidates;
+            }
+
+            if (level > maxLevel) {
+                entryPoint = node;
+                maxLevel = level;
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean contains(long id) {
+        lock.readLock().lock();
+        try {
+            return idToNode.containsKey(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 近似 top-k 检索
+     *
+     * @param ef 检索宽度，越大召回越高；小于 k 时按 k 处理
+     */
+    public List<SearchResult> search(float[] query, int k, int ef) {
+        if (query == null || query.length != dimension || k <= 0) {
+            return List.of();
+        }
+        float[] normalized = normalize(query);
+
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0 || idToNode.isEmpty()) {
+                return List.of();
+            }
+            int current = entryPoint;
+            for (int layer = maxLevel; layer > 0; layer--) {
+                current = greedySearch(normalized, current, layer);
+            }
+            NodeQueue entryPoints = new NodeQueue(1);
+            entryPoints.push(current, distance(current, normalized));
+            NodeQueue found = searchLayer(normalized, entryPoints, Math.max(ef, k), 0, new BitSet(vectors.size()));
+
+            int[] nodes = found.sortedNodes();
+            List<SearchResult> results = new ArrayList<>(Math.min(k, nodes.length));
+            for (int node : nodes) {
+                results.add(new SearchResult(ids[node], distance(node, normalized)));
+                if (results.size() == k) {
+                    break;
+                }
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 精确 top-k 检索（暴力扫描），用于 EXACT 档位与召回评估
+     */
+    public List<SearchResult> exactSearch(float[] query, int k) {
+        if (query == null || query.length != dimension || k <= 0) {
+            return List.of();
+        }
+        float[] normalized = normalize(query);
+
+        lock.readLock().lock();
+        try {
+            NodeQueue best = new NodeQueue(k + 1);
+            for (int node = 0; node < vectors.size(); node++) {
+                float d = distance(node, normalized);
+                if (best.size() < k) {
+                    best.push(node, d);
+                } else if (d < best.peekMaxDistance()) {
+                    best.popMax();
+                    best.push(node, d);
+                }
+            }
+            int[] nodes = best.sortedNodes();
+            List<SearchResult> results = new ArrayList<>(nodes.length);
+            for (int node : nodes) {
+                results.add(new SearchResult(ids[node], distance(node, normalized)));
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 写出快照
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        lock.readLock().lock();
+        try {
+            int total = vectors.size();
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(dimension);
+            out.writeInt(m);
+            out.writeInt(efConstruction);
+            out.writeInt(total);
+            out.writeInt(entryPoint);
+            out.writeInt(maxLevel);
+            for (int node = 0; node < total; node++) {
+                out.writeLong(ids[node]);
+                float[] vector = vectors.get(node);
+                for (float v : vector) {
+                    out.writeFloat(v);
+                }
+                int[][] nodeLinks = links[node];
+                out.writeInt(nodeLinks.length);
+                for (int[] layerLinks : nodeLinks) {
+                    int count = layerLinks[0];
+                    out.writeInt(count);
+                    for (int i = 1; i <= count; i++) {
+                        out.writeInt(layerLinks[i]);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 从快照恢复索引
+     */
+    public static HnswIndex readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != SNAPSHOT_MAGIC) {
+            throw new IOException("不是有效的HNSW快照");
+        }
+        int version = in.readInt();
+        if (version != SNAPSHOT_VERSION) {
+            throw new IOException("不支持的HNSW快照版本: " + version);
+        }
+        HnswIndex index = new HnswIndex(in.readInt(), in.readInt(), in.readInt());
+        int total = in.readInt();
+        index.entryPoint = in.readInt();
+        index.maxLevel = in.readInt();
+        index.ensureCapacity(total);
+        float[] vector = new float[index.dimension];
+        for (int node = 0; node < total; node++) {
+            long id = in.readLong();
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] = in.readFloat();
+            }
+            index.vectors.add(vector);
+            index.ids[node] = id;
+            int levels = in.readInt();
+            index.links[node] = new int[levels][];
+            for (int layer = 0; layer < levels; layer++) {
+                int count = in.readInt();
+                int[] layerLinks = new int[(layer == 0 ? index.maxM0 : index.m) + 1];
+                layerLinks[0] = count;
+                for (int i = 1; i <= count; i++) {
+                    layerLinks[i] = in.readInt();
+                }
+                index.links[node][layer] = layerLinks;
+            }
+            index.idToNode.put(id, node);
+        }
+        return index;
+    }
+
+    private int greedySearch(float[] query, int start, int layer) {
+        int current = start;
+        float currentDistance = distance(current, query);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] layerLinks = links[current][layer];
+            for (int i = 1; i <= layerLinks[0]; i++) {
+                int candidate = layerLinks[i];
+                float d = distance(candidate, query);
+                if (d < currentDistance) {
+                    currentDistance = d;
+                    current = candidate;
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 在指定层做 ef 宽度的最佳优先搜索，返回最多 ef 个最近节点（最大堆）
+     */
+    private NodeQueue searchLayer(float[] query, NodeQueue entryPoints, int ef, int layer, BitSet visited) {
+        NodeQueue candidates = new NodeQueue(ef * 2);
+        NodeQueue results = new NodeQueue(ef + 1);
+        for (int i = 0; i < entryPoints.size(); i++) {
+            int node = entryPoints.nodeAt(i);
+            float d = entryPoints.distanceAt(i);
+            visited.set(node);
+            candidates.push(node, -d);
+            results.push(node, d);
+        }
+        while (results.size() > ef) {
+            results.popMax();
+        }
+
+        while (candidates.size() > 0) {
+            float candidateDistance = -candidates.peekMaxDistance();
+            int candidate = candidates.popMax();
+            if (results.size() >= ef && candidateDistance > results.peekMaxDistance()) {
+                break;
+            }
+            int[][] nodeLinks = links[candidate];
+            if (layer >= nodeLinks.length) {
+                continue;
+            }
+            int[] layerLinks = nodeLinks[layer];
+            for (int i = 1; i <= layerLinks[0]; i++) {
+                int neighbor = layerLinks[i];
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float d = distance(neighbor, query);
+                if (results.size() < ef || d < results.peekMaxDistance()) {
+                    candidates.push(neighbor, -d);
+                    results.push(neighbor, d);
+                    if (results.size() > ef) {
+                        results.popMax();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 启发式邻居选择：优先保留彼此分散的邻居，不足时用被裁掉的近邻补齐
+     */
+    private int[] selectNeighbors(int[] sortedCandidates, float[] base, int count) {
+        if (sortedCandidates.length <= count) {
+            return sortedCandidates;
+        }
+        int[] selected = new int[count];
+        int selectedCount = 0;
+        int[] pruned = new int[sortedCandidates.length];
+        int prunedCount = 0;
+        for (int candidate : sortedCandidates) {
+            if (selectedCount == count) {
+                break;
+            }
+            float candidateDistance = distance(candidate, base);
+            boolean keep = true;
+            for (int i = 0; i < selectedCount; i++) {
+                if (1f - vectors.dot(candidate, selected[i]) < candidateDistance) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                selected[selectedCount++] = candidate;
+            } else {
+                pruned[prunedCount++] = candidate;
+            }
+        }
+        for (int i = 0; i < prunedCount && selectedCount < count; i++) {
+            selected[selectedCount++] = pruned[i];
+        }
+        return selectedCount == count ? selected : Arrays.copyOf(selected, selectedCount);
+    }
+
+    private void connect(int from, int to, int layer, int maxConnections) {
+        if (from == to) {
+            return;
+        }
+        int[] layerLinks = links[from][layer];
+        int count = layerLinks[0];
+        for (int i = 1; i <= count; i++) {
+            if (layerLinks[i] == to) {
+                return;
+            }
+        }
+        if (count < maxConnections) {
+            layerLinks[count + 1] = to;
+            layerLinks[0] = count + 1;
+            return;
+        }
+
+        // 邻居已满：在原邻居与新节点中重新选择
+        float[] base = vectors.get(from);
+        NodeQueue all = new NodeQueue(count + 1);
+        for (int i = 1; i <= count; i++) {
+            all.push(layerLinks[i], distance(layerLinks[i], base));
+        }
+        all.push(to, distance(to, base));
+        int[] selected = selectNeighbors(all.sortedNodes(), base, maxConnections);
+        System.arraycopy(selected, 0, layerLinks, 1, selected.length);
+        layerLinks[0] = selected.length;
+    }
+
+    private float distance(int node, float[] query) {
+        return 1f - vectors.dot(node, query);
+    }
+
+    private int randomLevel() {
+        double r = ThreadLocalRandom.current().nextDouble();
+        return (int) Math.floor(-Math.log(Math.max(r, Double.MIN_VALUE)) * levelMultiplier);
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= ids.length) {
+            return;
+        }
+        int capacity = Math.max(required, ids.length + (ids.length >> 1));
+        ids = Arrays.copyOf(ids, capacity);
+        links = Arrays.copyOf(links, capacity);
+    }
+
+    private static float[] normalize(float[] vector) {
+        double sumSquares = 0.0;
+        for (float v : vector) {
+            sumSquares += (double) v * v;
+        }
+        float[] normalized = vector.clone();
+        if (sumSquares > 0.0) {
+            float inv = (float) (1.0 / Math.sqrt(sumSquares));
+            for (int i = 0; i < normalized.length; i++) {
+                normalized[i] *= inv;
+            }
+        }
+        return normalized;
+    }
+
+    /**
+     * 以距离为键的二叉最大堆（节点号 + 距离，全部为原始类型数组）
+     */
+    private static final class NodeQueue {
+        private int[] nodes;
+        private float[] distances;
+        private int size;
+
+        NodeQueue(int initialCapacity) {
+            int capacity = Math.max(initialCapacity, 4);
+            nodes = new int[capacity];
+            distances = new float[capacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int nodeAt(int i) {
+            return nodes[i];
+        }
+
+        float distanceAt(int i) {
+            return distances[i];
+        }
+
+        void push(int node, float distance) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                distances = Arrays.copyOf(distances, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (distances[parent] >= distance) {
+                    break;
+                }
+                nodes[i] = nodes[parent];
+                distances[i] = distances[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            distances[i] = distance;
+        }
+
+        float peekMaxDistance() {
+            return distances[0];
+        }
+
+        int popMax() {
+            int top = nodes[0];
+            int lastNode = nodes[--size];
+            float lastDistance = distances[size];
+            int i = 0;
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                int right = child + 1;
+                if (right < size && distances[right] > distances[child]) {
+                    child = right;
+                }
+                if (distances[child] <= lastDistance) {
+                    break;
+                }
+                nodes[i] = nodes[child];
+                distances[i] = distances[child];
+                i = child;
+            }
+            nodes[i] = lastNode;
+            distances[i] = lastDistance;
+            return top;
+        }
+
+        /**
+         * 按距离升序返回节点（不修改当前堆）
+         */
+        int[] sortedNodes() {
+            NodeQueue copy = new NodeQueue(size);
+            System.arraycopy(nodes, 0, copy.nodes, 0, size);
+            System.arraycopy(distances, 0, copy.distances, 0, size);
+            copy.size = size;
+            int[] sorted = new int[size];
+            for (int i = sorted.length - 1; i >= 0; i--) {
+                sorted[i] = copy.popMax();
+            }
+            return sorted;
+        }
+    }
+}
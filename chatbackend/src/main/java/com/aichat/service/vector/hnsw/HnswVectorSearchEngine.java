@@ -0,0 +1,447 @@
+package com.aichat.service.vector.hnsw;
+
+import com.aichat.domain.entity.VectorDocument;
+import com.aichat.repository.VectorDocumentRepository;
+import com.aichat.service.vector.KnowledgeBaseVersions;
+import com.aichat.service.vector.MetadataFilter;
+import com.aichat.service.vector.RecallProfile;
+import com.aichat.service.vector.VectorSearchEngine;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内 HNSW 检索引擎
+ * 每个知识库一张 HNSW 图，向量存放在堆外内存段中，文档正文与元数据保存在堆内以便无需回表即可返回结果。
+ * 图在首次访问时从本地快照或 vector_documents 加载，修改后定期写回快照目录。
+ * 图与快照记录构建时知识库的嵌入模型与版本（KnowledgeBaseVersions），访问时定期与数据库比对：
+ * 版本落后时补入缺少的文档（其他节点写入的），模型不同时重建（重建任务切换了模型），知识库已删除时丢弃。
+ * repository 为 null 时（如单元测试）只使用内存与快照，不访问数据库
+ */
+@Component
+@ConditionalOnProperty(name = "app.vector.engine", havingValue = "hnsw")
+@Slf4j
+public class HnswVectorSearchEngine implements VectorSearchEngine {
+
+    private static final TypeReference<Map<String, Object>> METADATA_TYPE = new TypeReference<>() {};
+
+    private static final int CATCH_UP_BATCH = 1000;
+
+    /**
+     * 快照文件头（"HNS2"），之前无文件头的快照读取时丢弃并重建
+     */
+    private static final int SNAPSHOT_MAGIC = 0x484E5332;
+
+    private final VectorDocumentRepository vectorDocumentRepository;
+    private final ObjectMapper objectMapper;
+    private final int m;
+    private final int efConstruction;
+    private final Path snapshotDir;
+    private final RecallProfile defaultProfile;
+    private final KnowledgeBaseVersions knowledgeBaseVersions;
+    private final long versionCheckIntervalMs;
+
+    private final Map<Long, KnowledgeBaseGraph> graphs = new ConcurrentHashMap<>();
+
+    @Autowired
+    public HnswVectorSearchEngine(VectorDocumentRepository vectorDocumentRepository,
+                                  ObjectMapper objectMapper,
+                                  @Value("${app.vector.hnsw.m:16}") int m,
+                                  @Value("${app.vector.hnsw.ef-construction:100}") int efConstruction,
+                                  @Value("${app.vector.hnsw.snapshot-dir:data/hnsw}") String snapshotDir,
+                                  @Value("${app.vector.search.profile:BALANCED}") RecallProfile defaultProfile,
+                                  KnowledgeBaseVersions knowledgeBaseVersions,
+                                  @Value("${app.vector.hnsw.version-check-interval-ms:1000}") long versionCheckIntervalMs) {
+        this.vectorDocumentRepository = vectorDocumentRepository;
+        this.objectMapper = objectMapper;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.snapshotDir = snapshotDir != null && !snapshotDir.isBlank() ? Paths.get(snapshotDir) : null;
+        this.defaultProfile = defaultProfile != null ? defaultProfile : RecallProfile.BALANCED;
+        this.knowledgeBaseVersions = knowledgeBaseVersions;
+        this.versionCheckIntervalMs = versionCheckIntervalMs;
+        log.info("HNSW检索引擎已启用: m={}, efConstruction={}, snapshotDir={}", m, efConstruction, this.snapshotDir);
+    }
+
+    @Override
+    public String getName() {
+        return "hnsw";
+    }
+
+    @Override
+    public void index(List<VectorDocument> documents) {
+        Map<Long, List<VectorDocument>> byKnowledgeBase = new HashMap<>();
+        for (VectorDocument document : documents) {
+            if (document.getId() == null || document.getEmbedding() == null) {
+                continue;
+            }
+            byKnowledgeBase.computeIfAbsent(document.getKnowledgeBaseId(), k -> new ArrayList<>()).add(document);
+        }
+        byKnowledgeBase.forEach((knowledgeBaseId, docs) -> {
+            KnowledgeBaseGraph graph = getOrLoad(knowledgeBaseId, docs.get(0).getEmbedding().length);
+            for (VectorDocument document : docs) {
+                if (!graph.index.contains(document.getId())) {
+                    graph.add(document);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void deleteKnowledgeBase(Long knowledgeBaseId) {
+        graphs.remove(knowledgeBaseId);
+        if (snapshotDir != null) {
+            try {
+                Files.deleteIfExists(snapshotPath(knowledgeBaseId));
+            } catch (IOException e) {
+                log.warn("删除HNSW快照失败: knowledgeBaseId={}, error={}", knowledgeBaseId, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 带元数据过滤时在图上后过滤：匹配结果不足 limit 时按4倍放大取回数量重查，
+     * 取回数量达到图的大小时相当于全量扫描（过滤条件很有选择性时）
+     */
+    @Override
+    public List<VectorDocument> search(Collection<Long> knowledgeBaseIds, float[] queryEmbedding, int limit,
+                                       RecallProfile profile, MetadataFilter filter) {
+        RecallProfile effective = profile != null ? profile : defaultProfile;
+        List<Hit> hits = new ArrayList<>();
+        for (Long knowledgeBaseId : knowledgeBaseIds) {
+            KnowledgeBaseGraph graph = getOrLoad(knowledgeBaseId, queryEmbedding.length);
+            if (graph.index.dimension() != queryEmbedding.length) {
+                log.warn("查询向量维度与知识库索引不一致: knowledgeBaseId={}", knowledgeBaseId);
+                continue;
+            }
+            int fetch = limit;
+            List<Hit> matched = new ArrayList<>();
+            while (true) {
+                List<HnswIndex.SearchResult> results = effective == RecallProfile.EXACT
+                        ? graph.index.exactSearch(queryEmbedding, fetch)
+                        : graph.index.search(queryEmbedding, fetch, Math.max(effective.getEfSearch(), fetch));
+                matched.clear();
+                for (HnswIndex.SearchResult result : results) {
+                    VectorDocument document = graph.documents.get(result.id());
+                    if (document != null && (filter == null || filter.matches(document.getMetadata()))) {
+                        matched.add(new Hit(document, result.distance()));
+                    }
+                }
+                int size = graph.index.size();
+                if (filter == null || matched.size() >= limit || results.size() < fetch || fetch >= size) {
+                    break;
+                }
+                fetch = (int) Math.min(size, (long) fetch * 4);
+            }
+            hits.addAll(matched);
+        }
+        hits.sort(Comparator.comparingDouble(Hit::distance));
+        List<VectorDocument> merged = new ArrayList<>(Math.min(limit, hits.size()));
+        for (int i = 0; i < hits.size() && i < limit; i++) {
+            VectorDocument document = copyOf(hits.get(i).document());
+            document.setSimilarity(1.0 - hits.get(i).distance());
+            merged.add(document);
+        }
+        return merged;
+    }
+
+    /**
+     * 将有修改的知识库图写回快照目录
+     */
+    @Scheduled(fixedDelayString = "${app.vector.hnsw.snapshot-interval-ms:300000}")
+    public void snapshotDirtyGraphs() {
+        if (snapshotDir == null) {
+            return;
+        }
+        graphs.forEach((knowledgeBaseId, graph) -> {
+            if (graph.dirty) {
+                writeSnapshot(knowledgeBaseId, graph);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        snapshotDirtyGraphs();
+    }
+
+    /**
+     * 加载与追赶在 map 操作之外进行（读快照、查库不阻塞其他知识库的加载），
+     * 同一知识库并发加载时以先放入的为准
+     */
+    private KnowledgeBaseGraph getOrLoad(Long knowledgeBaseId, int dimension) {
+        KnowledgeBaseGraph graph = graphs.get(knowledgeBaseId);
+        if (knowledgeBaseVersions == null || vectorDocumentRepository == null) {
+            if (graph != null) {
+                return graph;
+            }
+            KnowledgeBaseGraph loaded = load(knowledgeBaseId, dimension, null);
+            KnowledgeBaseGraph existing = graphs.putIfAbsent(knowledgeBaseId, loaded);
+            return existing != null ? existing : loaded;
+        }
+        long now = System.currentTimeMillis();
+        if (graph != null && now - graph.checkedAt < versionCheckIntervalMs) {
+            return graph;
+        }
+        // 先读版本再读文档：图记录的版本不超过其实际包含的数据
+        KnowledgeBaseVersions.Version current = knowledgeBaseVersions.read(List.of(knowledgeBaseId)).get(knowledgeBaseId);
+        if (current == null) {
+            if (graph != null) {
+                deleteKnowledgeBase(knowledgeBaseId);
+            }
+            return new KnowledgeBaseGraph(new HnswIndex(dimension, m, efConstruction), null, 0);
+        }
+        if (graph != null && Objects.equals(graph.model, current.model())) {
+            if (graph.version != current.version()) {
+                catchUp(knowledgeBaseId, graph, current.version());
+            }
+            graph.checkedAt = now;
+            return graph;
+        }
+        if (graph != null) {
+            log.info("知识库嵌入模型已变化，重建HNSW图: knowledgeBaseId={}, model={}", knowledgeBaseId, current.model());
+        }
+        KnowledgeBaseGraph loaded = load(knowledgeBaseId, dimension, current);
+        loaded.checkedAt = now;
+        return graphs.compute(knowledgeBaseId,
+                (id, existing) -> existing == null || existing == graph ? loaded : existing);
+    }
+
+    /**
+     * @param current 知识库当前的模型与版本，为 null 时（不访问数据库）不校验快照
+     */
+    private KnowledgeBaseGraph load(Long knowledgeBaseId, int dimension, KnowledgeBaseVersions.Version current) {
+        KnowledgeBaseGraph graph = readSnapshot(knowledgeBaseId);
+        if (graph != null && current != null) {
+            if (!Objects.equals(graph.model, current.model()) || graph.version > current.version()) {
+                log.info("HNSW快照与知识库模型或版本不一致，重新构建: knowledgeBaseId={}", knowledgeBaseId);
+                graph = null;
+            } else if (graph.version != current.version()) {
+                catchUp(knowledgeBaseId, graph, current.version());
+            }
+        }
+        if (graph == null) {
+            graph = buildFromDatabase(knowledgeBaseId, dimension, current);
+        }
+        return graph;
+    }
+
+    /**
+     * 补入数据库中有而图中没有的文档（本节点之外写入的），完成后图记为 version
+     */
+    private void catchUp(Long knowledgeBaseId, KnowledgeBaseGraph graph, long version) {
+        synchronized (graph) {
+            if (graph.version == version) {
+                return;
+            }
+            List<Long> missing = new ArrayList<>();
+            for (Long id : vectorDocumentRepository.findDocumentIds(knowledgeBaseId)) {
+                if (!graph.documents.containsKey(id)) {
+                    missing.add(id);
+                }
+            }
+            int added = 0;
+            for (int from = 0; from < missing.size(); from += CATCH_UP_BATCH) {
+                List<Long> ids = missing.subList(from, Math.min(missing.size(), from + CATCH_UP_BATCH));
+                for (VectorDocument document : vectorDocumentRepository.findDocumentsWithEmbedding(
+                        knowledgeBaseId, graph.index.dimension(), ids)) {
+                    if (document.getEmbedding() != null && document.getEmbedding().length == graph.index.dimension()
+                            && !graph.index.contains(document.getId())) {
+                        graph.add(document);
+                        added++;
+                    }
+                }
+            }
+            graph.version = version;
+            graph.dirty = true;
+            if (added > 0) {
+                log.debug("HNSW图已追赶到知识库版本: knowledgeBaseId={}, version={}, added={}",
+                        knowledgeBaseId, version, added);
+            }
+        }
+    }
+
+    private KnowledgeBaseGraph buildFromDatabase(Long knowledgeBaseId, int dimension,
+                                                 KnowledgeBaseVersions.Version current) {
+        List<VectorDocument> documents = vectorDocumentRepository != null
+                ? vectorDocumentRepository.findDocumentsWithEmbedding(knowledgeBaseId, dimension)
+                : List.of();
+        int graphDimension = documents.stream()
+                .map(VectorDocument::getEmbedding)
+                .filter(e -> e != null && e.length > 0)
+                .findFirst()
+                .map(e -> e.length)
+                .orElse(dimension);
+        KnowledgeBaseGraph graph = new KnowledgeBaseGraph(new HnswIndex(graphDimension, m, efConstruction),
+                current != null ? current.model() : null, current != null ? current.version() : 0);
+        long start = System.currentTimeMillis();
+        for (VectorDocument document : documents) {
+            if (document.getEmbedding() != null && document.getEmbedding().length == graphDimension) {
+                graph.add(document);
+            }
+        }
+        if (!documents.isEmpty()) {
+            log.info("从数据库构建HNSW图: knowledgeBaseId={}, documents={}, 耗时{}ms",
+                    knowledgeBaseId, graph.documents.size(), System.currentTimeMillis() - start);
+        }
+        return graph;
+    }
+
+    private void writeSnapshot(Long knowledgeBaseId, KnowledgeBaseGraph graph) {
+        try {
+            Files.createDirectories(snapshotDir);
+            Path target = snapshotPath(knowledgeBaseId);
+            Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+            graph.dirty = false;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                // 模型与版本先于图写出：写出期间追赶加入的文档只会让快照比记录的版本更新
+                out.writeInt(SNAPSHOT_MAGIC);
+                writeBytes(out, graph.model);
+                out.writeLong(graph.version);
+                graph.index.writeTo(out);
+                List<VectorDocument> documents = new ArrayList<>(graph.documents.values());
+                out.writeInt(documents.size());
+                for (VectorDocument document : documents) {
+                    out.writeLong(document.getId());
+                    out.writeInt(document.getTokenCount() != null ? document.getTokenCount() : -1);
+                    out.writeLong(document.getCreatedAt() != null
+                            ? document.getCreatedAt().toInstant(ZoneOffset.UTC).toEpochMilli() : Long.MIN_VALUE);
+                    writeBytes(out, document.getContent());
+                    writeBytes(out, objectMapper.writeValueAsString(
+                            document.getMetadata() != null ? document.getMetadata() : Map.of()));
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("HNSW快照已保存: knowledgeBaseId={}, documents={}", knowledgeBaseId, graph.documents.size());
+        } catch (IOException e) {
+            graph.dirty = true;
+            log.warn("保存HNSW快照失败: knowledgeBaseId={}, error={}", knowledgeBaseId, e.getMessage());
+        }
+    }
+
+    private KnowledgeBaseGraph readSnapshot(Long knowledgeBaseId) {
+        if (snapshotDir == null) {
+            return null;
+        }
+        Path path = snapshotPath(knowledgeBaseId);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                log.info("HNSW快照格式过旧，将重新构建: knowledgeBaseId={}", knowledgeBaseId);
+                return null;
+            }
+            String model = readBytes(in);
+            long version = in.readLong();
+            KnowledgeBaseGraph graph = new KnowledgeBaseGraph(HnswIndex.readFrom(in),
+                    model.isEmpty() ? null : model, version);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long id = in.readLong();
+                int tokenCount = in.readInt();
+                long createdAt = in.readLong();
+                String content = readBytes(in);
+                Map<String, Object> metadata = objectMapper.readValue(readBytes(in), METADATA_TYPE);
+                graph.documents.put(id, VectorDocument.builder()
+                        .id(id)
+                        .knowledgeBaseId(knowledgeBaseId)
+                        .content(content)
+                        .metadata(metadata)
+                        .tokenCount(tokenCount >= 0 ? tokenCount : null)
+                        .createdAt(createdAt != Long.MIN_VALUE
+                                ? LocalDateTime.ofInstant(Instant.ofEpochMilli(createdAt), ZoneOffset.UTC) : null)
+                        .build());
+            }
+            log.info("已加载HNSW快照: knowledgeBaseId={}, documents={}", knowledgeBaseId, count);
+            return graph;
+        } catch (IOException e) {
+            log.warn("读取HNSW快照失败，将重新构建: knowledgeBaseId={}, error={}", knowledgeBaseId, e.getMessage());
+            return null;
+        }
+    }
+
+    private Path snapshotPath(Long knowledgeBaseId) {
+        return snapshotDir.resolve("kb-" + knowledgeBaseId + ".hnsw");
+    }
+
+    private static void writeBytes(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static VectorDocument copyOf(VectorDocument document) {
+        return VectorDocument.builder()
+                .id(document.getId())
+                .knowledgeBaseId(document.getKnowledgeBaseId())
+                .content(document.getContent())
+                .metadata(document.getMetadata())
+                .tokenCount(document.getTokenCount())
+                .createdAt(document.getCreatedAt())
+                .build();
+    }
+
+    private record Hit(VectorDocument document, float distance) {
+    }
+
+    /**
+     * 单个知识库的 HNSW 图与文档正文（正文不含向量，向量只保存在堆外）
+     */
+    private static final class KnowledgeBaseGraph {
+        final HnswIndex index;
+        final Map<Long, VectorDocument> documents = new ConcurrentHashMap<>();
+        /** 构建时知识库的嵌入模型，模型变化后整图重建 */
+        final String model;
+        /** 图已包含的知识库版本，落后时追赶 */
+        volatile long version;
+        volatile long checkedAt;
+        volatile boolean dirty;
+
+        KnowledgeBaseGraph(HnswIndex index, String model, long version) {
+            this.index = index;
+            this.model = model;
+            this.version = version;
+        }
+
+        void add(VectorDocument document) {
+            index.add(document.getId(), document.getEmbedding());
+            documents.put(document.getId(), copyOf(document));
+            dirty = true;
+        }
+    }
+}
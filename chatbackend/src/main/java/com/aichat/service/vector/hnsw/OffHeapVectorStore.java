@@ -0,0 +1,91 @@
+package com.aichat.service.vector.hnsw;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 堆外向量存储
+ * 向量按槽位顺序写入固定大小的直接内存段，每段是一块连续的 float 区域，
+ * 避免大量 float[] 对象给 GC 带来的压力。非线程安全，由 HnswIndex 的读写锁保护
+ */
+public class OffHeapVectorStore {
+
+    private static final int VECTORS_PER_SEGMENT = 1024;
+
+    private final int dimension;
+    private final List<FloatBuffer> segments = new ArrayList<>();
+    private int size;
+
+    public OffHeapVectorStore(int dimension) {
+        this.dimension = dimension;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 追加向量，返回槽位号
+     */
+    public int add(float[] vector) {
+        int slot = size;
+        int segmentIndex = slot / VECTORS_PER_SEGMENT;
+        if (segmentIndex == segments.size()) {
+            segments.add(ByteBuffer.allocateDirect(VECTORS_PER_SEGMENT * dimension * Float.BYTES)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer());
+        }
+        FloatBuffer segment = segments.get(segmentIndex);
+        segment.put(offset(slot), vector, 0, dimension);
+        size++;
+        return slot;
+    }
+
+    /**
+     * 槽位向量与查询向量的点积
+     */
+    public float dot(int slot, float[] query) {
+        FloatBuffer segment = segments.get(slot / VECTORS_PER_SEGMENT);
+        int base = offset(slot);
+        float sum = 0f;
+        for (int i = 0; i < dimension; i++) {
+            sum += segment.get(base + i) * query[i];
+        }
+        return sum;
+    }
+
+    /**
+     * 两个槽位向量的点积
+     */
+    public float dot(int slotA, int slotB) {
+        FloatBuffer segmentA = segments.get(slotA / VECTORS_PER_SEGMENT);
+        FloatBuffer segmentB = segments.get(slotB / VECTORS_PER_SEGMENT);
+        int baseA = offset(slotA);
+        int baseB = offset(slotB);
+        float sum = 0f;
+        for (int i = 0; i < dimension; i++) {
+            sum += segmentA.get(baseA + i) * segmentB.get(baseB + i);
+        }
+        return sum;
+    }
+
+    /**
+     * 复制槽位向量到堆内数组
+     */
+    public float[] get(int slot) {
+        float[] vector = new float[dimension];
+        segments.get(slot / VECTORS_PER_SEGMENT).get(offset(slot), vector, 0, dimension);
+        return vector;
+    }
+
+    private int offset(int slot) {
+        return (slot % VECTORS_PER_SEGMENT) * dimension;
+    }
+}
@@ -0,0 +1,20 @@
+-- 删除标记：实体上的 @SQLRestriction("deleted_at IS NULL") 依赖该列（见 PurgeService）
+ALTER TABLE knowledge_base ADD COLUMN IF NOT EXISTS deleted_at TIMESTAMP;
+ALTER TABLE conversations ADD COLUMN IF NOT EXISTS deleted_at TIMESTAMP;
+
+-- 后台删除任务：状态与进度，各节点按租约认领
+CREATE TABLE IF NOT EXISTS purge_jobs (
+    target_type VARCHAR(32) NOT NULL,
+    target_id BIGINT NOT NULL,
+    user_id BIGINT NOT NULL,
+    state VARCHAR(16) NOT NULL,
+    total_rows BIGINT,
+    deleted_rows BIGINT NOT NULL DEFAULT 0,
+    error TEXT,
+    owner VARCHAR(64),
+    lease_until TIMESTAMP,
+    requested_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    finished_at TIMESTAMP,
+    PRIMARY KEY (target_type, target_id)
+);
@@ -0,0 +1,13 @@
+-- 知识库的向量维度与嵌入模型（见 VectorDimensions、EmbeddingService），文档的嵌入模型
+ALTER TABLE knowledge_base ADD COLUMN IF NOT EXISTS embedding_dimension INTEGER;
+ALTER TABLE knowledge_base ADD COLUMN IF NOT EXISTS embedding_model VARCHAR(100);
+ALTER TABLE vector_documents ADD COLUMN IF NOT EXISTS embedding_model VARCHAR(100);
+
+-- 全文检索列，由写入方按 LexicalTokenizer 的规则生成（见 LexicalIndexService）
+ALTER TABLE vector_documents ADD COLUMN IF NOT EXISTS lexical tsvector;
+
+-- 知识库内容版本，写入与模型切换时递增（见 KnowledgeBaseVersions）
+CREATE TABLE IF NOT EXISTS knowledge_base_versions (
+    knowledge_base_id BIGINT PRIMARY KEY,
+    version BIGINT NOT NULL
+);
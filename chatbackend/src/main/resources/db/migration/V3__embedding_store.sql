@@ -0,0 +1,31 @@
+-- 文档向量按 (模型, 维度, 内容哈希) 存储复用，向量不限定维度（见 EmbeddingStore）
+CREATE TABLE IF NOT EXISTS embedding_store (
+    embedding_model VARCHAR(100) NOT NULL,
+    dimension INTEGER NOT NULL,
+    content_hash CHAR(64) NOT NULL,
+    embedding vector NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (embedding_model, dimension, content_hash)
+);
+
+-- 向量重建任务与暂存向量，暂存向量不限定维度（见 ReembeddingService）
+CREATE TABLE IF NOT EXISTS reembedding_jobs (
+    knowledge_base_id BIGINT PRIMARY KEY,
+    target_model VARCHAR(100) NOT NULL,
+    state VARCHAR(20) NOT NULL,
+    last_document_id BIGINT NOT NULL DEFAULT 0,
+    processed BIGINT NOT NULL DEFAULT 0,
+    error TEXT,
+    started_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+ALTER TABLE reembedding_jobs ADD COLUMN IF NOT EXISTS owner VARCHAR(64);
+ALTER TABLE reembedding_jobs ADD COLUMN IF NOT EXISTS lease_until TIMESTAMP;
+
+CREATE TABLE IF NOT EXISTS reembedding_staging (
+    document_id BIGINT PRIMARY KEY,
+    knowledge_base_id BIGINT NOT NULL,
+    embedding_model VARCHAR(100) NOT NULL,
+    embedding vector NOT NULL
+);
+CREATE INDEX IF NOT EXISTS idx_reembedding_staging_kb ON reembedding_staging (knowledge_base_id);
@@ -0,0 +1,20 @@
+-- 知识库路由草图，向量和不限定维度（见 KnowledgeBaseRouter）
+CREATE TABLE IF NOT EXISTS knowledge_base_sketches (
+    knowledge_base_id BIGINT NOT NULL,
+    cluster INTEGER NOT NULL,
+    embedding_model VARCHAR(100) NOT NULL,
+    vector_sum vector NOT NULL,
+    doc_count BIGINT NOT NULL,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (knowledge_base_id, cluster)
+);
+
+-- 大知识库分区登记，及各分区 ANN 索引的存储精度档位（见 VectorPartitionRouter）
+CREATE TABLE IF NOT EXISTS vector_document_partitions (
+    knowledge_base_id BIGINT PRIMARY KEY,
+    state VARCHAR(20) NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+ALTER TABLE vector_document_partitions ADD COLUMN IF NOT EXISTS storage_tier VARCHAR(20);
+ALTER TABLE vector_document_partitions ADD COLUMN IF NOT EXISTS rescore_multiplier INTEGER;
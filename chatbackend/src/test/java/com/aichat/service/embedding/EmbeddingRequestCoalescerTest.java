@@ -0,0 +1,100 @@
+package com.aichat.service.embedding;
+
+import com.aichat.service.deepseek.DeepSeekService;
+import com.aichat.service.deepseek.dto.EmbeddingRequest;
+import com.aichat.service.deepseek.dto.EmbeddingResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EmbeddingRequestCoalescerTest {
+
+    /**
+     * 提交量远超批量调用并发数、且每次批量调用都较慢时，所有请求都应拿到各自的向量（不因背压溢出中断管道）
+     */
+    @Test
+    public void testFloodBeyondConcurrency() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        DeepSeekService deepSeekService = Mockito.mock(DeepSeekService.class);
+        Mockito.when(deepSeekService.createEmbeddings(Mockito.any())).thenAnswer(invocation -> {
+            calls.incrementAndGet();
+            EmbeddingRequest request = invocation.getArgument(0);
+            return Mono.just(response(request)).delayElement(Duration.ofMillis(20));
+        });
+        EmbeddingRequestCoalescer coalescer = new EmbeddingRequestCoalescer(
+                deepSeekService, new SimpleMeterRegistry(), true, Duration.ofMillis(1), 4, 2, 10000);
+
+        int requests = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<CompletableFuture<CompletableFuture<float[]>>> submitted = new ArrayList<>();
+            for (int i = 0; i < requests; i++) {
+                String text = String.valueOf(i);
+                submitted.add(CompletableFuture.supplyAsync(() -> coalescer.submit(text), executor));
+            }
+            for (int i = 0; i < requests; i++) {
+                float[] embedding = submitted.get(i).get(10, TimeUnit.SECONDS).get(10, TimeUnit.SECONDS);
+                Assertions.assertEquals(i, (int) embedding[0]);
+            }
+        } finally {
+            executor.shutdownNow();
+            coalescer.shutdown();
+        }
+        Assertions.assertTrue(calls.get() < requests, "请求未被合并: calls=" + calls.get());
+    }
+
+    /**
+     * 批量调用失败只影响该批请求，后续请求仍可正常完成
+     */
+    @Test
+    public void testFailedBatchDoesNotStopPipeline() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        DeepSeekService deepSeekService = Mockito.mock(DeepSeekService.class);
+        Mockito.when(deepSeekService.createEmbeddings(Mockito.any())).thenAnswer(invocation -> {
+            if (calls.getAndIncrement() == 0) {
+                return Mono.error(new IllegalStateException("boom"));
+            }
+            return Mono.just(response(invocation.getArgument(0)));
+        });
+        EmbeddingRequestCoalescer coalescer = new EmbeddingRequestCoalescer(
+                deepSeekService, new SimpleMeterRegistry(), true, Duration.ofMillis(1), 4, 2, 10000);
+        try {
+            CompletableFuture<float[]> failed = coalescer.submit("0");
+            Assertions.assertThrows(Exception.class, () -> failed.get(10, TimeUnit.SECONDS));
+
+            float[] embedding = coalescer.submit("7").get(10, TimeUnit.SECONDS);
+            Assertions.assertEquals(7, (int) embedding[0]);
+        } finally {
+            coalescer.shutdown();
+        }
+    }
+
+    /**
+     * 每条文本的向量第一维为文本本身的数值，便于校验顺序
+     */
+    private static EmbeddingResponse response(EmbeddingRequest request) {
+        @SuppressWarnings("unchecked")
+        List<String> texts = (List<String>) request.getInput();
+        List<EmbeddingResponse.EmbeddingData> data = new ArrayList<>();
+        for (int i = 0; i < texts.size(); i++) {
+            EmbeddingResponse.EmbeddingData item = new EmbeddingResponse.EmbeddingData();
+            item.setEmbedding(new float[]{Float.parseFloat(texts.get(i)), 1f});
+            item.setIndex(i);
+            data.add(item);
+        }
+        EmbeddingResponse response = new EmbeddingResponse();
+        response.setData(data);
+        return response;
+    }
+}
@@ -0,0 +1,143 @@
+package com.aichat.service.embedding;
+
+import com.aichat.exception.BusinessException;
+import com.aichat.service.deepseek.DeepSeekService;
+import com.aichat.service.deepseek.dto.EmbeddingRequest;
+import com.aichat.service.deepseek.dto.EmbeddingResponse;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+public class RemoteEmbeddingBatcherTest {
+
+    @Test
+    public void testPartitionByCountAndChars() {
+        RemoteEmbeddingBatcher batcher = new RemoteEmbeddingBatcher(null, 3, 10, 1, 0, Duration.ZERO);
+
+        Assertions.assertEquals(List.of(List.of("1", "2", "3"), List.of("4", "5")),
+                batcher.partition(List.of("1", "2", "3", "4", "5")));
+        Assertions.assertEquals(List.of(List.of("aaaa", "bbbb"), List.of("cccc")),
+                batcher.partition(List.of("aaaa", "bbbb", "cccc")));
+    }
+
+    @Test
+    public void testOversizedTextGetsOwnBatch() {
+        RemoteEmbeddingBatcher batcher = new RemoteEmbeddingBatcher(null, 10, 10, 1, 0, Duration.ZERO);
+        String oversized = "x".repeat(25);
+
+        Assertions.assertEquals(List.of(List.of("a"), List.of(oversized), List.of("b")),
+                batcher.partition(List.of("a", oversized, "b")));
+    }
+
+    @Test
+    public void testToEmbeddingsRestoresIndexOrder() {
+        EmbeddingResponse response = new EmbeddingResponse();
+        response.setData(List.of(data(2, 2f), data(0, 0f), data(1, 1f)));
+
+        List<float[]> embeddings = RemoteEmbeddingBatcher.toEmbeddings(response, 3);
+
+        Assertions.assertEquals(List.of(0f, 1f, 2f), embeddings.stream().map(e -> e[0]).toList());
+    }
+
+    @Test
+    public void testToEmbeddingsRejectsCountMismatch() {
+        EmbeddingResponse response = new EmbeddingResponse();
+        response.setData(List.of(data(0, 0f)));
+
+        Assertions.assertThrows(BusinessException.class, () -> RemoteEmbeddingBatcher.toEmbeddings(response, 2));
+        Assertions.assertThrows(BusinessException.class, () -> RemoteEmbeddingBatcher.toEmbeddings(null, 1));
+    }
+
+    /**
+     * 批次并发发送且先发的批次后返回、批次内 data 逆序时，结果仍与输入顺序一致
+     */
+    @Test
+    public void testEmbedKeepsInputOrderAcrossConcurrentBatches() {
+        DeepSeekService deepSeekService = Mockito.mock(DeepSeekService.class);
+        Mockito.when(deepSeekService.createEmbeddings(Mockito.any())).thenAnswer(invocation -> {
+            EmbeddingRequest request = invocation.getArgument(0);
+            int first = Integer.parseInt(texts(request).get(0));
+            return Mono.just(reversedResponse(request)).delayElement(Duration.ofMillis(100 - first));
+        });
+        RemoteEmbeddingBatcher batcher = new RemoteEmbeddingBatcher(deepSeekService, 4, 10000, 4, 0, Duration.ZERO);
+        List<String> texts = IntStream.range(0, 30).mapToObj(String::valueOf).toList();
+
+        List<float[]> embeddings = batcher.embed(texts);
+
+        Assertions.assertEquals(30, embeddings.size());
+        for (int i = 0; i < texts.size(); i++) {
+            Assertions.assertEquals(i, (int) embeddings.get(i)[0]);
+        }
+    }
+
+    @Test
+    public void testEmbedRetriesServerErrors() {
+        AtomicInteger calls = new AtomicInteger();
+        DeepSeekService deepSeekService = Mockito.mock(DeepSeekService.class);
+        Mockito.when(deepSeekService.createEmbeddings(Mockito.any())).thenAnswer(invocation -> Mono.defer(() -> {
+            if (calls.getAndIncrement() == 0) {
+                return Mono.error(WebClientResponseException.create(
+                        HttpStatus.SERVICE_UNAVAILABLE.value(), "unavailable", null, null, null));
+            }
+            return Mono.just(reversedResponse(invocation.getArgument(0)));
+        }));
+        RemoteEmbeddingBatcher batcher = new RemoteEmbeddingBatcher(deepSeekService, 4, 10000, 1, 2, Duration.ofMillis(1));
+
+        List<float[]> embeddings = batcher.embed(List.of("5", "6"));
+
+        Assertions.assertEquals(List.of(5f, 6f), embeddings.stream().map(e -> e[0]).toList());
+        Assertions.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testEmbedDoesNotRetryClientErrors() {
+        AtomicInteger calls = new AtomicInteger();
+        DeepSeekService deepSeekService = Mockito.mock(DeepSeekService.class);
+        Mockito.when(deepSeekService.createEmbeddings(Mockito.any())).thenAnswer(invocation -> Mono.defer(() -> {
+            calls.incrementAndGet();
+            return Mono.error(WebClientResponseException.create(
+                    HttpStatus.BAD_REQUEST.value(), "bad request", null, null, null));
+        }));
+        RemoteEmbeddingBatcher batcher = new RemoteEmbeddingBatcher(deepSeekService, 4, 10000, 1, 3, Duration.ofMillis(1));
+
+        Assertions.assertThrows(WebClientResponseException.class, () -> batcher.embed(List.of("1")));
+        Assertions.assertEquals(1, calls.get());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> texts(EmbeddingRequest request) {
+        return (List<String>) request.getInput();
+    }
+
+    /**
+     * 每条文本的向量第一维为文本本身的数值，data 按逆序返回
+     */
+    private static EmbeddingResponse reversedResponse(EmbeddingRequest request) {
+        List<String> texts = texts(request);
+        List<EmbeddingResponse.EmbeddingData> data = new ArrayList<>();
+        for (int i = 0; i < texts.size(); i++) {
+            data.add(data(i, Float.parseFloat(texts.get(i))));
+        }
+        Collections.reverse(data);
+        EmbeddingResponse response = new EmbeddingResponse();
+        response.setData(data);
+        return response;
+    }
+
+    private static EmbeddingResponse.EmbeddingData data(int index, float value) {
+        EmbeddingResponse.EmbeddingData item = new EmbeddingResponse.EmbeddingData();
+        item.setEmbedding(new float[]{value, 1f});
+        item.setIndex(index);
+        return item;
+    }
+}
@@ -0,0 +1,106 @@
+package com.aichat.service.embedding;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+public class SimpleEmbeddingServiceTest {
+
+    private static final int DIMENSION = 512;
+
+    private final SimpleEmbeddingService service = new SimpleEmbeddingService();
+
+    @Test
+    public void testModelIdIdentifiesSecondAlgorithmVersion() {
+        Assertions.assertEquals("simple-hash-v2-512", SimpleEmbeddingService.modelId(DIMENSION));
+        // 存储的模型标识与缓存键使用同一算法版本
+        Assertions.assertTrue(SimpleEmbeddingService.modelId(DIMENSION).startsWith(EmbeddingService.SIMPLE_MODEL + "-"));
+        Assertions.assertNotEquals(LegacyHashEmbeddingService.MODEL, EmbeddingService.SIMPLE_MODEL);
+    }
+
+    @Test
+    public void testEmbeddingIsNormalizedAndDeterministic() {
+        float[] first = service.generateEmbedding("Vector search with pgvector", DIMENSION);
+        float[] second = service.generateEmbedding("Vector search with pgvector", DIMENSION);
+        Assertions.assertEquals(DIMENSION, first.length);
+        Assertions.assertArrayEquals(first, second);
+        Assertions.assertEquals(1.0, norm(first), 1e-5);
+        Assertions.assertEquals(0.0, norm(service.generateEmbedding("   ", DIMENSION)), 0.0);
+    }
+
+    @Test
+    public void testCaseAndFullWidthAreFolded() {
+        float[] plain = service.generateEmbedding("hello world 2024", DIMENSION);
+        float[] folded = service.generateEmbedding("ＨＥＬＬＯ World ２０２４", DIMENSION);
+        Assertions.assertEquals(1.0, cosine(plain, folded), 1e-5);
+    }
+
+    @Test
+    public void testCjkTextWithoutSpacesMatchesByBigrams() {
+        // 中文不依赖空格分词：共享二元组的文本比无关文本更相似
+        float[] query = service.generateEmbedding("向量数据库检索", DIMENSION);
+        float[] related = service.generateEmbedding("基于向量数据库的语义检索方案", DIMENSION);
+        float[] unrelated = service.generateEmbedding("今天天气晴朗适合出游", DIMENSION);
+        Assertions.assertTrue(cosine(query, related) > 0.4, "related=" + cosine(query, related));
+        Assertions.assertTrue(cosine(query, related) > cosine(query, unrelated) + 0.3);
+        Assertions.assertEquals(1.0, norm(query), 1e-5);
+    }
+
+    @Test
+    public void testSubwordFeaturesMatchInflectedWords() {
+        float[] query = service.generateEmbedding("embedding", DIMENSION);
+        float[] inflected = service.generateEmbedding("embeddings", DIMENSION);
+        float[] unrelated = service.generateEmbedding("kitchen", DIMENSION);
+        Assertions.assertTrue(cosine(query, inflected) > 0.5, "inflected=" + cosine(query, inflected));
+        Assertions.assertTrue(cosine(query, inflected) > cosine(query, unrelated));
+    }
+
+    @Test
+    public void testSparseEmbeddingEqualsDenseEmbedding() {
+        List<String> texts = List.of("Hybrid retrieval 混合检索 with RRF", "稀疏向量只保留非零维度", "a", "");
+        List<SparseEmbedding> sparse = service.generateSparseEmbeddings(texts, DIMENSION);
+        List<float[]> dense = service.generateEmbeddings(texts, DIMENSION);
+        for (int i = 0; i < texts.size(); i++) {
+            SparseEmbedding embedding = sparse.get(i);
+            Assertions.assertEquals(DIMENSION, embedding.dimension());
+            Assertions.assertArrayEquals(dense.get(i), embedding.toDense(), 1e-7f);
+            for (int j = 0; j < embedding.nonZeroCount(); j++) {
+                Assertions.assertNotEquals(0f, embedding.values()[j]);
+                if (j > 0) {
+                    Assertions.assertTrue(embedding.indices()[j] > embedding.indices()[j - 1], "下标应严格升序");
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReusedBufferDoesNotLeakBetweenCalls() {
+        float[] before = service.generateEmbedding("independent text", DIMENSION);
+        service.generateEmbedding("一段完全不同的中文文本 with other words", 1536);
+        service.generateSparseEmbedding("another text", 256);
+        Assertions.assertArrayEquals(before, service.generateEmbedding("independent text", DIMENSION));
+    }
+
+    @Test
+    public void testRejectsUnsupportedDimension() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> service.generateEmbedding("text", 0));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> service.generateSparseEmbedding("text", 4096));
+    }
+
+    private static double norm(float[] vector) {
+        double sum = 0;
+        for (float value : vector) {
+            sum += (double) value * value;
+        }
+        return Math.sqrt(sum);
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += (double) a[i] * b[i];
+        }
+        return dot / (norm(a) * norm(b));
+    }
+}
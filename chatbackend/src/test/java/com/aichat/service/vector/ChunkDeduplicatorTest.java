@@ -0,0 +1,106 @@
+package com.aichat.service.vector;
+
+import com.aichat.domain.entity.VectorDocument;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class ChunkDeduplicatorTest {
+
+    private static final int MAX_HAMMING_DISTANCE = 3;
+    private static final double OVERLAP_CONTAINMENT = 0.6;
+
+    @Test
+    public void testNearDuplicatesAcrossKnowledgeBasesCollapse() {
+        String text = text(new Random(1), 80);
+        List<VectorDocument> ranked = List.of(
+                doc(1, 1L, text, "a.pdf", 0),
+                // 同一内容重复上传到另一个知识库，大小写与空白不同
+                doc(2, 2L, "  " + text.toUpperCase().replace(" ", "   ") + "\n", "copy.pdf", 5),
+                doc(3, 1L, text(new Random(2), 80), "a.pdf", 7));
+        Assertions.assertEquals(List.of(1L, 3L), ids(dedup(ranked, 10)));
+    }
+
+    @Test
+    public void testOverlappingAdjacentChunkCollapses() {
+        String first = text(new Random(3), 80);
+        // 相邻分块：前半部分为上一块末尾的重叠区
+        String second = first.substring(first.length() / 3) + " " + text(new Random(4), 10);
+        List<VectorDocument> ranked = List.of(doc(1, 1L, first, "a.pdf", 1), doc(2, 1L, second, "a.pdf", 2));
+        Assertions.assertEquals(List.of(1L), ids(dedup(ranked, 10)));
+    }
+
+    @Test
+    public void testOverlapOnlyCountsForAdjacentChunksOfTheSameSource() {
+        String first = text(new Random(3), 80);
+        String second = first.substring(first.length() / 3) + " " + text(new Random(4), 10);
+        // 不相邻、来源不同或知识库不同的分块不按重叠折叠
+        Assertions.assertEquals(2, dedup(List.of(doc(1, 1L, first, "a.pdf", 1), doc(2, 1L, second, "a.pdf", 3)), 10).size());
+        Assertions.assertEquals(2, dedup(List.of(doc(1, 1L, first, "a.pdf", 1), doc(2, 1L, second, "b.pdf", 2)), 10).size());
+        Assertions.assertEquals(2, dedup(List.of(doc(1, 1L, first, "a.pdf", 1), doc(2, 2L, second, "a.pdf", 2)), 10).size());
+    }
+
+    @Test
+    public void testAdjacentChunkWithLittleOverlapIsKept() {
+        String first = text(new Random(5), 80);
+        String second = first.substring(first.length() * 9 / 10) + " " + text(new Random(6), 80);
+        List<VectorDocument> ranked = List.of(doc(1, 1L, first, "a.pdf", 1), doc(2, 1L, second, "a.pdf", 2));
+        Assertions.assertEquals(List.of(1L, 2L), ids(dedup(ranked, 10)));
+    }
+
+    @Test
+    public void testDuplicatesAreBackfilledUpToLimit() {
+        String text = text(new Random(7), 60);
+        List<VectorDocument> ranked = List.of(
+                doc(1, 1L, text, "a.pdf", 0),
+                doc(2, 2L, text, "b.pdf", 0),
+                doc(3, 3L, text, "c.pdf", 0),
+                doc(4, 1L, text(new Random(8), 60), "d.pdf", 0),
+                doc(5, 1L, text(new Random(9), 60), "e.pdf", 0));
+        Assertions.assertEquals(List.of(1L, 4L), ids(dedup(ranked, 2)));
+        Assertions.assertEquals(List.of(1L, 4L, 5L), ids(dedup(ranked, 10)));
+    }
+
+    @Test
+    public void testEmptyContentIsNeverADuplicate() {
+        List<VectorDocument> ranked = List.of(doc(1, 1L, "", "a.pdf", 0), doc(2, 1L, "", "a.pdf", 1));
+        Assertions.assertEquals(List.of(1L, 2L), ids(dedup(ranked, 10)));
+    }
+
+    private static List<VectorDocument> dedup(List<VectorDocument> ranked, int limit) {
+        return ChunkDeduplicator.deduplicate(ranked, limit, MAX_HAMMING_DISTANCE, OVERLAP_CONTAINMENT);
+    }
+
+    private static VectorDocument doc(long id, Long knowledgeBaseId, String content, String filename, int chunkIndex) {
+        return VectorDocument.builder()
+                .id(id)
+                .knowledgeBaseId(knowledgeBaseId)
+                .content(content)
+                .metadata(Map.of("source", "file", "filename", filename, "chunkIndex", chunkIndex))
+                .build();
+    }
+
+    /**
+     * 随机单词组成的文本，不同种子之间几乎没有共同的 3-gram 组合
+     */
+    private static String text(Random random, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            int length = 3 + random.nextInt(6);
+            for (int j = 0; j < length; j++) {
+                text.append((char) ('a' + random.nextInt(26)));
+            }
+        }
+        return text.toString();
+    }
+
+    private static List<Long> ids(List<VectorDocument> documents) {
+        return documents.stream().map(VectorDocument::getId).toList();
+    }
+}
@@ -0,0 +1,63 @@
+package com.aichat.service.vector;
+
+import com.aichat.domain.entity.VectorDocument;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+public class ContextSelectorTest {
+
+    @Test
+    public void testAbsoluteFloor() {
+        List<VectorDocument> ranked = List.of(doc(1, 0.35, 10), doc(2, 0.25, 10), doc(3, 0.15, 10));
+        Assertions.assertEquals(List.of(1L, 2L), ids(ContextSelector.select(ranked, 0.2, 1.0, 0)));
+    }
+
+    @Test
+    public void testRelativeDropCutsTail() {
+        // 最高 0.9，下限 0.9 * (1 - 0.3) = 0.63
+        List<VectorDocument> ranked = List.of(doc(1, 0.9, 10), doc(2, 0.8, 10), doc(3, 0.64, 10),
+                doc(4, 0.62, 10), doc(5, 0.3, 10));
+        Assertions.assertEquals(List.of(1L, 2L, 3L), ids(ContextSelector.select(ranked, 0.2, 0.3, 0)));
+    }
+
+    @Test
+    public void testTokenBudgetSkipsOverflowingDocuments() {
+        List<VectorDocument> ranked = List.of(doc(1, 0.9, 800), doc(2, 0.85, 1500), doc(3, 0.8, 700),
+                doc(4, 0.75, 600));
+        // 第2个放不下被跳过，由后面较短的补位
+        Assertions.assertEquals(List.of(1L, 3L), ids(ContextSelector.select(ranked, 0.0, 1.0, 2000)));
+        // 预算不大于0时不限制
+        Assertions.assertEquals(4, ContextSelector.select(ranked, 0.0, 1.0, 0).size());
+    }
+
+    @Test
+    public void testTokensEstimatedFromContentWhenMissing() {
+        VectorDocument unknown = VectorDocument.builder().id(1L).similarity(0.9).content("x".repeat(250)).build();
+        // 250 / 2.5 = 100 tokens
+        Assertions.assertEquals(1, ContextSelector.select(List.of(unknown), 0.0, 1.0, 100).size());
+        Assertions.assertEquals(0, ContextSelector.select(List.of(unknown), 0.0, 1.0, 99).size());
+    }
+
+    @Test
+    public void testDocumentsWithoutSimilarityOnlyCountTowardsBudget() {
+        // 全文检索命中没有向量相似度，不参与得分判断，也不影响下限
+        List<VectorDocument> ranked = List.of(doc(1, null, 10), doc(2, 0.5, 10), doc(3, 0.1, 10), doc(4, null, 10));
+        Assertions.assertEquals(List.of(1L, 2L, 4L), ids(ContextSelector.select(ranked, 0.2, 0.3, 0)));
+        Assertions.assertEquals(List.of(1L), ids(ContextSelector.select(ranked, 0.2, 0.3, 15)));
+    }
+
+    @Test
+    public void testEmptyInput() {
+        Assertions.assertTrue(ContextSelector.select(List.of(), 0.2, 0.3, 2000).isEmpty());
+    }
+
+    private static VectorDocument doc(long id, Double similarity, int tokens) {
+        return VectorDocument.builder().id(id).similarity(similarity).tokenCount(tokens).content("doc " + id).build();
+    }
+
+    private static List<Long> ids(List<VectorDocument> documents) {
+        return documents.stream().map(VectorDocument::getId).toList();
+    }
+}
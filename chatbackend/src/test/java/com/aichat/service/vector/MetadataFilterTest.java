@@ -0,0 +1,120 @@
+package com.aichat.service.vector;
+
+import com.aichat.exception.BusinessException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MetadataFilterTest {
+
+    @Test
+    public void testParseConditionForms() {
+        Map<String, Object> raw = new HashMap<>();
+        raw.put("source", "file");
+        raw.put("filename", List.of("a.pdf", "b.pdf"));
+        raw.put("splitStrategy", Map.of("eq", "PARAGRAPH"));
+        raw.put("url", Map.of("in", List.of("https://example.com")));
+        raw.put("chunkIndex", Map.of("gte", 0, "lt", 3));
+        MetadataFilter filter = MetadataFilter.of(raw);
+
+        // 条件按字段名排序，缓存键与请求中的书写顺序无关
+        List<MetadataFilter.Condition> conditions = filter.getConditions();
+        Assertions.assertEquals(List.of("chunkIndex", "filename", "source", "splitStrategy", "url"),
+                conditions.stream().map(MetadataFilter.Condition::key).toList());
+        Assertions.assertEquals(MetadataFilter.Operator.RANGE, conditions.get(0).operator());
+        Assertions.assertEquals(Map.of("gte", 0.0, "lt", 3.0), conditions.get(0).bounds());
+        Assertions.assertEquals(MetadataFilter.Operator.IN, conditions.get(1).operator());
+        Assertions.assertEquals(List.of("a.pdf", "b.pdf"), conditions.get(1).values());
+        Assertions.assertEquals(MetadataFilter.Operator.EQ, conditions.get(2).operator());
+        Assertions.assertEquals(MetadataFilter.Operator.EQ, conditions.get(3).operator());
+        Assertions.assertEquals(List.of("PARAGRAPH"), conditions.get(3).values());
+        Assertions.assertEquals(MetadataFilter.Operator.IN, conditions.get(4).operator());
+
+        Map<String, Object> reordered = new LinkedHashMap<>();
+        List<String> keys = new ArrayList<>(raw.keySet());
+        Collections.reverse(keys);
+        keys.forEach(key -> reordered.put(key, raw.get(key)));
+        Assertions.assertEquals(filter.cacheKey(), MetadataFilter.of(reordered).cacheKey());
+    }
+
+    @Test
+    public void testEmptyFilterIsNull() {
+        Assertions.assertNull(MetadataFilter.of(null));
+        Assertions.assertNull(MetadataFilter.of(Map.of()));
+    }
+
+    @Test
+    public void testRejectsInvalidFilters() {
+        // 字段名会拼入 JSON 路径，只接受标识符
+        assertRejected(Map.of("a'; DROP TABLE x; --", "v"));
+        assertRejected(Map.of("meta.data", "v"));
+        assertRejected(Map.of("1abc", "v"));
+        // 值只能是标量
+        assertRejected(Map.of("source", List.of(Map.of("a", 1))));
+        assertRejected(Map.of("source", Map.of("eq", List.of("a"))));
+        // 候选值数量
+        assertRejected(Map.of("source", List.of()));
+        List<Integer> tooMany = new ArrayList<>();
+        for (int i = 0; i <= 100; i++) {
+            tooMany.add(i);
+        }
+        assertRejected(Map.of("chunkIndex", tooMany));
+        // 范围只接受 gt / gte / lt / lte 与数值
+        assertRejected(Map.of("chunkIndex", Map.of("ne", 1)));
+        assertRejected(Map.of("chunkIndex", Map.of("gt", "1")));
+        assertRejected(Map.of("chunkIndex", Map.of()));
+        // 条件数量
+        Map<String, Object> tooManyConditions = new HashMap<>();
+        for (int i = 0; i < 9; i++) {
+            tooManyConditions.put("k" + i, i);
+        }
+        assertRejected(tooManyConditions);
+    }
+
+    /**
+     * 与数据库查询一致：等于 / 其中之一为 metadata @> 包含查询（jsonb 比较区分类型、数值按值比较），
+     * 范围只对 JSON 数值生效，字段缺失不匹配
+     */
+    @Test
+    public void testMatchesAgreesWithSqlSemantics() {
+        MetadataFilter equal = MetadataFilter.of(Map.of("chunkIndex", 1));
+        Assertions.assertTrue(equal.matches(Map.of("chunkIndex", 1)));
+        Assertions.assertTrue(equal.matches(Map.of("chunkIndex", 1.0)));
+        Assertions.assertTrue(equal.matches(Map.of("chunkIndex", 1L)));
+        Assertions.assertFalse(equal.matches(Map.of("chunkIndex", "1")));
+        Assertions.assertFalse(equal.matches(Map.of("other", 1)));
+        Assertions.assertFalse(equal.matches(null));
+
+        MetadataFilter flag = MetadataFilter.of(Map.of("draft", true));
+        Assertions.assertTrue(flag.matches(Map.of("draft", true)));
+        Assertions.assertFalse(flag.matches(Map.of("draft", "true")));
+
+        MetadataFilter oneOf = MetadataFilter.of(Map.of("filename", List.of("a.pdf", "b.pdf")));
+        Assertions.assertTrue(oneOf.matches(Map.of("filename", "b.pdf")));
+        Assertions.assertFalse(oneOf.matches(Map.of("filename", "c.pdf")));
+        Assertions.assertFalse(oneOf.matches(Map.of("filename", "A.PDF")));
+
+        MetadataFilter range = MetadataFilter.of(Map.of("chunkIndex", Map.of("gt", 0, "lte", 2)));
+        Assertions.assertFalse(range.matches(Map.of("chunkIndex", 0)));
+        Assertions.assertTrue(range.matches(Map.of("chunkIndex", 1)));
+        Assertions.assertTrue(range.matches(Map.of("chunkIndex", 2.0)));
+        Assertions.assertFalse(range.matches(Map.of("chunkIndex", 3)));
+        Assertions.assertFalse(range.matches(Map.of("chunkIndex", "1")));
+        Assertions.assertFalse(range.matches(Map.of()));
+
+        MetadataFilter both = MetadataFilter.of(Map.of("source", "file", "chunkIndex", Map.of("lt", 2)));
+        Assertions.assertTrue(both.matches(Map.of("source", "file", "chunkIndex", 1)));
+        Assertions.assertFalse(both.matches(Map.of("source", "url", "chunkIndex", 1)));
+        Assertions.assertFalse(both.matches(Map.of("source", "file", "chunkIndex", 2)));
+    }
+
+    private static void assertRejected(Map<String, Object> raw) {
+        Assertions.assertThrows(BusinessException.class, () -> MetadataFilter.of(raw), String.valueOf(raw));
+    }
+}
@@ -0,0 +1,74 @@
+package com.aichat.service.vector;
+
+import com.aichat.domain.entity.VectorDocument;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+public class ReciprocalRankFusionTest {
+
+    @Test
+    public void testDocumentInBothRankingsIsPromoted() {
+        List<VectorDocument> vector = List.of(doc(1), doc(2), doc(3));
+        List<VectorDocument> lexical = List.of(doc(3), doc(4));
+
+        List<VectorDocument> fused = ReciprocalRankFusion.fuse(List.of(vector, lexical), 60, 10);
+
+        // 3: 1/63 + 1/61 > 1: 1/61；2 与 4 同为 1/62，保持先出现的顺序
+        Assertions.assertEquals(List.of(3L, 1L, 2L, 4L), ids(fused));
+    }
+
+    @Test
+    public void testTiesKeepFirstAppearanceOrder() {
+        List<VectorDocument> vector = List.of(doc(1), doc(2));
+        List<VectorDocument> lexical = List.of(doc(3), doc(4));
+
+        List<VectorDocument> fused = ReciprocalRankFusion.fuse(List.of(vector, lexical), 60, 10);
+
+        Assertions.assertEquals(List.of(1L, 3L, 2L, 4L), ids(fused));
+    }
+
+    @Test
+    public void testDuplicatesAreMergedAndFirstInstanceKept() {
+        VectorDocument fromVector = doc(1);
+        fromVector.setSimilarity(0.9);
+        VectorDocument fromLexical = doc(1);
+
+        List<VectorDocument> fused = ReciprocalRankFusion.fuse(
+                List.of(List.of(fromVector), List.of(fromLexical)), 60, 10);
+
+        Assertions.assertEquals(1, fused.size());
+        Assertions.assertSame(fromVector, fused.get(0));
+    }
+
+    @Test
+    public void testSmallerKWeighsTopRanksMore() {
+        // 一路排第一 vs 两路都排第三：k 越小，单路第一名越占优
+        List<VectorDocument> vector = List.of(doc(1), doc(5), doc(2));
+        List<VectorDocument> lexical = List.of(doc(6), doc(7), doc(2));
+
+        Assertions.assertEquals(1L, ReciprocalRankFusion.fuse(List.of(vector, lexical), 0, 1).get(0).getId());
+        Assertions.assertEquals(2L, ReciprocalRankFusion.fuse(List.of(vector, lexical), 60, 1).get(0).getId());
+    }
+
+    @Test
+    public void testLimitAndEmptyRankings() {
+        List<VectorDocument> vector = List.of(doc(1), doc(2), doc(3));
+
+        Assertions.assertEquals(List.of(1L, 2L), ids(ReciprocalRankFusion.fuse(List.of(vector, List.of()), 60, 2)));
+        Assertions.assertTrue(ReciprocalRankFusion.fuse(List.of(List.of(), List.of()), 60, 5).isEmpty());
+    }
+
+    private static List<Long> ids(List<VectorDocument> documents) {
+        return documents.stream().map(VectorDocument::getId).toList();
+    }
+
+    private static VectorDocument doc(long id) {
+        return VectorDocument.builder()
+                .id(id)
+                .knowledgeBaseId(1L)
+                .content("chunk-" + id)
+                .build();
+    }
+}
@@ -0,0 +1,86 @@
+package com.aichat.service.vector.eval;
+
+import com.aichat.domain.entity.VectorDocument;
+import com.aichat.service.vector.RecallProfile;
+import com.aichat.service.vector.hnsw.HnswVectorSearchEngine;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 以进程内 HNSW 引擎跑一遍评估，报告写入 target/retrieval-eval/hnsw.json
+ */
+public class RetrievalEvaluatorTest {
+
+    private static final long KNOWLEDGE_BASE_ID = 1L;
+
+    @Test
+    public void testEvaluateEmbeddedEngine() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        EvaluationCorpus corpus = EvaluationCorpus.synthetic(3000, 100, 64, 20, 42);
+        HnswVectorSearchEngine engine = new HnswVectorSearchEngine(null, objectMapper, 16, 100, null, null, null, 0);
+        List<VectorDocument> documents = new ArrayList<>();
+        for (EvaluationCorpus.Document document : corpus.getDocuments()) {
+            documents.add(VectorDocument.builder()
+                    .id(document.id())
+                    .knowledgeBaseId(KNOWLEDGE_BASE_ID)
+                    .content(document.content())
+                    .embedding(document.embedding())
+                    .metadata(new HashMap<>())
+                    .build());
+        }
+        engine.index(documents);
+
+        List<EvaluationReport> reports = new ArrayList<>();
+        for (RecallProfile profile : RecallProfile.values()) {
+            reports.add(RetrievalEvaluator.evaluate(engine.getName(), profile.name(), corpus, 10, 20,
+                    (query, k) -> engine.search(List.of(KNOWLEDGE_BASE_ID), query, k, profile).stream()
+                            .map(VectorDocument::getId)
+                            .toList()));
+        }
+
+        EvaluationReport exact = reports.get(RecallProfile.EXACT.ordinal());
+        Assertions.assertEquals(1.0, exact.getRecall().get(10), 1e-9);
+        Assertions.assertEquals(1.0, exact.getMrr(), 1e-9);
+        EvaluationReport accurate = reports.get(RecallProfile.ACCURATE.ordinal());
+        Assertions.assertTrue(accurate.getRecall().get(10) >= 0.9, "HNSW召回率过低: " + accurate.getRecall());
+        Assertions.assertTrue(accurate.getLatencyMs().getP50() <= accurate.getLatencyMs().getP99());
+
+        Path file = Paths.get("target", "retrieval-eval", "hnsw.json");
+        RetrievalEvaluator.writeReport(objectMapper, reports, file);
+        JsonNode written = objectMapper.readTree(file.toFile());
+        Assertions.assertEquals(RecallProfile.values().length, written.size());
+        Assertions.assertTrue(written.get(0).path("latencyMs").has("p99"));
+    }
+
+    @Test
+    public void testLabelledFixture() throws Exception {
+        String fixture = "{\"documents\":[{\"id\":1,\"content\":\"a\"},{\"id\":2,\"content\":\"b\"},"
+                + "{\"id\":3,\"content\":\"c\"}],\"queries\":[{\"query\":\"b\",\"relevant\":[2]}]}";
+        Map<String, float[]> vectors = Map.of(
+                "a", new float[]{1f, 0f}, "b", new float[]{0f, 1f}, "c", new float[]{0.7f, 0.7f});
+        EvaluationCorpus corpus = EvaluationCorpus.fromFixture("fixture",
+                new ByteArrayInputStream(fixture.getBytes(StandardCharsets.UTF_8)),
+                new ObjectMapper(), 2, texts -> texts.stream().map(vectors::get).toList(), vectors::get);
+
+        // 被测检索把相关文档排在第二位
+        EvaluationReport report = RetrievalEvaluator.evaluate("stub", "DEFAULT", corpus, 2, 0,
+                (query, k) -> List.of(3L, 2L));
+        Assertions.assertEquals(1, report.getLabelledQueries());
+        Assertions.assertEquals(1.0, report.getLabelRecall(), 1e-9);
+        Assertions.assertEquals(0.5, report.getLabelMrr(), 1e-9);
+        Assertions.assertEquals(0.5, report.getMrr(), 1e-9);
+        Assertions.assertEquals(0.0, report.getRecall().get(1), 1e-9);
+        Assertions.assertEquals(1.0, report.getRecall().get(2), 1e-9);
+    }
+}
@@ -0,0 +1,88 @@
+package com.aichat.service.vector.hnsw;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+public class HnswIndexTest {
+
+    private static final int DIMENSION = 32;
+
+    @Test
+    public void testRecallAgainstExactSearch() {
+        Random random = new Random(42);
+        HnswIndex index = new HnswIndex(DIMENSION, 16, 100);
+        for (long id = 0; id < 2000; id++) {
+            index.add(id, randomVector(random));
+        }
+
+        int k = 10;
+        int hits = 0;
+        int queries = 50;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomVector(random);
+            Set<Long> expected = ids(index.exactSearch(query, k));
+            Set<Long> actual = ids(index.search(query, k, 100));
+            actual.retainAll(expected);
+            hits += actual.size();
+        }
+        double recall = (double) hits / (queries * k);
+        Assertions.assertTrue(recall >= 0.9, "HNSW召回率过低: " + recall);
+    }
+
+    @Test
+    public void testDuplicateIdIsIgnored() {
+        Random random = new Random(7);
+        HnswIndex index = new HnswIndex(DIMENSION, 8, 50);
+        float[] target = randomVector(random);
+        Assertions.assertTrue(index.add(1L, target));
+        for (long id = 2; id < 200; id++) {
+            index.add(id, randomVector(random));
+        }
+
+        Assertions.assertFalse(index.add(1L, randomVector(random)));
+        Assertions.assertEquals(199, index.size());
+        Assertions.assertEquals(1L, index.search(target, 1, 50).get(0).id());
+        Assertions.assertEquals(0f, index.search(target, 1, 50).get(0).distance(), 1e-5f);
+    }
+
+    @Test
+    public void testSnapshotRoundTrip() throws Exception {
+        Random random = new Random(3);
+        HnswIndex index = new HnswIndex(DIMENSION, 8, 50);
+        for (long id = 0; id < 300; id++) {
+            index.add(id, randomVector(random));
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            index.writeTo(out);
+        }
+        HnswIndex restored = HnswIndex.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        Assertions.assertEquals(index.size(), restored.size());
+        Assertions.assertTrue(restored.contains(5L));
+        float[] query = randomVector(random);
+        Assertions.assertEquals(ids(index.search(query, 10, 50)), ids(restored.search(query, 10, 50)));
+    }
+
+    private static Set<Long> ids(List<HnswIndex.SearchResult> results) {
+        return results.stream().map(HnswIndex.SearchResult::id).collect(Collectors.toSet());
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}
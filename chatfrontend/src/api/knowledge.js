@@ -79,9 +79,9 @@ export const knowledgeAPI = {
     return request.post('/knowledge/search', data)
   },
 
-  // 获取知识库的文档列表
-  getDocuments(id) {
-    return request.get(`/knowledge/bases/${id}/documents`)
+  // 获取知识库的文档列表（游标分页，afterId 传上一页的 nextCursor）
+  getDocuments(id, params) {
+    return request.get(`/knowledge/bases/${id}/documents`, { params })
   }
 }
 